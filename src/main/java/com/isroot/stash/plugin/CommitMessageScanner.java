@@ -0,0 +1,265 @@
+package com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.setting.Settings;
+import com.google.common.collect.Lists;
+import com.isroot.stash.plugin.regex.LinearRegex;
+import com.isroot.stash.plugin.regex.ParsedRegex;
+import com.isroot.stash.plugin.regex.RegexBudget;
+import com.isroot.stash.plugin.regex.RegexNode;
+import com.isroot.stash.plugin.regex.RegexParser;
+import com.isroot.stash.plugin.regex.SettingRegex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a commit message once to find everything the commit checks need from it: whether the
+ * exclude by regex setting matches, whether the commit message regex matches, what group 1 of the
+ * commit message regex captured and which JIRA issue keys the message contains.
+ *
+ * <p>A regex is merged into the single pass only if {@link LinearRegex} is selected for it. The
+ * linear engine is several times slower than java.util.regex on typical messages, so other
+ * regexes are matched separately with java.util.regex and the {@link RegexBudget}, and only when
+ * their result is asked for. If nothing is merged the message isn't scanned up front at all.
+ */
+public class CommitMessageScanner {
+    private static final Logger log = LoggerFactory.getLogger(CommitMessageScanner.class);
+
+    private final SettingRegex excludeRegex;
+    private final LinearRegex mergedExcludeRegex;
+    private final SettingRegex commitRegex;
+    private final LinearRegex mergedCommitRegex;
+    private final SettingRegex groupRegex;
+    private final LinearRegex mergedGroupRegex;
+    private final boolean sharedCommitAndGroup;
+    private final boolean scanIssueKeys;
+
+    public CommitMessageScanner(Settings settings, RegexBudget regexBudget) {
+        excludeRegex = SettingRegex.fromSettings(settings, "excludeByRegex", 0, regexBudget);
+        mergedExcludeRegex = merge(excludeRegex);
+
+        // The commit message is checked in MULTILINE mode, but group 1 is extracted without it
+        commitRegex = SettingRegex.fromSettings(settings, "commitMessageRegex", Pattern.MULTILINE, regexBudget);
+        groupRegex = SettingRegex.fromSettings(settings, "commitMessageRegex", 0, regexBudget);
+
+        mergedGroupRegex = merge(groupRegex);
+
+        // Without ^ and $ the flag makes no difference, so a single match gives both the verdict
+        // and group 1
+        ParsedRegex parsedGroupRegex = mergedGroupRegex == null ? null : parse(groupRegex, 0);
+        sharedCommitAndGroup = parsedGroupRegex != null && !usesLineAnchors(parsedGroupRegex.getRoot());
+        mergedCommitRegex = sharedCommitAndGroup ? mergedGroupRegex : merge(commitRegex);
+
+        scanIssueKeys = settings.getBoolean("requireJiraIssue", false);
+
+        log.debug("commit message scanner: merged exclude={} commit={} group={} shared={}",
+                mergedExcludeRegex != null, mergedCommitRegex != null, mergedGroupRegex != null,
+                sharedCommitAndGroup);
+    }
+
+    /**
+     * Return the commit message regex, or null if none is configured.
+     */
+    @Nullable
+    public String getCommitMessageRegex() {
+        return commitRegex == null ? null : commitRegex.getRegex();
+    }
+
+    /**
+     * Scan a commit message.
+     */
+    public Result scan(String message) {
+        if (mergedExcludeRegex == null && mergedCommitRegex == null && mergedGroupRegex == null) {
+            // Issue keys are found when asked for, excluded commits never need them
+            return new Result(message, null, null, null, null);
+        }
+
+        LinearRegex.Execution exclude = mergedExcludeRegex == null ? null
+                : mergedExcludeRegex.execute(message, false);
+        LinearRegex.Execution commit = mergedCommitRegex == null ? null
+                : mergedCommitRegex.execute(message, true);
+        LinearRegex.Execution group = mergedGroupRegex == null || sharedCommitAndGroup ? null
+                : mergedGroupRegex.execute(message, true);
+        IssueKeyScanner issueKeys = scanIssueKeys ? new IssueKeyScanner(message) : null;
+
+        int length = message.length();
+        int pos = 0;
+
+        while (true) {
+            int c = pos < length ? message.codePointAt(pos) : -1;
+            int nextPos = c < 0 ? pos : pos + Character.charCount(c);
+
+            boolean running = step(exclude, pos, c, nextPos);
+            running |= step(commit, pos, c, nextPos);
+            running |= step(group, pos, c, nextPos);
+
+            if (issueKeys != null) {
+                if (c < 0) {
+                    issueKeys.finish();
+                } else {
+                    issueKeys.accept(pos, c);
+                    running = true;
+                }
+            }
+
+            if (!running || c < 0) {
+                break;
+            }
+
+            pos = nextPos;
+        }
+
+        return new Result(message, result(exclude), result(commit),
+                sharedCommitAndGroup ? result(commit) : result(group), issueKeys);
+    }
+
+    private static boolean step(@Nullable LinearRegex.Execution execution, int pos, int c, int nextPos) {
+        return execution != null && execution.step(pos, c, nextPos);
+    }
+
+    @Nullable
+    private static MatchResult result(@Nullable LinearRegex.Execution execution) {
+        return execution == null ? null : execution.getResult();
+    }
+
+    @Nullable
+    private static ParsedRegex parse(@Nullable SettingRegex regex, int flags) {
+        if (regex == null) {
+            return null;
+        }
+
+        try {
+            return RegexParser.parse(regex.getRegex(), flags);
+        } catch (IllegalArgumentException e) {
+            log.debug("regex '{}' can't be parsed: {}", regex.getRegex(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Return the linear regex to use in the single pass, or null if the regex has to be matched
+     * separately.
+     */
+    @Nullable
+    private static LinearRegex merge(@Nullable SettingRegex regex) {
+        return regex == null ? null : regex.getLinearRegex();
+    }
+
+    /**
+     * Return true if the regex contains anchors whose meaning depends on {@link Pattern#MULTILINE}.
+     */
+    private static boolean usesLineAnchors(RegexNode node) {
+        if (node instanceof RegexNode.Anchor) {
+            RegexNode.Anchor.Kind kind = ((RegexNode.Anchor) node).getKind();
+            return kind != RegexNode.Anchor.Kind.WORD_BOUNDARY && kind != RegexNode.Anchor.Kind.NOT_WORD_BOUNDARY
+                    && kind != RegexNode.Anchor.Kind.INPUT_END;
+        } else if (node instanceof RegexNode.Group) {
+            return usesLineAnchors(((RegexNode.Group) node).getBody());
+        } else if (node instanceof RegexNode.Repeat) {
+            return usesLineAnchors(((RegexNode.Repeat) node).getBody());
+        } else if (node instanceof RegexNode.Concat) {
+            for (RegexNode child : ((RegexNode.Concat) node).getChildren()) {
+                if (usesLineAnchors(child)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof RegexNode.Alternation) {
+            for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                if (usesLineAnchors(alternative)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Scan results. Regexes that were not merged are matched when their result is first asked
+     * for, so these methods can throw
+     * {@link com.isroot.stash.plugin.regex.RegexBudgetExceededException}.
+     */
+    public class Result {
+        private final String message;
+        private final MatchResult excludeMatch;
+        private final MatchResult commitMatch;
+        private final MatchResult groupMatch;
+        private final IssueKeyScanner issueKeys;
+
+        private Result(String message, MatchResult excludeMatch, MatchResult commitMatch, MatchResult groupMatch,
+                       IssueKeyScanner issueKeys) {
+            this.message = message;
+            this.excludeMatch = excludeMatch;
+            this.commitMatch = commitMatch;
+            this.groupMatch = groupMatch;
+            this.issueKeys = issueKeys;
+        }
+
+        /**
+         * Return true if the exclude by regex setting matches part of the message.
+         */
+        public boolean isExcluded() {
+            if (excludeRegex == null) {
+                return false;
+            }
+
+            if (mergedExcludeRegex != null) {
+                return excludeMatch != null;
+            }
+
+            return excludeRegex.find(message);
+        }
+
+        /**
+         * Return true if the message matches the commit message regex, or if there is no regex.
+         */
+        public boolean matchesCommitMessageRegex() {
+            if (commitRegex == null) {
+                return true;
+            }
+
+            if (mergedCommitRegex != null) {
+                return commitMatch != null;
+            }
+
+            return commitRegex.matches(message);
+        }
+
+        /**
+         * Return the JIRA issue keys in the message. If the commit message regex matches and has
+         * a capturing group, only keys in the text captured by group 1 are returned.
+         */
+        public List<IssueKey> getIssueKeys() {
+            IssueKeyScanner scanner = issueKeys != null ? issueKeys : IssueKeyScanner.scan(message);
+
+            MatchResult match = getGroupMatch();
+            if (match == null || match.groupCount() == 0) {
+                return scanner.getIssueKeys();
+            }
+
+            if (match.start(1) < 0) {
+                // Group 1 did not take part in the match, so it contains no keys
+                return Lists.newArrayList();
+            }
+
+            return scanner.getIssueKeys(match.start(1), match.end(1));
+        }
+
+        @Nullable
+        private MatchResult getGroupMatch() {
+            if (groupRegex == null) {
+                return null;
+            }
+
+            if (mergedGroupRegex != null) {
+                return groupMatch;
+            }
+
+            return groupRegex.matchEntire(message);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.UserType;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.isroot.stash.plugin.errors.YaccError;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recent commit check results. When a push is rejected the developer usually fixes one commit and
+ * pushes again, and mirror jobs retry the same push over and over. Without this cache every
+ * unchanged commit in the push would be checked again, JIRA lookups included.
+ *
+ * <p>Results are keyed by commit id, a hash of the hook settings, the pushing user and the
+ * branch, so a change to any of them means the commit is checked again. Only results that can't
+ * change while those stay the same are cached: commits that passed and commits rejected by the
+ * committer name or email checks. Rejections based on JIRA can be fixed in JIRA without a new
+ * commit, and regex rejections are cheap to repeat and can depend on server load when a regex
+ * runs out of time.
+ *
+ * <p>The size and expiry time are read from the 'yacc.commitResultCache.maxSize' and
+ * 'yacc.commitResultCache.expireMinutes' system properties.
+ */
+public class CommitResultCache {
+    private static final List<YaccError.Type> CACHEABLE_ERRORS = ImmutableList.of(
+            YaccError.Type.COMMITTER_NAME, YaccError.Type.COMMITTER_EMAIL);
+
+    private final Cache<Key, List<YaccError>> results;
+
+    public CommitResultCache() {
+        this(Long.getLong("yacc.commitResultCache.maxSize", 100000),
+                Long.getLong("yacc.commitResultCache.expireMinutes", 30));
+    }
+
+    /**
+     * @param maxSize number of commit results to keep, 0 disables the cache
+     * @param expireMinutes how long a result may be used after the commit was checked
+     */
+    public CommitResultCache(long maxSize, long expireMinutes) {
+        this.results = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Hash every hook setting. Settings that don't affect commit checks are included as well,
+     * that only means a few more cache misses after they are changed.
+     */
+    public static String policyHash(Settings settings) {
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<String, Object> entry : new TreeMap<>(settings.asMap()).entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+
+        return Hashing.sha256().hashString(sb, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * Return the errors found when the commit was last checked, or null if the result isn't
+     * cached.
+     */
+    @Nullable
+    public List<YaccError> get(Key key) {
+        return results.getIfPresent(key);
+    }
+
+    /**
+     * Remember the errors found for a commit, if they can be reused.
+     */
+    public void put(Key key, List<YaccError> errors) {
+        for (YaccError error : errors) {
+            if (!CACHEABLE_ERRORS.contains(error.getType())) {
+                return;
+            }
+        }
+
+        results.put(key, ImmutableList.copyOf(errors));
+    }
+
+    public CacheStats getStats() {
+        return results.stats();
+    }
+
+    public long size() {
+        return results.size();
+    }
+
+    public void invalidateAll() {
+        results.invalidateAll();
+    }
+
+    public static class Key {
+        private final String commitId;
+        private final String policyHash;
+        private final String pusher;
+        private final String branchName;
+        private final boolean checkMessages;
+
+        /**
+         * @param checkMessages false for tags, where the commit message isn't checked
+         */
+        public Key(String commitId, String policyHash, ApplicationUser pusher, String branchName,
+                   boolean checkMessages) {
+            this.commitId = commitId;
+            this.policyHash = policyHash;
+            // Committer checks compare against the user's name and email, which can be changed.
+            // They only run for normal users.
+            this.pusher = pusher.getType() == UserType.NORMAL
+                    ? pusher.getId() + ":" + pusher.getName() + ":" + pusher.getEmailAddress() + ":"
+                    + pusher.getDisplayName()
+                    : pusher.getId() + ":" + pusher.getType() + ":" + pusher.getName();
+            this.branchName = branchName;
+            this.checkMessages = checkMessages;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return checkMessages == key.checkMessages && commitId.equals(key.commitId)
+                    && policyHash.equals(key.policyHash) && pusher.equals(key.pusher)
+                    && branchName.equals(key.branchName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(commitId, policyHash, pusher, branchName, checkMessages);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.isroot.stash.plugin;
+
+import com.isroot.stash.plugin.errors.YaccError;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Committer name and email verdicts of a single push. The settings and the pusher are the same
+ * for every ref change of a push, so a committer checked on one branch isn't checked again when
+ * the same commits are pushed to the next. Create one per push; not thread safe.
+ */
+public class CommitterVerdicts {
+    private final Map<String, List<YaccError>> verdicts = new HashMap<>();
+
+    @Nullable
+    List<YaccError> get(String identity) {
+        return verdicts.get(identity);
+    }
+
+    void put(String identity, List<YaccError> errors) {
+        verdicts.put(identity, errors);
+    }
+}
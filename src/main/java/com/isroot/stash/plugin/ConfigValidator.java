@@ -2,6 +2,7 @@ package com.isroot.stash.plugin;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -15,6 +16,13 @@ import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.setting.RepositorySettingsValidator;
 import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.setting.SettingsValidationErrors;
+import com.isroot.stash.plugin.regex.LinearRegex;
+import com.isroot.stash.plugin.regex.ParsedRegex;
+import com.isroot.stash.plugin.regex.RegexBenchmark;
+import com.isroot.stash.plugin.regex.RegexCostAnalyzer;
+import com.isroot.stash.plugin.regex.RegexParser;
+import com.isroot.stash.plugin.regex.RegexRisk;
+import com.isroot.stash.plugin.regex.SettingRegex;
 
 /**
  * @author sdford
@@ -24,19 +32,27 @@ public class ConfigValidator implements RepositorySettingsValidator {
     private static final Logger log = LoggerFactory.getLogger(ConfigValidator.class);
 
     private final JiraService jiraService;
+    private final RegexBenchmark regexBenchmark;
 
     public ConfigValidator(JiraService jiraService) {
+        this(jiraService, RegexBenchmark.fromSystemProperties());
+    }
+
+    public ConfigValidator(JiraService jiraService, RegexBenchmark regexBenchmark) {
         this.jiraService = jiraService;
+        this.regexBenchmark = regexBenchmark;
     }
 
     @Override
     public void validate(@Nonnull Settings settings, @Nonnull SettingsValidationErrors errors,
                          @Nonnull Repository repository) {
-        validationRegex(settings, errors, "commitMessageRegex");
-        validationRegex(settings, errors, "committerEmailRegex");
-        validationRegex(settings, errors, "excludeByRegex");
-        validationRegex(settings, errors, "excludeBranchRegex");
-        validationRegex(settings, errors, "branchNameRegex");
+        validationRegex(settings, errors, "commitMessageRegex", Pattern.MULTILINE, false);
+        validationRegex(settings, errors, "committerEmailRegex", Pattern.MULTILINE, false);
+        validationRegex(settings, errors, "excludeByRegex", 0, true);
+        validationRegex(settings, errors, "excludeBranchRegex", 0, false);
+        validationRegex(settings, errors, "branchNameRegex", 0, false);
+        validatePositiveInteger(settings, errors, "pushTimeoutSeconds");
+        validatePositiveInteger(settings, errors, "maxCommits");
 
         if (settings.getBoolean("requireJiraIssue", false)) {
             if (!jiraService.doesJiraApplicationLinkExist()) {
@@ -53,17 +69,93 @@ public class ConfigValidator implements RepositorySettingsValidator {
         }
     }
 
+    /**
+     * @param flags flags the hook compiles the regex with
+     * @param find true if the hook uses {@link java.util.regex.Matcher#find()} with this regex
+     *             instead of {@link java.util.regex.Matcher#matches()}
+     */
     private void validationRegex(Settings settings,
                                  SettingsValidationErrors errors,
-                                 String setting) {
+                                 String setting,
+                                 int flags,
+                                 boolean find) {
         String regex = settings.getString(setting);
         if (regex != null && !regex.isEmpty()) {
+            Pattern pattern;
             try {
-                Pattern.compile(regex);
+                pattern = Pattern.compile(regex, flags);
             } catch (PatternSyntaxException ex) {
                 errors.addFieldError(setting, "Invalid Regex: " + ex.getMessage());
+                return;
             }
+
+            if (SettingRegex.isLinearEnabled(settings, setting)) {
+                // The linear engine can't backtrack, so there is no need to check the cost
+                try {
+                    LinearRegex.compile(regex, flags);
+                } catch (IllegalArgumentException ex) {
+                    errors.addFieldError(setting, "Not supported by the linear regex engine: " + ex.getMessage());
+                }
+            } else {
+                validateRegexCost(errors, setting, pattern, find);
+            }
+        }
+
+    }
+
+    /**
+     * Reject regexes that backtrack badly. Risky constructs are found by static analysis and
+     * then confirmed by timing the regex against inputs built to trigger them, so a pattern like
+     * (\w+\s?)*$ is rejected while harmless patterns that only look similar are not.
+     */
+    private void validateRegexCost(SettingsValidationErrors errors, String setting, Pattern pattern,
+                                   boolean find) {
+        List<RegexRisk> risks = Collections.emptyList();
+        try {
+            ParsedRegex parsed = RegexParser.parse(pattern.pattern(), pattern.flags());
+            risks = RegexCostAnalyzer.analyze(parsed);
+        } catch (IllegalArgumentException e) {
+            log.debug("unable to analyze {} regex: {}", setting, e.getMessage());
         }
 
+        RegexBenchmark.Result result = regexBenchmark.run(pattern, find, RegexBenchmark.corpus(risks));
+        String reason = risks.isEmpty() ? "" : " Possible cause: " + risks.get(0).getDescription() + ".";
+
+        if (result.isTooSlow()) {
+            errors.addFieldError(setting, String.format("Regex is too slow: matching a %d character test input " +
+                            "took more than %d ms.%s", result.getWorstInput().length(),
+                    regexBenchmark.getRejectMillis(), reason));
+        } else if (result.isSlow()) {
+            log.warn("{} regex '{}' is slow: matching a {} character test input took {} ms.{}", setting,
+                    pattern.pattern(), result.getWorstInput().length(), result.getWorstMillis(), reason);
+        } else if (!risks.isEmpty()) {
+            log.info("{} regex '{}' may backtrack heavily but was fast on test inputs: {}", setting,
+                    pattern.pattern(), risks);
+        }
+
+        if (result.getStackOverflowInput() != null) {
+            log.warn("{} regex '{}' fails with a stack overflow on a {} character test input", setting,
+                    pattern.pattern(), result.getStackOverflowInput().length());
+        }
+
+        if (result.isIncomplete()) {
+            log.warn("{} regex '{}' could not be checked against all test inputs in time", setting,
+                    pattern.pattern());
+        }
+    }
+
+    private void validatePositiveInteger(Settings settings,
+                                         SettingsValidationErrors errors,
+                                         String setting) {
+        String value = settings.getString(setting);
+        if (!isNullOrEmpty(value)) {
+            try {
+                if (Integer.parseInt(value.trim()) <= 0) {
+                    errors.addFieldError(setting, "Must be a positive number.");
+                }
+            } catch (NumberFormatException ex) {
+                errors.addFieldError(setting, "Must be a positive number.");
+            }
+        }
     }
 }
@@ -0,0 +1,78 @@
+package com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.hook.repository.RepositoryHookService;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.isroot.stash.plugin.cluster.InvalidationBus;
+import com.isroot.stash.plugin.cluster.LocalInvalidationBus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The global hook settings, read once instead of on every push and branch creation. Saving the
+ * settings on any cluster node publishes {@link InvalidationBus#GLOBAL_SETTINGS}, and every node
+ * reads them again on next use.
+ */
+public class GlobalSettingsCache {
+    private static final Logger log = LoggerFactory.getLogger(GlobalSettingsCache.class);
+
+    private final PluginSettingsFactory pluginSettingsFactory;
+    private final RepositoryHookService repositoryHookService;
+    private final InvalidationBus invalidationBus;
+    private final Object lock = new Object();
+    private volatile Settings settings;
+    private long generation;
+
+    public GlobalSettingsCache(PluginSettingsFactory pluginSettingsFactory,
+                               RepositoryHookService repositoryHookService) {
+        this(pluginSettingsFactory, repositoryHookService, new LocalInvalidationBus());
+    }
+
+    public GlobalSettingsCache(PluginSettingsFactory pluginSettingsFactory,
+                               RepositoryHookService repositoryHookService, InvalidationBus invalidationBus) {
+        this.pluginSettingsFactory = pluginSettingsFactory;
+        this.repositoryHookService = repositoryHookService;
+        this.invalidationBus = invalidationBus;
+
+        invalidationBus.subscribe(InvalidationBus.GLOBAL_SETTINGS, this::invalidate);
+    }
+
+    public Settings getSettings() {
+        Settings cached = settings;
+        if (cached != null) {
+            return cached;
+        }
+
+        long loadGeneration;
+        synchronized (lock) {
+            loadGeneration = generation;
+        }
+
+        Settings loaded = YaccUtils.buildYaccConfig(pluginSettingsFactory, repositoryHookService);
+
+        synchronized (lock) {
+            // Settings saved while these were read must be read again on next use
+            if (generation == loadGeneration) {
+                settings = loaded;
+            }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Tell every node that the global settings have been saved.
+     */
+    public void settingsSaved() {
+        invalidationBus.publish(InvalidationBus.GLOBAL_SETTINGS);
+    }
+
+    private void invalidate() {
+        synchronized (lock) {
+            generation++;
+            settings = null;
+        }
+
+        log.debug("global settings changed, reading them again on next use");
+    }
+}
@@ -0,0 +1,59 @@
+package com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.hook.repository.RepositoryHook;
+import com.atlassian.bitbucket.hook.repository.RepositoryHookService;
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+
+import javax.annotation.Nullable;
+
+/**
+ * Finds the settings pushes to a repository are checked with, the same way the hooks do: the
+ * repository hook settings if the hook is enabled, otherwise the global settings.
+ */
+public class HookSettingsResolver {
+    public static final String REPOSITORY_HOOK_KEY = "com.isroot.stash.plugin.yacc:yaccHook";
+
+    private final SecurityService securityService;
+    private final RepositoryHookService repositoryHookService;
+    private final GlobalSettingsCache globalSettingsCache;
+
+    public HookSettingsResolver(SecurityService securityService, RepositoryHookService repositoryHookService,
+                                GlobalSettingsCache globalSettingsCache) {
+        this.securityService = securityService;
+        this.repositoryHookService = repositoryHookService;
+        this.globalSettingsCache = globalSettingsCache;
+    }
+
+    /**
+     * Return the settings for the repository, or null if YACC doesn't check pushes to it.
+     */
+    @Nullable
+    public Settings getSettings(final Repository repository) {
+        final RepositoryHook hook = securityService.withPermission(Permission.REPO_ADMIN, "Get plugin configuration")
+                .call(new UncheckedOperation<RepositoryHook>() {
+                    public RepositoryHook perform() {
+                        return repositoryHookService.getByKey(repository, REPOSITORY_HOOK_KEY);
+                    }
+                });
+
+        if (hook != null && hook.isEnabled() && hook.isConfigured()) {
+            return securityService.withPermission(Permission.REPO_ADMIN, "Get hook configuration")
+                    .call(new UncheckedOperation<Settings>() {
+                        public Settings perform() {
+                            return repositoryHookService.getSettings(repository, REPOSITORY_HOOK_KEY);
+                        }
+                    });
+        }
+
+        Settings settings = globalSettingsCache.getSettings();
+        if (!YaccPreReceiveHook.areThereEnabledSettings(settings.asMap())) {
+            return null;
+        }
+
+        return settings;
+    }
+}
@@ -0,0 +1,128 @@
+package com.isroot.stash.plugin;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * Finds JIRA issue keys in a string that is fed to it one character at a time, so that it can
+ * share a single pass over a commit message with other scanners. It finds exactly the keys that
+ * {@link IssueKey#parseIssueKeys(String)} finds.
+ *
+ * <p>Keys look like ([A-Z][A-Z_0-9]+)-([0-9]+). The project key part can't contain '-', so a
+ * key always starts at the first upper case letter of a run of [A-Z_0-9] characters and the run
+ * ends at the '-'. That makes a regex engine unnecessary.
+ */
+public class IssueKeyScanner {
+    private enum State {
+        /** Reading a run of project key characters */
+        PROJECT,
+        /** Read '-' after a valid project key */
+        DASH,
+        /** Reading the issue number */
+        NUMBER
+    }
+
+    private final String input;
+    private final List<int[]> keys = Lists.newArrayList();
+
+    private State state = State.PROJECT;
+    private int keyStart = -1;
+    private int dash;
+
+    public IssueKeyScanner(String input) {
+        this.input = input;
+    }
+
+    /**
+     * Scan a whole string.
+     */
+    public static IssueKeyScanner scan(String input) {
+        IssueKeyScanner scanner = new IssueKeyScanner(input);
+        for (int i = 0; i < input.length(); i++) {
+            scanner.accept(i, input.charAt(i));
+        }
+        scanner.finish();
+        return scanner;
+    }
+
+    /**
+     * Process the code point at a position. Every code point of the input must be passed in
+     * order, followed by a call to {@link #finish()}.
+     */
+    public void accept(int pos, int c) {
+        if (state == State.NUMBER) {
+            if (isDigit(c)) {
+                return;
+            }
+            keys.add(new int[]{keyStart, dash, pos});
+            reset();
+        } else if (state == State.DASH) {
+            if (isDigit(c)) {
+                state = State.NUMBER;
+                return;
+            }
+            reset();
+        }
+
+        if (isProjectKeyChar(c)) {
+            if (keyStart < 0 && c >= 'A' && c <= 'Z') {
+                keyStart = pos;
+            }
+        } else if (c == '-' && keyStart >= 0 && pos - keyStart >= 2) {
+            dash = pos;
+            state = State.DASH;
+        } else {
+            reset();
+        }
+    }
+
+    public void finish() {
+        if (state == State.NUMBER) {
+            keys.add(new int[]{keyStart, dash, input.length()});
+        }
+        reset();
+    }
+
+    /**
+     * Return all keys found in the input.
+     */
+    public List<IssueKey> getIssueKeys() {
+        return getIssueKeys(0, input.length());
+    }
+
+    /**
+     * Return the keys that {@link IssueKey#parseIssueKeys(String)} would find in part of the
+     * input.
+     */
+    public List<IssueKey> getIssueKeys(int start, int end) {
+        List<IssueKey> issueKeys = Lists.newArrayList();
+
+        for (int[] key : keys) {
+            if (key[0] < start && key[2] > start || key[0] < end && key[2] > end) {
+                // A key crosses the boundary, so the part may contain a shorter key that was not
+                // found when scanning the whole input
+                return IssueKey.parseIssueKeys(input.substring(start, end));
+            }
+
+            if (key[0] >= start && key[2] <= end) {
+                issueKeys.add(new IssueKey(input.substring(key[0], key[1]), input.substring(key[1] + 1, key[2])));
+            }
+        }
+
+        return issueKeys;
+    }
+
+    private void reset() {
+        state = State.PROJECT;
+        keyStart = -1;
+    }
+
+    private static boolean isProjectKeyChar(int c) {
+        return c >= 'A' && c <= 'Z' || isDigit(c) || c == '_';
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+}
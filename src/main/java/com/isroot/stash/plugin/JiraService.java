@@ -3,7 +3,12 @@ package com.isroot.stash.plugin;
 import com.isroot.stash.plugin.errors.YaccError;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service object to interact with JIRA.
@@ -12,9 +17,45 @@ import java.util.List;
  * @since 2013-10-26
  */
 public interface JiraService {
+    /**
+     * Returned instead of an empty list for an issue that passed without JIRA being asked, because
+     * the circuit breaker or request limiter of a link skipped it and lookups fail open. Such a
+     * pass must not be remembered as if JIRA had confirmed it. Compare with
+     * {@link #isUnverified(List)}.
+     */
+    List<YaccError> UNVERIFIED = Collections.unmodifiableList(new ArrayList<>());
+
+    /**
+     * Return true if a result of {@link #doesIssueExist}, {@link #doesIssueMatchJqlQuery} or
+     * {@link #checkIssues} is a pass that JIRA didn't confirm.
+     */
+    static boolean isUnverified(@Nullable List<YaccError> result) {
+        return result == UNVERIFIED;
+    }
+
     boolean doesJiraApplicationLinkExist();
-    List<YaccError> doesIssueMatchJqlQuery(String jqlQuery, IssueKey issueKey);
-    List<YaccError> doesIssueExist(IssueKey issueKey);
-    boolean doesProjectExist(IssueKey issueKey);
+
+    /**
+     * Lookups taking a {@link PushDeadline} stop sending requests once it has expired, and bound
+     * the HTTP timeouts of in-flight requests by the time remaining.
+     *
+     * @throws PushDeadlineExceededException if the deadline expires
+     */
+    List<YaccError> doesIssueMatchJqlQuery(String jqlQuery, IssueKey issueKey, PushDeadline deadline);
+    List<YaccError> doesIssueExist(IssueKey issueKey, PushDeadline deadline);
+    boolean doesProjectExist(IssueKey issueKey, PushDeadline deadline);
+
+    /**
+     * Check that issues exist and, if a JQL query is given, that they match it. Gives the same
+     * errors as {@link #doesIssueExist} followed by {@link #doesIssueMatchJqlQuery} for each
+     * issue, but looks up the whole batch with at most two searches per application link.
+     *
+     * @param jqlQuery JQL the issues must match, or null
+     * @return the errors for each issue key, an empty list if the issue passed or {@link #UNVERIFIED}
+     * @throws PushDeadlineExceededException if the deadline expires
+     */
+    Map<IssueKey, List<YaccError>> checkIssues(Collection<IssueKey> issueKeys, @Nullable String jqlQuery,
+                                               PushDeadline deadline);
+
     List<String> checkJqlQuery(@Nonnull String jqlQuery);
 }
@@ -0,0 +1,101 @@
+package com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.setting.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * What to do with a ref change that adds more commits than an admin configured ceiling, for
+ * example when a repository with a long history is pushed to Bitbucket for the first time.
+ */
+public class LargePushPolicy {
+    private static final Logger log = LoggerFactory.getLogger(LargePushPolicy.class);
+
+    public enum Action {
+        /** Reject the push without checking any commits */
+        REJECT,
+        /** Check commits spread evenly over the pushed history, always including the tip */
+        SAMPLE,
+        /** Check only the newest commits */
+        TIP
+    }
+
+    private static final LargePushPolicy NONE = new LargePushPolicy(0, Action.REJECT);
+
+    private final int maxCommits;
+    private final Action action;
+
+    /**
+     * @param maxCommits ceiling on the number of new commits per ref change, 0 or less means no
+     *                   ceiling
+     */
+    public LargePushPolicy(int maxCommits, Action action) {
+        this.maxCommits = Math.max(0, maxCommits);
+        this.action = action;
+    }
+
+    public static LargePushPolicy none() {
+        return NONE;
+    }
+
+    /**
+     * Create a policy using the 'maxCommits' and 'maxCommitsAction' settings. If 'maxCommits' is
+     * missing or not a positive number there is no ceiling. The action defaults to
+     * {@link Action#REJECT}.
+     */
+    public static LargePushPolicy fromSettings(Settings settings) {
+        String maxCommits = settings.getString("maxCommits");
+
+        if (isNullOrEmpty(maxCommits)) {
+            return none();
+        }
+
+        Action action = Action.REJECT;
+        String actionSetting = settings.getString("maxCommitsAction");
+        if (!isNullOrEmpty(actionSetting)) {
+            try {
+                action = Action.valueOf(actionSetting.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("ignoring invalid maxCommitsAction setting: {}", actionSetting);
+            }
+        }
+
+        try {
+            return new LargePushPolicy(Integer.parseInt(maxCommits.trim()), action);
+        } catch (NumberFormatException e) {
+            log.warn("ignoring invalid maxCommits setting: {}", maxCommits);
+
+            return none();
+        }
+    }
+
+    public int getMaxCommits() {
+        return maxCommits;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * Return true if a ref change with this many new commits goes over the ceiling.
+     */
+    public boolean isExceeded(long commitCount) {
+        return maxCommits > 0 && commitCount > maxCommits;
+    }
+
+    /**
+     * Return how many commits to skip between checked commits when sampling, so that at most
+     * {@link #getMaxCommits()} commits are checked.
+     */
+    public int getSampleStride(long commitCount) {
+        return (int) Math.max(1, (commitCount + maxCommits - 1) / maxCommits);
+    }
+
+    @Override
+    public String toString() {
+        return "LargePushPolicy{maxCommits=" + maxCommits + ", action=" + action + '}';
+    }
+}
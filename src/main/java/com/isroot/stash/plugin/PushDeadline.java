@@ -0,0 +1,124 @@
+package com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.setting.Settings;
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Time budget for checking a single push. A deadline is created when the hook starts and is passed
+ * down to everything that might block (git, JIRA, regex matching) so that a slow JIRA or a
+ * pathological regex can't hold a push open indefinitely.
+ */
+public class PushDeadline {
+    private static final Logger log = LoggerFactory.getLogger(PushDeadline.class);
+
+    private static final PushDeadline NONE = new PushDeadline(0, Ticker.systemTicker());
+
+    private final long timeoutMillis;
+    private final long expiresAtNanos;
+    private final Ticker ticker;
+
+    /**
+     * @param timeoutMillis time budget in milliseconds, 0 or less means no limit
+     * @param ticker time source
+     */
+    public PushDeadline(long timeoutMillis, Ticker ticker) {
+        this.timeoutMillis = Math.max(0, timeoutMillis);
+        this.ticker = ticker;
+        this.expiresAtNanos = ticker.read() + TimeUnit.MILLISECONDS.toNanos(this.timeoutMillis);
+    }
+
+    /**
+     * Return a deadline that never expires.
+     */
+    public static PushDeadline none() {
+        return NONE;
+    }
+
+    /**
+     * Create a deadline using the 'pushTimeoutSeconds' setting. If the setting is missing or not a
+     * positive number, the returned deadline never expires.
+     */
+    public static PushDeadline fromSettings(Settings settings) {
+        String timeout = settings.getString("pushTimeoutSeconds");
+
+        if (isNullOrEmpty(timeout)) {
+            return none();
+        }
+
+        try {
+            return new PushDeadline(TimeUnit.SECONDS.toMillis(Long.parseLong(timeout.trim())),
+                    Ticker.systemTicker());
+        } catch (NumberFormatException e) {
+            log.warn("ignoring invalid pushTimeoutSeconds setting: {}", timeout);
+
+            return none();
+        }
+    }
+
+    /**
+     * Return true if this deadline has a time limit.
+     */
+    public boolean isBounded() {
+        return timeoutMillis > 0;
+    }
+
+    public boolean isExpired() {
+        return isBounded() && ticker.read() - expiresAtNanos >= 0;
+    }
+
+    /**
+     * Return the time left before the deadline expires. Unbounded deadlines return
+     * {@link Long#MAX_VALUE}.
+     */
+    public long getRemainingMillis() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - ticker.read()));
+    }
+
+    /**
+     * Return the time left as a {@link Duration}, never less than one millisecond so it can be
+     * handed to APIs that reject zero timeouts. Only meaningful for bounded deadlines.
+     */
+    public Duration getRemaining() {
+        return Duration.ofMillis(Math.max(1, getRemainingMillis()));
+    }
+
+    /**
+     * Return the time left in whole seconds, rounded up and never less than one, for APIs such as
+     * git command timeouts that only take seconds. Only meaningful for bounded deadlines.
+     */
+    public long getRemainingSeconds() {
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(getRemainingMillis() + 999));
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Throw {@link PushDeadlineExceededException} if the deadline has expired.
+     */
+    public void check() {
+        if (isExpired()) {
+            throw new PushDeadlineExceededException(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PushDeadline{" +
+                "timeoutMillis=" + timeoutMillis +
+                ", remainingMillis=" + getRemainingMillis() +
+                '}';
+    }
+}
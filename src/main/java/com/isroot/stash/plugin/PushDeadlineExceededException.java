@@ -0,0 +1,17 @@
+package com.isroot.stash.plugin;
+
+/**
+ * Thrown when a {@link PushDeadline} expires while a push is still being checked.
+ */
+public class PushDeadlineExceededException extends RuntimeException {
+    private final long timeoutMillis;
+
+    public PushDeadlineExceededException(PushDeadline deadline) {
+        super("YACC checks did not complete within " + deadline.getTimeoutMillis() + " ms");
+        this.timeoutMillis = deadline.getTimeoutMillis();
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+}
@@ -11,6 +11,7 @@ import com.atlassian.bitbucket.user.SecurityService;
 import com.atlassian.bitbucket.util.UncheckedOperation;
 import com.atlassian.event.api.EventListener;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.isroot.stash.plugin.checks.BranchNameCache;
 import com.isroot.stash.plugin.checks.BranchNameCheck;
 import com.isroot.stash.plugin.errors.YaccError;
 import org.slf4j.Logger;
@@ -25,17 +26,30 @@ public class YaccBranchCreationListener {
 
     private static final Logger log = LoggerFactory.getLogger(YaccBranchCreationListener.class);
 
-    private final PluginSettingsFactory pluginSettingsFactory;
     private final SecurityService securityService;
     private final RepositoryHookService repositoryHookService;
     private final I18nService i18nService;
+    private final BranchNameCache branchNameCache;
+    private final GlobalSettingsCache globalSettingsCache;
 
     public YaccBranchCreationListener(PluginSettingsFactory pluginSettingsFactory, SecurityService securityService,
             RepositoryHookService repositoryHookService, I18nService i18nService) {
-        this.pluginSettingsFactory = pluginSettingsFactory;
+        this(pluginSettingsFactory, securityService, repositoryHookService, i18nService, new BranchNameCache());
+    }
+
+    public YaccBranchCreationListener(PluginSettingsFactory pluginSettingsFactory, SecurityService securityService,
+            RepositoryHookService repositoryHookService, I18nService i18nService, BranchNameCache branchNameCache) {
+        this(securityService, repositoryHookService, i18nService, branchNameCache,
+                new GlobalSettingsCache(pluginSettingsFactory, repositoryHookService));
+    }
+
+    public YaccBranchCreationListener(SecurityService securityService, RepositoryHookService repositoryHookService,
+            I18nService i18nService, BranchNameCache branchNameCache, GlobalSettingsCache globalSettingsCache) {
         this.securityService = securityService;
         this.repositoryHookService = repositoryHookService;
         this.i18nService = i18nService;
+        this.branchNameCache = branchNameCache;
+        this.globalSettingsCache = globalSettingsCache;
     }
 
     @EventListener
@@ -66,11 +80,11 @@ public class YaccBranchCreationListener {
             // Repository hook not configured
             log.debug("PreReceiveRepositoryHook not configured.  Use global configuration.");
 
-            settings = YaccUtils.buildYaccConfig(pluginSettingsFactory, repositoryHookService);
+            settings = globalSettingsCache.getSettings();
         }
 
 
-        List<YaccError> errors = new BranchNameCheck(settings, event.getBranch().getId()).check();
+        List<YaccError> errors = new BranchNameCheck(settings, event.getBranch().getId(), branchNameCache).check();
 
         if (!errors.isEmpty()) {
             event.cancel(i18nService.getKeyedText("invalidBranchName", errors.get(0).getMessage()));
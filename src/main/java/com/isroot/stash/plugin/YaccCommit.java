@@ -26,6 +26,17 @@ public class YaccCommit {
         this.isMerge = isMerge;
     }
 
+    /**
+     * Construct a commit whose message is provided by overriding {@link #getMessage()}, so that
+     * it can be loaded when it is first needed.
+     */
+    protected YaccCommit(String id, SimplePerson committer, boolean isMerge) {
+        this.id = id;
+        this.committer = committer;
+        this.message = null;
+        this.isMerge = isMerge;
+    }
+
     /**
      * sford: Removing the trailing newline is necessary after changing to JGit to get commit information to fix the
      * stash author name linking bug (see commit 3b5e8e0). The commit message returned by JGit has a trailing newline
@@ -70,4 +81,23 @@ public class YaccCommit {
     public boolean isMerge() {
         return isMerge;
     }
+
+    /**
+     * Commits are equal if they have the same ID.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof YaccCommit)) {
+            return false;
+        }
+        return id.equals(((YaccCommit) o).getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
 }
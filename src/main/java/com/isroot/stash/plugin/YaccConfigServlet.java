@@ -9,9 +9,12 @@ import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 import com.atlassian.soy.renderer.SoyException;
 import com.atlassian.soy.renderer.SoyTemplateRenderer;
 import com.google.common.collect.ImmutableMap;
+import com.isroot.stash.plugin.simulation.PolicySimulator;
+import com.isroot.stash.plugin.simulation.SimulationResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -21,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -31,6 +35,9 @@ public class YaccConfigServlet extends HttpServlet {
 
     private static final Logger log = LoggerFactory.getLogger(YaccConfigServlet.class);
     public static final String SETTINGS_MAP = "com.isroot.stash.plugin.yacc.settings";
+    private static final int SIMULATED_REPOSITORIES = 10;
+    private static final String SIMULATION_COMMITS = "simulationCommits";
+    private static final String SIMULATION_COMMITS_PER_PUSH = "simulationCommitsPerPush";
 
     private final RepositoryHookService repositoryHookService;
     final private SoyTemplateRenderer soyTemplateRenderer;
@@ -39,6 +46,11 @@ public class YaccConfigServlet extends HttpServlet {
     private Map<String, String> fields;
     private Map<String, Iterable<String>> fieldErrors;
     private final PluginSettings pluginSettings;
+    private final GlobalSettingsCache globalSettingsCache;
+    private final PolicySimulator policySimulator;
+    private final int simulationCommits;
+    private final int simulationCommitsPerPush;
+    private final long simulationTimeoutMillis;
     private Map<String, Object> settingsMap;
 
     public YaccConfigServlet(SoyTemplateRenderer soyTemplateRenderer,
@@ -46,9 +58,39 @@ public class YaccConfigServlet extends HttpServlet {
                              JiraService jiraService,
                              RepositoryHookService repositoryHookService,
                              NavBuilder navBuilder) {
+        this(soyTemplateRenderer, pluginSettingsFactory, jiraService, repositoryHookService, navBuilder,
+                new GlobalSettingsCache(pluginSettingsFactory, repositoryHookService));
+    }
+
+    public YaccConfigServlet(SoyTemplateRenderer soyTemplateRenderer,
+                             PluginSettingsFactory pluginSettingsFactory,
+                             JiraService jiraService,
+                             RepositoryHookService repositoryHookService,
+                             NavBuilder navBuilder,
+                             GlobalSettingsCache globalSettingsCache) {
+        this(soyTemplateRenderer, pluginSettingsFactory, jiraService, repositoryHookService, navBuilder,
+                globalSettingsCache, null);
+    }
+
+    /**
+     * @param policySimulator simulates the settings instead of saving them when the form is
+     *                        posted with 'simulate', or null if simulations aren't available
+     */
+    public YaccConfigServlet(SoyTemplateRenderer soyTemplateRenderer,
+                             PluginSettingsFactory pluginSettingsFactory,
+                             JiraService jiraService,
+                             RepositoryHookService repositoryHookService,
+                             NavBuilder navBuilder,
+                             GlobalSettingsCache globalSettingsCache,
+                             @Nullable PolicySimulator policySimulator) {
         this.soyTemplateRenderer = soyTemplateRenderer;
         this.navBuilder = navBuilder;
         this.repositoryHookService = repositoryHookService;
+        this.globalSettingsCache = globalSettingsCache;
+        this.policySimulator = policySimulator;
+        simulationCommits = Integer.getInteger("yacc.simulation.commits", 100);
+        simulationCommitsPerPush = Integer.getInteger("yacc.simulation.commitsPerPush", 5);
+        simulationTimeoutMillis = TimeUnit.SECONDS.toMillis(Long.getLong("yacc.simulation.formTimeoutSeconds", 10));
 
         pluginSettings = pluginSettingsFactory.createGlobalSettings();
 
@@ -68,7 +110,7 @@ public class YaccConfigServlet extends HttpServlet {
         }
 
         validateSettings();
-        doGetContinue(resp);
+        doGetContinue(resp, simulationCommits, simulationCommitsPerPush, null);
     }
 
     private void validateSettings() {
@@ -78,7 +120,8 @@ public class YaccConfigServlet extends HttpServlet {
         configValidator.validate(settings, new SettingsValidationErrorsImpl(fieldErrors), null);
     }
 
-    private void doGetContinue(HttpServletResponse resp) throws IOException, ServletException {
+    private void doGetContinue(HttpServletResponse resp, int commits, int commitsPerPush,
+                               @Nullable SimulationResult simulation) throws IOException, ServletException {
         log.debug("doGetContinue");
         fields.clear();
 
@@ -94,15 +137,20 @@ public class YaccConfigServlet extends HttpServlet {
         log.debug("Config fields: " + fields);
         log.debug("Field errors: " + fieldErrors);
 
+        ImmutableMap.Builder<String, Object> data = ImmutableMap.<String, Object>builder()
+                .put("config", fields)
+                .put("errors", fieldErrors)
+                .put(SIMULATION_COMMITS, commits)
+                .put(SIMULATION_COMMITS_PER_PUSH, commitsPerPush);
+        if (simulation != null) {
+            data.put("simulation", toSoyData(simulation, commitsPerPush));
+        }
+
         resp.setContentType("text/html;charset=UTF-8");
         try {
             soyTemplateRenderer.render(resp.getWriter(), "com.isroot.stash.plugin.yacc:yaccHook-config-serverside",
                     "com.atlassian.stash.repository.hook.ref.config",
-                    ImmutableMap
-                            .<String, Object>builder()
-                            .put("config", fields)
-                            .put("errors", fieldErrors)
-                            .build()
+                    data.build()
             );
         } catch (SoyException e) {
             Throwable cause = e.getCause();
@@ -120,6 +168,19 @@ public class YaccConfigServlet extends HttpServlet {
         if (o != null && !o.isEmpty()) settingsMap.put(fieldName, o);
     }
 
+    private static int getPositiveIntParameter(HttpServletRequest req, String name, int defaultValue) {
+        String value = req.getParameter(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException, ServletException {
         settingsMap.clear();
 
@@ -127,7 +188,9 @@ public class YaccConfigServlet extends HttpServlet {
             String parameterName = (String) key;
 
             // Plugin settings persister only supports map of strings
-            if (!parameterName.equals("submit")) {
+            if (!parameterName.equals("submit") && !parameterName.equals("simulate")
+                    && !parameterName.equals(SIMULATION_COMMITS)
+                    && !parameterName.equals(SIMULATION_COMMITS_PER_PUSH)) {
                 addStringFieldValue(settingsMap, req, parameterName);
             }
         }
@@ -138,8 +201,20 @@ public class YaccConfigServlet extends HttpServlet {
             //exceptions are dealt with as field errors
         }
 
+        int commits = getPositiveIntParameter(req, SIMULATION_COMMITS, simulationCommits);
+        int commitsPerPush = getPositiveIntParameter(req, SIMULATION_COMMITS_PER_PUSH, simulationCommitsPerPush);
+
         if (fieldErrors.size() > 0) {
-            doGetContinue(resp);
+            doGetContinue(resp, commits, commitsPerPush, null);
+            return;
+        }
+
+        // Simulating shows what the settings would do without saving them. The admin waits for the
+        // page, so it gets less time than simulations run over REST.
+        if (req.getParameterMap().containsKey("simulate")) {
+            doGetContinue(resp, commits, commitsPerPush, policySimulator != null ? policySimulator.simulateSample(
+                    YaccUtils.buildSettings(repositoryHookService, settingsMap), SIMULATED_REPOSITORIES,
+                    commits, commitsPerPush, simulationTimeoutMillis) : null);
             return;
         }
 
@@ -152,6 +227,7 @@ public class YaccConfigServlet extends HttpServlet {
         }
 
         pluginSettings.put(SETTINGS_MAP, settingsMap);
+        globalSettingsCache.settingsSaved();
 
         String redirectUrl;
         redirectUrl = navBuilder.addons().buildRelative();
@@ -159,6 +235,22 @@ public class YaccConfigServlet extends HttpServlet {
         resp.sendRedirect(redirectUrl);
     }
 
+    private static Map<String, Object> toSoyData(SimulationResult simulation, int commitsPerPush) {
+        return ImmutableMap.<String, Object>builder()
+                .put("repositories", simulation.getRepositories())
+                .put("commits", simulation.getCommits())
+                .put("commitsPerPush", commitsPerPush)
+                .put("rejectedCommits", simulation.getRejectedCommits())
+                .put("meanPushMillis", Math.round(simulation.getMeanPushMillis()))
+                .put("p95PushMillis", Math.round(simulation.getP95PushMillis()))
+                .put("jiraLookups", simulation.getJiraLookups())
+                .put("jiraLookupsPerPush", String.format("%.1f", simulation.getJiraLookupsPerPush()))
+                .put("truncated", simulation.isTruncated())
+                .put("costNote", simulation.getCostNote())
+                .put("violations", simulation.getViolations())
+                .build();
+    }
+
     private static class SettingsValidationErrorsImpl implements SettingsValidationErrors {
 
         Map<String, Iterable<String>> fieldErrors;
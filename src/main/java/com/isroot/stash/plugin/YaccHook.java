@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Sean Ford
@@ -34,42 +35,21 @@ public final class YaccHook implements PreReceiveRepositoryHook {
                              @Nonnull Collection<RefChange> refChanges, @Nonnull HookResponse hookResponse) {
         List<YaccError> errors = Lists.newArrayList();
         Settings settings = repositoryHookContext.getSettings();
-
-        for (RefChange rf : refChanges) {
-            log.debug("checking ref change refId={} fromHash={} toHash={} type={}",
-                    rf.getRef().getId(), rf.getFromHash(), rf.getToHash(), rf.getType());
-
-            if (rf.getType() == RefChangeType.DELETE) {
-                continue;
-            }
-            // A toRef of 0000000000000000000000000000000000000000 means that
-            // it is a delete
-            // A fromRef of 0000000000000000000000000000000000000000 means that
-            // the ref doesn't currently exist.
-            // Normally, that means that it is an ADD.
-            // However, when deleting a ref that doesn't exist, *both* refs
-            // will be zeros (there's no current ref AND there will be no ref
-            // after the push)
-            // Stash treats this as an ADD (ie the code that assigns the type
-            // checks fromRef being all zeros before checking toRef)
-            // Arguably, since the end result is that the ref won't exist the
-            // "most correct" option is to treat this as a DELETE.
-            // But Stash doesn't do that, so explicitly look for this scenario.
-            // Leaving this causes errors when trying to look up the bogus id
-            // in the respository and failing to match
-            if (rf.getType() == RefChangeType.ADD && rf.getToHash().equals("0000000000000000000000000000000000000000")) {
-                continue;
-            }
-
-            if(rf.getRef().getId().startsWith("refs/notes")) {
-                log.debug("skipping git notes");
-
-                continue;
-            }
-
-            for (YaccError e : yaccService.checkRefChange(repositoryHookContext.getRepository(),
-                    settings, rf)) {
-                errors.add(e.prependText(rf.getRef().getId()));
+        PushDeadline deadline = PushDeadline.fromSettings(settings);
+
+        try {
+            checkRefChanges(repositoryHookContext, refChanges, deadline, errors);
+        } catch (PushDeadlineExceededException e) {
+            log.warn("push to {} not fully checked: {}", repositoryHookContext.getRepository(), e.getMessage());
+
+            if (settings.getBoolean("allowPushOnTimeout", false)) {
+                hookResponse.out().println("YACC WARNING: commit checks did not complete within "
+                        + TimeUnit.MILLISECONDS.toSeconds(deadline.getTimeoutMillis())
+                        + " seconds, some commits were not checked.");
+            } else {
+                errors.add(new YaccError(YaccError.Type.TIMEOUT,
+                        "Commit checks did not complete within %d seconds",
+                        TimeUnit.MILLISECONDS.toSeconds(deadline.getTimeoutMillis())));
             }
         }
 
@@ -88,5 +68,59 @@ public final class YaccHook implements PreReceiveRepositoryHook {
         }
     }
 
+    private void checkRefChanges(RepositoryHookContext repositoryHookContext, Collection<RefChange> refChanges,
+                                 PushDeadline deadline, List<YaccError> errors) {
+        Settings settings = repositoryHookContext.getSettings();
+        // Branches pushed together often share commits, so committers are checked once per push
+        CommitterVerdicts committerVerdicts = new CommitterVerdicts();
+
+        for (RefChange rf : refChanges) {
+            log.debug("checking ref change refId={} fromHash={} toHash={} type={}",
+                    rf.getRef().getId(), rf.getFromHash(), rf.getToHash(), rf.getType());
+
+            if (!isCheckable(rf)) {
+                continue;
+            }
+
+            for (YaccError e : yaccService.checkRefChange(repositoryHookContext.getRepository(),
+                    settings, rf, deadline, committerVerdicts)) {
+                errors.add(e.prependText(rf.getRef().getId()));
+            }
+        }
+    }
+
+    /**
+     * Return false for ref changes whose commits are never checked: deletes and git notes.
+     */
+    public static boolean isCheckable(RefChange rf) {
+        if (rf.getType() == RefChangeType.DELETE) {
+            return false;
+        }
+        // A toRef of 0000000000000000000000000000000000000000 means that
+        // it is a delete
+        // A fromRef of 0000000000000000000000000000000000000000 means that
+        // the ref doesn't currently exist.
+        // Normally, that means that it is an ADD.
+        // However, when deleting a ref that doesn't exist, *both* refs
+        // will be zeros (there's no current ref AND there will be no ref
+        // after the push)
+        // Stash treats this as an ADD (ie the code that assigns the type
+        // checks fromRef being all zeros before checking toRef)
+        // Arguably, since the end result is that the ref won't exist the
+        // "most correct" option is to treat this as a DELETE.
+        // But Stash doesn't do that, so explicitly look for this scenario.
+        // Leaving this causes errors when trying to look up the bogus id
+        // in the respository and failing to match
+        if (rf.getType() == RefChangeType.ADD && rf.getToHash().equals("0000000000000000000000000000000000000000")) {
+            return false;
+        }
+
+        if(rf.getRef().getId().startsWith("refs/notes")) {
+            log.debug("skipping git notes");
 
+            return false;
+        }
+
+        return true;
+    }
 }
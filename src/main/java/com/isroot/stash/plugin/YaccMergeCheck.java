@@ -0,0 +1,114 @@
+package com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.pull.PullRequest;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.pull.MergeRequest;
+import com.atlassian.bitbucket.scm.pull.MergeRequestCheck;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.isroot.stash.plugin.commits.PullRequestCommitCache;
+import com.isroot.stash.plugin.errors.YaccError;
+import com.isroot.stash.plugin.errors.YaccErrorBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops pull requests from being merged if their commits would be rejected by YACC when pushed
+ * to the target branch, for repositories whose settings have 'checkPullRequests' enabled. The
+ * commits are checked as if the author of the pull request pushed them.
+ *
+ * <p>Merge checks run whenever a pull request is viewed, so both the commits of the pull
+ * request and the commit results are cached: the {@link PullRequestCommitCache} until the source
+ * or target branch moves, and the {@link CommitResultCache} like for pushes. The newest
+ * 'yacc.mergeCheck.maxCommits' commits are checked, within 'yacc.mergeCheck.timeoutSeconds'.
+ */
+public class YaccMergeCheck implements MergeRequestCheck {
+    private static final Logger log = LoggerFactory.getLogger(YaccMergeCheck.class);
+
+    private final YaccService yaccService;
+    private final HookSettingsResolver settingsResolver;
+    private final SecurityService securityService;
+    private final PullRequestCommitCache commitCache;
+    private final int maxCommits;
+    private final long timeoutMillis;
+
+    public YaccMergeCheck(YaccService yaccService, HookSettingsResolver settingsResolver,
+                          SecurityService securityService, PullRequestCommitCache commitCache) {
+        this(yaccService, settingsResolver, securityService, commitCache,
+                Integer.getInteger("yacc.mergeCheck.maxCommits", 1000),
+                TimeUnit.SECONDS.toMillis(Long.getLong("yacc.mergeCheck.timeoutSeconds", 10)));
+    }
+
+    /**
+     * @param maxCommits newest commits of a pull request to check, 0 for no limit
+     * @param timeoutMillis longest time to spend checking a pull request, 0 for no limit
+     */
+    public YaccMergeCheck(YaccService yaccService, HookSettingsResolver settingsResolver,
+                          SecurityService securityService, PullRequestCommitCache commitCache, int maxCommits,
+                          long timeoutMillis) {
+        this.yaccService = yaccService;
+        this.settingsResolver = settingsResolver;
+        this.securityService = securityService;
+        this.commitCache = commitCache;
+        this.maxCommits = Math.max(0, maxCommits);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void check(@Nonnull MergeRequest request) {
+        PullRequest pullRequest = request.getPullRequest();
+        Repository repository = pullRequest.getToRef().getRepository();
+
+        Settings settings = settingsResolver.getSettings(repository);
+        if (settings == null || !settings.getBoolean("checkPullRequests", false)) {
+            return;
+        }
+
+        PushDeadline deadline = timeoutMillis > 0 ? new PushDeadline(timeoutMillis, Ticker.systemTicker())
+                : PushDeadline.none();
+        List<YaccError> errors = Lists.newArrayList();
+
+        try {
+            ApplicationUser author = pullRequest.getAuthor().getUser();
+            errors.addAll(securityService.impersonating(author, "Check pull request commits").call(
+                    new UncheckedOperation<List<YaccError>>() {
+                        public List<YaccError> perform() {
+                            return checkCommits(repository, settings, pullRequest, deadline);
+                        }
+                    }));
+        } catch (PushDeadlineExceededException e) {
+            log.warn("pull request {} in {} not fully checked: {}", pullRequest.getId(), repository, e.getMessage());
+
+            if (!settings.getBoolean("allowPushOnTimeout", false)) {
+                errors.add(new YaccError(YaccError.Type.TIMEOUT,
+                        "Commit checks did not complete within %d seconds",
+                        TimeUnit.MILLISECONDS.toSeconds(deadline.getTimeoutMillis())));
+            }
+        } catch (RuntimeException e) {
+            // Such as a fork whose commits git can't find, which shouldn't block the merge
+            log.warn("could not check pull request {} in {}", pullRequest.getId(), repository, e);
+        }
+
+        if (!errors.isEmpty()) {
+            request.veto("Commits do not pass the commit checker",
+                    new YaccErrorBuilder(settings).getErrorMessage(errors));
+        }
+    }
+
+    private List<YaccError> checkCommits(Repository repository, Settings settings, PullRequest pullRequest,
+                                         PushDeadline deadline) {
+        List<YaccCommit> commits = commitCache.getCommits(repository, pullRequest.getToRef().getLatestCommit(),
+                pullRequest.getFromRef().getLatestCommit(), maxCommits, deadline);
+
+        return yaccService.checkPullRequestCommits(repository, settings, pullRequest.getToRef().getId(), commits,
+                deadline);
+    }
+}
@@ -12,12 +12,15 @@ import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.SecurityService;
 import com.atlassian.bitbucket.util.UncheckedOperation;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.google.common.collect.ImmutableSet;
+import com.isroot.stash.plugin.regex.SettingRegex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Uldis Ansmits
@@ -29,20 +32,39 @@ public class YaccPreReceiveHook implements PreReceiveHook {
 
     private static final Logger log = LoggerFactory.getLogger(YaccPreReceiveHook.class);
 
+    /**
+     * Settings that only tune how checks run. Setting these alone doesn't enable any checks.
+     */
+    private static final Set<String> TUNING_SETTINGS = ImmutableSet.of(
+            "pushTimeoutSeconds",
+            "allowPushOnTimeout",
+            "maxCommits",
+            "maxCommitsAction",
+            "asyncJiraChecks",
+            "checkPullRequests");
+
     private final YaccHook yaccHook;
-    private final PluginSettingsFactory pluginSettingsFactory;
     private final SecurityService securityService;
     private final RepositoryHookService repositoryHookService;
+    private final GlobalSettingsCache globalSettingsCache;
 
 
     public YaccPreReceiveHook(YaccService yaccService,
                               PluginSettingsFactory pluginSettingsFactory,
                               SecurityService securityService,
                               RepositoryHookService repositoryHookService) {
+        this(yaccService, securityService, repositoryHookService,
+                new GlobalSettingsCache(pluginSettingsFactory, repositoryHookService));
+    }
+
+    public YaccPreReceiveHook(YaccService yaccService,
+                              SecurityService securityService,
+                              RepositoryHookService repositoryHookService,
+                              GlobalSettingsCache globalSettingsCache) {
         yaccHook = new YaccHook(yaccService);
-        this.pluginSettingsFactory = pluginSettingsFactory;
         this.securityService = securityService;
         this.repositoryHookService = repositoryHookService;
+        this.globalSettingsCache = globalSettingsCache;
     }
 
     @Override
@@ -63,7 +85,7 @@ public class YaccPreReceiveHook implements PreReceiveHook {
             // Repository hook not configured
             log.debug("PreReceiveRepositoryHook not configured. Run PreReceiveHook");
 
-            Settings storedConfig = YaccUtils.buildYaccConfig(pluginSettingsFactory, repositoryHookService);
+            Settings storedConfig = globalSettingsCache.getSettings();
 
             log.debug("global settings: {}", storedConfig.asMap());
 
@@ -83,12 +105,17 @@ public class YaccPreReceiveHook implements PreReceiveHook {
      * large repositories, and we don't want to run it globally unless it is actually
      * configured to do something.
      */
-    private boolean areThereEnabledSettings(Map<String, Object> settings) {
+    static boolean areThereEnabledSettings(Map<String, Object> settings) {
         for(Map.Entry<String, Object> setting : settings.entrySet()) {
             if(setting.getKey().startsWith("errorMessage")) {
                 continue;
             }
 
+            if(TUNING_SETTINGS.contains(setting.getKey())
+                    || setting.getKey().startsWith(SettingRegex.LINEAR_SETTING_PREFIX)) {
+                continue;
+            }
+
             if(setting.getValue() == null) {
                 continue;
             }
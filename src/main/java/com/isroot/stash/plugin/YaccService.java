@@ -5,6 +5,7 @@ import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.setting.Settings;
 import com.isroot.stash.plugin.errors.YaccError;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -12,6 +13,67 @@ import java.util.List;
  * @since 2014-01-14
  */
 public interface YaccService {
+    /**
+     * Check a single ref change.
+     *
+     * @throws PushDeadlineExceededException if the deadline expires before the check completes
+     */
     List<YaccError> checkRefChange(Repository repository, Settings settings,
-            RefChange refChange);
+            RefChange refChange, PushDeadline deadline);
+
+    /**
+     * Check a single ref change of a push that may update several refs. Committer verdicts are
+     * shared with the other ref changes of the push, so the same commits pushed to several
+     * branches have their committers checked once.
+     *
+     * @param committerVerdicts created once per push
+     * @throws PushDeadlineExceededException if the deadline expires before the check completes
+     */
+    List<YaccError> checkRefChange(Repository repository, Settings settings,
+            RefChange refChange, PushDeadline deadline, CommitterVerdicts committerVerdicts);
+
+    /**
+     * Check only the JIRA issues of the commits of a ref change that was already accepted, for
+     * settings with 'asyncJiraChecks' enabled. The pre-receive check skips them for those
+     * settings. Must run as the user who pushed.
+     *
+     * @param pushedRefIds ids of every ref the push updated. The refs already point at the pushed
+     *                     commits, so these are told apart from commits that were already there
+     *                     by the refs the push didn't update.
+     */
+    List<YaccError> auditRefChange(Repository repository, Settings settings,
+            RefChange refChange, Collection<String> pushedRefIds, PushDeadline deadline);
+
+    /**
+     * Check commits that are already in the repository, for a history audit. Only the checks that
+     * don't depend on who pushed a commit or to which branch are run. Errors are prefixed with
+     * the commit id.
+     */
+    List<YaccError> checkExistingCommits(Repository repository, Settings settings,
+            List<YaccCommit> commits, PushDeadline deadline);
+
+    /**
+     * Check commits that are already in the repository as if they were pushed together, for a
+     * policy simulation. The same checks as {@link #checkExistingCommits} are run, but JIRA
+     * lookups are batched as they are for a push rather than for an audit.
+     */
+    List<YaccError> replayExistingCommits(Repository repository, Settings settings,
+            List<YaccCommit> commits, PushDeadline deadline);
+
+    /**
+     * Check commits described by a client before it pushes them, as if the current user pushed
+     * them to the ref. Errors are the ones the push would be rejected with. Results are never
+     * cached, since nothing proves the commits are what the client says they are.
+     *
+     * @param isNewRef true if the push would create the ref, so its name is checked too
+     */
+    List<YaccError> checkUnpushedCommits(Repository repository, Settings settings, String refId,
+            boolean isNewRef, List<YaccCommit> commits, PushDeadline deadline);
+
+    /**
+     * Check the commits of a pull request, as if the current user pushed them to the target
+     * branch. Commit results are cached and shared with pushes.
+     */
+    List<YaccError> checkPullRequestCommits(Repository repository, Settings settings, String targetRefId,
+            List<YaccCommit> commits, PushDeadline deadline);
 }
@@ -8,23 +8,31 @@ import com.atlassian.bitbucket.scm.git.GitRefPattern;
 import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.ApplicationUser;
 import com.atlassian.bitbucket.user.UserType;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.isroot.stash.plugin.checks.BranchNameCache;
 import com.isroot.stash.plugin.checks.BranchNameCheck;
 import com.isroot.stash.plugin.commits.CommitsService;
 import com.isroot.stash.plugin.errors.YaccError;
+import com.isroot.stash.plugin.regex.RegexBudget;
+import com.isroot.stash.plugin.regex.RegexBudgetExceededException;
+import com.isroot.stash.plugin.regex.SettingRegex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import static com.google.common.base.Strings.isNullOrEmpty;
-
 /**
  * @author Sean Ford
  * @since 2014-01-14
@@ -36,37 +44,441 @@ public class YaccServiceImpl implements YaccService {
     private final AuthenticationContext stashAuthenticationContext;
     private final CommitsService commitsService;
     private final JiraService jiraService;
+    private final RegexBudget regexBudget;
+    private final BranchNameCache branchNameCache;
+    private final CommitResultCache commitResultCache;
+    private final long streamingThreshold;
+    private final int jiraBatchSize;
+    private final int auditJiraBatchSize;
 
     public YaccServiceImpl(AuthenticationContext stashAuthenticationContext, CommitsService commitsService,
                            JiraService jiraService) {
+        this(stashAuthenticationContext, commitsService, jiraService, new BranchNameCache(),
+                new CommitResultCache());
+    }
+
+    public YaccServiceImpl(AuthenticationContext stashAuthenticationContext, CommitsService commitsService,
+                           JiraService jiraService, BranchNameCache branchNameCache,
+                           CommitResultCache commitResultCache) {
         this.stashAuthenticationContext = stashAuthenticationContext;
         this.commitsService = commitsService;
         this.jiraService = jiraService;
+        this.regexBudget = RegexBudget.fromSystemProperties();
+        this.branchNameCache = branchNameCache;
+        this.commitResultCache = commitResultCache;
+        this.streamingThreshold = Long.getLong("yacc.largePush.streamingThreshold", 1000);
+        this.jiraBatchSize = Integer.getInteger("yacc.jira.batchSize", 0);
+        this.auditJiraBatchSize = Math.max(1, Integer.getInteger("yacc.audit.jiraBatchSize", 50));
+    }
+
+    @Override
+    public List<YaccError> checkRefChange(Repository repository, Settings settings, RefChange refChange,
+                                          PushDeadline deadline) {
+        return checkRefChange(repository, settings, refChange, deadline, new CommitterVerdicts());
+    }
+
+    @Override
+    public List<YaccError> checkRefChange(Repository repository, Settings settings, RefChange refChange,
+                                          PushDeadline deadline, CommitterVerdicts committerVerdicts) {
+        CheckScope scope = settings.getBoolean("asyncJiraChecks", false) ? CheckScope.WITHOUT_JIRA : CheckScope.ALL;
+
+        return checkRefChange(repository, settings, refChange, deadline, scope, null, committerVerdicts);
+    }
+
+    @Override
+    public List<YaccError> auditRefChange(Repository repository, Settings settings, RefChange refChange,
+                                          Collection<String> pushedRefIds, PushDeadline deadline) {
+        return checkRefChange(repository, settings, refChange, deadline, CheckScope.ONLY_JIRA, pushedRefIds,
+                new CommitterVerdicts());
+    }
+
+    @Override
+    public List<YaccError> checkExistingCommits(Repository repository, Settings settings, List<YaccCommit> commits,
+                                                PushDeadline deadline) {
+        List<YaccError> errors = Lists.newArrayList();
+
+        CommitChecker checker = new CommitChecker(settings, true, null, deadline, CheckScope.HISTORY, true, errors);
+        commits.forEach(checker);
+        checker.flush();
+
+        return errors;
+    }
+
+    @Override
+    public List<YaccError> replayExistingCommits(Repository repository, Settings settings, List<YaccCommit> commits,
+                                                 PushDeadline deadline) {
+        List<YaccError> errors = Lists.newArrayList();
+
+        CommitChecker checker = new CommitChecker(settings, true, null, deadline, CheckScope.HISTORY, true,
+                jiraBatchSize, new CommitterVerdicts(), errors);
+        commits.forEach(checker);
+        checker.flush();
+
+        return errors;
+    }
+
+    @Override
+    public List<YaccError> checkUnpushedCommits(Repository repository, Settings settings, String refId,
+                                                boolean isNewRef, List<YaccCommit> commits, PushDeadline deadline) {
+        boolean isTag = refId.startsWith(GitRefPattern.TAGS.getPath());
+        CheckScope scope = settings.getBoolean("asyncJiraChecks", false) ? CheckScope.WITHOUT_JIRA : CheckScope.ALL;
+
+        List<YaccError> errors = Lists.newArrayList();
+
+        if (isNewRef) {
+            errors.addAll(new BranchNameCheck(settings, refId, branchNameCache).check());
+        }
+
+        LargePushPolicy largePushPolicy = LargePushPolicy.fromSettings(settings);
+        if (largePushPolicy.isExceeded(commits.size()) && largePushPolicy.getAction() == LargePushPolicy.Action.REJECT) {
+            errors.add(new YaccError(YaccError.Type.OTHER,
+                    "%s: push contains %d new commits, more than the limit of %d",
+                    refId.replaceFirst("^refs/(heads|tags)/", ""), commits.size(), largePushPolicy.getMaxCommits()));
+            return errors;
+        }
+
+        // The commits are described by the client, so their results must never be used for a real push
+        String branchName = refId.replace(GitRefPattern.HEADS.getPath(), "");
+        CommitChecker checker = new CommitChecker(settings, !isTag, branchName, deadline, scope, false, errors);
+        commits.forEach(checker);
+        checker.flush();
+
+        return errors;
     }
 
     @Override
-    public List<YaccError> checkRefChange(Repository repository, Settings settings, RefChange refChange) {
+    public List<YaccError> checkPullRequestCommits(Repository repository, Settings settings, String targetRefId,
+                                                   List<YaccCommit> commits, PushDeadline deadline) {
+        CheckScope scope = settings.getBoolean("asyncJiraChecks", false) ? CheckScope.WITHOUT_JIRA : CheckScope.ALL;
+
+        List<YaccError> errors = Lists.newArrayList();
+
+        // Results are cached as for a push to the target branch, so merging the commits with a push
+        // finds most of them already checked
+        String branchName = targetRefId.replace(GitRefPattern.HEADS.getPath(), "");
+        CommitChecker checker = new CommitChecker(settings, true, branchName, deadline, scope, true, errors);
+        commits.forEach(checker);
+        checker.flush();
+
+        log.debug("checked {} pull request commits, {} used cached results", checker.checked, checker.cacheHits);
+
+        return errors;
+    }
+
+    /**
+     * @param pushedRefIds the refs updated by the push when it was already accepted, null while the
+     *                     refs still point at their old commits
+     * @param committerVerdicts verdicts shared with the other ref changes of the push
+     */
+    private List<YaccError> checkRefChange(Repository repository, Settings settings, RefChange refChange,
+                                           PushDeadline deadline, CheckScope scope,
+                                           @Nullable Collection<String> pushedRefIds,
+                                           CommitterVerdicts committerVerdicts) {
         boolean isTag = refChange.getRef().getId().startsWith(GitRefPattern.TAGS.getPath());
 
         List<YaccError> errors = Lists.newArrayList();
 
-        if (refChange.getType() == RefChangeType.ADD) {
-            errors.addAll(new BranchNameCheck(settings, refChange.getRef().getId()).check());
+        if (scope == CheckScope.ONLY_JIRA && (isTag || !settings.getBoolean("requireJiraIssue", false))) {
+            return errors;
+        }
+
+        if (refChange.getType() == RefChangeType.ADD && scope != CheckScope.ONLY_JIRA) {
+            errors.addAll(new BranchNameCheck(settings, refChange.getRef().getId(), branchNameCache).check());
         }
 
-        Set<YaccCommit> commits = commitsService.getNewCommits(repository, refChange);
         String branchName = refChange.getRef().getId().replace(GitRefPattern.HEADS.getPath(), "");
-        
-        for (YaccCommit commit : commits) {
-            for(YaccError e : checkCommit(settings, commit, !isTag, branchName)) {
-                errors.add(e.prependText(commit.getId()));
+        CommitChecker checker = new CommitChecker(settings, !isTag, branchName, deadline, scope, true,
+                committerVerdicts, errors);
+
+        // Counting is cheap compared to reading every commit message, and decides how to read them
+        long commitCount = pushedRefIds == null ? commitsService.countNewCommits(repository, refChange, deadline)
+                : commitsService.countPushedCommits(repository, refChange, pushedRefIds, deadline);
+        LargePushPolicy largePushPolicy = LargePushPolicy.fromSettings(settings);
+
+        if (largePushPolicy.isExceeded(commitCount)) {
+            log.info("{} adds {} new commits to {}, over the limit of {}, action={}", refChange.getRef().getId(),
+                    commitCount, repository, largePushPolicy.getMaxCommits(), largePushPolicy.getAction());
+
+            if (scope == CheckScope.ONLY_JIRA && largePushPolicy.getAction() == LargePushPolicy.Action.REJECT) {
+                // The push was rejected before any commit reached the repository
+                return errors;
+            }
+
+            switch (largePushPolicy.getAction()) {
+                case SAMPLE:
+                    streamCommits(repository, refChange, pushedRefIds, deadline, 0,
+                            largePushPolicy.getSampleStride(commitCount), checker);
+                    break;
+                case TIP:
+                    streamCommits(repository, refChange, pushedRefIds, deadline,
+                            largePushPolicy.getMaxCommits(), 1, checker);
+                    break;
+                default:
+                    errors.add(new YaccError(YaccError.Type.OTHER,
+                            "%s: push contains %d new commits, more than the limit of %d",
+                            refChange.getRef().getDisplayId(), commitCount, largePushPolicy.getMaxCommits()));
             }
+        } else if (commitCount > streamingThreshold || pushedRefIds != null) {
+            streamCommits(repository, refChange, pushedRefIds, deadline, 0, 1, checker);
+        } else {
+            commitsService.getNewCommits(repository, refChange, deadline).forEach(checker);
         }
 
+        checker.flush();
+
+        log.debug("checked {} commits, {} used cached results, cache stats: {}", checker.checked,
+                checker.cacheHits, commitResultCache.getStats());
+
         return errors;
     }
 
-    private List<YaccError> checkCommit(Settings settings, YaccCommit commit, boolean checkMessages, String branchName) {
+    private void streamCommits(Repository repository, RefChange refChange, @Nullable Collection<String> pushedRefIds,
+                               PushDeadline deadline, int limit, int stride, Consumer<YaccCommit> consumer) {
+        if (pushedRefIds == null) {
+            commitsService.streamNewCommits(repository, refChange, deadline, limit, stride, consumer);
+        } else {
+            commitsService.streamPushedCommits(repository, refChange, pushedRefIds, deadline, limit, stride,
+                    consumer);
+        }
+    }
+
+    /**
+     * Which checks are run on the commits of a ref change.
+     */
+    private enum CheckScope {
+        /** Every check, while the push waits */
+        ALL,
+        /** Every check except JIRA issues, which are audited after the push is accepted */
+        WITHOUT_JIRA,
+        /** Only JIRA issues, after the push was accepted */
+        ONLY_JIRA,
+        /**
+         * Commits already in the repository. Only checks that don't depend on who pushed the
+         * commit or to which branch
+         */
+        HISTORY
+    }
+
+    /**
+     * Checks the commits of a single ref change as they are read. If JIRA lookups are batched,
+     * commits that mention JIRA issues are held back until enough new issue keys have been
+     * collected, or until {@link #flush()} is called after the last commit.
+     */
+    private class CommitChecker implements Consumer<YaccCommit> {
+        private final Settings settings;
+        private final boolean checkMessages;
+        private final String branchName;
+        private final PushDeadline deadline;
+        private final CheckScope scope;
+        private final boolean cacheResults;
+        private final int batchSize;
+        private final List<YaccError> errors;
+        private final CommitMessageScanner scanner;
+        private final CommitterChecker committerChecker;
+        private final String policyHash;
+        private final ApplicationUser pusher;
+        private final List<DeferredCommit> deferred = Lists.newArrayList();
+        private final Set<IssueKey> pendingIssueKeys = Sets.newLinkedHashSet();
+        private final Map<IssueKey, List<YaccError>> issueVerdicts = Maps.newHashMap();
+        private int checked;
+        private int cacheHits;
+
+        CommitChecker(Settings settings, boolean checkMessages, String branchName, PushDeadline deadline,
+                      CheckScope scope, boolean cacheResults, List<YaccError> errors) {
+            this(settings, checkMessages, branchName, deadline, scope, cacheResults, new CommitterVerdicts(),
+                    errors);
+        }
+
+        CommitChecker(Settings settings, boolean checkMessages, String branchName, PushDeadline deadline,
+                      CheckScope scope, boolean cacheResults, CommitterVerdicts committerVerdicts,
+                      List<YaccError> errors) {
+            // Nobody waits for an audit, so its lookups are always batched
+            this(settings, checkMessages, branchName, deadline, scope, cacheResults,
+                    scope == CheckScope.ONLY_JIRA || scope == CheckScope.HISTORY
+                            ? Math.max(jiraBatchSize, auditJiraBatchSize) : jiraBatchSize, committerVerdicts, errors);
+        }
+
+        /**
+         * @param batchSize number of new issue keys looked up together, 0 to look up each issue
+         *                  as its commit is checked
+         */
+        CommitChecker(Settings settings, boolean checkMessages, String branchName, PushDeadline deadline,
+                      CheckScope scope, boolean cacheResults, int batchSize, CommitterVerdicts committerVerdicts,
+                      List<YaccError> errors) {
+            this.settings = settings;
+            this.checkMessages = checkMessages;
+            this.branchName = branchName;
+            this.deadline = deadline;
+            this.scope = scope;
+            this.cacheResults = cacheResults;
+            this.batchSize = batchSize;
+            this.errors = errors;
+            this.scanner = new CommitMessageScanner(settings, regexBudget);
+            this.committerChecker = new CommitterChecker(settings, scope != CheckScope.HISTORY, committerVerdicts);
+            this.policyHash = CommitResultCache.policyHash(settings);
+            this.pusher = stashAuthenticationContext.getCurrentUser();
+        }
+
+        @Override
+        public void accept(YaccCommit commit) {
+            deadline.check();
+            checked++;
+
+            // Audit results only cover JIRA issues, so they can't be mixed with results of push checks
+            CommitResultCache.Key key = !cacheResults || pusher == null || branchName == null
+                    || scope == CheckScope.ONLY_JIRA ? null
+                    : new CommitResultCache.Key(commit.getId(), policyHash, pusher, branchName, checkMessages);
+            List<YaccError> commitErrors = key == null ? null : commitResultCache.get(key);
+
+            if (commitErrors == null) {
+                List<IssueKey> issueKeys = batchSize > 0 ? Lists.newArrayList() : null;
+                List<IssueKey> unverifiedIssueKeys = Lists.newArrayList();
+                commitErrors = checkCommit(settings, commit, scanner, committerChecker, checkMessages, branchName,
+                        deadline, scope, issueKeys, unverifiedIssueKeys);
+
+                if (issueKeys != null && !issueKeys.isEmpty()) {
+                    defer(commit.getId(), key, commitErrors, issueKeys);
+                    return;
+                }
+
+                // A pass that JIRA didn't confirm is not remembered
+                if (key != null && unverifiedIssueKeys.isEmpty()) {
+                    commitResultCache.put(key, commitErrors);
+                }
+            } else {
+                cacheHits++;
+            }
+
+            addErrors(commit.getId(), commitErrors);
+        }
+
+        private void defer(String commitId, @Nullable CommitResultCache.Key key, List<YaccError> commitErrors,
+                           List<IssueKey> issueKeys) {
+            deferred.add(new DeferredCommit(commitId, key, commitErrors, issueKeys));
+
+            for (IssueKey issueKey : issueKeys) {
+                if (!issueVerdicts.containsKey(issueKey)) {
+                    pendingIssueKeys.add(issueKey);
+                }
+            }
+
+            if (pendingIssueKeys.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Look up the collected issue keys and finish the commits that were waiting for them.
+         */
+        void flush() {
+            if (!pendingIssueKeys.isEmpty()) {
+                deadline.check();
+
+                String jqlQuery = settings.getString("issueJqlMatcher");
+                issueVerdicts.putAll(jiraService.checkIssues(Lists.newArrayList(pendingIssueKeys), jqlQuery,
+                        deadline));
+                pendingIssueKeys.clear();
+            }
+
+            for (DeferredCommit commit : deferred) {
+                List<YaccError> commitErrors = Lists.newArrayList(commit.errors);
+                boolean verified = true;
+                for (IssueKey issueKey : commit.issueKeys) {
+                    List<YaccError> issueErrors = issueVerdicts.get(issueKey);
+                    if (issueErrors != null) {
+                        commitErrors.addAll(issueErrors);
+                    }
+                    verified &= !JiraService.isUnverified(issueErrors);
+                }
+
+                if (commit.cacheKey != null && verified) {
+                    commitResultCache.put(commit.cacheKey, commitErrors);
+                }
+
+                addErrors(commit.id, commitErrors);
+            }
+
+            deferred.clear();
+        }
+
+        private void addErrors(String commitId, List<YaccError> commitErrors) {
+            for(YaccError e : commitErrors) {
+                errors.add(e.prependText(commitId));
+            }
+        }
+    }
+
+    /**
+     * A commit waiting for JIRA lookups.
+     */
+    private static class DeferredCommit {
+        private final String id;
+        private final CommitResultCache.Key cacheKey;
+        private final List<YaccError> errors;
+        private final List<IssueKey> issueKeys;
+
+        DeferredCommit(String id, @Nullable CommitResultCache.Key cacheKey, List<YaccError> errors,
+                       List<IssueKey> issueKeys) {
+            this.id = id;
+            this.cacheKey = cacheKey;
+            this.errors = errors;
+            this.issueKeys = issueKeys;
+        }
+    }
+
+    /**
+     * Checks committer names and emails. A push usually has many commits by a handful of
+     * committers, often pushed to several branches at once, so each distinct name and email pair
+     * is only checked once per push.
+     */
+    private class CommitterChecker {
+        private final Settings settings;
+        private final boolean matchPusher;
+        private final SettingRegex emailRegex;
+        private final CommitterVerdicts verdicts;
+
+        /**
+         * @param matchPusher false to only check the committer email regex
+         * @param verdicts verdicts of the push, shared by its ref changes
+         */
+        CommitterChecker(Settings settings, boolean matchPusher, CommitterVerdicts verdicts) {
+            this.settings = settings;
+            this.matchPusher = matchPusher;
+            this.verdicts = verdicts;
+            this.emailRegex = SettingRegex.fromSettings(settings, "committerEmailRegex", Pattern.MULTILINE,
+                    regexBudget);
+        }
+
+        List<YaccError> check(YaccCommit commit, ApplicationUser stashUser) {
+            String identity = (matchPusher ? "pusher\u0000" : "regex\u0000") + commit.getCommitter().getName()
+                    + '\u0000' + commit.getCommitter().getEmailAddress();
+
+            List<YaccError> errors = verdicts.get(identity);
+            if (errors == null) {
+                List<YaccError> found = Lists.newArrayList();
+                if (matchPusher) {
+                    found.addAll(checkCommitterEmail(settings, emailRegex, commit, stashUser));
+                    found.addAll(checkCommitterName(settings, commit, stashUser));
+                } else {
+                    found.addAll(checkCommitterEmailRegex(emailRegex, commit));
+                }
+
+                errors = ImmutableList.copyOf(found);
+                verdicts.put(identity, errors);
+            } else {
+                log.debug("using committer verdict for {} <{}>: {}", commit.getCommitter().getName(),
+                        commit.getCommitter().getEmailAddress(), errors);
+            }
+
+            return errors;
+        }
+    }
+
+    private List<YaccError> checkCommit(Settings settings, YaccCommit commit, CommitMessageScanner scanner,
+                                        CommitterChecker committerChecker, boolean checkMessages,
+                                        String branchName, PushDeadline deadline, CheckScope scope,
+                                        @Nullable List<IssueKey> deferredIssueKeys,
+                                        List<IssueKey> unverifiedIssueKeys) {
         log.debug("checking commit id={} name={} email={} message={}", commit.getId(),
                 commit.getCommitter().getName(), commit.getCommitter().getEmailAddress(),
                 commit.getMessage());
@@ -81,23 +493,38 @@ public class YaccServiceImpl implements YaccService {
             return errors;
         }
 
+        // Read the message once for the exclude regex, the commit message regex and issue keys
+        CommitMessageScanner.Result scan = scanner.scan(commit.getMessage());
+
+        boolean excluded;
+        try {
+            excluded = isCommitExcluded(settings, commit, scan, scope != CheckScope.HISTORY)
+                    || (branchName != null && isBranchExcluded(settings, branchName));
+        } catch (RegexBudgetExceededException e) {
+            errors.add(new YaccError(YaccError.Type.OTHER, "%s", e.getMessage()));
+            return errors;
+        }
+
         //Skip all checks if the commit or branch are excluded.
-        if(!isCommitExcluded(settings, commit) && !isBranchExcluded(settings, branchName)) {
+        if(!excluded) {
         
             // Only validate email/name for 'normal' users - service users like
             // the ssh access keys use the key comment as the 'name' and don't have emails
             // Neither of these are useful to validate, so just skip them
-            if (stashUser.getType() == UserType.NORMAL) {
-                errors.addAll(checkCommitterEmail(settings, commit, stashUser));
-                errors.addAll(checkCommitterName(settings, commit, stashUser));
+            if (stashUser.getType() == UserType.NORMAL && scope != CheckScope.ONLY_JIRA) {
+                errors.addAll(committerChecker.check(commit, stashUser));
             }
         
             if(checkMessages) {
-                errors.addAll(checkCommitMessageRegex(settings, commit));
+                List<YaccError> regexErrors = checkCommitMessageRegex(scanner, scan);
+                if (scope != CheckScope.ONLY_JIRA) {
+                    errors.addAll(regexErrors);
+                }
                 
                 // Checking JIRA issues might be dependent on the commit message regex, so only proceed if there are no errors.
-                if (errors.isEmpty()) {
-                    errors.addAll(checkJiraIssues(settings, commit));
+                if (errors.isEmpty() && regexErrors.isEmpty() && scope != CheckScope.WITHOUT_JIRA) {
+                    errors.addAll(checkJiraIssues(settings, commit, scan, deadline, deferredIssueKeys,
+                            unverifiedIssueKeys));
                 }
             }
         }
@@ -105,7 +532,11 @@ public class YaccServiceImpl implements YaccService {
         return errors;
     }
 
-    private boolean isCommitExcluded(Settings settings, YaccCommit commit) {
+    /**
+     * @param checkPusher false to ignore the settings that exclude commits by who pushed them
+     */
+    private boolean isCommitExcluded(Settings settings, YaccCommit commit, CommitMessageScanner.Result scan,
+                                     boolean checkPusher) {
         // Exclude Merge Commit setting
         if(settings.getBoolean("excludeMergeCommits", false) && commit.isMerge()) {
             log.debug("skipping commit {} because it is a merge commit", commit.getId());
@@ -113,6 +544,11 @@ public class YaccServiceImpl implements YaccService {
             return true;
         }
 
+        // Exclude by Regex setting
+        if (!checkPusher) {
+            return scan.isExcluded();
+        }
+
         // Exclude by Service User setting
         ApplicationUser stashUser = stashAuthenticationContext.getCurrentUser();
         if (settings.getBoolean("excludeServiceUserCommits", false) && stashUser.getType() == UserType.SERVICE) {
@@ -136,14 +572,8 @@ public class YaccServiceImpl implements YaccService {
         }
 
         // Exclude by Regex setting
-        String excludeRegex = settings.getString("excludeByRegex");
-
-        if(excludeRegex != null && !excludeRegex.isEmpty()) {
-            Pattern pattern = Pattern.compile(excludeRegex);
-            Matcher matcher = pattern.matcher(commit.getMessage());
-            if(matcher.find()) {
-                return true;
-            }
+        if(scan.isExcluded()) {
+            return true;
         }
 
         return false;
@@ -151,71 +581,65 @@ public class YaccServiceImpl implements YaccService {
     
     private boolean isBranchExcluded(Settings settings, String branchName) {
         // Exclude by Regex setting
-        String excludeBranchRegex = settings.getString("excludeBranchRegex");
-
-        if(excludeBranchRegex != null && !excludeBranchRegex.isEmpty()) {
-            Pattern pattern = Pattern.compile(excludeBranchRegex);
-            Matcher matcher = pattern.matcher(branchName);
-            if(matcher.matches()) {
-                return true;
-            }
+        SettingRegex excludeBranchRegex = SettingRegex.fromSettings(settings, "excludeBranchRegex", 0,
+                regexBudget);
+        if(excludeBranchRegex != null && excludeBranchRegex.matches(branchName)) {
+            return true;
         }
 
         return false;
     }
 
-    private List<YaccError> checkCommitMessageRegex(Settings settings, YaccCommit commit) {
+    private List<YaccError> checkCommitMessageRegex(CommitMessageScanner scanner, CommitMessageScanner.Result scan) {
         List<YaccError> errors = Lists.newArrayList();
 
-        String regex = settings.getString("commitMessageRegex");
-        if(!isNullOrEmpty(regex)) {
-            Pattern pattern = Pattern.compile(regex, Pattern.MULTILINE);
-            Matcher matcher = pattern.matcher(commit.getMessage());
-            if(!matcher.matches()) {
-                errors.add(new YaccError(YaccError.Type.COMMIT_REGEX,
-                        "commit message doesn't match regex: " + regex));
+        String regex = scanner.getCommitMessageRegex();
+        if(regex != null) {
+            try {
+                if(!scan.matchesCommitMessageRegex()) {
+                    errors.add(new YaccError(YaccError.Type.COMMIT_REGEX,
+                            "commit message doesn't match regex: " + regex));
+                }
+            } catch (RegexBudgetExceededException e) {
+                errors.add(new YaccError(YaccError.Type.COMMIT_REGEX, "%s", e.getMessage()));
             }
         }
 
         return errors;
     }
 
-    private List<YaccError> checkCommitterEmailRegex(Settings settings, YaccCommit commit) {
+    private List<YaccError> checkCommitterEmailRegex(@Nullable SettingRegex regex, YaccCommit commit) {
         List<YaccError> errors = Lists.newArrayList();
-        String regex = settings.getString("committerEmailRegex");
-        if(!isNullOrEmpty(regex)) {
-            Pattern pattern = Pattern.compile(regex, Pattern.MULTILINE);
-            Matcher matcher = pattern.matcher(commit.getCommitter().getEmailAddress().toLowerCase());
-            if(!matcher.matches()) {
-                errors.add(new YaccError(YaccError.Type.COMMITTER_EMAIL_REGEX,
-                    String.format("committer email regex '%s' does not match user email '%s'", regex,
-                    commit.getCommitter().getEmailAddress())));
+        if(regex != null) {
+            try {
+                if(!regex.matches(commit.getCommitter().getEmailAddress().toLowerCase())) {
+                    errors.add(new YaccError(YaccError.Type.COMMITTER_EMAIL_REGEX,
+                        String.format("committer email regex '%s' does not match user email '%s'", regex.getRegex(),
+                        commit.getCommitter().getEmailAddress())));
+                }
+            } catch (RegexBudgetExceededException e) {
+                errors.add(new YaccError(YaccError.Type.COMMITTER_EMAIL_REGEX, "%s", e.getMessage()));
             }
         }
 
         return errors;
     }
-    private List<IssueKey> extractJiraIssuesFromCommitMessage(Settings settings, YaccCommit commit) {
-        String message = commit.getMessage();
-
-        // If a commit message regex is present, see if it contains a group 1 that can be used to located JIRA issues.
-        // If not, just ignore it.
-        String regex = settings.getString("commitMessageRegex");
-        if(!isNullOrEmpty(regex)) {
-            Pattern pattern = Pattern.compile(regex);
-            Matcher matcher = pattern.matcher(message);
-            if(matcher.matches() && matcher.groupCount() > 0) {
-                message = matcher.group(1);
-            }
-        }
-
-        final List<IssueKey> issueKeys = IssueKey.parseIssueKeys(message);
-        log.debug("found jira issues {} from commit message: {}", issueKeys, message);
+    private List<IssueKey> extractJiraIssuesFromCommitMessage(YaccCommit commit, CommitMessageScanner.Result scan) {
+        // If a commit message regex is present and contains a group 1, only keys in group 1 are used
+        final List<IssueKey> issueKeys = scan.getIssueKeys();
+        log.debug("found jira issues {} from commit message: {}", issueKeys, commit.getMessage());
 
         return issueKeys;
     }
 
-    private List<YaccError> checkJiraIssues(Settings settings, YaccCommit commit) {
+    /**
+     * @param deferredIssueKeys if not null, issue keys that have to be looked up in JIRA are
+     *                          added to it instead of being looked up
+     * @param unverifiedIssueKeys issue keys that passed without JIRA confirming them are added to it
+     */
+    private List<YaccError> checkJiraIssues(Settings settings, YaccCommit commit, CommitMessageScanner.Result scan,
+                                            PushDeadline deadline, @Nullable List<IssueKey> deferredIssueKeys,
+                                            List<IssueKey> unverifiedIssueKeys) {
         if (!settings.getBoolean("requireJiraIssue", false)) {
             return Lists.newArrayList();
         }
@@ -228,12 +652,18 @@ public class YaccServiceImpl implements YaccService {
         }
 
         final List<IssueKey> issues;
-        final List<IssueKey> extractedKeys = extractJiraIssuesFromCommitMessage(settings, commit);
+        final List<IssueKey> extractedKeys;
+        try {
+            extractedKeys = extractJiraIssuesFromCommitMessage(commit, scan);
+        } catch (RegexBudgetExceededException e) {
+            errors.add(new YaccError(YaccError.Type.COMMIT_REGEX, "%s", e.getMessage()));
+            return errors;
+        }
         if (settings.getBoolean("ignoreUnknownIssueProjectKeys", false)) {
             /* Remove issues that contain non-existent project keys */
             issues = Lists.newArrayList();
             for (IssueKey issueKey : extractedKeys) {
-                if (jiraService.doesProjectExist(issueKey)) {
+                if (jiraService.doesProjectExist(issueKey, deadline)) {
                     issues.add(issueKey);
                 }
             }
@@ -242,9 +672,12 @@ public class YaccServiceImpl implements YaccService {
             issues = extractedKeys;
         }
 
-        if(!issues.isEmpty()) {
+        if (!issues.isEmpty() && deferredIssueKeys != null) {
+            deferredIssueKeys.addAll(issues);
+        }
+        else if(!issues.isEmpty()) {
             for(IssueKey issueKey : issues) {
-                errors.addAll(checkJiraIssue(settings, issueKey));
+                errors.addAll(checkJiraIssue(settings, issueKey, deadline, unverifiedIssueKeys));
             }
         }
         else {
@@ -254,23 +687,32 @@ public class YaccServiceImpl implements YaccService {
         return errors;
     }
 
-    private List<YaccError> checkJiraIssue(Settings settings, IssueKey issueKey) {
+    private List<YaccError> checkJiraIssue(Settings settings, IssueKey issueKey, PushDeadline deadline,
+                                           List<IssueKey> unverifiedIssueKeys) {
         List<YaccError> errors = Lists.newArrayList();
 
-        errors.addAll(jiraService.doesIssueExist(issueKey));
+        List<YaccError> existErrors = jiraService.doesIssueExist(issueKey, deadline);
+        List<YaccError> matchErrors = null;
+        errors.addAll(existErrors);
 
         if(errors.isEmpty()) {
             String jqlQuery = settings.getString("issueJqlMatcher");
 
             if (jqlQuery != null && !jqlQuery.isEmpty()) {
-                errors.addAll(jiraService.doesIssueMatchJqlQuery(jqlQuery, issueKey));
+                matchErrors = jiraService.doesIssueMatchJqlQuery(jqlQuery, issueKey, deadline);
+                errors.addAll(matchErrors);
             }
         }
 
+        if (JiraService.isUnverified(existErrors) || JiraService.isUnverified(matchErrors)) {
+            unverifiedIssueKeys.add(issueKey);
+        }
+
         return errors;
     }
 
-    private List<YaccError> checkCommitterEmail(@Nonnull Settings settings, @Nonnull YaccCommit commit, @Nonnull ApplicationUser stashUser) {
+    private List<YaccError> checkCommitterEmail(@Nonnull Settings settings, @Nullable SettingRegex emailRegex,
+                                                @Nonnull YaccCommit commit, @Nonnull ApplicationUser stashUser) {
         final boolean requireMatchingAuthorEmail = settings.getBoolean("requireMatchingAuthorEmail", false);
         List<YaccError> errors = Lists.newArrayList();
 
@@ -292,7 +734,7 @@ public class YaccServiceImpl implements YaccService {
                     commit.getCommitter().getEmailAddress())));
         }
 
-        errors.addAll(checkCommitterEmailRegex(settings, commit));
+        errors.addAll(checkCommitterEmailRegex(emailRegex, commit));
         return errors;
     }
 
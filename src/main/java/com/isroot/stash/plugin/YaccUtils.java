@@ -15,10 +15,17 @@ public class YaccUtils {
 
     public static Settings buildYaccConfig(PluginSettingsFactory pluginSettingsFactory,
             RepositoryHookService repositoryHookService) {
-        Map<String, Object> settingsMap = getSettingsMap(pluginSettingsFactory);
+        return buildSettings(repositoryHookService, getSettingsMap(pluginSettingsFactory));
+    }
+
+    /**
+     * Build settings from form fields, as the global settings are saved. Checkboxes are "on" or
+     * "true" when checked, and empty fields are left out.
+     */
+    public static Settings buildSettings(RepositoryHookService repositoryHookService, Map<String, ?> fields) {
         HashMap<String, Object> config = new HashMap<>();
-        for (String fieldName : settingsMap.keySet()) {
-            addFieldValueToPluginConfigMap(settingsMap, config, fieldName);
+        for (String fieldName : fields.keySet()) {
+            addFieldValueToPluginConfigMap(fields, config, fieldName);
         }
         return repositoryHookService.createSettingsBuilder().addAll(config).build();
     }
@@ -36,9 +43,10 @@ public class YaccUtils {
         return settingsMap;
     }
 
-    private static void addFieldValueToPluginConfigMap(Map<String, Object> settingsMap, HashMap<String, Object> config,
+    private static void addFieldValueToPluginConfigMap(Map<String, ?> settingsMap, HashMap<String, Object> config,
             String fieldName) {
-        String value = (String) settingsMap.get(fieldName);
+        Object field = settingsMap.get(fieldName);
+        String value = field != null ? field.toString() : null;
         if (value != null && (value.equals("on") || value.equals("true"))) { // handle "on" value
             config.put(fieldName, true);
         } else if (value != null && !value.isEmpty()) {
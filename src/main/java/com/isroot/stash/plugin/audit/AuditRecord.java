@@ -0,0 +1,63 @@
+package com.isroot.stash.plugin.audit;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Problems found in the commits of a ref change after it was pushed.
+ */
+public class AuditRecord {
+    private final int repositoryId;
+    private final String refId;
+    private final String fromHash;
+    private final String toHash;
+    private final String pusher;
+    private final long pushedTimestamp;
+    private final long auditedTimestamp;
+    private final List<String> violations;
+
+    public AuditRecord(int repositoryId, String refId, String fromHash, String toHash, String pusher,
+                       long pushedTimestamp, long auditedTimestamp, List<String> violations) {
+        this.repositoryId = repositoryId;
+        this.refId = refId;
+        this.fromHash = fromHash;
+        this.toHash = toHash;
+        this.pusher = pusher;
+        this.pushedTimestamp = pushedTimestamp;
+        this.auditedTimestamp = auditedTimestamp;
+        this.violations = ImmutableList.copyOf(violations);
+    }
+
+    public int getRepositoryId() {
+        return repositoryId;
+    }
+
+    public String getRefId() {
+        return refId;
+    }
+
+    public String getFromHash() {
+        return fromHash;
+    }
+
+    public String getToHash() {
+        return toHash;
+    }
+
+    public String getPusher() {
+        return pusher;
+    }
+
+    public long getPushedTimestamp() {
+        return pushedTimestamp;
+    }
+
+    public long getAuditedTimestamp() {
+        return auditedTimestamp;
+    }
+
+    public List<String> getViolations() {
+        return violations;
+    }
+}
@@ -0,0 +1,180 @@
+package com.isroot.stash.plugin.audit;
+
+import com.google.common.collect.ImmutableList;
+import com.isroot.stash.plugin.errors.YaccError;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress and results of checking the full history of a repository. This is also the
+ * checkpoint that lets an audit continue after a restart: it is saved as JSON, so only the
+ * transient fields are lost.
+ */
+public class HistoryAudit {
+    public enum Status {
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final int repositoryId;
+    private final String startedBy;
+    private final int maxViolations;
+    private final List<String> violations = new ArrayList<>();
+    private String policyHash;
+    private List<String> tips;
+    private Status status = Status.RUNNING;
+    private long checkedCommits;
+    private long violationCount;
+    private long startedTimestamp;
+    private long updatedTimestamp;
+    private long completedTimestamp;
+    private String error;
+
+    private transient long resumedTimestamp;
+    private transient long checkedAtResume;
+
+    /**
+     * @param maxViolations number of violations kept, later ones are only counted
+     */
+    public HistoryAudit(int repositoryId, String startedBy, int maxViolations) {
+        this.repositoryId = repositoryId;
+        this.startedBy = startedBy;
+        this.maxViolations = maxViolations;
+        this.startedTimestamp = System.currentTimeMillis();
+        this.updatedTimestamp = startedTimestamp;
+    }
+
+    /**
+     * Get ready to check commits with the given policy. Progress made with another policy is
+     * thrown away, and the history is walked again from new {@link #getTips tips}.
+     */
+    public synchronized void resume(String policyHash) {
+        if (!policyHash.equals(this.policyHash)) {
+            this.policyHash = policyHash;
+            tips = null;
+            checkedCommits = 0;
+            violationCount = 0;
+            violations.clear();
+        }
+
+        status = Status.RUNNING;
+        error = null;
+        resumedTimestamp = System.currentTimeMillis();
+        checkedAtResume = checkedCommits;
+    }
+
+    /**
+     * Start walking the history from the commits the refs pointed at when the audit started. The
+     * number of commits checked is where the walk from these commits continues, so earlier
+     * progress is thrown away.
+     */
+    public synchronized void startWalk(List<String> tips) {
+        this.tips = new ArrayList<>(tips);
+        checkedCommits = 0;
+        violationCount = 0;
+        violations.clear();
+    }
+
+    /**
+     * Return the commits whose history is walked, or null if the walk hasn't started.
+     */
+    @Nullable
+    public synchronized List<String> getTips() {
+        return tips == null ? null : ImmutableList.copyOf(tips);
+    }
+
+    /**
+     * Record the results of the next commits in history order.
+     */
+    public synchronized void chunkChecked(int commits, List<YaccError> errors) {
+        checkedCommits += commits;
+        violationCount += errors.size();
+
+        for (YaccError error : errors) {
+            if (violations.size() >= maxViolations) {
+                break;
+            }
+            violations.add(error.getMessage());
+        }
+
+        updatedTimestamp = System.currentTimeMillis();
+    }
+
+    public synchronized void completed() {
+        finish(Status.COMPLETED, null);
+    }
+
+    public synchronized void cancelled() {
+        finish(Status.CANCELLED, null);
+    }
+
+    public synchronized void failed(String error) {
+        finish(Status.FAILED, error);
+    }
+
+    private void finish(Status status, String error) {
+        this.status = status;
+        this.error = error;
+        completedTimestamp = System.currentTimeMillis();
+        updatedTimestamp = completedTimestamp;
+    }
+
+    public int getRepositoryId() {
+        return repositoryId;
+    }
+
+    public String getStartedBy() {
+        return startedBy;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized long getCheckedCommits() {
+        return checkedCommits;
+    }
+
+    public synchronized long getViolationCount() {
+        return violationCount;
+    }
+
+    public synchronized List<String> getViolations() {
+        return ImmutableList.copyOf(violations);
+    }
+
+    public synchronized long getStartedTimestamp() {
+        return startedTimestamp;
+    }
+
+    public synchronized long getUpdatedTimestamp() {
+        return updatedTimestamp;
+    }
+
+    public synchronized long getCompletedTimestamp() {
+        return completedTimestamp;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    /**
+     * Return the number of commits checked per second since the audit was last started or
+     * resumed on this node, or 0 if it isn't running here.
+     */
+    public synchronized double getCommitsPerSecond() {
+        if (status != Status.RUNNING || resumedTimestamp == 0) {
+            return 0;
+        }
+
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - resumedTimestamp);
+
+        return (checkedCommits - checkedAtResume) * (double) TimeUnit.SECONDS.toMillis(1) / elapsedMillis;
+    }
+}
@@ -0,0 +1,730 @@
+package com.isroot.stash.plugin.audit;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.atlassian.bitbucket.server.ApplicationPropertiesService;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.user.UserService;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.isroot.stash.plugin.CommitResultCache;
+import com.isroot.stash.plugin.HookSettingsResolver;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.YaccCommit;
+import com.isroot.stash.plugin.YaccService;
+import com.isroot.stash.plugin.commits.CommitsService;
+import com.isroot.stash.plugin.errors.YaccError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Checks every commit already in a repository against its current settings, to find commits
+ * that were pushed before a rule was added. Only the checks that don't depend on the pusher or
+ * branch are run, see {@link YaccService#checkExistingCommits}.
+ *
+ * <p>One git process walks the history while chunks of commits are checked on a small pool of
+ * low priority threads, as the user who started the audit. Commits are read at a limited rate so
+ * that an audit of a huge repository doesn't compete with pushes, and JIRA is only searched
+ * through the same request limits and circuit breaker as pushes.
+ *
+ * <p>The history walked is that of the commits the refs pointed at when the audit started, so
+ * that the number of commits checked stays a safe place to continue from while refs move.
+ * Progress is saved to the shared home periodically and when the plugin stops. Audits that were
+ * running continue where they were, unless the settings have changed since, in which case they
+ * start over.
+ *
+ * <p>A node claims an audit with a file in the shared home before running it, and keeps the claim
+ * fresh while the audit runs. Every node periodically continues the running audits that are not
+ * claimed, or whose claim was not refreshed within the claim timeout because its node stopped
+ * without releasing it. So each audit runs on one node of a cluster at a time.
+ */
+public class HistoryAuditService implements LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(HistoryAuditService.class);
+    private static final Gson GSON = new Gson();
+
+    private final YaccService yaccService;
+    private final CommitsService commitsService;
+    private final HookSettingsResolver settingsResolver;
+    private final SecurityService securityService;
+    private final UserService userService;
+    private final RepositoryService repositoryService;
+    private final ApplicationPropertiesService applicationPropertiesService;
+    private final int threads;
+    private final int chunkSize;
+    private final double commitsPerSecond;
+    private final int maxViolations;
+    private final long checkpointMillis;
+    private final long claimTimeoutMillis;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
+    private ExecutorService jobExecutor;
+    private ExecutorService checkExecutor;
+    private ScheduledExecutorService claimExecutor;
+
+    public HistoryAuditService(YaccService yaccService, CommitsService commitsService,
+                               HookSettingsResolver settingsResolver, SecurityService securityService,
+                               UserService userService, RepositoryService repositoryService,
+                               ApplicationPropertiesService applicationPropertiesService) {
+        this(yaccService, commitsService, settingsResolver, securityService, userService, repositoryService,
+                applicationPropertiesService,
+                Integer.getInteger("yacc.historyAudit.threads", 2),
+                Integer.getInteger("yacc.historyAudit.chunkSize", 500),
+                Double.parseDouble(System.getProperty("yacc.historyAudit.commitsPerSecond", "100")),
+                Integer.getInteger("yacc.historyAudit.maxViolations", 1000),
+                TimeUnit.SECONDS.toMillis(Long.getLong("yacc.historyAudit.checkpointSeconds", 30)),
+                TimeUnit.SECONDS.toMillis(Long.getLong("yacc.historyAudit.claimTimeoutSeconds", 300)));
+    }
+
+    /**
+     * @param threads threads checking commits, shared by all audits
+     * @param chunkSize commits checked together, JIRA issues are searched for in batches per chunk
+     * @param commitsPerSecond rate commits are read at per audit, 0 for no limit
+     * @param maxViolations violations kept per audit
+     * @param checkpointMillis time between saving the progress of an audit
+     * @param claimTimeoutMillis time after which an audit whose node stopped refreshing its claim
+     *                           is continued by another node
+     */
+    public HistoryAuditService(YaccService yaccService, CommitsService commitsService,
+                               HookSettingsResolver settingsResolver, SecurityService securityService,
+                               UserService userService, RepositoryService repositoryService,
+                               ApplicationPropertiesService applicationPropertiesService, int threads,
+                               int chunkSize, double commitsPerSecond, int maxViolations, long checkpointMillis,
+                               long claimTimeoutMillis) {
+        this.yaccService = yaccService;
+        this.commitsService = commitsService;
+        this.settingsResolver = settingsResolver;
+        this.securityService = securityService;
+        this.userService = userService;
+        this.repositoryService = repositoryService;
+        this.applicationPropertiesService = applicationPropertiesService;
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.commitsPerSecond = commitsPerSecond;
+        this.maxViolations = Math.max(0, maxViolations);
+        this.checkpointMillis = checkpointMillis;
+        this.claimTimeoutMillis = Math.max(TimeUnit.SECONDS.toMillis(3), claimTimeoutMillis);
+    }
+
+    @Override
+    public synchronized void onStart() {
+        jobExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("yacc-history-audit-%d")
+                .setDaemon(true)
+                .setPriority(Thread.MIN_PRIORITY)
+                .build());
+        checkExecutor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("yacc-history-audit-check-%d")
+                .setDaemon(true)
+                .setPriority(Thread.MIN_PRIORITY)
+                .build());
+        claimExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("yacc-history-audit-claims")
+                .setDaemon(true)
+                .setPriority(Thread.MIN_PRIORITY)
+                .build());
+
+        // Claims are refreshed well within the timeout, so only those of stopped nodes expire
+        claimExecutor.scheduleWithFixedDelay(this::maintainClaims, 0, claimTimeoutMillis / 3,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onStop() {
+        ExecutorService stoppingJobs;
+        synchronized (this) {
+            stoppingJobs = jobExecutor;
+            if (stoppingJobs == null) {
+                return;
+            }
+
+            for (Job job : jobs.values()) {
+                job.stopping = true;
+            }
+
+            claimExecutor.shutdownNow();
+            checkExecutor.shutdownNow();
+            jobExecutor.shutdown();
+            jobExecutor = null;
+            checkExecutor = null;
+            claimExecutor = null;
+        }
+
+        // Running audits save their progress and release their claims as they stop
+        try {
+            stoppingJobs.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start auditing the history of a repository, continuing from the last checkpoint if an
+     * earlier audit didn't finish.
+     *
+     * @param user checks run as this user, who must be allowed to read the repository
+     * @throws IllegalStateException if the repository is already being audited, on any node
+     * @throws IllegalArgumentException if YACC isn't enabled for the repository
+     */
+    public synchronized HistoryAudit start(Repository repository, ApplicationUser user) {
+        if (jobExecutor == null) {
+            throw new RejectedExecutionException("history audits are not started");
+        }
+
+        Job running = jobs.get(repository.getId());
+        if (running != null) {
+            throw new IllegalStateException("history of " + repository + " is already being audited");
+        }
+
+        Settings settings = settingsResolver.getSettings(repository);
+        if (settings == null) {
+            throw new IllegalArgumentException("YACC is not enabled for " + repository);
+        }
+
+        if (!claim(repository.getId())) {
+            throw new IllegalStateException("history of " + repository + " is already being audited on another node");
+        }
+
+        HistoryAudit audit = readCheckpoint(repository.getId());
+        if (audit == null || audit.getStatus() == HistoryAudit.Status.COMPLETED
+                || audit.getStatus() == HistoryAudit.Status.CANCELLED) {
+            audit = new HistoryAudit(repository.getId(), user.getName(), maxViolations);
+        }
+
+        startJob(new Job(repository, user, audit));
+
+        return audit;
+    }
+
+    /**
+     * Stop the audit of a repository, if there is one running on this node.
+     *
+     * @return true if an audit was cancelled
+     */
+    public boolean cancel(Repository repository) {
+        Job job = jobs.get(repository.getId());
+        if (job == null) {
+            return false;
+        }
+
+        job.cancelled = true;
+        return true;
+    }
+
+    /**
+     * Return the audit running on this node, or else the last saved progress of an audit of the
+     * repository, or null if it has never been audited.
+     */
+    @Nullable
+    public HistoryAudit getAudit(int repositoryId) {
+        Job job = jobs.get(repositoryId);
+        if (job != null) {
+            return job.audit;
+        }
+
+        return readCheckpoint(repositoryId);
+    }
+
+    private void startJob(Job job) {
+        jobs.put(job.repository.getId(), job);
+
+        try {
+            jobExecutor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.repository.getId());
+            releaseClaim(job.repository.getId());
+            throw e;
+        }
+    }
+
+    private void run(Job job) {
+        HistoryAudit audit = job.audit;
+
+        try {
+            securityService.impersonating(job.user, "Audit the history of a repository").call(
+                    new UncheckedOperation<Void>() {
+                        public Void perform() {
+                            audit(job);
+                            return null;
+                        }
+                    });
+
+            audit.completed();
+            log.info("audited {} commits of {}, {} violations", audit.getCheckedCommits(), job.repository,
+                    audit.getViolationCount());
+        } catch (RuntimeException e) {
+            // git may report the CancellationException thrown to stop it as a failed command
+            if (job.cancelled) {
+                audit.cancelled();
+                log.info("history audit of {} cancelled after {} commits", job.repository,
+                        audit.getCheckedCommits());
+            } else if (job.claimLost) {
+                log.warn("history audit of {} stopped after {} commits, another node has taken it over",
+                        job.repository, audit.getCheckedCommits());
+            } else if (job.stopping) {
+                log.info("history audit of {} stopped after {} commits, it will continue when started again",
+                        job.repository, audit.getCheckedCommits());
+            } else {
+                audit.failed(e.getMessage());
+                log.warn("history audit of {} failed", job.repository, e);
+            }
+        } finally {
+            jobs.remove(job.repository.getId());
+
+            // The node that took over the audit saves its progress from now on
+            if (!job.claimLost) {
+                writeCheckpoint(audit);
+                releaseClaim(job.repository.getId());
+            }
+        }
+    }
+
+    private void audit(Job job) {
+        Settings settings = settingsResolver.getSettings(job.repository);
+        if (settings == null) {
+            throw new IllegalStateException("YACC is no longer enabled for " + job.repository);
+        }
+
+        job.audit.resume(CommitResultCache.policyHash(settings));
+        if (job.audit.getTips() == null) {
+            // Later the walk continues from these commits even if refs have moved, so that commits
+            // pushed in the meantime don't shift the commits already checked
+            job.audit.startWalk(commitsService.getRefTips(job.repository, PushDeadline.none()));
+        }
+        writeCheckpoint(job.audit);
+
+        ExecutorService executor;
+        synchronized (this) {
+            executor = checkExecutor;
+        }
+        if (executor == null) {
+            throw new CancellationException();
+        }
+
+        ChunkDispatcher dispatcher = new ChunkDispatcher(job, settings, executor);
+        commitsService.streamCommitsFrom(job.repository, job.audit.getTips(), job.audit.getCheckedCommits(),
+                PushDeadline.none(), dispatcher);
+        dispatcher.finish();
+    }
+
+    /**
+     * Refresh the claims of the audits running on this node, stop those that another node has
+     * taken over, and continue the audits that no node is running.
+     */
+    private void maintainClaims() {
+        try {
+            for (Job job : jobs.values()) {
+                if (!refreshClaim(job.repository.getId())) {
+                    job.claimLost = true;
+                }
+            }
+
+            resumeAudits();
+        } catch (RuntimeException e) {
+            // Never let the scheduled task die
+            log.warn("could not maintain history audit claims", e);
+        }
+    }
+
+    /**
+     * Continue the running audits that no node has claimed, such as those that were running when
+     * the plugin stopped.
+     */
+    private void resumeAudits() {
+        File[] files = getCheckpointDir().listFiles((dir, name) -> name.endsWith(".json"));
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            HistoryAudit audit = readCheckpoint(file);
+            if (audit == null || audit.getStatus() != HistoryAudit.Status.RUNNING
+                    || jobs.containsKey(audit.getRepositoryId()) || isClaimed(audit.getRepositoryId())) {
+                continue;
+            }
+
+            ApplicationUser user = userService.getUserByName(audit.getStartedBy());
+            if (user == null) {
+                log.warn("not continuing history audit of repository {}, user {} no longer exists",
+                        audit.getRepositoryId(), audit.getStartedBy());
+                continue;
+            }
+
+            Repository repository = securityService.impersonating(user, "Continue a history audit").call(
+                    new UncheckedOperation<Repository>() {
+                        public Repository perform() {
+                            return repositoryService.getById(audit.getRepositoryId());
+                        }
+                    });
+            if (repository == null) {
+                log.warn("not continuing history audit of repository {}, it can't be read by {}",
+                        audit.getRepositoryId(), audit.getStartedBy());
+                continue;
+            }
+
+            synchronized (this) {
+                if (jobExecutor == null) {
+                    return;
+                }
+                if (!jobs.containsKey(repository.getId()) && claim(repository.getId())) {
+                    // Read again, the node that had the audit may have saved progress since
+                    HistoryAudit claimed = readCheckpoint(repository.getId());
+                    if (claimed == null || claimed.getStatus() != HistoryAudit.Status.RUNNING) {
+                        releaseClaim(repository.getId());
+                        continue;
+                    }
+
+                    log.info("continuing history audit of {} after {} commits", repository,
+                            claimed.getCheckedCommits());
+                    startJob(new Job(repository, user, claimed));
+                }
+            }
+        }
+    }
+
+    private File getCheckpointDir() {
+        return new File(new File(applicationPropertiesService.getSharedHomeDir(), "yacc"), "history-audit");
+    }
+
+    private Path getClaimFile(int repositoryId) {
+        return new File(getCheckpointDir(), repositoryId + ".claim").toPath();
+    }
+
+    /**
+     * Claim the audit of a repository for this node. A claim that its node hasn't refreshed within
+     * the claim timeout is taken over.
+     *
+     * @return true if this node holds the claim
+     */
+    private boolean claim(int repositoryId) {
+        Path file = getClaimFile(repositoryId);
+
+        try {
+            Files.createDirectories(file.getParent());
+
+            if (isClaimed(repositoryId)) {
+                return ownsClaim(repositoryId);
+            }
+
+            // Only one node can move an abandoned claim out of the way, the others find it gone
+            Path abandoned = file.resolveSibling(file.getFileName() + "." + nodeId);
+            try {
+                Files.move(file, abandoned, StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(abandoned);
+                log.info("taking over the history audit of repository {} from a node that stopped", repositoryId);
+            } catch (NoSuchFileException e) {
+                // Not claimed, or released since
+            }
+
+            Files.write(file, nodeId.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (IOException e) {
+            log.warn("could not claim the history audit of repository {}", repositoryId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Return true if a node holds a claim on the audit of a repository that it has refreshed
+     * within the claim timeout.
+     */
+    private boolean isClaimed(int repositoryId) {
+        try {
+            long age = System.currentTimeMillis() - Files.getLastModifiedTime(getClaimFile(repositoryId)).toMillis();
+            return age < claimTimeoutMillis;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            log.warn("could not read the history audit claim of repository {}", repositoryId, e);
+            return true;
+        }
+    }
+
+    private boolean ownsClaim(int repositoryId) {
+        try {
+            return nodeId.equals(new String(Files.readAllBytes(getClaimFile(repositoryId)), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Keep this node's claim on the audit of a repository from expiring.
+     *
+     * @return false if another node holds the claim now
+     */
+    private boolean refreshClaim(int repositoryId) {
+        if (!ownsClaim(repositoryId)) {
+            return false;
+        }
+
+        try {
+            Files.setLastModifiedTime(getClaimFile(repositoryId), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.warn("could not refresh the history audit claim of repository {}", repositoryId, e);
+        }
+        return true;
+    }
+
+    private void releaseClaim(int repositoryId) {
+        if (!ownsClaim(repositoryId)) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(getClaimFile(repositoryId));
+        } catch (IOException e) {
+            log.warn("could not release the history audit claim of repository {}", repositoryId, e);
+        }
+    }
+
+    @Nullable
+    private HistoryAudit readCheckpoint(int repositoryId) {
+        File file = new File(getCheckpointDir(), repositoryId + ".json");
+        return file.isFile() ? readCheckpoint(file) : null;
+    }
+
+    @Nullable
+    private HistoryAudit readCheckpoint(File file) {
+        try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return GSON.fromJson(in, HistoryAudit.class);
+        } catch (IOException | RuntimeException e) {
+            log.warn("could not read history audit checkpoint {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Save the progress of an audit. The file is replaced atomically so that it is never read
+     * partially written.
+     */
+    private void writeCheckpoint(HistoryAudit audit) {
+        File file = new File(getCheckpointDir(), audit.getRepositoryId() + ".json");
+
+        synchronized (audit) {
+            try {
+                Path dir = file.getParentFile().toPath();
+                Files.createDirectories(dir);
+
+                Path temp = Files.createTempFile(dir, file.getName(), ".tmp");
+                try {
+                    try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                        GSON.toJson(audit, out);
+                    }
+
+                    Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("could not write history audit checkpoint {}", file, e);
+            }
+        }
+    }
+
+    private static class Job {
+        final Repository repository;
+        final ApplicationUser user;
+        final HistoryAudit audit;
+        volatile boolean cancelled;
+        volatile boolean stopping;
+        volatile boolean claimLost;
+
+        Job(Repository repository, ApplicationUser user, HistoryAudit audit) {
+            this.repository = repository;
+            this.user = user;
+            this.audit = audit;
+        }
+    }
+
+    /**
+     * Collects the commits read by git into chunks and checks them on the pool. Chunks can finish
+     * in any order, but they are added to the audit in history order so that the number of
+     * commits checked is always a safe place to continue from.
+     */
+    private class ChunkDispatcher implements Consumer<YaccCommit> {
+        private final Job job;
+        private final Settings settings;
+        private final ExecutorService executor;
+        @Nullable
+        private final RateLimiter rateLimiter;
+        private final Semaphore permits = new Semaphore(threads * 2);
+        private final TreeMap<Long, ChunkResult> finished = new TreeMap<>();
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        private List<YaccCommit> chunk = new ArrayList<>();
+        private long submitted;
+        private long nextToRecord;
+        private long lastCheckpoint = System.currentTimeMillis();
+
+        ChunkDispatcher(Job job, Settings settings, ExecutorService executor) {
+            this.job = job;
+            this.settings = settings;
+            this.executor = executor;
+            this.rateLimiter = commitsPerSecond > 0 ? RateLimiter.create(commitsPerSecond) : null;
+        }
+
+        @Override
+        public void accept(YaccCommit commit) {
+            checkStopped();
+
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+
+            chunk.add(commit);
+            if (chunk.size() >= chunkSize) {
+                dispatch();
+            }
+        }
+
+        /**
+         * Check the last partial chunk and wait for every chunk to be checked.
+         */
+        void finish() {
+            if (!chunk.isEmpty()) {
+                dispatch();
+            }
+
+            acquire(threads * 2);
+            checkStopped();
+        }
+
+        private void dispatch() {
+            List<YaccCommit> commits = chunk;
+            long index = submitted++;
+            chunk = new ArrayList<>();
+
+            acquire(1);
+
+            try {
+                executor.execute(() -> {
+                    try {
+                        check(index, commits);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The plugin is stopping
+                permits.release();
+                throw new CancellationException();
+            }
+        }
+
+        private void check(long index, List<YaccCommit> commits) {
+            try {
+                List<YaccError> errors = securityService.impersonating(job.user, "Audit the history of a repository")
+                        .call(new UncheckedOperation<List<YaccError>>() {
+                            public List<YaccError> perform() {
+                                return yaccService.checkExistingCommits(job.repository, settings, commits,
+                                        PushDeadline.none());
+                            }
+                        });
+
+                recordChunk(index, new ChunkResult(commits.size(), errors));
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        private void recordChunk(long index, ChunkResult result) {
+            boolean checkpoint = false;
+
+            synchronized (finished) {
+                finished.put(index, result);
+
+                ChunkResult next;
+                while ((next = finished.remove(nextToRecord)) != null) {
+                    job.audit.chunkChecked(next.commits, next.errors);
+                    nextToRecord++;
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastCheckpoint >= checkpointMillis) {
+                    lastCheckpoint = now;
+                    checkpoint = true;
+                }
+            }
+
+            if (checkpoint) {
+                writeCheckpoint(job.audit);
+            }
+        }
+
+        /**
+         * Wait for chunks to be checked, so that no more than two chunks per thread are held in
+         * memory.
+         */
+        private void acquire(int count) {
+            try {
+                while (!permits.tryAcquire(count, 1, TimeUnit.SECONDS)) {
+                    checkStopped();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+
+            if (count > 1) {
+                permits.release(count);
+            }
+        }
+
+        private void checkStopped() {
+            RuntimeException e = failure.get();
+            if (e != null) {
+                throw e;
+            }
+
+            if (job.cancelled || job.stopping || job.claimLost) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+    private static class ChunkResult {
+        final int commits;
+        final List<YaccError> errors;
+
+        ChunkResult(int commits, List<YaccError> errors) {
+            this.commits = commits;
+            this.errors = errors;
+        }
+    }
+}
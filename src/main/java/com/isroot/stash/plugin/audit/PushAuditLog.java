@@ -0,0 +1,58 @@
+package com.isroot.stash.plugin.audit;
+
+import com.google.common.collect.Lists;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The most recent {@link AuditRecord}s of each repository, kept in memory on the node that
+ * audited the push. The number kept per repository is read from the
+ * 'yacc.audit.maxRecordsPerRepository' system property.
+ */
+public class PushAuditLog {
+    private final int maxRecordsPerRepository;
+    private final Map<Integer, Deque<AuditRecord>> records = new HashMap<>();
+
+    public PushAuditLog() {
+        this(Integer.getInteger("yacc.audit.maxRecordsPerRepository", 500));
+    }
+
+    public PushAuditLog(int maxRecordsPerRepository) {
+        this.maxRecordsPerRepository = Math.max(1, maxRecordsPerRepository);
+    }
+
+    public synchronized void add(AuditRecord record) {
+        Deque<AuditRecord> repositoryRecords = records.get(record.getRepositoryId());
+        if (repositoryRecords == null) {
+            repositoryRecords = new ArrayDeque<>();
+            records.put(record.getRepositoryId(), repositoryRecords);
+        }
+
+        repositoryRecords.addFirst(record);
+        while (repositoryRecords.size() > maxRecordsPerRepository) {
+            repositoryRecords.removeLast();
+        }
+    }
+
+    /**
+     * Return up to limit records of the repository, newest first.
+     */
+    public synchronized List<AuditRecord> getRecords(int repositoryId, int limit) {
+        List<AuditRecord> found = Lists.newArrayList();
+
+        Deque<AuditRecord> repositoryRecords = records.get(repositoryId);
+        if (repositoryRecords != null) {
+            Iterator<AuditRecord> it = repositoryRecords.iterator();
+            while (it.hasNext() && found.size() < limit) {
+                found.add(it.next());
+            }
+        }
+
+        return found;
+    }
+}
@@ -0,0 +1,54 @@
+package com.isroot.stash.plugin.audit;
+
+import com.atlassian.bitbucket.mail.MailMessage;
+import com.atlassian.bitbucket.mail.MailService;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emails the pusher the problems an audit found in their push. Disabled by setting the
+ * 'yacc.audit.notifyPusher' system property to false, or when no mail server is configured.
+ */
+public class PushAuditNotifier {
+    private static final Logger log = LoggerFactory.getLogger(PushAuditNotifier.class);
+
+    private final MailService mailService;
+    private final boolean enabled;
+
+    public PushAuditNotifier(MailService mailService) {
+        this(mailService, Boolean.parseBoolean(System.getProperty("yacc.audit.notifyPusher", "true")));
+    }
+
+    public PushAuditNotifier(MailService mailService, boolean enabled) {
+        this.mailService = mailService;
+        this.enabled = enabled;
+    }
+
+    public void violationsFound(ApplicationUser pusher, Repository repository, AuditRecord record) {
+        if (!enabled || pusher.getEmailAddress() == null || !mailService.isHostConfigured()) {
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append("The JIRA issues of commits you pushed to ").append(record.getRefId())
+                .append(" in ").append(repository.getProject().getKey()).append('/').append(repository.getSlug())
+                .append(" did not pass the commit checks:\n\n");
+        for (String violation : record.getViolations()) {
+            text.append("  - ").append(violation).append('\n');
+        }
+        text.append("\nThe push was accepted. Please correct the commits or the JIRA issues.\n");
+
+        try {
+            mailService.submit(new MailMessage.Builder()
+                    .to(pusher.getEmailAddress())
+                    .subject("[YACC] JIRA issues in your push to " + repository.getProject().getKey() + "/"
+                            + repository.getSlug())
+                    .text(text.toString())
+                    .build());
+        } catch (RuntimeException e) {
+            log.warn("unable to email audit results to {}", pusher.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.isroot.stash.plugin.audit;
+
+import com.atlassian.bitbucket.event.repository.RepositoryPushEvent;
+import com.atlassian.bitbucket.repository.RefChange;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.isroot.stash.plugin.HookSettingsResolver;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.PushDeadlineExceededException;
+import com.isroot.stash.plugin.YaccHook;
+import com.isroot.stash.plugin.YaccService;
+import com.isroot.stash.plugin.errors.YaccError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the JIRA issues of pushes after they are accepted, for repositories whose settings
+ * have 'asyncJiraChecks' enabled. The pre-receive hook still runs every other check. Problems
+ * found are added to the {@link PushAuditLog} and sent to the pusher.
+ *
+ * Pushes are audited on a small pool of background threads, as the user who pushed, using
+ * {@link YaccService#auditRefChange}. Pushes arriving while the queue is full are not audited.
+ */
+public class PushAuditor implements LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(PushAuditor.class);
+
+    private final YaccService yaccService;
+    private final HookSettingsResolver settingsResolver;
+    private final SecurityService securityService;
+    private final PushAuditLog auditLog;
+    private final PushAuditNotifier notifier;
+    private final int threads;
+    private final int queueSize;
+    private final long timeoutMillis;
+    private final AtomicLong audited = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private ThreadPoolExecutor executor;
+
+    public PushAuditor(YaccService yaccService, HookSettingsResolver settingsResolver,
+                       SecurityService securityService, PushAuditLog auditLog, PushAuditNotifier notifier) {
+        this(yaccService, settingsResolver, securityService, auditLog, notifier,
+                Integer.getInteger("yacc.audit.threads", 2),
+                Integer.getInteger("yacc.audit.queueSize", 1000),
+                TimeUnit.SECONDS.toMillis(Long.getLong("yacc.audit.timeoutSeconds", 600)));
+    }
+
+    public PushAuditor(YaccService yaccService, HookSettingsResolver settingsResolver,
+                       SecurityService securityService, PushAuditLog auditLog, PushAuditNotifier notifier,
+                       int threads, int queueSize, long timeoutMillis) {
+        this.yaccService = yaccService;
+        this.settingsResolver = settingsResolver;
+        this.securityService = securityService;
+        this.auditLog = auditLog;
+        this.notifier = notifier;
+        this.threads = Math.max(1, threads);
+        this.queueSize = Math.max(1, queueSize);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public synchronized void onStart() {
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new ThreadFactoryBuilder()
+                .setNameFormat("yacc-push-audit-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    @Override
+    public synchronized void onStop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @EventListener
+    public void onPush(RepositoryPushEvent event) {
+        Repository repository = event.getRepository();
+        ApplicationUser pusher = event.getUser();
+
+        List<RefChange> refChanges = Lists.newArrayList();
+        List<String> pushedRefIds = Lists.newArrayList();
+        for (RefChange refChange : event.getRefChanges()) {
+            if (YaccHook.isCheckable(refChange)) {
+                refChanges.add(refChange);
+            }
+            pushedRefIds.add(refChange.getRef().getId());
+        }
+
+        if (pusher == null || refChanges.isEmpty()) {
+            return;
+        }
+
+        Settings settings = settingsResolver.getSettings(repository);
+        if (settings == null || !settings.getBoolean("asyncJiraChecks", false)
+                || !settings.getBoolean("requireJiraIssue", false)) {
+            return;
+        }
+
+        long pushedTimestamp = System.currentTimeMillis();
+
+        try {
+            getExecutor().execute(() -> audit(repository, pusher, settings, refChanges, pushedRefIds,
+                    pushedTimestamp));
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+            log.warn("JIRA audit queue is full, push to {} by {} was not audited", repository, pusher.getName());
+        }
+    }
+
+    /**
+     * Return the number of ref changes audited.
+     */
+    public long getAuditedCount() {
+        return audited.get();
+    }
+
+    /**
+     * Return the number of pushes not audited because the queue was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            throw new RejectedExecutionException("push auditor is not started");
+        }
+
+        return executor;
+    }
+
+    private void audit(Repository repository, ApplicationUser pusher, Settings settings, List<RefChange> refChanges,
+                       List<String> pushedRefIds, long pushedTimestamp) {
+        try {
+            securityService.impersonating(pusher, "Audit JIRA issues of pushed commits").call(
+                    new UncheckedOperation<Void>() {
+                        public Void perform() {
+                            for (RefChange refChange : refChanges) {
+                                auditRefChange(repository, pusher, settings, refChange, pushedRefIds,
+                                        pushedTimestamp);
+                            }
+                            return null;
+                        }
+                    });
+        } catch (RuntimeException e) {
+            // Never let a failed audit take down the pool thread
+            log.warn("JIRA audit of push to {} failed", repository, e);
+        }
+    }
+
+    private void auditRefChange(Repository repository, ApplicationUser pusher, Settings settings,
+                                RefChange refChange, List<String> pushedRefIds, long pushedTimestamp) {
+        PushDeadline deadline = timeoutMillis > 0 ? new PushDeadline(timeoutMillis, Ticker.systemTicker())
+                : PushDeadline.none();
+
+        List<YaccError> errors;
+        try {
+            errors = yaccService.auditRefChange(repository, settings, refChange, pushedRefIds, deadline);
+        } catch (PushDeadlineExceededException e) {
+            errors = ImmutableList.of(new YaccError(YaccError.Type.TIMEOUT,
+                    "JIRA issues were not all checked within %d seconds",
+                    TimeUnit.MILLISECONDS.toSeconds(timeoutMillis)));
+        }
+
+        log.debug("audited {} in {} pushed by {}: {}", refChange.getRef().getId(), repository, pusher.getName(),
+                errors);
+
+        if (!errors.isEmpty()) {
+            recordViolations(repository, pusher, refChange, pushedTimestamp, errors);
+        }
+        audited.incrementAndGet();
+    }
+
+    private void recordViolations(Repository repository, ApplicationUser pusher, RefChange refChange,
+                                  long pushedTimestamp, List<YaccError> errors) {
+        List<String> violations = Lists.newArrayList();
+        for (YaccError error : errors) {
+            violations.add(error.getMessage());
+        }
+
+        AuditRecord record = new AuditRecord(repository.getId(), refChange.getRef().getId(),
+                refChange.getFromHash(), refChange.getToHash(), pusher.getName(), pushedTimestamp,
+                System.currentTimeMillis(), violations);
+
+        auditLog.add(record);
+        notifier.violationsFound(pusher, repository, record);
+    }
+}
@@ -0,0 +1,174 @@
+package com.isroot.stash.plugin.checks;
+
+import com.atlassian.bitbucket.setting.Settings;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.isroot.stash.plugin.regex.RegexBudget;
+import com.isroot.stash.plugin.regex.SettingRegex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Compiled branch name regexes and recent branch name verdicts, shared by the pre-receive hooks
+ * and the branch creation listener. CI systems create many branches with the same names across
+ * repositories, so most branch names have been checked against the same regex before.
+ *
+ * <p>Verdicts are keyed by the branch name policy (the regex and the regex engine used) and the
+ * branch name, so changing the policy never returns a stale verdict. Both caches are LRU caches;
+ * their sizes are read from the 'yacc.branchNameCache.maxPolicies' and
+ * 'yacc.branchNameCache.maxVerdicts' system properties.
+ */
+public class BranchNameCache {
+    private static final Logger log = LoggerFactory.getLogger(BranchNameCache.class);
+
+    private static final String SETTING = "branchNameRegex";
+
+    private final RegexBudget regexBudget;
+    private final Cache<Policy, Optional<SettingRegex>> regexes;
+    private final Cache<Verdict, Boolean> verdicts;
+
+    public BranchNameCache() {
+        this(Long.getLong("yacc.branchNameCache.maxPolicies", 1000),
+                Long.getLong("yacc.branchNameCache.maxVerdicts", 10000), RegexBudget.fromSystemProperties());
+    }
+
+    /**
+     * @param maxPolicies number of compiled regexes to keep
+     * @param maxVerdicts number of branch name verdicts to keep, 0 disables verdict caching
+     */
+    public BranchNameCache(long maxPolicies, long maxVerdicts, RegexBudget regexBudget) {
+        this.regexBudget = regexBudget;
+        this.regexes = CacheBuilder.newBuilder()
+                .maximumSize(maxPolicies)
+                .build();
+        this.verdicts = CacheBuilder.newBuilder()
+                .maximumSize(maxVerdicts)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Return the compiled branch name regex configured in the settings, or null if there is
+     * none.
+     */
+    @Nullable
+    public SettingRegex getRegex(Settings settings) {
+        final Policy policy = Policy.fromSettings(settings);
+        if (policy == null) {
+            return null;
+        }
+
+        try {
+            return regexes.get(policy,
+                    () -> Optional.fromNullable(SettingRegex.fromSettings(settings, SETTING, 0, regexBudget)))
+                    .orNull();
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // Only a bad regex can fail to compile, let it fail the same way as without the cache
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Same as {@link SettingRegex#matches(CharSequence)}, but returns a recent verdict for the
+     * same regex and branch name if there is one. Matches stopped by the regex budget are not
+     * cached.
+     */
+    public boolean matches(SettingRegex regex, String branchName) {
+        Verdict key = new Verdict(new Policy(regex.getRegex(), regex.isLinear()), branchName);
+
+        Boolean matches = verdicts.getIfPresent(key);
+        if (matches == null) {
+            matches = regex.matches(branchName);
+            verdicts.put(key, matches);
+        } else {
+            log.debug("using cached verdict for branch name {} with regex {}: {}", branchName,
+                    regex.getRegex(), matches);
+        }
+
+        return matches;
+    }
+
+    public CacheStats getVerdictStats() {
+        return verdicts.stats();
+    }
+
+    public void invalidateAll() {
+        regexes.invalidateAll();
+        verdicts.invalidateAll();
+    }
+
+    /**
+     * Everything in the hook settings that affects a branch name verdict.
+     */
+    private static class Policy {
+        private final String regex;
+        private final boolean linear;
+
+        private Policy(String regex, boolean linear) {
+            this.regex = regex;
+            this.linear = linear;
+        }
+
+        @Nullable
+        static Policy fromSettings(Settings settings) {
+            String regex = settings.getString(SETTING);
+            if (regex == null || regex.isEmpty()) {
+                return null;
+            }
+
+            return new Policy(regex, SettingRegex.isLinearEnabled(settings, SETTING));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Policy policy = (Policy) o;
+            return linear == policy.linear && regex.equals(policy.regex);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(regex, linear);
+        }
+    }
+
+    private static class Verdict {
+        private final Policy policy;
+        private final String branchName;
+
+        private Verdict(Policy policy, String branchName) {
+            this.policy = policy;
+            this.branchName = branchName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Verdict verdict = (Verdict) o;
+            return policy.equals(verdict.policy) && branchName.equals(verdict.branchName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(policy, branchName);
+        }
+    }
+}
@@ -3,13 +3,14 @@ package com.isroot.stash.plugin.checks;
 import com.atlassian.bitbucket.scm.git.GitRefPattern;
 import com.atlassian.bitbucket.setting.Settings;
 import com.isroot.stash.plugin.errors.YaccError;
+import com.isroot.stash.plugin.regex.RegexBudget;
+import com.isroot.stash.plugin.regex.RegexBudgetExceededException;
+import com.isroot.stash.plugin.regex.SettingRegex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author Sean Ford
@@ -20,45 +21,61 @@ public class BranchNameCheck {
 
     private final Settings settings;
     private final String refId;
+    private final RegexBudget regexBudget;
+    private final BranchNameCache cache;
 
     public BranchNameCheck(Settings settings, String refId) {
+        this(settings, refId, RegexBudget.fromSystemProperties());
+    }
+
+    public BranchNameCheck(Settings settings, String refId, RegexBudget regexBudget) {
+        this.settings = settings;
+        this.refId = refId;
+        this.regexBudget = regexBudget;
+        this.cache = null;
+    }
+
+    /**
+     * Check using the compiled regex and recent verdicts in a shared cache.
+     */
+    public BranchNameCheck(Settings settings, String refId, BranchNameCache cache) {
         this.settings = settings;
         this.refId = refId;
+        this.regexBudget = null;
+        this.cache = cache;
     }
 
     public List<YaccError> check() {
         List<YaccError> errors = new ArrayList<>();
         boolean isBranch = refId.startsWith(GitRefPattern.HEADS.getPath());
 
-        Pattern branchNamePattern = getPattern();
+        if (!isBranch) {
+            return errors;
+        }
+
+        SettingRegex branchNameRegex = cache != null ? cache.getRegex(settings)
+                : SettingRegex.fromSettings(settings, "branchNameRegex", 0, regexBudget);
 
-        if (isBranch && branchNamePattern != null) {
+        if (branchNameRegex != null) {
             String branchName = refId.replace(GitRefPattern.HEADS.getPath(), "");
-            Matcher matcher = branchNamePattern.matcher(branchName);
 
-            log.debug("checking branch name {} with regex {}, matches={}", branchName, getRegex(),
-                    matcher.matches());
+            try {
+                boolean matches = cache != null ? cache.matches(branchNameRegex, branchName)
+                        : branchNameRegex.matches(branchName);
 
-            if (!matcher.matches()) {
-                errors.add(new YaccError(YaccError.Type.BRANCH_NAME,
-                        String.format("Invalid branch name. '%s' does not match regex '%s'",
-                                branchName, settings.getString("branchNameRegex"))));
+                log.debug("checking branch name {} with regex {}, linear={}, matches={}", branchName,
+                        branchNameRegex.getRegex(), branchNameRegex.isLinear(), matches);
+
+                if (!matches) {
+                    errors.add(new YaccError(YaccError.Type.BRANCH_NAME,
+                            String.format("Invalid branch name. '%s' does not match regex '%s'",
+                                    branchName, branchNameRegex.getRegex())));
+                }
+            } catch (RegexBudgetExceededException e) {
+                errors.add(new YaccError(YaccError.Type.BRANCH_NAME, "%s", e.getMessage()));
             }
         }
 
         return errors;
     }
-
-    private String getRegex() {
-        return settings.getString("branchNameRegex");
-    }
-
-    private Pattern getPattern() {
-        String regex = getRegex();
-        if (regex == null || regex.isEmpty()) {
-            return null;
-        }
-
-        return Pattern.compile(regex);
-    }
 }
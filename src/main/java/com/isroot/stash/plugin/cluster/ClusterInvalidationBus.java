@@ -0,0 +1,114 @@
+package com.isroot.stash.plugin.cluster;
+
+import com.atlassian.cache.Cache;
+import com.atlassian.cache.CacheManager;
+import com.atlassian.cache.CacheSettingsBuilder;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Invalidation bus that reaches every node of a Data Center cluster. Each topic has a version in
+ * a cache that the product replicates to all nodes. Publishing a topic gives it a new version and
+ * notifies this node straight away; the other nodes notice the new version the next time they
+ * poll, which is every 'yacc.cluster.invalidationPollMillis' milliseconds.
+ *
+ * <p>On a single node the replicated cache is a plain local cache and polling never finds a
+ * change that wasn't already handled.
+ */
+public class ClusterInvalidationBus implements InvalidationBus, LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(ClusterInvalidationBus.class);
+
+    private static final String CACHE_NAME = ClusterInvalidationBus.class.getName() + ".versions";
+
+    private final Cache<String, String> versions;
+    private final LocalInvalidationBus localBus = new LocalInvalidationBus();
+    private final Map<String, String> seenVersions = new ConcurrentHashMap<>();
+    private final long pollMillis;
+    private ScheduledExecutorService executor;
+
+    public ClusterInvalidationBus(CacheManager cacheManager) {
+        this(cacheManager, Long.getLong("yacc.cluster.invalidationPollMillis", 1000));
+    }
+
+    public ClusterInvalidationBus(CacheManager cacheManager, long pollMillis) {
+        this.versions = cacheManager.getCache(CACHE_NAME, null, new CacheSettingsBuilder()
+                .remote()
+                .replicateViaCopy()
+                .replicateSynchronously()
+                .unflushable()
+                .build());
+        this.pollMillis = pollMillis;
+    }
+
+    @Override
+    public synchronized void onStart() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("yacc-cache-invalidation")
+                .setDaemon(true)
+                .build());
+
+        executor.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void onStop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public void subscribe(String topic, Runnable listener) {
+        // Versions published before this node subscribed are already reflected in what it loads
+        String version = versions.get(topic);
+        if (version != null) {
+            seenVersions.putIfAbsent(topic, version);
+        }
+
+        localBus.subscribe(topic, listener);
+    }
+
+    @Override
+    public void publish(String topic) {
+        String version = UUID.randomUUID().toString();
+
+        versions.put(topic, version);
+        seenVersions.put(topic, version);
+
+        log.debug("published invalidation of {}", topic);
+        localBus.publish(topic);
+    }
+
+    /**
+     * Notify the listeners of topics that another node has published since the last poll.
+     */
+    public void poll() {
+        try {
+            for (String topic : versions.getKeys()) {
+                String version = versions.get(topic);
+
+                // A version this node published itself may be seen here before it is recorded,
+                // which only invalidates the caches once more
+                if (version != null && !version.equals(seenVersions.get(topic))) {
+                    seenVersions.put(topic, version);
+
+                    log.debug("invalidation of {} published by another node", topic);
+                    localBus.publish(topic);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Never let the scheduled task die
+            log.warn("could not read cache invalidations", e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.isroot.stash.plugin.cluster;
+
+/**
+ * Tells the caches on every cluster node that what they hold is out of date. A cache subscribes
+ * to a topic and drops its entries when the topic is published, on this node or any other.
+ *
+ * <p>Listeners must be quick and must not throw, they are called on the publishing thread for
+ * this node and on a shared thread for the other nodes.
+ */
+public interface InvalidationBus {
+    /** Published when the global hook settings are saved */
+    String GLOBAL_SETTINGS = "globalSettings";
+
+    void subscribe(String topic, Runnable listener);
+
+    void publish(String topic);
+}
@@ -0,0 +1,34 @@
+package com.isroot.stash.plugin.cluster;
+
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Invalidation bus that only reaches the caches of this node. Used when there is no cluster to
+ * tell, and in tests.
+ */
+public class LocalInvalidationBus implements InvalidationBus {
+    private final ListMultimap<String, Runnable> listeners =
+            Multimaps.synchronizedListMultimap(LinkedListMultimap.<String, Runnable>create());
+
+    @Override
+    public void subscribe(String topic, Runnable listener) {
+        listeners.put(topic, listener);
+    }
+
+    @Override
+    public void publish(String topic) {
+        List<Runnable> subscribed;
+        synchronized (listeners) {
+            subscribed = new ArrayList<>(listeners.get(topic));
+        }
+
+        for (Runnable listener : subscribed) {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.isroot.stash.plugin.commits;
+
+import com.atlassian.bitbucket.user.SimplePerson;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.isroot.stash.plugin.YaccCommit;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact, column oriented storage for the new commits of a push. A {@link YaccCommit} per commit
+ * costs a 40 character id string, a {@link SimplePerson} and a message string. Pushes that import
+ * a project's history can add hundreds of thousands of commits, so here:
+ *
+ * <ul>
+ *     <li>commit ids are stored as 20 bytes each in a single array,</li>
+ *     <li>committers are stored once and referred to by number, since the same few people commit
+ *     most of the history,</li>
+ *     <li>messages are stored as UTF-8 in a single buffer and only decoded when a check asks for
+ *     one.</li>
+ * </ul>
+ *
+ * <p>The commits returned are views that are created while iterating. Git never lists a commit
+ * twice, so {@link #add} doesn't check for duplicates. Not thread safe.
+ */
+public class CommitStore extends AbstractSet<YaccCommit> {
+    private static final int ID_BYTES = 20;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private byte[] ids = new byte[INITIAL_CAPACITY * ID_BYTES];
+    private int[] committers = new int[INITIAL_CAPACITY];
+    private int[] messageEnds = new int[INITIAL_CAPACITY];
+    private final BitSet merges = new BitSet();
+    private byte[] messages = new byte[INITIAL_CAPACITY * 64];
+    private int size;
+
+    private final List<SimplePerson> people = Lists.newArrayList();
+    private final Map<String, Integer> personIndex = Maps.newHashMap();
+
+    /** Ids that aren't SHA-1 hashes, which only happens in tests */
+    private final Map<Integer, String> otherIds = Maps.newHashMap();
+
+    /**
+     * Add a commit without creating a {@link YaccCommit} for it.
+     */
+    public void add(String id, String committerName, String committerEmail, String message, boolean isMerge) {
+        ensureCapacity(size + 1);
+
+        if (!packId(id, size)) {
+            otherIds.put(size, id);
+        }
+
+        committers[size] = intern(committerName, committerEmail);
+
+        // Same as the YaccCommit constructor
+        if (message.endsWith("\n")) {
+            message = message.substring(0, message.length() - 1);
+        }
+
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int start = size == 0 ? 0 : messageEnds[size - 1];
+        if (start + bytes.length > messages.length) {
+            messages = Arrays.copyOf(messages, Math.max(messages.length * 2, start + bytes.length));
+        }
+        System.arraycopy(bytes, 0, messages, start, bytes.length);
+        messageEnds[size] = start + bytes.length;
+
+        merges.set(size, isMerge);
+
+        size++;
+    }
+
+    @Override
+    public boolean add(YaccCommit commit) {
+        add(commit.getId(), commit.getCommitter().getName(), commit.getCommitter().getEmailAddress(),
+                commit.getMessage(), commit.isMerge());
+        return true;
+    }
+
+    /**
+     * Return the commit at a position, in the order they were added.
+     */
+    public YaccCommit get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+
+        return new YaccCommitView(index);
+    }
+
+    /**
+     * Return the number of distinct committers.
+     */
+    public int getCommitterCount() {
+        return people.size();
+    }
+
+    @Override
+    public Iterator<YaccCommit> iterator() {
+        return new Iterator<YaccCommit>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public YaccCommit next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return new YaccCommitView(next++);
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > committers.length) {
+            int newCapacity = Math.max(capacity, committers.length * 2);
+            ids = Arrays.copyOf(ids, newCapacity * ID_BYTES);
+            committers = Arrays.copyOf(committers, newCapacity);
+            messageEnds = Arrays.copyOf(messageEnds, newCapacity);
+        }
+    }
+
+    private int intern(String name, String email) {
+        String key = name + '\u0000' + email;
+
+        Integer index = personIndex.get(key);
+        if (index == null) {
+            index = people.size();
+            people.add(new SimplePerson(name, email));
+            personIndex.put(key, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Store a 40 character hex id as 20 bytes. Returns false if the id isn't a SHA-1 hash.
+     */
+    private boolean packId(String id, int index) {
+        if (id.length() != ID_BYTES * 2) {
+            return false;
+        }
+
+        int offset = index * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i++) {
+            int high = Character.digit(id.charAt(i * 2), 16);
+            int low = Character.digit(id.charAt(i * 2 + 1), 16);
+            // Upper case hex would not survive the round trip
+            if (high < 0 || low < 0 || Character.isUpperCase(id.charAt(i * 2))
+                    || Character.isUpperCase(id.charAt(i * 2 + 1))) {
+                return false;
+            }
+            ids[offset + i] = (byte) (high << 4 | low);
+        }
+
+        return true;
+    }
+
+    private String unpackId(int index) {
+        String other = otherIds.get(index);
+        if (other != null) {
+            return other;
+        }
+
+        char[] hex = new char[ID_BYTES * 2];
+        int offset = index * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i++) {
+            hex[i * 2] = Character.forDigit(ids[offset + i] >> 4 & 0xf, 16);
+            hex[i * 2 + 1] = Character.forDigit(ids[offset + i] & 0xf, 16);
+        }
+
+        return new String(hex);
+    }
+
+    private String decodeMessage(int index) {
+        int start = index == 0 ? 0 : messageEnds[index - 1];
+        return new String(messages, start, messageEnds[index] - start, StandardCharsets.UTF_8);
+    }
+
+    private class YaccCommitView extends YaccCommit {
+        private final int index;
+        private String message;
+
+        YaccCommitView(int index) {
+            super(unpackId(index), people.get(committers[index]), merges.get(index));
+            this.index = index;
+        }
+
+        @Override
+        public String getMessage() {
+            if (message == null) {
+                message = decodeMessage(index);
+            }
+            return message;
+        }
+    }
+}
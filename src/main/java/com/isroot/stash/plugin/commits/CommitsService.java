@@ -2,9 +2,13 @@ package com.isroot.stash.plugin.commits;
 
 import com.atlassian.bitbucket.repository.RefChange;
 import com.atlassian.bitbucket.repository.Repository;
+import com.isroot.stash.plugin.PushDeadline;
 import com.isroot.stash.plugin.YaccCommit;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Service to get new commits from a {@link RefChange}.
@@ -17,7 +21,82 @@ public interface CommitsService {
      * Get new {@link YaccCommit}s not already present in the repository for the given {@link RefChange}.
      * @param repository {@link Repository} to look at
      * @param refChange {@link RefChange} to start from
+     * @param deadline git is killed if it is still running when the deadline expires
      * @return A {@link Set} of {@link YaccCommit}s
+     * @throws com.isroot.stash.plugin.PushDeadlineExceededException if the deadline expires
      */
-    Set<YaccCommit> getNewCommits(Repository repository, RefChange refChange);
+    Set<YaccCommit> getNewCommits(Repository repository, RefChange refChange, PushDeadline deadline);
+
+    /**
+     * Count the new commits for the given {@link RefChange} without reading their messages.
+     * @return the number of commits {@link #getNewCommits} would return
+     * @throws com.isroot.stash.plugin.PushDeadlineExceededException if the deadline expires
+     */
+    long countNewCommits(Repository repository, RefChange refChange, PushDeadline deadline);
+
+    /**
+     * Pass new commits to a consumer as git outputs them, newest first, instead of collecting
+     * them all in memory.
+     * @param limit read at most this many commits, 0 for no limit
+     * @param stride only pass every stride-th commit, starting with the newest
+     * @throws com.isroot.stash.plugin.PushDeadlineExceededException if the deadline expires
+     */
+    void streamNewCommits(Repository repository, RefChange refChange, PushDeadline deadline, int limit, int stride,
+                          Consumer<YaccCommit> consumer);
+
+    /**
+     * Count the commits a ref change brought into the repository, once the push has updated the
+     * refs. {@link #countNewCommits} finds none by then, as every pushed commit is reachable from
+     * a ref.
+     * @param pushedRefIds ids of every ref the push updated
+     * @throws com.isroot.stash.plugin.PushDeadlineExceededException if the deadline expires
+     */
+    long countPushedCommits(Repository repository, RefChange refChange, Collection<String> pushedRefIds,
+                            PushDeadline deadline);
+
+    /**
+     * Pass the commits a ref change brought into the repository, once the push has updated the
+     * refs, to a consumer as git outputs them, newest first. These are the commits reachable from
+     * the new tip but not from the old tip or from any branch or tag the push didn't update.
+     * @param pushedRefIds ids of every ref the push updated
+     * @param limit read at most this many commits, 0 for no limit
+     * @param stride only pass every stride-th commit, starting with the newest
+     * @throws com.isroot.stash.plugin.PushDeadlineExceededException if the deadline expires
+     */
+    void streamPushedCommits(Repository repository, RefChange refChange, Collection<String> pushedRefIds,
+                             PushDeadline deadline, int limit, int stride, Consumer<YaccCommit> consumer);
+
+    /**
+     * Pass the commits reachable from the repository's default branch that were committed after
+     * a point in time to a consumer, newest first.
+     * @param since seconds since the epoch
+     * @param limit read at most this many commits, 0 for no limit
+     */
+    void streamRecentCommits(Repository repository, long since, int limit, Consumer<YaccCommit> consumer);
+
+    /**
+     * Return the commits that the refs of the repository point at, tags peeled, without duplicates.
+     * @throws com.isroot.stash.plugin.PushDeadlineExceededException if the deadline expires
+     */
+    List<String> getRefTips(Repository repository, PushDeadline deadline);
+
+    /**
+     * Pass every commit reachable from the given commits to a consumer, newest first, as git
+     * outputs them. The order only depends on the commits given, so a walk from the same commits
+     * can be continued by skipping the commits already passed, even if refs have moved since.
+     * @param tips commits to walk the history of, such as those from {@link #getRefTips}
+     * @param skip number of commits to skip before the first one passed, to continue an earlier walk
+     * @throws com.isroot.stash.plugin.PushDeadlineExceededException if the deadline expires
+     */
+    void streamCommitsFrom(Repository repository, Collection<String> tips, long skip, PushDeadline deadline,
+                           Consumer<YaccCommit> consumer);
+
+    /**
+     * Return the commits reachable from one commit but not from another, newest first, such as
+     * the commits a pull request would merge.
+     * @param limit read at most this many commits, 0 for no limit
+     * @throws com.isroot.stash.plugin.PushDeadlineExceededException if the deadline expires
+     */
+    List<YaccCommit> getCommitsBetween(Repository repository, String excludedHash, String includedHash, int limit,
+                                       PushDeadline deadline);
 }
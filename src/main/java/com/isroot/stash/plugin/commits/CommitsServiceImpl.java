@@ -4,17 +4,22 @@ import com.atlassian.bitbucket.repository.RefChange;
 import com.atlassian.bitbucket.repository.RefChangeType;
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.repository.StandardRefType;
+import com.atlassian.bitbucket.scm.Command;
 import com.atlassian.bitbucket.scm.ScmService;
 import com.atlassian.bitbucket.scm.git.GitScm;
 import com.atlassian.bitbucket.scm.git.command.GitScmCommandBuilder;
 import com.atlassian.bitbucket.scm.git.command.revlist.GitRevListBuilder;
-import com.google.common.collect.Sets;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.PushDeadlineExceededException;
 import com.isroot.stash.plugin.YaccCommit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * @author Sean Ford
@@ -33,12 +38,12 @@ public class CommitsServiceImpl implements CommitsService {
      * {@inheritDoc}
      */
     @Override
-    public Set<YaccCommit> getNewCommits(Repository repository, RefChange refChange) {
+    public Set<YaccCommit> getNewCommits(Repository repository, RefChange refChange, PushDeadline deadline) {
         log.debug("getNewCommits, scmId={} refType={} refId={} toHash={} changeType={}",
                 repository.getScmId(), refChange.getRef().getType(), refChange.getRef().getId(),
                 refChange.getToHash(), refChange.getType());
 
-        Set<YaccCommit> yaccCommits = Sets.newHashSet();
+        CommitStore yaccCommits = new CommitStore();
 
         if (!GitScm.ID.equals(repository.getScmId())) {
             log.warn("scmId={} not supported", repository.getScmId());
@@ -53,10 +58,10 @@ public class CommitsServiceImpl implements CommitsService {
             }
 
             String hash = refChange.getToHash();
-            YaccCommit commit = getGitScmCommandBuilder(repository).catFile()
+            YaccCommit commit = call(getGitScmCommandBuilder(repository).catFile()
                     .pretty()
                     .object(hash)
-                    .build(new AnnotatedTagOutputHandler(hash)).call();
+                    .build(new AnnotatedTagOutputHandler(hash)), deadline);
 
             if (commit != null) {
                 log.debug("found annotated tag");
@@ -67,11 +72,10 @@ public class CommitsServiceImpl implements CommitsService {
                     .format(RevListOutputHandler.FORMAT)
                     .revs(refChange.getToHash(), "--not", "--all");
 
-            List<YaccCommit> found = revListBuilder.build(new RevListOutputHandler())
-                    .call();
+            CommitStore found = call(revListBuilder.build(new RevListOutputHandler(deadline)), deadline);
 
             if (found != null) {
-                yaccCommits.addAll(found);
+                yaccCommits = found;
             }
         }
 
@@ -80,6 +84,238 @@ public class CommitsServiceImpl implements CommitsService {
         return yaccCommits;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long countNewCommits(Repository repository, RefChange refChange, PushDeadline deadline) {
+        if (!GitScm.ID.equals(repository.getScmId())) {
+            return 0;
+        }
+
+        if (refChange.getRef().getType().equals(StandardRefType.TAG)) {
+            // At most one annotated tag
+            return refChange.getType() == RefChangeType.DELETE ? 0 : 1;
+        }
+
+        Long count = call(getGitScmCommandBuilder(repository).revList()
+                .count(true)
+                .revs(refChange.getToHash(), "--not", "--all")
+                .build(new RevListCountOutputHandler()), deadline);
+
+        log.debug("rev-list --count found {} new commits for {}", count, refChange.getRef().getId());
+
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void streamNewCommits(Repository repository, RefChange refChange, PushDeadline deadline, int limit,
+                                 int stride, Consumer<YaccCommit> consumer) {
+        if (!GitScm.ID.equals(repository.getScmId()) || refChange.getRef().getType().equals(StandardRefType.TAG)) {
+            getNewCommits(repository, refChange, deadline).forEach(consumer);
+            return;
+        }
+
+        GitRevListBuilder revListBuilder = getGitScmCommandBuilder(repository).revList()
+                .format(RevListOutputHandler.FORMAT)
+                .revs(refChange.getToHash(), "--not", "--all");
+
+        if (limit > 0) {
+            revListBuilder.limit(limit);
+        }
+
+        call(revListBuilder.build(new RevListOutputHandler(deadline, stride, consumer)), deadline);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long countPushedCommits(Repository repository, RefChange refChange, Collection<String> pushedRefIds,
+                                   PushDeadline deadline) {
+        if (!GitScm.ID.equals(repository.getScmId())) {
+            return 0;
+        }
+
+        if (refChange.getRef().getType().equals(StandardRefType.TAG)) {
+            return countNewCommits(repository, refChange, deadline);
+        }
+
+        Long count = call(getGitScmCommandBuilder(repository).revList()
+                .count(true)
+                .revs(getPushedRevs(refChange, pushedRefIds))
+                .build(new RevListCountOutputHandler()), deadline);
+
+        log.debug("rev-list --count found {} pushed commits for {}", count, refChange.getRef().getId());
+
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void streamPushedCommits(Repository repository, RefChange refChange, Collection<String> pushedRefIds,
+                                    PushDeadline deadline, int limit, int stride, Consumer<YaccCommit> consumer) {
+        if (!GitScm.ID.equals(repository.getScmId()) || refChange.getRef().getType().equals(StandardRefType.TAG)) {
+            getNewCommits(repository, refChange, deadline).forEach(consumer);
+            return;
+        }
+
+        GitRevListBuilder revListBuilder = getGitScmCommandBuilder(repository).revList()
+                .format(RevListOutputHandler.FORMAT)
+                .revs(getPushedRevs(refChange, pushedRefIds));
+
+        if (limit > 0) {
+            revListBuilder.limit(limit);
+        }
+
+        call(revListBuilder.build(new RevListOutputHandler(deadline, stride, consumer)), deadline);
+    }
+
+    /**
+     * The rev-list arguments for the commits of a ref change after the push updated the refs:
+     * the new tip, excluding the old tip and every branch and tag except those the push updated.
+     * Only branches and tags are excluded, as HEAD and other refs, ex: pull request refs, may
+     * already have moved to the pushed commits. Needs git 1.9 for --exclude.
+     */
+    private static String[] getPushedRevs(RefChange refChange, Collection<String> pushedRefIds) {
+        List<String> revs = new ArrayList<>();
+        revs.add(refChange.getToHash());
+        revs.add("--not");
+
+        if (refChange.getType() == RefChangeType.UPDATE) {
+            revs.add(refChange.getFromHash());
+        }
+
+        // Each --exclude only applies to the --glob that follows it
+        for (String glob : new String[] {"refs/heads", "refs/tags"}) {
+            for (String refId : pushedRefIds) {
+                revs.add("--exclude=" + refId);
+            }
+            revs.add("--glob=" + glob);
+        }
+
+        return revs.toArray(new String[revs.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void streamRecentCommits(Repository repository, long since, int limit, Consumer<YaccCommit> consumer) {
+        if (!GitScm.ID.equals(repository.getScmId())) {
+            return;
+        }
+
+        // HEAD of a bare repository is the default branch
+        GitRevListBuilder revListBuilder = getGitScmCommandBuilder(repository).revList()
+                .format(RevListOutputHandler.FORMAT)
+                .revs("--since=" + since, "HEAD");
+
+        if (limit > 0) {
+            revListBuilder.limit(limit);
+        }
+
+        PushDeadline deadline = PushDeadline.none();
+        call(revListBuilder.build(new RevListOutputHandler(deadline, 1, consumer)), deadline);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getRefTips(Repository repository, PushDeadline deadline) {
+        List<String> tips = new ArrayList<>();
+
+        if (!GitScm.ID.equals(repository.getScmId())) {
+            return tips;
+        }
+
+        GitRevListBuilder revListBuilder = getGitScmCommandBuilder(repository).revList()
+                .format(RevListOutputHandler.FORMAT)
+                .revs("--no-walk", "--all");
+
+        call(revListBuilder.build(new RevListOutputHandler(deadline, 1, commit -> tips.add(commit.getId()))),
+                deadline);
+
+        return tips;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void streamCommitsFrom(Repository repository, Collection<String> tips, long skip, PushDeadline deadline,
+                                  Consumer<YaccCommit> consumer) {
+        if (!GitScm.ID.equals(repository.getScmId()) || tips.isEmpty()) {
+            return;
+        }
+
+        List<String> revs = new ArrayList<>();
+        revs.add("--skip=" + Math.max(0, skip));
+        revs.addAll(tips);
+
+        GitRevListBuilder revListBuilder = getGitScmCommandBuilder(repository).revList()
+                .format(RevListOutputHandler.FORMAT)
+                .revs(revs.toArray(new String[revs.size()]));
+
+        call(revListBuilder.build(new RevListOutputHandler(deadline, 1, consumer)), deadline);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<YaccCommit> getCommitsBetween(Repository repository, String excludedHash, String includedHash,
+                                              int limit, PushDeadline deadline) {
+        List<YaccCommit> commits = new ArrayList<>();
+
+        if (!GitScm.ID.equals(repository.getScmId())) {
+            return commits;
+        }
+
+        GitRevListBuilder revListBuilder = getGitScmCommandBuilder(repository).revList()
+                .format(RevListOutputHandler.FORMAT)
+                .revs(includedHash, "--not", excludedHash);
+
+        if (limit > 0) {
+            revListBuilder.limit(limit);
+        }
+
+        call(revListBuilder.build(new RevListOutputHandler(deadline, 1, commits::add)), deadline);
+
+        return commits;
+    }
+
+    /**
+     * Run a git command within the push deadline. If the deadline is bounded, the command's
+     * execution timeout is set to the remaining time so that Bitbucket kills git when it expires.
+     * Commands only take whole seconds, so git may outlive the deadline by up to a second.
+     */
+    private <T> T call(Command<T> command, PushDeadline deadline) {
+        deadline.check();
+
+        if (deadline.isBounded()) {
+            command.setExecutionTimeout(deadline.getRemainingSeconds());
+        }
+
+        try {
+            return command.call();
+        } catch (RuntimeException e) {
+            if (deadline.isExpired()) {
+                log.debug("git command aborted because push deadline expired", e);
+
+                throw new PushDeadlineExceededException(deadline);
+            }
+
+            throw e;
+        }
+    }
+
     private GitScmCommandBuilder getGitScmCommandBuilder(Repository repository) {
         return (GitScmCommandBuilder) scmService.createBuilder(repository);
     }
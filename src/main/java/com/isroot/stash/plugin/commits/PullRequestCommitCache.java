@@ -0,0 +1,101 @@
+package com.isroot.stash.plugin.commits;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.YaccCommit;
+
+import java.util.List;
+
+/**
+ * The commits of recently checked pull requests. Merge checks run every time a pull request is
+ * viewed, and the commits between two hashes never change, so git only has to list them again
+ * when the source or target branch moves.
+ *
+ * <p>Entries are weighed by their number of commits. The total is read from the
+ * 'yacc.mergeCheck.cachedCommits' system property, 0 disables the cache.
+ */
+public class PullRequestCommitCache {
+    private final CommitsService commitsService;
+    private final Cache<Key, List<YaccCommit>> commits;
+
+    public PullRequestCommitCache(CommitsService commitsService) {
+        this(commitsService, Long.getLong("yacc.mergeCheck.cachedCommits", 20000));
+    }
+
+    /**
+     * @param maxCommits total number of commits to keep
+     */
+    public PullRequestCommitCache(CommitsService commitsService, long maxCommits) {
+        this.commitsService = commitsService;
+        this.commits = CacheBuilder.newBuilder()
+                .maximumWeight(maxCommits)
+                .weigher((Key key, List<YaccCommit> value) -> Math.max(1, value.size()))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Return the commits reachable from the source hash but not the target hash, newest first.
+     *
+     * @param limit most commits to return, 0 for no limit
+     * @see CommitsService#getCommitsBetween
+     */
+    public List<YaccCommit> getCommits(Repository repository, String targetHash, String sourceHash, int limit,
+                                       PushDeadline deadline) {
+        Key key = new Key(repository.getId(), targetHash, sourceHash, limit);
+
+        List<YaccCommit> cached = commits.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Not loaded through the cache, so that a listing abandoned at the deadline isn't shared
+        List<YaccCommit> loaded = ImmutableList.copyOf(
+                commitsService.getCommitsBetween(repository, targetHash, sourceHash, limit, deadline));
+        commits.put(key, loaded);
+
+        return loaded;
+    }
+
+    public CacheStats getStats() {
+        return commits.stats();
+    }
+
+    private static class Key {
+        private final int repositoryId;
+        private final String targetHash;
+        private final String sourceHash;
+        private final int limit;
+
+        Key(int repositoryId, String targetHash, String sourceHash, int limit) {
+            this.repositoryId = repositoryId;
+            this.targetHash = targetHash;
+            this.sourceHash = sourceHash;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return repositoryId == key.repositoryId && limit == key.limit
+                    && targetHash.equals(key.targetHash) && sourceHash.equals(key.sourceHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(repositoryId, targetHash, sourceHash, limit);
+        }
+    }
+}
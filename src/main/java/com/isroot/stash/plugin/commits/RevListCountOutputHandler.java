@@ -0,0 +1,42 @@
+package com.isroot.stash.plugin.commits;
+
+import com.atlassian.bitbucket.io.LineReader;
+import com.atlassian.bitbucket.io.LineReaderOutputHandler;
+import com.atlassian.bitbucket.scm.CommandOutputHandler;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Reads the output of 'git rev-list --count'.
+ */
+public class RevListCountOutputHandler extends LineReaderOutputHandler implements CommandOutputHandler<Long> {
+    private Long count;
+
+    public RevListCountOutputHandler() {
+        super("UTF-8");
+    }
+
+    @Nullable
+    @Override
+    public Long getOutput() {
+        return count;
+    }
+
+    @Override
+    protected void processReader(LineReader lineReader) throws IOException {
+        String line = lineReader.readLine();
+
+        if (line != null) {
+            try {
+                count = Long.parseLong(line.trim());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("unexpected line: " + line);
+            }
+        }
+
+        // Drain any remaining output so git doesn't block
+        while (lineReader.readLine() != null) {
+        }
+    }
+}
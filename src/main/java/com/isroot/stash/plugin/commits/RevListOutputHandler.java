@@ -4,35 +4,60 @@ import com.atlassian.bitbucket.io.LineReader;
 import com.atlassian.bitbucket.io.LineReaderOutputHandler;
 import com.atlassian.bitbucket.scm.CommandOutputHandler;
 import com.atlassian.bitbucket.user.SimplePerson;
+import com.isroot.stash.plugin.PushDeadline;
 import com.isroot.stash.plugin.YaccCommit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * @author Sean Ford
  * @since 2017-01-25
  */
 public class RevListOutputHandler extends LineReaderOutputHandler
-        implements CommandOutputHandler<List<YaccCommit>> {
+        implements CommandOutputHandler<CommitStore> {
     public static final String FORMAT = "%H%x02%P%x02%cN%x02%cE%n%B%n%x03END%x04";
     private static final String OBJECT_END = "\u0003END\u0004";
 
     private static final Logger log = LoggerFactory.getLogger(RevListOutputHandler.class);
 
-    private List<YaccCommit> commits = new ArrayList<>();
+    private final PushDeadline deadline;
+    private final int stride;
+    private final Consumer<YaccCommit> consumer;
+    private final CommitStore commits = new CommitStore();
+    private long index;
 
     public RevListOutputHandler() {
+        this(PushDeadline.none());
+    }
+
+    /**
+     * @param deadline parsing is aborted, and git killed, if the deadline expires
+     */
+    public RevListOutputHandler(PushDeadline deadline) {
+        this(deadline, 1, null);
+    }
+
+    /**
+     * Pass commits to a consumer as they are read instead of collecting them, so that commits
+     * can be checked while git is still running and a huge push never has to be held in memory.
+     *
+     * @param stride only every stride-th commit is parsed, starting with the first one
+     * @param consumer receives the commits, or null to collect them for {@link #getOutput()}
+     */
+    public RevListOutputHandler(PushDeadline deadline, int stride, @Nullable Consumer<YaccCommit> consumer) {
         super("UTF-8");
+        this.deadline = deadline;
+        this.stride = Math.max(1, stride);
+        this.consumer = consumer;
     }
 
     @Nullable
     @Override
-    public List<YaccCommit> getOutput() {
+    public CommitStore getOutput() {
         return commits;
     }
 
@@ -40,6 +65,8 @@ public class RevListOutputHandler extends LineReaderOutputHandler
     protected void processReader(LineReader lineReader) throws IOException {
         String line;
         while ((line = lineReader.readLine()) != null) {
+            deadline.check();
+
             log.debug("rev-list line: {}", line);
 
             if(!line.startsWith("commit ")) {
@@ -48,6 +75,11 @@ public class RevListOutputHandler extends LineReaderOutputHandler
 
             line = lineReader.readLine();
 
+            if (index++ % stride != 0) {
+                skipMessage(lineReader);
+                continue;
+            }
+
             log.debug("parsing metadata from line: {}", line);
 
             String[] commitData = line.split("\u0002");
@@ -63,9 +95,17 @@ public class RevListOutputHandler extends LineReaderOutputHandler
 
             String message = parseMessage(lineReader);
 
-            SimplePerson person = new SimplePerson(committerName, committerEmail);
+            if (consumer != null) {
+                consumer.accept(new YaccCommit(ref, new SimplePerson(committerName, committerEmail), message, isMerge));
+            } else {
+                commits.add(ref, committerName, committerEmail, message, isMerge);
+            }
+        }
+    }
 
-            commits.add(new YaccCommit(ref, person, message, isMerge));
+    private void skipMessage(LineReader lineReader) throws IOException {
+        String line;
+        while ((line = lineReader.readLine()) != null && !line.equals(OBJECT_END)) {
         }
     }
 
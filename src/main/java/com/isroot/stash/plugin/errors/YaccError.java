@@ -14,6 +14,7 @@ public class YaccError {
         COMMIT_REGEX,
         ISSUE_JQL,
         BRANCH_NAME,
+        TIMEOUT,
         OTHER
     }
 
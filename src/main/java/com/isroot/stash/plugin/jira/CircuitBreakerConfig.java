@@ -0,0 +1,96 @@
+package com.isroot.stash.plugin.jira;
+
+/**
+ * Tuning for {@link JiraCircuitBreaker}. These are server wide settings, read from system
+ * properties (ex: {@code -Dyacc.jira.breaker.openSeconds=60}) so they can be changed without
+ * touching every repository's hook configuration.
+ */
+public class CircuitBreakerConfig {
+    private final boolean enabled;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRatePercent;
+    private final long slowCallMillis;
+    private final long openMillis;
+    private final boolean failOpen;
+    private final int minTimeoutMillis;
+    private final int maxTimeoutMillis;
+
+    public CircuitBreakerConfig(boolean enabled, int windowSize, int minimumCalls, int failureRatePercent,
+                                long slowCallMillis, long openMillis, boolean failOpen,
+                                int minTimeoutMillis, int maxTimeoutMillis) {
+        this.enabled = enabled;
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+        this.failureRatePercent = failureRatePercent;
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+        this.failOpen = failOpen;
+        this.minTimeoutMillis = Math.max(1, minTimeoutMillis);
+        this.maxTimeoutMillis = Math.max(this.minTimeoutMillis, maxTimeoutMillis);
+    }
+
+    public static CircuitBreakerConfig fromSystemProperties() {
+        return new CircuitBreakerConfig(
+                !Boolean.getBoolean("yacc.jira.breaker.disabled"),
+                Integer.getInteger("yacc.jira.breaker.windowSize", 20),
+                Integer.getInteger("yacc.jira.breaker.minimumCalls", 5),
+                Integer.getInteger("yacc.jira.breaker.failureRatePercent", 50),
+                Long.getLong("yacc.jira.breaker.slowCallMillis", 5000),
+                Long.getLong("yacc.jira.breaker.openSeconds", 30) * 1000,
+                Boolean.getBoolean("yacc.jira.breaker.failOpen"),
+                Integer.getInteger("yacc.jira.timeout.minMillis", 2000),
+                Integer.getInteger("yacc.jira.timeout.maxMillis", 10000));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Number of most recent calls used to calculate the failure rate.
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Number of calls that must be recorded before the breaker can trip.
+     */
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public int getFailureRatePercent() {
+        return failureRatePercent;
+    }
+
+    /**
+     * Calls slower than this are counted as failures even if they succeed.
+     */
+    public long getSlowCallMillis() {
+        return slowCallMillis;
+    }
+
+    /**
+     * How long the breaker stays open before letting a probe request through.
+     */
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    /**
+     * If true, JIRA checks against an open link pass instead of failing.
+     */
+    public boolean isFailOpen() {
+        return failOpen;
+    }
+
+    public int getMinTimeoutMillis() {
+        return minTimeoutMillis;
+    }
+
+    public int getMaxTimeoutMillis() {
+        return maxTimeoutMillis;
+    }
+}
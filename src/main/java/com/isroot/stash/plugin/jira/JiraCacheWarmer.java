@@ -0,0 +1,205 @@
+package com.isroot.stash.plugin.jira;
+
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.util.Page;
+import com.atlassian.bitbucket.util.PageRequest;
+import com.atlassian.bitbucket.util.PageRequestImpl;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.isroot.stash.plugin.IssueKey;
+import com.isroot.stash.plugin.JiraService;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.commits.CommitsService;
+import com.isroot.stash.plugin.errors.YaccError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up the JIRA issues mentioned in recent commits on each repository's default branch, so
+ * that the {@link JiraLookupCache} already knows the issues that are being worked on when they
+ * are pushed again on other branches.
+ *
+ * <p>This runs on a single low priority thread, a few minutes after the plugin starts and then
+ * periodically. JIRA searches are rate limited so they never compete with pushes for JIRA's
+ * attention, and issues that are already cached are not searched for again.
+ *
+ * <p>The JIRA searches run as the {@link JiraServiceUser}, there is no warm-up without one.
+ * Configured with the 'yacc.jira.warmup.*' system properties.
+ */
+public class JiraCacheWarmer implements LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(JiraCacheWarmer.class);
+
+    private static final int PAGE_SIZE = 100;
+    private static final int KEYS_PER_SEARCH = 50;
+
+    private final RepositoryService repositoryService;
+    private final SecurityService securityService;
+    private final CommitsService commitsService;
+    private final JiraService jiraService;
+    private final JiraServiceUser serviceUser;
+    private final long intervalMinutes;
+    private final int days;
+    private final int maxCommitsPerRepository;
+    private final int maxIssues;
+    private final double searchesPerSecond;
+    private ScheduledExecutorService executor;
+
+    public JiraCacheWarmer(RepositoryService repositoryService, SecurityService securityService,
+                           CommitsService commitsService, JiraService jiraService, JiraServiceUser serviceUser) {
+        this(repositoryService, securityService, commitsService, jiraService, serviceUser,
+                Long.getLong("yacc.jira.warmup.intervalMinutes", 360),
+                Integer.getInteger("yacc.jira.warmup.days", 14),
+                Integer.getInteger("yacc.jira.warmup.maxCommitsPerRepository", 500),
+                Integer.getInteger("yacc.jira.warmup.maxIssues", 10000),
+                Double.parseDouble(System.getProperty("yacc.jira.warmup.searchesPerSecond", "0.5")));
+    }
+
+    /**
+     * @param intervalMinutes time between warm-ups, 0 disables warm-up
+     * @param days how far back to look for commits
+     * @param maxCommitsPerRepository newest commits to read per repository
+     * @param maxIssues issue keys to look up per warm-up
+     * @param searchesPerSecond rate of JIRA batch searches
+     */
+    public JiraCacheWarmer(RepositoryService repositoryService, SecurityService securityService,
+                           CommitsService commitsService, JiraService jiraService, JiraServiceUser serviceUser,
+                           long intervalMinutes, int days, int maxCommitsPerRepository, int maxIssues,
+                           double searchesPerSecond) {
+        this.repositoryService = repositoryService;
+        this.securityService = securityService;
+        this.commitsService = commitsService;
+        this.jiraService = jiraService;
+        this.serviceUser = serviceUser;
+        this.intervalMinutes = intervalMinutes;
+        this.days = days;
+        this.maxCommitsPerRepository = maxCommitsPerRepository;
+        this.maxIssues = maxIssues;
+        this.searchesPerSecond = searchesPerSecond;
+    }
+
+    @Override
+    public synchronized void onStart() {
+        if (intervalMinutes <= 0) {
+            log.debug("JIRA cache warm-up is disabled");
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("yacc-jira-cache-warmup")
+                .setDaemon(true)
+                .setPriority(Thread.MIN_PRIORITY)
+                .build());
+
+        // Give the instance time to finish starting, and the cache snapshot time to load
+        executor.scheduleWithFixedDelay(this::warmUp, 5, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public synchronized void onStop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Collect the issue keys in recent commits and look them up. Stops early if the thread is
+     * interrupted, or if none of the issues of a batch could be found, ex: because the service
+     * user can't authenticate to JIRA.
+     */
+    public void warmUp() {
+        try {
+            if (!jiraService.doesJiraApplicationLinkExist()) {
+                log.debug("no JIRA application link, skipping JIRA cache warm-up");
+                return;
+            }
+            if (!serviceUser.isConfigured()) {
+                log.debug("no JIRA service user configured, skipping JIRA cache warm-up");
+                return;
+            }
+
+            Set<IssueKey> issueKeys = securityService.withPermission(Permission.REPO_READ, "YACC JIRA cache warm-up")
+                    .call(this::collectIssueKeys);
+
+            serviceUser.run("YACC JIRA cache warm-up", () -> lookUp(issueKeys));
+        } catch (RuntimeException e) {
+            // Never let the scheduled task die
+            log.warn("JIRA cache warm-up failed", e);
+        }
+    }
+
+    private void lookUp(Set<IssueKey> issueKeys) {
+        long start = System.nanoTime();
+        RateLimiter rateLimiter = RateLimiter.create(searchesPerSecond);
+        int searches = 0;
+
+        for (List<IssueKey> batch : Iterables.partition(issueKeys, KEYS_PER_SEARCH)) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            rateLimiter.acquire();
+            Map<IssueKey, List<YaccError>> results = jiraService.checkIssues(batch, null, PushDeadline.none());
+            searches++;
+
+            if (results.values().stream().noneMatch(JiraCacheWarmer::isFound)) {
+                log.warn("JIRA cache warm-up stopped after {} batches, none of the issues of the last batch "
+                        + "were found. Check that the JIRA service user can authenticate to JIRA.", searches);
+                return;
+            }
+        }
+
+        log.info("JIRA cache warm-up looked up {} issues in {} batches in {} s", issueKeys.size(), searches,
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+    private static boolean isFound(List<YaccError> result) {
+        return result.isEmpty() && !JiraService.isUnverified(result);
+    }
+
+    private Set<IssueKey> collectIssueKeys() {
+        Set<IssueKey> issueKeys = new LinkedHashSet<>();
+        long since = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - TimeUnit.DAYS.toSeconds(days);
+
+        PageRequest pageRequest = new PageRequestImpl(0, PAGE_SIZE);
+        while (pageRequest != null && issueKeys.size() < maxIssues) {
+            Page<Repository> page = repositoryService.findAll(pageRequest);
+
+            for (Repository repository : page.getValues()) {
+                if (issueKeys.size() >= maxIssues || Thread.currentThread().isInterrupted()) {
+                    return issueKeys;
+                }
+
+                try {
+                    commitsService.streamRecentCommits(repository, since, maxCommitsPerRepository, commit -> {
+                        for (IssueKey issueKey : IssueKey.parseIssueKeys(commit.getMessage())) {
+                            if (issueKeys.size() < maxIssues) {
+                                issueKeys.add(issueKey);
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    // Empty repositories have no HEAD to read
+                    log.debug("could not read recent commits of {}", repository, e);
+                }
+            }
+
+            pageRequest = page.getIsLastPage() ? null : page.getNextPageRequest();
+        }
+
+        return issueKeys;
+    }
+}
@@ -0,0 +1,251 @@
+package com.isroot.stash.plugin.jira;
+
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker for a single JIRA application link.
+ *
+ * <p>The breaker records the outcome of the last {@link CircuitBreakerConfig#getWindowSize()}
+ * calls. Once enough calls have failed (errors or responses slower than the slow call threshold)
+ * it opens and requests are rejected without contacting JIRA. After the open period a single
+ * probe request is let through; if it succeeds the breaker closes again, otherwise it re-opens.
+ *
+ * <p>The breaker also tracks response times and suggests a request timeout based on them, so a
+ * healthy JIRA gets a timeout close to its normal latency instead of the worst case.
+ */
+public class JiraCircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(JiraCircuitBreaker.class);
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String name;
+    private final CircuitBreakerConfig config;
+    private final Ticker ticker;
+
+    private final boolean[] window;
+    private int windowPosition;
+    private int windowCount;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long openedAtNanos;
+    private boolean probeInFlight;
+
+    private double smoothedLatencyMillis = -1;
+    private double latencyVarianceMillis;
+
+    private long calls;
+    private long failures;
+    private long slowCalls;
+    private long rejectedCalls;
+    private long timesOpened;
+
+    public JiraCircuitBreaker(String name, CircuitBreakerConfig config, Ticker ticker) {
+        this.name = name;
+        this.config = config;
+        this.ticker = ticker;
+        this.window = new boolean[config.getWindowSize()];
+    }
+
+    /**
+     * Return true if a request may be sent. When the breaker is half open only one probe request
+     * is allowed at a time. Every permitted request must be followed by a call to
+     * {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored}.
+     */
+    public synchronized boolean tryAcquire() {
+        if (!config.isEnabled()) {
+            return true;
+        }
+
+        if (state == State.OPEN && ticker.read() - openedAtNanos >= TimeUnit.MILLISECONDS.toNanos(config.getOpenMillis())) {
+            transitionTo(State.HALF_OPEN);
+        }
+
+        if (state == State.CLOSED || (state == State.HALF_OPEN && !probeInFlight)) {
+            if (state == State.HALF_OPEN) {
+                probeInFlight = true;
+            }
+
+            return true;
+        }
+
+        rejectedCalls++;
+
+        return false;
+    }
+
+    /**
+     * Record that JIRA responded. Slow responses count as failures when deciding whether to trip.
+     */
+    public synchronized void onSuccess(long latencyMillis) {
+        calls++;
+        updateLatency(latencyMillis);
+
+        if (latencyMillis >= config.getSlowCallMillis()) {
+            slowCalls++;
+            recordOutcome(false);
+        } else {
+            recordOutcome(true);
+        }
+    }
+
+    /**
+     * Record that JIRA could not be reached or returned a server error.
+     */
+    public synchronized void onFailure(long latencyMillis) {
+        calls++;
+        failures++;
+        updateLatency(latencyMillis);
+        recordOutcome(false);
+    }
+
+    /**
+     * Release a permit without recording an outcome, ex: when the request was never sent.
+     */
+    public synchronized void onIgnored() {
+        probeInFlight = false;
+    }
+
+    /**
+     * Suggested request timeout. Uses the same estimate as TCP retransmission timers (smoothed
+     * latency plus four times its mean deviation), limited to the configured min and max.
+     */
+    public synchronized int getTimeoutMillis() {
+        if (smoothedLatencyMillis < 0) {
+            return config.getMaxTimeoutMillis();
+        }
+
+        long timeout = Math.round(smoothedLatencyMillis + 4 * latencyVarianceMillis);
+
+        return (int) Math.max(config.getMinTimeoutMillis(), Math.min(config.getMaxTimeoutMillis(), timeout));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getCalls() {
+        return calls;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized long getSlowCalls() {
+        return slowCalls;
+    }
+
+    public synchronized long getRejectedCalls() {
+        return rejectedCalls;
+    }
+
+    public synchronized long getTimesOpened() {
+        return timesOpened;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JiraCircuitBreaker{" +
+                "name='" + name + '\'' +
+                ", state=" + state +
+                ", calls=" + calls +
+                ", failures=" + failures +
+                ", slowCalls=" + slowCalls +
+                ", rejectedCalls=" + rejectedCalls +
+                ", timesOpened=" + timesOpened +
+                ", timeoutMillis=" + getTimeoutMillis() +
+                '}';
+    }
+
+    private void updateLatency(long latencyMillis) {
+        if (smoothedLatencyMillis < 0) {
+            smoothedLatencyMillis = latencyMillis;
+            latencyVarianceMillis = latencyMillis / 2.0;
+        } else {
+            latencyVarianceMillis = 0.75 * latencyVarianceMillis + 0.25 * Math.abs(smoothedLatencyMillis - latencyMillis);
+            smoothedLatencyMillis = 0.875 * smoothedLatencyMillis + 0.125 * latencyMillis;
+        }
+    }
+
+    private void recordOutcome(boolean success) {
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+
+            if (success) {
+                resetWindow();
+                transitionTo(State.CLOSED);
+            } else {
+                open();
+            }
+
+            return;
+        }
+
+        if (state == State.OPEN) {
+            // Request started before the breaker opened
+            return;
+        }
+
+        if (windowCount == window.length) {
+            if (!window[windowPosition]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+
+        window[windowPosition] = success;
+        windowPosition = (windowPosition + 1) % window.length;
+
+        if (!success) {
+            windowFailures++;
+        }
+
+        if (windowCount >= config.getMinimumCalls()
+                && windowFailures * 100 >= config.getFailureRatePercent() * windowCount) {
+            open();
+        }
+    }
+
+    private void open() {
+        openedAtNanos = ticker.read();
+        timesOpened++;
+        resetWindow();
+        transitionTo(State.OPEN);
+    }
+
+    private void resetWindow() {
+        windowPosition = 0;
+        windowCount = 0;
+        windowFailures = 0;
+    }
+
+    private void transitionTo(State newState) {
+        if (state == newState && newState != State.OPEN) {
+            return;
+        }
+
+        State oldState = state;
+        state = newState;
+
+        if (newState == State.OPEN) {
+            log.warn("JIRA application link '{}' circuit breaker {} -> OPEN, requests will be skipped for {} ms: {}",
+                    name, oldState, config.getOpenMillis(), this);
+        } else {
+            log.info("JIRA application link '{}' circuit breaker {} -> {}: {}", name, oldState, newState, this);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.isroot.stash.plugin.jira;
+
+import com.atlassian.sal.api.net.ResponseException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.isroot.stash.plugin.IssueKey;
+import com.isroot.stash.plugin.InvalidIssueKeyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Local copy of the issue keys of the JIRA projects that pushes refer to, for each JIRA
+ * application link, so that issue existence can be answered without asking JIRA.
+ *
+ * <p>A project is added to the index for a link once an issue of that project is found there.
+ * All its issues are then loaded, and after that only issues updated since the last sync are
+ * searched for. Deleted issues are not noticed, they stay in the index until the plugin
+ * restarts. Issues that aren't in the index are still looked up in JIRA.
+ *
+ * <p>Optional, enabled with the 'yacc.jira.index.enabled' system property. The sync is run by
+ * {@link JiraIssueIndexSync}.
+ */
+public class JiraIssueIndex {
+    private static final Logger log = LoggerFactory.getLogger(JiraIssueIndex.class);
+
+    /** The format JIRA returns dates in */
+    private static final DateTimeFormatter JIRA_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+    /** Fields asked for in sync searches */
+    static final List<String> FIELDS = ImmutableList.of("status", "updated");
+
+    private final boolean enabled;
+    private final int pageSize;
+    private final Clock clock;
+    private final ConcurrentMap<String, LinkIndex> links = new ConcurrentHashMap<>();
+
+    public JiraIssueIndex() {
+        this(Boolean.getBoolean("yacc.jira.index.enabled"), Integer.getInteger("yacc.jira.index.pageSize", 500),
+                Clock.systemUTC());
+    }
+
+    /**
+     * @param pageSize number of issues to ask for per sync search
+     */
+    public JiraIssueIndex(boolean enabled, int pageSize, Clock clock) {
+        this.enabled = enabled;
+        this.pageSize = pageSize;
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Return true if the issue is in the index for the link.
+     */
+    public boolean contains(String linkId, String issueKey) {
+        return get(linkId, issueKey) != null;
+    }
+
+    @Nullable
+    public IndexedIssue get(String linkId, String issueKey) {
+        LinkIndex index = links.get(linkId);
+        return index == null ? null : index.issues.get(issueKey);
+    }
+
+    /**
+     * Record an issue that JIRA found on a link. Its project is loaded into the index on the next
+     * sync.
+     */
+    public void issueFound(String linkId, String issueKey) {
+        if (!enabled) {
+            return;
+        }
+
+        LinkIndex index = links.computeIfAbsent(linkId, id -> new LinkIndex());
+        index.issues.putIfAbsent(issueKey, new IndexedIssue(issueKey, null, 0));
+
+        String projectKey = projectKey(issueKey);
+        if (projectKey != null && !index.projects.contains(projectKey) && index.newProjects.add(projectKey)) {
+            log.debug("JIRA project {} will be added to the issue index", projectKey);
+        }
+    }
+
+    /**
+     * Return the number of issues in the index for a link.
+     */
+    public int size(String linkId) {
+        LinkIndex index = links.get(linkId);
+        return index == null ? 0 : index.issues.size();
+    }
+
+    /**
+     * Forget everything about a link, ex: when a project in the index no longer exists and the
+     * sync query is rejected.
+     */
+    public void reset(String linkId) {
+        links.remove(linkId);
+    }
+
+    /**
+     * Load the projects added since the last sync and search for issues of the other projects
+     * that were updated since then.
+     *
+     * @return number of issues read
+     */
+    public int sync(String linkId, Searcher searcher) throws Exception {
+        LinkIndex index = links.get(linkId);
+        if (!enabled || index == null) {
+            return 0;
+        }
+
+        // Issues updated while this sync runs are found again by the next one
+        long syncStart = clock.millis();
+        int read = 0;
+
+        Set<String> known = Sets.newHashSet(index.projects);
+        Set<String> added = Sets.newHashSet(index.newProjects);
+
+        if (!known.isEmpty() && index.lastSync > 0) {
+            // Relative dates avoid depending on the time zone of the JIRA user. One extra minute
+            // covers the precision of JQL dates.
+            long minutes = TimeUnit.MILLISECONDS.toMinutes(syncStart - index.lastSync) + 2;
+            read += load(index, searcher, projectClause(known) + " and updated >= -" + minutes + "m");
+        }
+
+        if (!added.isEmpty()) {
+            read += load(index, searcher, projectClause(added));
+            index.projects.addAll(added);
+            index.newProjects.removeAll(added);
+        }
+
+        index.lastSync = syncStart;
+
+        log.debug("JIRA issue index sync for link {} read {} issues, {} issues in index", linkId, read,
+                index.issues.size());
+
+        return read;
+    }
+
+    private int load(LinkIndex index, Searcher searcher, String jql) throws Exception {
+        int read = 0;
+
+        while (true) {
+            SearchPage page = searcher.search(jql + " order by key", read, pageSize, FIELDS);
+
+            for (IndexedIssue issue : page.issues) {
+                index.issues.put(issue.getKey(), issue);
+            }
+            read += page.issues.size();
+
+            if (page.issues.isEmpty() || read >= page.total) {
+                return read;
+            }
+        }
+    }
+
+    private static String projectClause(Set<String> projectKeys) {
+        return "project in (" + projectKeys.stream().sorted().map(key -> "'" + key + "'")
+                .collect(Collectors.joining(", ")) + ")";
+    }
+
+    @Nullable
+    private static String projectKey(String issueKey) {
+        try {
+            return new IssueKey(issueKey).getProjectKey();
+        } catch (InvalidIssueKeyException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read a page of search results with the {@link #FIELDS} of each issue.
+     */
+    public static SearchPage readSearchPage(InputStream body) throws ResponseException {
+        List<IndexedIssue> issues = new ArrayList<>();
+        int total = 0;
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("total")) {
+                    total = reader.nextInt();
+                } else if (name.equals("issues")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        IndexedIssue issue = readIssue(reader);
+                        if (issue != null) {
+                            issues.add(issue);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new ResponseException("Could not read search response", e);
+        }
+
+        return new SearchPage(issues, total);
+    }
+
+    @Nullable
+    private static IndexedIssue readIssue(JsonReader reader) throws IOException {
+        String key = null;
+        String statusCategory = null;
+        long updated = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("key")) {
+                key = reader.nextString();
+            } else if (name.equals("fields") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (field.equals("updated") && reader.peek() == JsonToken.STRING) {
+                        updated = parseDate(reader.nextString());
+                    } else if (field.equals("status") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        statusCategory = readStatusCategory(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return key == null ? null : new IndexedIssue(key, statusCategory, updated);
+    }
+
+    @Nullable
+    private static String readStatusCategory(JsonReader reader) throws IOException {
+        String category = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("statusCategory") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("key")) {
+                        category = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return category;
+    }
+
+    private static long parseDate(String date) {
+        try {
+            return OffsetDateTime.parse(date, JIRA_DATE_FORMAT).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            log.debug("unexpected JIRA date: {}", date);
+            return 0;
+        }
+    }
+
+    /**
+     * Runs a search on a single link.
+     */
+    public interface Searcher {
+        SearchPage search(String jql, int startAt, int maxResults, List<String> fields) throws Exception;
+    }
+
+    public static class SearchPage {
+        private final List<IndexedIssue> issues;
+        private final int total;
+
+        public SearchPage(List<IndexedIssue> issues, int total) {
+            this.issues = issues;
+            this.total = total;
+        }
+
+        public List<IndexedIssue> getIssues() {
+            return issues;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    public static class IndexedIssue {
+        private final String key;
+        private final String statusCategory;
+        private final long updated;
+
+        public IndexedIssue(String key, @Nullable String statusCategory, long updated) {
+            this.key = key;
+            this.statusCategory = statusCategory;
+            this.updated = updated;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Return the key of the issue's status category (new, indeterminate or done), or null if
+         * the issue was found by a lookup and hasn't been synced yet.
+         */
+        @Nullable
+        public String getStatusCategory() {
+            return statusCategory;
+        }
+
+        /**
+         * Return when the issue was last updated in milliseconds since the epoch, or 0 if not
+         * known.
+         */
+        public long getUpdated() {
+            return updated;
+        }
+    }
+
+    private static class LinkIndex {
+        private final ConcurrentMap<String, IndexedIssue> issues = new ConcurrentHashMap<>();
+        private final Set<String> projects = ConcurrentHashMap.newKeySet();
+        private final Set<String> newProjects = ConcurrentHashMap.newKeySet();
+        private volatile long lastSync;
+    }
+}
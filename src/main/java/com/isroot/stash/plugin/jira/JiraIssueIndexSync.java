@@ -0,0 +1,77 @@
+package com.isroot.stash.plugin.jira;
+
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link JiraIssueIndex} up to date by syncing it with each JIRA application link
+ * periodically, as the {@link JiraServiceUser}. The interval is read from the
+ * 'yacc.jira.index.syncSeconds' system property.
+ */
+public class JiraIssueIndexSync implements LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(JiraIssueIndexSync.class);
+
+    private final JiraServiceImpl jiraService;
+    private final JiraIssueIndex issueIndex;
+    private final JiraServiceUser serviceUser;
+    private final long intervalSeconds;
+    private ScheduledExecutorService executor;
+
+    public JiraIssueIndexSync(JiraServiceImpl jiraService, JiraIssueIndex issueIndex, JiraServiceUser serviceUser) {
+        this(jiraService, issueIndex, serviceUser, Long.getLong("yacc.jira.index.syncSeconds", 60));
+    }
+
+    public JiraIssueIndexSync(JiraServiceImpl jiraService, JiraIssueIndex issueIndex, JiraServiceUser serviceUser,
+                              long intervalSeconds) {
+        this.jiraService = jiraService;
+        this.issueIndex = issueIndex;
+        this.serviceUser = serviceUser;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    @Override
+    public synchronized void onStart() {
+        if (!issueIndex.isEnabled() || intervalSeconds <= 0) {
+            log.debug("JIRA issue index is disabled");
+            return;
+        }
+        if (!serviceUser.isConfigured()) {
+            log.warn("JIRA issue index is enabled but no JIRA service user is configured, it won't be synced");
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("yacc-jira-issue-index")
+                .setDaemon(true)
+                .setPriority(Thread.MIN_PRIORITY)
+                .build());
+
+        executor.scheduleWithFixedDelay(this::sync, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void onStop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Sync the index as the service user, unless no service user is configured.
+     */
+    public void sync() {
+        try {
+            serviceUser.run("YACC JIRA issue index sync", jiraService::syncIssueIndex);
+        } catch (RuntimeException e) {
+            // Never let the scheduled task die
+            log.warn("JIRA issue index sync failed", e);
+        }
+    }
+}
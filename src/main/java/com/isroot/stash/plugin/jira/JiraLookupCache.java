@@ -0,0 +1,248 @@
+package com.isroot.stash.plugin.jira;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JIRA lookups whose answer rarely changes: which issues exist and which project keys exist,
+ * for each JIRA application link. Issues and projects are seldom deleted, so these are kept for
+ * hours. A project key that doesn't exist is only kept for minutes, since the project may be
+ * created for the commit that is being pushed.
+ *
+ * <p>Each entry records when it expires, so the entries can be written to a snapshot and read
+ * back after a restart with the time they have left. See {@link JiraLookupCacheSnapshots}.
+ *
+ * <p>The size and expiry times are read from the 'yacc.jira.lookupCache.maxSize',
+ * 'yacc.jira.lookupCache.expireMinutes' and 'yacc.jira.lookupCache.missingProjectExpireMinutes'
+ * system properties.
+ */
+public class JiraLookupCache {
+    private static final int SNAPSHOT_MAGIC = 0x59414343;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final long expireMillis;
+    private final long missingProjectExpireMillis;
+    private final Clock clock;
+    private final Cache<Entry, Long> entries;
+    private final AtomicLong modifications = new AtomicLong();
+
+    public JiraLookupCache() {
+        this(Long.getLong("yacc.jira.lookupCache.maxSize", 100000),
+                Long.getLong("yacc.jira.lookupCache.expireMinutes", 24 * 60),
+                Long.getLong("yacc.jira.lookupCache.missingProjectExpireMinutes", 10), Clock.systemUTC());
+    }
+
+    /**
+     * @param maxSize number of lookups to keep, 0 disables the cache
+     * @param expireMinutes how long to remember that an issue or project exists
+     * @param missingProjectExpireMinutes how long to remember that a project doesn't exist
+     */
+    public JiraLookupCache(long maxSize, long expireMinutes, long missingProjectExpireMinutes, Clock clock) {
+        this.expireMillis = TimeUnit.MINUTES.toMillis(expireMinutes);
+        this.missingProjectExpireMillis = TimeUnit.MINUTES.toMillis(missingProjectExpireMinutes);
+        this.clock = clock;
+        // Expiry is checked against the time stored with each entry, this only bounds how long
+        // entries that are never read again take up space
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Math.max(expireMinutes, missingProjectExpireMinutes), TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Return true if the issue is known to exist on the link.
+     */
+    public boolean isIssueKnown(String linkId, String issueKey) {
+        return get(new Entry(Kind.ISSUE, linkId, issueKey)) != null;
+    }
+
+    public void issueFound(String linkId, String issueKey) {
+        put(new Entry(Kind.ISSUE, linkId, issueKey), expireMillis);
+    }
+
+    /**
+     * Return whether the project exists on the link, or null if that isn't known.
+     */
+    @Nullable
+    public Boolean getProjectExists(String linkId, String projectKey) {
+        if (get(new Entry(Kind.PROJECT, linkId, projectKey)) != null) {
+            return true;
+        }
+        if (get(new Entry(Kind.MISSING_PROJECT, linkId, projectKey)) != null) {
+            return false;
+        }
+        return null;
+    }
+
+    public void projectChecked(String linkId, String projectKey, boolean exists) {
+        if (exists) {
+            entries.invalidate(new Entry(Kind.MISSING_PROJECT, linkId, projectKey));
+            put(new Entry(Kind.PROJECT, linkId, projectKey), expireMillis);
+        } else {
+            put(new Entry(Kind.MISSING_PROJECT, linkId, projectKey), missingProjectExpireMillis);
+        }
+    }
+
+    public CacheStats getStats() {
+        return entries.stats();
+    }
+
+    public long size() {
+        return entries.size();
+    }
+
+    /**
+     * Return a number that changes whenever a lookup is added, to tell whether a new snapshot is
+     * needed.
+     */
+    public long getModificationCount() {
+        return modifications.get();
+    }
+
+    public void invalidateAll() {
+        entries.invalidateAll();
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * Write the entries that haven't expired, grouped by application link id. The stream is not
+     * closed.
+     *
+     * @return number of entries written
+     */
+    public int writeSnapshot(OutputStream out) throws IOException {
+        long now = clock.millis();
+
+        Map<String, List<Map.Entry<Entry, Long>>> byLink = Maps.newHashMap();
+        for (Map.Entry<Entry, Long> entry : entries.asMap().entrySet()) {
+            if (entry.getValue() > now) {
+                byLink.computeIfAbsent(entry.getKey().linkId, id -> Lists.newArrayList()).add(entry);
+            }
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(SNAPSHOT_MAGIC);
+        data.writeInt(SNAPSHOT_VERSION);
+        data.writeInt(byLink.size());
+
+        int count = 0;
+        for (Map.Entry<String, List<Map.Entry<Entry, Long>>> link : byLink.entrySet()) {
+            data.writeUTF(link.getKey());
+            data.writeInt(link.getValue().size());
+
+            for (Map.Entry<Entry, Long> entry : link.getValue()) {
+                data.writeByte(entry.getKey().kind.ordinal());
+                data.writeUTF(entry.getKey().key);
+                data.writeLong(entry.getValue());
+                count++;
+            }
+        }
+
+        data.flush();
+
+        return count;
+    }
+
+    /**
+     * Add the entries of a snapshot that haven't expired yet. Lookups made since the snapshot
+     * was written take precedence. The stream is not closed.
+     *
+     * @return number of entries added
+     * @throws IOException if the snapshot can't be read or wasn't written by this version
+     */
+    public int readSnapshot(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != SNAPSHOT_MAGIC || data.readInt() != SNAPSHOT_VERSION) {
+            throw new IOException("not a JIRA lookup cache snapshot, or written by another version");
+        }
+
+        long now = clock.millis();
+        Kind[] kinds = Kind.values();
+        int count = 0;
+
+        int links = data.readInt();
+        for (int i = 0; i < links; i++) {
+            String linkId = data.readUTF();
+
+            int linkEntries = data.readInt();
+            for (int j = 0; j < linkEntries; j++) {
+                int kind = data.readUnsignedByte();
+                String key = data.readUTF();
+                long expires = data.readLong();
+
+                if (kind >= kinds.length) {
+                    throw new IOException("unknown entry kind " + kind);
+                }
+
+                if (expires > now && entries.asMap().putIfAbsent(new Entry(kinds[kind], linkId, key), expires) == null) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Nullable
+    private Long get(Entry entry) {
+        Long expires = entries.getIfPresent(entry);
+        if (expires != null && expires <= clock.millis()) {
+            entries.invalidate(entry);
+            return null;
+        }
+        return expires;
+    }
+
+    private void put(Entry entry, long expireMillis) {
+        entries.put(entry, clock.millis() + expireMillis);
+        modifications.incrementAndGet();
+    }
+
+    private enum Kind {ISSUE, PROJECT, MISSING_PROJECT}
+
+    private static class Entry {
+        private final Kind kind;
+        private final String linkId;
+        private final String key;
+
+        private Entry(Kind kind, String linkId, String key) {
+            this.kind = kind;
+            this.linkId = linkId;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return kind == entry.kind && linkId.equals(entry.linkId) && key.equals(entry.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(kind, linkId, key);
+        }
+    }
+}
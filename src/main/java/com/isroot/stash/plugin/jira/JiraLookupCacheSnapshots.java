@@ -0,0 +1,152 @@
+package com.isroot.stash.plugin.jira;
+
+import com.atlassian.bitbucket.server.ApplicationPropertiesService;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the {@link JiraLookupCache} across restarts and plugin upgrades. The cache is written to
+ * the shared home periodically and when the plugin is stopped, and read back in the background
+ * when the plugin starts, so startup isn't held up and pushes made before it has been read are
+ * simply checked against JIRA.
+ *
+ * <p>All cluster nodes write the same file, the last one written is read by nodes that start
+ * later. The interval is read from the 'yacc.jira.lookupCache.snapshotMinutes' system property,
+ * 0 disables snapshots.
+ */
+public class JiraLookupCacheSnapshots implements LifecycleAware {
+    private static final Logger log = LoggerFactory.getLogger(JiraLookupCacheSnapshots.class);
+
+    private final JiraLookupCache cache;
+    private final ApplicationPropertiesService applicationPropertiesService;
+    private final long intervalMinutes;
+    private ScheduledExecutorService executor;
+    private long savedModificationCount = -1;
+
+    public JiraLookupCacheSnapshots(JiraLookupCache cache, ApplicationPropertiesService applicationPropertiesService) {
+        this(cache, applicationPropertiesService, Long.getLong("yacc.jira.lookupCache.snapshotMinutes", 10));
+    }
+
+    public JiraLookupCacheSnapshots(JiraLookupCache cache, ApplicationPropertiesService applicationPropertiesService,
+                                    long intervalMinutes) {
+        this.cache = cache;
+        this.applicationPropertiesService = applicationPropertiesService;
+        this.intervalMinutes = intervalMinutes;
+    }
+
+    @Override
+    public synchronized void onStart() {
+        if (intervalMinutes <= 0) {
+            log.debug("JIRA lookup cache snapshots are disabled");
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("yacc-jira-lookup-cache")
+                .setDaemon(true)
+                .build());
+
+        executor.execute(this::load);
+        executor.scheduleWithFixedDelay(this::save, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void onStop() {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = executor;
+            executor = null;
+        }
+
+        if (stopping == null) {
+            return;
+        }
+
+        stopping.shutdownNow();
+        try {
+            stopping.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        save();
+    }
+
+    /**
+     * Read the snapshot, if there is one. A snapshot that can't be read is ignored.
+     */
+    public void load() {
+        File file = getSnapshotFile();
+        if (!file.isFile()) {
+            log.debug("no JIRA lookup cache snapshot at {}", file);
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            int loaded = cache.readSnapshot(in);
+
+            log.info("loaded {} JIRA lookups from {} in {} ms", loaded, file,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | RuntimeException e) {
+            log.warn("could not read JIRA lookup cache snapshot {}, starting with an empty cache", file, e);
+        }
+    }
+
+    /**
+     * Write a snapshot if anything has been looked up since the last one. The file is replaced
+     * atomically so a node reading it never sees a partial snapshot.
+     */
+    public synchronized void save() {
+        long modificationCount = cache.getModificationCount();
+        if (modificationCount == savedModificationCount) {
+            return;
+        }
+
+        File file = getSnapshotFile();
+
+        try {
+            Path dir = file.getParentFile().toPath();
+            Files.createDirectories(dir);
+
+            Path temp = Files.createTempFile(dir, file.getName(), ".tmp");
+            try {
+                int saved;
+                try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    saved = cache.writeSnapshot(out);
+                }
+
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                savedModificationCount = modificationCount;
+
+                log.debug("saved {} JIRA lookups to {}", saved, file);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("could not write JIRA lookup cache snapshot {}", file, e);
+        }
+    }
+
+    public File getSnapshotFile() {
+        return new File(new File(applicationPropertiesService.getSharedHomeDir(), "yacc"), "jira-lookup-cache.gz");
+    }
+}
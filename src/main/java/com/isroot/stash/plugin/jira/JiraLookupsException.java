@@ -52,6 +52,19 @@ class JiraLookupsException extends Exception {
         }
     }
 
+    /**
+     * Same as {@link #addMessageForApplicationLinksNotPresent} followed by {@link #getYaccErrors()},
+     * without changing this exception, so that it can be shared by several issues.
+     */
+    @Nonnull
+    public List<YaccError> getYaccErrors(Iterable<ReadOnlyApplicationLink> links, String message) {
+        JiraLookupsException copy = new JiraLookupsException();
+        copy.errors.putAll(errors);
+        copy.addMessageForApplicationLinksNotPresent(links, message);
+
+        return copy.getYaccErrors();
+    }
+
     @Nonnull
     public List<YaccError> getYaccErrors() {
         return errors.entrySet().stream()
@@ -0,0 +1,259 @@
+package com.isroot.stash.plugin.jira;
+
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the requests sent to a single JIRA application link, so a burst of pushes queues up
+ * here instead of tripping JIRA's own rate limits.
+ *
+ * <p>At most {@link RequestLimiterConfig#getMaxConcurrent()} requests are in flight at a time,
+ * and requests can also be limited to a number per second with a token bucket that allows
+ * bursts of up to one second's worth of requests. A request waits for its turn until the push
+ * deadline, or for {@link RequestLimiterConfig#getMaxWaitMillis()} if the push has no deadline.
+ *
+ * <p>With adaptive concurrency the limit follows JIRA's latency, the same way TCP congestion
+ * control does (AIMD): every response within the latency target raises the limit by one per
+ * limit's worth of responses, and a slow or failed response cuts it by a quarter. Responses to
+ * requests that were already in flight when the limit was cut don't cut it again.
+ */
+public class JiraRequestLimiter {
+    private static final Logger log = LoggerFactory.getLogger(JiraRequestLimiter.class);
+
+    private static final double DECREASE_FACTOR = 0.75;
+
+    private final String name;
+    private final RequestLimiterConfig config;
+    private final Ticker ticker;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private double tokens;
+    private long tokensUpdatedNanos;
+    private long lastDecreaseNanos;
+
+    private long acquired;
+    private long timedOut;
+    private long waited;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long limitDecreases;
+
+    public JiraRequestLimiter(String name, RequestLimiterConfig config, Ticker ticker) {
+        this.name = name;
+        this.config = config;
+        this.ticker = ticker;
+        this.limit = config.getMaxConcurrent();
+        this.tokens = burstSize();
+        this.tokensUpdatedNanos = ticker.read();
+        this.lastDecreaseNanos = ticker.read() - TimeUnit.MILLISECONDS.toNanos(config.getLatencyTargetMillis());
+    }
+
+    /**
+     * Wait for a turn to send a request. Every successful acquire must be followed by a call to
+     * {@link #release(long, boolean)} or {@link #releaseUnmeasured()}.
+     *
+     * @return false if the request didn't get a turn in time
+     */
+    public boolean tryAcquire(long maxWaitMillis) throws InterruptedException {
+        if (!config.isEnabled()) {
+            return true;
+        }
+
+        long start = ticker.read();
+        long giveUpAt = start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+
+        synchronized (this) {
+            queued++;
+            boolean hasWaited = false;
+            try {
+                while (true) {
+                    long now = ticker.read();
+
+                    long waitNanos = Long.MAX_VALUE;
+                    if (inFlight < (int) limit) {
+                        waitNanos = nanosUntilToken(now);
+                        if (waitNanos == 0) {
+                            takeToken();
+                            inFlight++;
+                            recordWait(hasWaited ? now - start : 0);
+                            return true;
+                        }
+                    }
+
+                    long remainingNanos = giveUpAt - now;
+                    if (remainingNanos <= 0) {
+                        timedOut++;
+                        log.debug("JIRA application link '{}' request limit reached, gave up after {} ms: {}", name,
+                                TimeUnit.NANOSECONDS.toMillis(now - start), this);
+                        return false;
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.min(waitNanos, remainingNanos));
+                    hasWaited = true;
+                }
+            } finally {
+                queued--;
+            }
+        }
+    }
+
+    /**
+     * Record JIRA's response and let the next request through.
+     *
+     * @param failed true if JIRA could not be reached or returned a server error
+     */
+    public synchronized void release(long latencyMillis, boolean failed) {
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        inFlight--;
+
+        if (config.isAdaptive()) {
+            if (failed || latencyMillis > config.getLatencyTargetMillis()) {
+                decreaseLimit();
+            } else {
+                limit = Math.min(config.getMaxConcurrent(), limit + 1 / limit);
+            }
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Let the next request through without recording a response, ex: when the request was never
+     * sent.
+     */
+    public synchronized void releaseUnmeasured() {
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        inFlight--;
+        notifyAll();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Current concurrency limit. Always the configured maximum unless the limit is adaptive.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    public synchronized long getAcquired() {
+        return acquired;
+    }
+
+    /**
+     * Number of requests that gave up waiting for their turn.
+     */
+    public synchronized long getTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Number of requests that had to wait for their turn.
+     */
+    public synchronized long getWaited() {
+        return waited;
+    }
+
+    public synchronized long getAverageWaitMillis() {
+        return acquired == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / acquired);
+    }
+
+    public synchronized long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    public synchronized long getLimitDecreases() {
+        return limitDecreases;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JiraRequestLimiter{" +
+                "name='" + name + '\'' +
+                ", limit=" + getLimit() +
+                ", inFlight=" + inFlight +
+                ", queued=" + queued +
+                ", acquired=" + acquired +
+                ", waited=" + waited +
+                ", timedOut=" + timedOut +
+                ", averageWaitMillis=" + getAverageWaitMillis() +
+                ", maxWaitMillis=" + getMaxWaitMillis() +
+                ", limitDecreases=" + limitDecreases +
+                '}';
+    }
+
+    private void decreaseLimit() {
+        long now = ticker.read();
+
+        // Requests sent before the last cut saw the same overload, a round trip has to pass
+        // before the limit is cut again
+        if (now - lastDecreaseNanos < TimeUnit.MILLISECONDS.toNanos(config.getLatencyTargetMillis())) {
+            return;
+        }
+
+        lastDecreaseNanos = now;
+        limit = Math.max(config.getMinConcurrent(), limit * DECREASE_FACTOR);
+        limitDecreases++;
+
+        log.debug("JIRA application link '{}' is slow, request limit lowered: {}", name, this);
+    }
+
+    private double burstSize() {
+        return Math.max(1, config.getRequestsPerSecond());
+    }
+
+    private long nanosUntilToken(long now) {
+        if (config.getRequestsPerSecond() <= 0) {
+            return 0;
+        }
+
+        tokens = Math.min(burstSize(),
+                tokens + (now - tokensUpdatedNanos) * config.getRequestsPerSecond() / TimeUnit.SECONDS.toNanos(1));
+        tokensUpdatedNanos = now;
+
+        if (tokens >= 1) {
+            return 0;
+        }
+
+        return Math.max(1, (long) ((1 - tokens) / config.getRequestsPerSecond() * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    private void takeToken() {
+        if (config.getRequestsPerSecond() > 0) {
+            tokens -= 1;
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        acquired++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+
+        if (waitNanos > 0) {
+            waited++;
+            log.debug("JIRA application link '{}' request waited {} ms for its turn", name,
+                    TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        }
+    }
+}
@@ -6,43 +6,175 @@ import com.atlassian.applinks.api.ApplicationLinkService;
 import com.atlassian.applinks.api.CredentialsRequiredException;
 import com.atlassian.applinks.api.ReadOnlyApplicationLink;
 import com.atlassian.applinks.api.application.jira.JiraApplicationType;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
 import com.atlassian.sal.api.net.Request;
 import com.atlassian.sal.api.net.ResponseException;
 import com.atlassian.sal.api.net.ResponseStatusException;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.isroot.stash.plugin.IssueKey;
 import com.isroot.stash.plugin.JiraService;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.PushDeadlineExceededException;
 import com.isroot.stash.plugin.errors.YaccError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Strings.isNullOrEmpty;
 
 /**
  * @author Sean Ford
  * @since 2013-10-20
  */
-public class JiraServiceImpl implements JiraService {
+public class JiraServiceImpl implements JiraService, LifecycleAware {
     private static final Logger log = LoggerFactory.getLogger(JiraServiceImpl.class);
 
     private static final String ISSUE_NOT_FOUND = "%s: JIRA Issue does not exist";
     private static final String JQL_NO_MATCH = "%s: JIRA Issue does not match JQL Query: %s";
+    /** Issue keys per batch search, well below JIRA's default limit on search results */
+    private static final int MAX_KEYS_PER_SEARCH = 50;
+    /** JQL is sent as it is, quotes included, instead of as HTML safe escapes */
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final String NOT_RESPONDING = "JIRA is not responding, request was not sent. Try again later.";
 
     private final ApplicationLinkService applicationLinkService;
+    private final CircuitBreakerConfig circuitBreakerConfig;
+    private final RequestLimiterConfig requestLimiterConfig;
+    private final Ticker ticker;
+    private final ConcurrentMap<String, JiraCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, JiraRequestLimiter> requestLimiters = new ConcurrentHashMap<>();
+    private final RetryConfig retryConfig;
+    private final ConcurrentMap<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final Cache<String, Boolean> jqlValidity;
+    private final JiraLookupCache lookupCache;
+    private final JiraIssueIndex issueIndex;
+    /** Sends hedged searches, the threads wait on JIRA so there are never more than the request limiters allow */
+    private ExecutorService hedgeExecutor;
 
     public JiraServiceImpl(ApplicationLinkService applicationLinkService) {
+        this(applicationLinkService, new JiraLookupCache(), new JiraIssueIndex());
+    }
+
+    public JiraServiceImpl(ApplicationLinkService applicationLinkService, JiraLookupCache lookupCache,
+                           JiraIssueIndex issueIndex) {
+        this(applicationLinkService, CircuitBreakerConfig.fromSystemProperties(), Ticker.systemTicker(), lookupCache,
+                issueIndex);
+    }
+
+    public JiraServiceImpl(ApplicationLinkService applicationLinkService, CircuitBreakerConfig circuitBreakerConfig,
+                           Ticker ticker) {
+        this(applicationLinkService, circuitBreakerConfig, ticker, new JiraLookupCache());
+    }
+
+    public JiraServiceImpl(ApplicationLinkService applicationLinkService, CircuitBreakerConfig circuitBreakerConfig,
+                           Ticker ticker, JiraLookupCache lookupCache) {
+        this(applicationLinkService, circuitBreakerConfig, ticker, lookupCache, new JiraIssueIndex());
+    }
+
+    public JiraServiceImpl(ApplicationLinkService applicationLinkService, CircuitBreakerConfig circuitBreakerConfig,
+                           Ticker ticker, JiraLookupCache lookupCache, JiraIssueIndex issueIndex) {
+        this(applicationLinkService, circuitBreakerConfig, RequestLimiterConfig.fromSystemProperties(), ticker,
+                lookupCache, issueIndex);
+    }
+
+    public JiraServiceImpl(ApplicationLinkService applicationLinkService, CircuitBreakerConfig circuitBreakerConfig,
+                           RequestLimiterConfig requestLimiterConfig, Ticker ticker, JiraLookupCache lookupCache,
+                           JiraIssueIndex issueIndex) {
+        this(applicationLinkService, circuitBreakerConfig, requestLimiterConfig, RetryConfig.fromSystemProperties(),
+                ticker, lookupCache, issueIndex);
+    }
+
+    public JiraServiceImpl(ApplicationLinkService applicationLinkService, CircuitBreakerConfig circuitBreakerConfig,
+                           RequestLimiterConfig requestLimiterConfig, RetryConfig retryConfig, Ticker ticker,
+                           JiraLookupCache lookupCache, JiraIssueIndex issueIndex) {
         this.applicationLinkService = applicationLinkService;
+        this.circuitBreakerConfig = circuitBreakerConfig;
+        this.requestLimiterConfig = requestLimiterConfig;
+        this.retryConfig = retryConfig;
+        this.ticker = ticker;
+        this.lookupCache = lookupCache;
+        this.issueIndex = issueIndex;
+        this.jqlValidity = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(Long.getLong("yacc.jqlValidity.expireMinutes", 60), TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Override
+    public synchronized void onStart() {
+        if (!retryConfig.isHedgingEnabled()) {
+            return;
+        }
+
+        hedgeExecutor = createHedgeExecutor();
+    }
+
+    /**
+     * Create the executor that sends hedged searches, when the plugin starts with hedging
+     * enabled.
+     */
+    protected ExecutorService createHedgeExecutor() {
+        return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("yacc-jira-search-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    @Override
+    public synchronized void onStop() {
+        if (hedgeExecutor != null) {
+            // Searches in flight finish on their own, bounded by their timeouts
+            hedgeExecutor.shutdown();
+            hedgeExecutor = null;
+        }
+    }
+
+    private synchronized ExecutorService getHedgeExecutor() {
+        return hedgeExecutor;
     }
 
     private Iterable<ReadOnlyApplicationLink> getJiraApplicationLinks() {
@@ -67,19 +199,28 @@ public class JiraServiceImpl implements JiraService {
     }
 
     @Override
-    public List<YaccError> doesIssueExist(IssueKey issueKey) {
+    public List<YaccError> doesIssueExist(IssueKey issueKey, PushDeadline deadline) {
         checkNotNull(issueKey, "issueKey is null");
 
         List<YaccError> errors = new ArrayList<>();
 
+        if (isIssueKnown(issueKey.getFullyQualifiedIssueKey())) {
+            return errors;
+        }
+
         try {
             // JIRA response to this query can be different depending on how the issue key is
             // invalid.
             // 1) If project key does not exist, an 200 with zero result size is returned
             // 2) If project key exists but issue number does not exist, a 400 response due to
             //    invalid JQL is returned
-            if (!execute("issueKey='" + issueKey.getFullyQualifiedIssueKey() + "'",
-                    SUCCESS_ON.NON_ZERO_RESULT, false)) {
+            Outcome outcome = execute("issueKey='" + issueKey.getFullyQualifiedIssueKey() + "'",
+                    SUCCESS_ON.NON_ZERO_RESULT, false, null, deadline,
+                    link -> issueFound(link.getId().get(), issueKey.getFullyQualifiedIssueKey()));
+            if (outcome == Outcome.SKIPPED) {
+                return UNVERIFIED;
+            }
+            if (outcome == Outcome.FAILED) {
                 errors.add(new YaccError(YaccError.Type.ISSUE_JQL, "%s: JIRA Issue does not exist",
                         issueKey.getFullyQualifiedIssueKey()));
             }
@@ -94,25 +235,52 @@ public class JiraServiceImpl implements JiraService {
     }
 
     @Override
-    public boolean doesProjectExist(IssueKey issueKey) {
+    public boolean doesProjectExist(IssueKey issueKey, PushDeadline deadline) {
         checkNotNull(issueKey, "issueKey is null");
 
-        try {
-            String jql = String.format("project = '%s'", issueKey.getProjectKey());
+        String projectKey = issueKey.getProjectKey();
+        String jql = String.format("project = '%s'", projectKey);
 
-            return execute(jql, SUCCESS_ON.STATUS_200, false);
-        } catch (JiraLookupsException e) {
+        for (ReadOnlyApplicationLink link : getJiraApplicationLinks()) {
+            String linkId = link.getId().get();
+
+            Boolean exists = lookupCache.getProjectExists(linkId, projectKey);
+            if (exists == null) {
+                // Don't start any more requests once the push has run out of time
+                deadline.check();
 
-            // Assume project exists if there is any sort of error. If there
-            // is an error, it is probably going to be an credentials issue
-            // with JIRA. If this is the case, it will be handled better when
-            // JIRA issue or JQL checkers run.
-            return true;
+                try {
+                    search(link, jql, true, 0, deadline);
+                    exists = true;
+                } catch (ResponseException e) {
+                    if (!isInvalidQuery(e)) {
+                        log.error("response", e);
+
+                        return true;
+                    }
+
+                    exists = false;
+                } catch (CircuitOpenException | CredentialsRequiredException e) {
+                    // Assume project exists if there is any sort of error. If there
+                    // is an error, it is probably going to be an credentials issue
+                    // with JIRA. If this is the case, it will be handled better when
+                    // JIRA issue or JQL checkers run.
+                    return true;
+                }
+
+                lookupCache.projectChecked(linkId, projectKey, exists);
+            }
+
+            if (exists) {
+                return true;
+            }
         }
+
+        return false;
     }
 
     @Override
-    public List<YaccError> doesIssueMatchJqlQuery(String jqlQuery, IssueKey issueKey) {
+    public List<YaccError> doesIssueMatchJqlQuery(String jqlQuery, IssueKey issueKey, PushDeadline deadline) {
         checkNotNull(jqlQuery, "jqlQuery is null");
         checkNotNull(issueKey, "issueKey is null");
 
@@ -122,7 +290,12 @@ public class JiraServiceImpl implements JiraService {
                 issueKey.getFullyQualifiedIssueKey(), jqlQuery);
 
         try {
-            if (!execute(jqlQueryWithIssueExpression, SUCCESS_ON.NON_ZERO_RESULT, true)) {
+            Outcome outcome = execute(jqlQueryWithIssueExpression, SUCCESS_ON.NON_ZERO_RESULT, true, jqlQuery,
+                    deadline);
+            if (outcome == Outcome.SKIPPED) {
+                return UNVERIFIED;
+            }
+            if (outcome == Outcome.FAILED) {
                 errors.add(new YaccError(YaccError.Type.ISSUE_JQL, "%s: JIRA Issue does not match JQL Query: %s",
                         issueKey.getFullyQualifiedIssueKey(), jqlQuery));
             }
@@ -137,87 +310,422 @@ public class JiraServiceImpl implements JiraService {
     }
 
     @Override
-    public List<String> checkJqlQuery(@Nonnull String jqlQuery) {
-        checkNotNull(jqlQuery, "jqlQuery is null");
+    public Map<IssueKey, List<YaccError>> checkIssues(Collection<IssueKey> issueKeys, @Nullable String jqlQuery,
+                                                      PushDeadline deadline) {
+        Map<IssueKey, List<YaccError>> results = new LinkedHashMap<>();
 
-        try {
-            // This will throw an exception if the jql query is invalid.
-            if(execute(jqlQuery, SUCCESS_ON.STATUS_200, false)) {
-                return ImmutableList.<String>of();
+        for (List<IssueKey> batch : Iterables.partition(new LinkedHashSet<>(issueKeys), MAX_KEYS_PER_SEARCH)) {
+            results.putAll(checkIssueBatch(batch, isNullOrEmpty(jqlQuery) ? null : jqlQuery, deadline));
+        }
+
+        return results;
+    }
+
+    private Map<IssueKey, List<YaccError>> checkIssueBatch(List<IssueKey> issueKeys, @Nullable String jqlQuery,
+                                                           PushDeadline deadline) {
+        // Issues not found on any link so far, and issues not found to match the JQL so far
+        Set<String> notFound = new LinkedHashSet<>();
+        Set<String> notMatched = new LinkedHashSet<>();
+        for (IssueKey issueKey : issueKeys) {
+            notFound.add(issueKey.getFullyQualifiedIssueKey());
+            if (jqlQuery != null) {
+                notMatched.add(issueKey.getFullyQualifiedIssueKey());
+            }
+        }
+
+        JiraLookupsException existErrors = new JiraLookupsException();
+        JiraLookupsException matchErrors = new JiraLookupsException();
+        boolean existSkippedFailOpen = false;
+        boolean matchSkippedFailOpen = false;
+
+        Iterable<ReadOnlyApplicationLink> links = getJiraApplicationLinks();
+
+        for (ReadOnlyApplicationLink link : links) {
+            if (notFound.isEmpty() && notMatched.isEmpty()) {
+                break;
+            }
+
+            // Don't start any more requests once the push has run out of time
+            deadline.check();
+
+            String linkId = link.getId().get();
+            notFound.removeIf(key -> isIssueKnown(linkId, key));
+
+            if (!notFound.isEmpty()) {
+                try {
+                    Set<String> found = findIssues(link, notFound, null, deadline);
+                    for (String key : found) {
+                        issueFound(linkId, key);
+                    }
+                    notFound.removeAll(found);
+                } catch (CircuitOpenException e) {
+                    if (circuitBreakerConfig.isFailOpen()) {
+                        existSkippedFailOpen = true;
+                    } else {
+                        existErrors.addError(link, NOT_RESPONDING);
+                    }
+                } catch (CredentialsRequiredException e) {
+                    log.error("credentials", e);
+
+                    existErrors.addError(link, e);
+                } catch (ResponseException e) {
+                    log.error("response", e);
+
+                    existErrors.addError(link, e);
+                }
+            }
+
+            if (!notMatched.isEmpty()) {
+                try {
+                    if (isJqlValid(link, jqlQuery, deadline)) {
+                        notMatched.removeAll(findIssues(link, notMatched, jqlQuery, deadline));
+                    } else {
+                        matchErrors.addError(link, "Query is not valid for JIRA instance: " + jqlQuery);
+                    }
+                } catch (CircuitOpenException e) {
+                    if (circuitBreakerConfig.isFailOpen()) {
+                        matchSkippedFailOpen = true;
+                    } else {
+                        matchErrors.addError(link, NOT_RESPONDING);
+                    }
+                } catch (CredentialsRequiredException e) {
+                    log.error("credentials", e);
+
+                    matchErrors.addError(link, e);
+                } catch (ResponseException e) {
+                    log.error("response", e);
+
+                    matchErrors.addError(link, e);
+                }
+            }
+        }
+
+        Map<IssueKey, List<YaccError>> results = new LinkedHashMap<>();
+
+        for (IssueKey issueKey : issueKeys) {
+            String key = issueKey.getFullyQualifiedIssueKey();
+
+            if (notFound.contains(key) && !existSkippedFailOpen) {
+                results.put(issueKey, lookupErrors(existErrors, links,
+                        new YaccError(YaccError.Type.ISSUE_JQL, ISSUE_NOT_FOUND, key)));
+            } else if (notMatched.contains(key) && !matchSkippedFailOpen) {
+                results.put(issueKey, lookupErrors(matchErrors, links,
+                        new YaccError(YaccError.Type.ISSUE_JQL, JQL_NO_MATCH, key, jqlQuery)));
+            } else if (notFound.contains(key) || notMatched.contains(key)) {
+                // Only passed because a link was skipped
+                results.put(issueKey, UNVERIFIED);
             } else {
-                return ImmutableList.of("JQL Query is invalid.");
+                results.put(issueKey, ImmutableList.<YaccError>of());
             }
+        }
 
-        } catch (JiraLookupsException e) {
-            e.addMessageForApplicationLinksNotPresent(getJiraApplicationLinks(), "JQL Query is invalid.");
+        return results;
+    }
+
+    /**
+     * Return the errors for an issue that failed a check on every link: the error itself, or if
+     * some links couldn't be asked, the problem with each link.
+     */
+    private List<YaccError> lookupErrors(JiraLookupsException ex, Iterable<ReadOnlyApplicationLink> links,
+                                         YaccError error) {
+        if (!ex.hasErrors()) {
+            return ImmutableList.of(error);
+        }
+
+        return ex.getYaccErrors(links, error.getMessage());
+    }
+
+    /**
+     * Search a link for a set of issues and return the keys of the ones that exist and, if a
+     * query is given, match it.
+     */
+    private Set<String> findIssues(ReadOnlyApplicationLink link, Set<String> issueKeys, @Nullable String jqlQuery,
+                                   PushDeadline deadline)
+            throws CircuitOpenException, CredentialsRequiredException, ResponseException {
+        String keyList = issueKeys.stream().map(key -> "'" + key + "'").collect(Collectors.joining(", "));
+        String query = "issueKey in (" + keyList + ")" + (jqlQuery == null ? "" : " and (" + jqlQuery + ")");
+
+        Set<String> found = new HashSet<>();
+        boolean complete;
 
-            return e.getYaccErrors().stream()
-                    .map(YaccError::getMessage)
-                    .collect(Collectors.toList());
+        try {
+            List<String> keys = search(link, query, false, issueKeys.size(), deadline);
+
+            found.addAll(keys);
+            found.retainAll(issueKeys);
+
+            // An issue that was moved to another project is returned with its new key
+            complete = found.size() == keys.size();
+        } catch (ResponseException e) {
+            if (!isInvalidQuery(e)) {
+                throw e;
+            }
+
+            complete = false;
+        }
+
+        if (complete) {
+            return found;
+        }
+
+        log.debug("batch search on JIRA application link '{}' was inconclusive, searching for each issue: {}",
+                link.getName(), query);
+
+        for (String key : issueKeys) {
+            if (found.contains(key)) {
+                continue;
+            }
+
+            deadline.check();
+
+            String single = jqlQuery == null ? "issueKey='" + key + "'"
+                    : String.format("issueKey=%s and (%s)", key, jqlQuery);
+            try {
+                if (!search(link, single, true, 1, deadline).isEmpty()) {
+                    found.add(key);
+                }
+            } catch (ResponseException e) {
+                if (!isInvalidQuery(e)) {
+                    throw e;
+                }
+            }
         }
+
+        return found;
     }
 
-    private boolean execute(String jqlQuery, SUCCESS_ON successOn, boolean trackInvalidJqlAsError)
-            throws JiraLookupsException {
+    /**
+     * Check the query on every link. Links where it is valid are remembered, so pushes don't
+     * have to find out again which links the query can be used with.
+     */
+    @Override
+    public List<String> checkJqlQuery(@Nonnull String jqlQuery) {
         checkNotNull(jqlQuery, "jqlQuery is null");
 
         JiraLookupsException ex = new JiraLookupsException();
+        boolean valid = false;
 
-        for (final ReadOnlyApplicationLink link : getJiraApplicationLinks()) {
+        for (ReadOnlyApplicationLink link : getJiraApplicationLinks()) {
             try {
-                log.debug("executing JQL query on JIRA application link '{}': {}", link.getName(),
-                        jqlQuery);
+                valid |= validateJql(link, jqlQuery, PushDeadline.none());
+            } catch (CircuitOpenException e) {
+                if (circuitBreakerConfig.isFailOpen()) {
+                    valid = true;
+                } else {
+                    ex.addError(link, NOT_RESPONDING);
+                }
+            } catch (CredentialsRequiredException e) {
+                log.error("credentials", e);
 
-                ApplicationLinkRequest req = link.createAuthenticatedRequestFactory()
-                        .createRequest(Request.MethodType.POST, "/rest/api/2/search");
+                ex.addError(link, e);
+            } catch (ResponseException e) {
+                log.error("response", e);
 
-                req.setHeader("Content-Type", "application/json");
+                ex.addError(link, e);
+            }
+        }
 
-                Map<String, Object> request = new HashMap<>();
-                request.put("jql", jqlQuery);
+        if (valid) {
+            return ImmutableList.of();
+        }
 
-                List<String> requestedFields = new ArrayList<>();
-                requestedFields.add("summary");
-                request.put("fields", requestedFields);
+        if (!ex.hasErrors()) {
+            return ImmutableList.of("JQL Query is invalid.");
+        }
 
-                req.setEntity(new Gson().toJson(request));
+        ex.addMessageForApplicationLinksNotPresent(getJiraApplicationLinks(), "JQL Query is invalid.");
 
-                String jsonResponse = req.execute();
+        return ex.getYaccErrors().stream()
+                .map(YaccError::getMessage)
+                .collect(Collectors.toList());
+    }
 
-                log.debug("json response: {}", jsonResponse);
+    /**
+     * Return the circuit breakers for the JIRA application links that have been used so far.
+     */
+    public Iterable<JiraCircuitBreaker> getCircuitBreakers() {
+        return ImmutableList.copyOf(circuitBreakers.values());
+    }
 
-                JsonObject response = new JsonParser().parse(jsonResponse).getAsJsonObject();
-                JsonArray issues = response.get("issues").getAsJsonArray();
+    private JiraCircuitBreaker getCircuitBreaker(ReadOnlyApplicationLink link) {
+        return circuitBreakers.computeIfAbsent(link.getId().get(),
+                id -> new JiraCircuitBreaker(link.getName(), circuitBreakerConfig, ticker));
+    }
 
-                if (successOn == SUCCESS_ON.NON_ZERO_RESULT && issues.size() > 0) {
-                    return true;
+    /**
+     * Return the number of searches sent again after JIRA could not be reached or returned a
+     * server error.
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * Return the number of searches sent a second time because the first was slow to respond.
+     */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    private LatencyTracker getLatencyTracker(ReadOnlyApplicationLink link) {
+        return latencies.computeIfAbsent(link.getId().get(), id -> new LatencyTracker(100, 20));
+    }
+
+    public Iterable<JiraRequestLimiter> getRequestLimiters() {
+        return ImmutableList.copyOf(requestLimiters.values());
+    }
+
+    private JiraRequestLimiter getRequestLimiter(ReadOnlyApplicationLink link) {
+        return requestLimiters.computeIfAbsent(link.getId().get(),
+                id -> new JiraRequestLimiter(link.getName(), requestLimiterConfig, ticker));
+    }
+
+    /**
+     * Wait for the link's request limiter to let a request through, for no longer than the push
+     * deadline allows.
+     */
+    private boolean tryAcquire(JiraRequestLimiter limiter, PushDeadline deadline) {
+        long maxWaitMillis = deadline.isBounded() ? deadline.getRemainingMillis()
+                : requestLimiterConfig.getMaxWaitMillis();
+
+        try {
+            return limiter.tryAcquire(maxWaitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Return true if the issue is known to exist on any link.
+     */
+    private boolean isIssueKnown(String issueKey) {
+        for (ReadOnlyApplicationLink link : getJiraApplicationLinks()) {
+            if (isIssueKnown(link.getId().get(), issueKey)) {
+                log.debug("{} is known to exist on JIRA application link '{}'", issueKey, link.getName());
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isIssueKnown(String linkId, String issueKey) {
+        return issueIndex.contains(linkId, issueKey) || lookupCache.isIssueKnown(linkId, issueKey);
+    }
+
+    private void issueFound(String linkId, String issueKey) {
+        lookupCache.issueFound(linkId, issueKey);
+        issueIndex.issueFound(linkId, issueKey);
+    }
+
+    /**
+     * Bring the {@link JiraIssueIndex} up to date on every link. A link where the sync fails is
+     * tried again on the next sync; a link where the sync query is rejected, ex: because a
+     * project was deleted, is dropped from the index and rebuilt as issues are found again.
+     */
+    public void syncIssueIndex() {
+        if (!issueIndex.isEnabled()) {
+            return;
+        }
+
+        for (ReadOnlyApplicationLink link : getJiraApplicationLinks()) {
+            String linkId = link.getId().get();
+
+            try {
+                issueIndex.sync(linkId, (jql, startAt, maxResults, fields) -> {
+                    Map<String, Object> request = new LinkedHashMap<>();
+                    request.put("jql", jql);
+                    request.put("startAt", startAt);
+                    request.put("maxResults", maxResults);
+                    request.put("fields", fields);
+
+                    return search(link, request, PushDeadline.none(), JiraIssueIndex::readSearchPage);
+                });
+            } catch (CredentialsRequiredException e) {
+                log.warn("JIRA issue index sync failed for JIRA application link '{}', the current user has no "
+                        + "credentials for it", link.getName());
+            } catch (ResponseException e) {
+                if (isInvalidQuery(e)) {
+                    log.warn("JIRA issue index query rejected by JIRA application link '{}', rebuilding index",
+                            link.getName());
+                    issueIndex.reset(linkId);
+                } else {
+                    log.warn("JIRA issue index sync failed for JIRA application link '{}'", link.getName(), e);
+                }
+            } catch (Exception e) {
+                log.warn("JIRA issue index sync failed for JIRA application link '{}'", link.getName(), e);
+            }
+        }
+    }
+
+    private Outcome execute(String jqlQuery, SUCCESS_ON successOn, boolean trackInvalidJqlAsError,
+                            @Nullable String policyJql, PushDeadline deadline) throws JiraLookupsException {
+        return execute(jqlQuery, successOn, trackInvalidJqlAsError, policyJql, deadline, link -> { });
+    }
+
+    /**
+     * Run a query on every JIRA application link until one of them gives the result asked for.
+     * If none does but a link was skipped fail open, the outcome is {@link Outcome#SKIPPED}.
+     *
+     * @param policyJql the configured JQL that the query wraps, or null. Links where it is not
+     *                  valid are skipped without running the query. Its validity is checked on
+     *                  first use, and remembered for each link once it is found valid.
+     * @param onSuccess called with the link that gave the result asked for
+     */
+    private Outcome execute(String jqlQuery, SUCCESS_ON successOn, boolean trackInvalidJqlAsError,
+                            @Nullable String policyJql, PushDeadline deadline,
+                            Consumer<ReadOnlyApplicationLink> onSuccess) throws JiraLookupsException {
+        checkNotNull(jqlQuery, "jqlQuery is null");
+
+        JiraLookupsException ex = new JiraLookupsException();
+        boolean skippedFailOpen = false;
+
+        for (final ReadOnlyApplicationLink link : getJiraApplicationLinks()) {
+            // Don't start any more requests once the push has run out of time
+            deadline.check();
+
+            try {
+                if (policyJql != null && !isJqlValid(link, policyJql, deadline)) {
+                    log.debug("JQL is not valid for JIRA application link '{}', skipping: {}", link.getName(),
+                            policyJql);
+
+                    if (trackInvalidJqlAsError) {
+                        ex.addError(link, "Query is not valid for JIRA instance: " + policyJql);
+                    }
+
+                    continue;
+                }
+
+                // A single issue answers both kinds of query
+                int maxResults = successOn == SUCCESS_ON.NON_ZERO_RESULT ? 1 : 0;
+                int issues = search(link, jqlQuery, true, maxResults, deadline).size();
+
+                if (successOn == SUCCESS_ON.NON_ZERO_RESULT && issues > 0) {
+                    onSuccess.accept(link);
+                    return Outcome.SUCCEEDED;
                 }
                 else if (successOn == SUCCESS_ON.STATUS_200) {
-                    return true;
+                    onSuccess.accept(link);
+                    return Outcome.SUCCEEDED;
+                }
+            } catch (CircuitOpenException e) {
+                if (circuitBreakerConfig.isFailOpen()) {
+                    skippedFailOpen = true;
+                } else {
+                    ex.addError(link, NOT_RESPONDING);
                 }
             } catch (CredentialsRequiredException e) {
                 log.error("credentials", e);
 
                 ex.addError(link, e);
             } catch (ResponseException e) {
-                if (e instanceof ResponseStatusException) {
-                    ResponseStatusException statusException = (ResponseStatusException) e;
-
-                    log.debug("status code {}", statusException.getResponse().getStatusCode(), e);
-
-                    try {
-                        log.debug("response entity: {}", statusException.getResponse().getResponseBodyAsString());
-                    } catch (ResponseException e1) {
-                        log.error("error getting response body", e);
+                if (isInvalidQuery(e)) {
+                    if(trackInvalidJqlAsError) {
+                        ex.addError(link, "Query is not valid for JIRA instance: " + jqlQuery);
                     }
 
-                    if (statusException.getResponse().getStatusCode() == 400) {
-                        if(trackInvalidJqlAsError) {
-                            ex.addError(link, "Query is not valid for JIRA instance: " + jqlQuery);
-                        }
-
-                        continue;
-                    }
+                    continue;
                 }
 
                 log.error("response", e);
@@ -226,12 +734,500 @@ public class JiraServiceImpl implements JiraService {
             }
         }
 
+        if (skippedFailOpen) {
+            return Outcome.SKIPPED;
+        }
+
         if (ex.hasErrors()) {
             throw ex;
         }
 
-        return false;
+        return Outcome.FAILED;
+    }
+
+    /**
+     * Return whether a JQL query is valid for a link, asking JIRA if it isn't known yet.
+     */
+    private boolean isJqlValid(ReadOnlyApplicationLink link, String jql, PushDeadline deadline)
+            throws CircuitOpenException, CredentialsRequiredException, ResponseException {
+        Boolean valid = jqlValidity.getIfPresent(jqlValidityKey(link, jql));
+
+        if (valid == null) {
+            valid = validateJql(link, jql, deadline);
+        }
+
+        return valid;
+    }
+
+    /**
+     * Ask JIRA whether a JQL query is valid for a link, and remember it if it is. JIRA also
+     * rejects a query naming a project the current user can't browse, so an invalid query is
+     * only invalid for this user and is asked about again next time. Errors other than an
+     * invalid query are thrown.
+     */
+    private boolean validateJql(ReadOnlyApplicationLink link, String jql, PushDeadline deadline)
+            throws CircuitOpenException, CredentialsRequiredException, ResponseException {
+        boolean valid;
+
+        try {
+            search(link, jql, true, 0, deadline);
+            valid = true;
+        } catch (ResponseException e) {
+            if (!isInvalidQuery(e)) {
+                throw e;
+            }
+
+            valid = false;
+        }
+
+        log.debug("JQL valid={} for JIRA application link '{}': {}", valid, link.getName(), jql);
+        if (valid) {
+            jqlValidity.put(jqlValidityKey(link, jql), true);
+        }
+
+        return valid;
+    }
+
+    private String jqlValidityKey(ReadOnlyApplicationLink link, String jql) {
+        return link.getId().get() + '\u0000' + jql;
+    }
+
+    /**
+     * Run a search on a single link and return the keys of the issues found.
+     *
+     * @param validateQuery false to let JIRA ignore references to issues that don't exist
+     *                      instead of rejecting the query
+     * @param maxResults maximum number of issues to return, 0 if only the status of the response
+     *                   matters
+     * @throws CircuitOpenException if the circuit breaker doesn't allow the request
+     */
+    private List<String> search(ReadOnlyApplicationLink link, String jqlQuery, boolean validateQuery,
+                                int maxResults, PushDeadline deadline)
+            throws CircuitOpenException, CredentialsRequiredException, ResponseException {
+        // Only issue keys are read from the response, so no fields are asked for
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("jql", jqlQuery);
+        request.put("maxResults", maxResults);
+        request.put("fields", ImmutableList.of());
+        if (!validateQuery) {
+            request.put("validateQuery", false);
+        }
+
+        List<String> keys = search(link, request, deadline, body -> readIssueKeys(body, maxResults));
+
+        log.debug("issues found: {}", keys);
+
+        return keys;
+    }
+
+    /**
+     * Send a search request to a single link and read the response. Searches that fail because
+     * JIRA could not be reached or returned a server error are sent again after a short random
+     * delay, as long as that fits in the push deadline. With hedging enabled, a search that takes
+     * longer than 95% of recent searches to the link is sent a second time and the first
+     * response is used.
+     *
+     * @param request the search request, 'jql' is the query
+     * @throws CircuitOpenException if the circuit breaker doesn't allow the request, or the
+     *                              request limiter didn't let it through in time
+     */
+    private <T> T search(ReadOnlyApplicationLink link, Map<String, Object> request, PushDeadline deadline,
+                         SearchResponseReader<T> reader)
+            throws CircuitOpenException, CredentialsRequiredException, ResponseException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ExecutorService executor = getHedgeExecutor();
+                long hedgeDelayMillis = getHedgeDelayMillis(link, deadline);
+                if (executor == null || hedgeDelayMillis < 0) {
+                    return prepareSearch(link, request, deadline, reader).send();
+                }
+
+                return hedgedSearch(executor, link, request, deadline, reader, hedgeDelayMillis);
+            } catch (ResponseException e) {
+                if (!isJiraFailure(e) || attempt >= retryConfig.getMaxAttempts()) {
+                    throw e;
+                }
+
+                long delayMillis = retryConfig.getBackoffMillis(attempt, ThreadLocalRandom.current().nextDouble());
+                if (deadline.isBounded() && deadline.getRemainingMillis() <= delayMillis) {
+                    log.debug("no time left to retry search on JIRA application link '{}'", link.getName());
+                    throw e;
+                }
+
+                log.debug("search on JIRA application link '{}' failed, retrying in {} ms ({} of {} attempts)",
+                        link.getName(), delayMillis, attempt, retryConfig.getMaxAttempts(), e);
+                retries.incrementAndGet();
+
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return how long to wait for a response before sending a second copy of a search, or -1 to
+     * not send one.
+     */
+    private long getHedgeDelayMillis(ReadOnlyApplicationLink link, PushDeadline deadline) {
+        if (!retryConfig.isHedgingEnabled()) {
+            return -1;
+        }
+
+        long p95 = getLatencyTracker(link).getPercentile(95);
+        if (p95 < 0) {
+            return -1;
+        }
+
+        long delayMillis = Math.max(retryConfig.getHedgeMinDelayMillis(), p95);
+        if (deadline.isBounded() && deadline.getRemainingMillis() <= delayMillis) {
+            return -1;
+        }
+
+        return delayMillis;
+    }
+
+    /**
+     * Send a search, and send it again if there is no response after the hedge delay. The first
+     * successful response is used. Both requests are created on the calling thread, so they are
+     * made on behalf of the same user, and only sent from other threads. If the plugin is stopping,
+     * the search is sent once from the calling thread.
+     *
+     * <p>Each search holds its circuit breaker and request limiter permits from the moment it is
+     * prepared. A search that is cancelled before it started to be sent never releases them on
+     * its own, so they are released here.
+     */
+    private <T> T hedgedSearch(ExecutorService executor, ReadOnlyApplicationLink link, Map<String, Object> request,
+                               PushDeadline deadline, SearchResponseReader<T> reader, long hedgeDelayMillis)
+            throws CircuitOpenException, CredentialsRequiredException, ResponseException {
+        CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<T>> futures = new ArrayList<>(2);
+        List<SubmittedSearch<T>> submitted = new ArrayList<>(2);
+
+        SubmittedSearch<T> primary = new SubmittedSearch<>(prepareSearch(link, request, deadline, reader));
+        try {
+            futures.add(completionService.submit(primary));
+            submitted.add(primary);
+        } catch (RejectedExecutionException e) {
+            return primary.call();
+        }
+
+        try {
+            Future<T> done = completionService.poll(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+            if (done == null && !executor.isShutdown()) {
+                SubmittedSearch<T> hedge = null;
+                try {
+                    hedge = new SubmittedSearch<>(prepareSearch(link, request, deadline, reader));
+                    futures.add(completionService.submit(hedge));
+                    submitted.add(hedge);
+                    hedges.incrementAndGet();
+
+                    log.debug("no response from JIRA application link '{}' after {} ms, sent search again",
+                            link.getName(), hedgeDelayMillis);
+                } catch (CircuitOpenException | RejectedExecutionException e) {
+                    if (hedge != null) {
+                        hedge.abandon();
+                    }
+                    log.debug("no hedged search sent to JIRA application link '{}'", link.getName());
+                }
+            }
+            if (done == null) {
+                done = completionService.take();
+            }
+
+            Throwable failure = null;
+            for (int completed = 1; ; completed++) {
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+
+                if (completed == futures.size()) {
+                    break;
+                }
+                done = completionService.take();
+            }
+
+            Throwables.propagateIfPossible(failure, ResponseException.class);
+            throw new ResponseException(failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseException("Interrupted while waiting for JIRA", e);
+        } finally {
+            // A search still running finishes on its own and releases its permits, one that
+            // hasn't started yet never will
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).cancel(false);
+                submitted.get(i).abandon();
+            }
+        }
+    }
+
+    /**
+     * Get permission from the link's circuit breaker and request limiter and create the request.
+     * The outcome of sending it is recorded with both of them.
+     */
+    private <T> PreparedSearch<T> prepareSearch(ReadOnlyApplicationLink link, Map<String, Object> request,
+                                                PushDeadline deadline, SearchResponseReader<T> reader)
+            throws CircuitOpenException, CredentialsRequiredException {
+        Object jqlQuery = request.get("jql");
+        JiraCircuitBreaker breaker = getCircuitBreaker(link);
+
+        if (!breaker.tryAcquire()) {
+            log.debug("circuit breaker for JIRA application link '{}' is open, skipping: {}",
+                    link.getName(), jqlQuery);
+
+            throw new CircuitOpenException();
+        }
+
+        JiraRequestLimiter limiter = getRequestLimiter(link);
+        if (!tryAcquire(limiter, deadline)) {
+            breaker.onIgnored();
+
+            if (deadline.isExpired()) {
+                throw new PushDeadlineExceededException(deadline);
+            }
+
+            log.debug("too many requests to JIRA application link '{}', skipping: {}", link.getName(), jqlQuery);
+
+            throw new CircuitOpenException();
+        }
+
+        ApplicationLinkRequest req;
+        try {
+            req = link.createAuthenticatedRequestFactory()
+                    .createRequest(Request.MethodType.POST, "/rest/api/2/search");
+        } catch (CredentialsRequiredException | RuntimeException e) {
+            breaker.onIgnored();
+            limiter.releaseUnmeasured();
+            throw e;
+        }
+
+        req.setHeader("Content-Type", "application/json");
+
+        // Timeout adapts to how quickly this link normally responds. Requests still in
+        // flight when the push deadline expires are abandoned by timing out the
+        // connection.
+        int timeout = breaker.getTimeoutMillis();
+        if (deadline.isBounded()) {
+            timeout = (int) Math.min(timeout, deadline.getRemaining().toMillis());
+        }
+        req.setConnectionTimeout(timeout);
+        req.setSoTimeout(timeout);
+
+        req.setEntity(GSON.toJson(request));
+
+        return new PreparedSearch<T>() {
+            @Override
+            public T send() throws ResponseException {
+                return JiraServiceImpl.this.send(link, req, jqlQuery, deadline, reader, breaker, limiter);
+            }
+
+            @Override
+            public void abandon() {
+                breaker.onIgnored();
+                limiter.releaseUnmeasured();
+            }
+        };
+    }
+
+    private <T> T send(ReadOnlyApplicationLink link, ApplicationLinkRequest req, Object jqlQuery,
+                       PushDeadline deadline, SearchResponseReader<T> reader, JiraCircuitBreaker breaker,
+                       JiraRequestLimiter limiter) throws ResponseException {
+        long start = ticker.read();
+        boolean recorded = false;
+        boolean failed = false;
+
+        try {
+            log.debug("executing JQL query on JIRA application link '{}': {}", link.getName(),
+                    jqlQuery);
+
+            T result = req.executeAndReturn(response -> {
+                if (!response.isSuccessful()) {
+                    log.debug("response entity: {}", response.getResponseBodyAsString());
+
+                    throw new ResponseStatusException("Unexpected response received. Status code: "
+                            + response.getStatusCode(), response);
+                }
+
+                return reader.read(response.getResponseBodyAsStream());
+            });
+
+            breaker.onSuccess(elapsedMillis(start));
+            recorded = true;
+
+            return result;
+        } catch (ResponseException e) {
+            if (deadline.isExpired()) {
+                log.debug("JIRA request to '{}' abandoned because push deadline expired", link.getName(), e);
+
+                throw new PushDeadlineExceededException(deadline);
+            }
+
+            if (isJiraFailure(e)) {
+                failed = true;
+                breaker.onFailure(elapsedMillis(start));
+            } else {
+                breaker.onSuccess(elapsedMillis(start));
+            }
+            recorded = true;
+
+            if (e instanceof ResponseStatusException) {
+                log.debug("status code {}", ((ResponseStatusException) e).getResponse().getStatusCode(), e);
+            }
+
+            throw e;
+        } finally {
+            if (recorded) {
+                long latencyMillis = elapsedMillis(start);
+                limiter.release(latencyMillis, failed);
+                if (!failed) {
+                    getLatencyTracker(link).record(latencyMillis);
+                }
+            } else {
+                breaker.onIgnored();
+                limiter.releaseUnmeasured();
+            }
+        }
+    }
+
+    /**
+     * Read the keys of the issues in a search response. Reading stops once the 'issues' array
+     * has been read or the expected number of keys has been read, the rest of the response is
+     * not parsed.
+     */
+    private static List<String> readIssueKeys(InputStream body, int maxResults) throws ResponseException {
+        List<String> keys = new ArrayList<>();
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            if (maxResults == 0) {
+                return keys;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("issues")) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginArray();
+                while (reader.hasNext() && keys.size() < maxResults) {
+                    keys.add(readIssueKey(reader));
+                }
+                return keys;
+            }
+
+            throw new ResponseException("Search response has no issues");
+        } catch (IOException | IllegalStateException e) {
+            throw new ResponseException("Could not read search response", e);
+        }
+    }
+
+    private static String readIssueKey(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return "";
+        }
+
+        String key = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("key")) {
+                key = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return key;
+    }
+
+    /**
+     * JIRA responds with 400 if the JQL is not valid, which includes references to issues that
+     * don't exist.
+     */
+    private boolean isInvalidQuery(ResponseException e) {
+        return e instanceof ResponseStatusException
+                && ((ResponseStatusException) e).getResponse().getStatusCode() == 400;
+    }
+
+    /**
+     * Connection problems and server errors count against the circuit breaker, other error
+     * responses (ex: 400 for invalid JQL) mean JIRA is up.
+     */
+    private boolean isJiraFailure(ResponseException e) {
+        if (e instanceof ResponseStatusException) {
+            return ((ResponseStatusException) e).getResponse().getStatusCode() >= 500;
+        }
+
+        return true;
+    }
+
+    private long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(ticker.read() - startNanos);
     }
 
     private enum SUCCESS_ON {STATUS_200, NON_ZERO_RESULT}
+
+    /** Result of {@link #execute}, SKIPPED if a link was skipped fail open and no other gave the result */
+    private enum Outcome {SUCCEEDED, FAILED, SKIPPED}
+
+    private interface SearchResponseReader<T> {
+        T read(InputStream body) throws ResponseException;
+    }
+
+    /**
+     * A search request that the circuit breaker and request limiter have let through.
+     */
+    private interface PreparedSearch<T> {
+        T send() throws ResponseException;
+
+        /**
+         * Give back the permits of a search that won't be sent.
+         */
+        void abandon();
+    }
+
+    /**
+     * A prepared search handed to the hedge executor. Either it is sent, or it is abandoned
+     * because it was cancelled before it started, never both.
+     */
+    private static class SubmittedSearch<T> implements Callable<T> {
+        private final PreparedSearch<T> search;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        SubmittedSearch(PreparedSearch<T> search) {
+            this.search = search;
+        }
+
+        @Override
+        public T call() throws ResponseException {
+            if (!started.compareAndSet(false, true)) {
+                throw new CancellationException("search was abandoned");
+            }
+
+            return search.send();
+        }
+
+        void abandon() {
+            if (started.compareAndSet(false, true)) {
+                search.abandon();
+            }
+        }
+    }
+
+    /**
+     * Thrown when a link's circuit breaker or request limiter doesn't allow a request.
+     */
+    private static class CircuitOpenException extends Exception {
+    }
 }
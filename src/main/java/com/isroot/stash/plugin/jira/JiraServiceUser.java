@@ -0,0 +1,77 @@
+package com.isroot.stash.plugin.jira;
+
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.user.UserService;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * The user that background JIRA lookups run as, read from the 'yacc.jira.serviceUser' system
+ * property.
+ *
+ * <p>Requests through a JIRA application link are authenticated as the current user. The
+ * background threads that warm the {@link JiraLookupCache} and sync the {@link JiraIssueIndex}
+ * have no current user, so an application link that needs user credentials (OAuth, or trusted
+ * applications) would reject every one of their requests. They run as this user instead, who
+ * must be able to authenticate to JIRA through the link. Without one they don't run at all.
+ *
+ * <p>The issues found are remembered for all pushers, so this user should see the same JIRA
+ * projects that pushers do.
+ */
+public class JiraServiceUser {
+    private static final Logger log = LoggerFactory.getLogger(JiraServiceUser.class);
+
+    private final SecurityService securityService;
+    private final UserService userService;
+    private final String userName;
+
+    public JiraServiceUser(SecurityService securityService, UserService userService) {
+        this(securityService, userService, System.getProperty("yacc.jira.serviceUser"));
+    }
+
+    /**
+     * @param userName name of the user to run as, null or empty when none is configured
+     */
+    public JiraServiceUser(SecurityService securityService, UserService userService, @Nullable String userName) {
+        this.securityService = securityService;
+        this.userService = userService;
+        this.userName = Strings.nullToEmpty(userName).trim();
+    }
+
+    public boolean isConfigured() {
+        return !userName.isEmpty();
+    }
+
+    /**
+     * Run a task as the service user.
+     *
+     * @return false, without running the task, if no service user is configured or the user
+     *         doesn't exist
+     */
+    public boolean run(String reason, Runnable task) {
+        if (!isConfigured()) {
+            log.debug("no JIRA service user configured, skipping: {}", reason);
+            return false;
+        }
+
+        ApplicationUser user = userService.getUserByName(userName);
+        if (user == null) {
+            log.warn("JIRA service user {} doesn't exist, skipping: {}", userName, reason);
+            return false;
+        }
+
+        securityService.impersonating(user, reason).call(new UncheckedOperation<Void>() {
+            public Void perform() {
+                task.run();
+                return null;
+            }
+        });
+
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+package com.isroot.stash.plugin.jira;
+
+import java.util.Arrays;
+
+/**
+ * Response times of the most recent requests to a JIRA application link, to tell when a request
+ * is taking longer than usual.
+ */
+public class LatencyTracker {
+    private final long[] samples;
+    private final int minSamples;
+    private int position;
+    private int count;
+
+    /**
+     * @param size number of most recent response times kept
+     * @param minSamples number of response times needed before percentiles are reported
+     */
+    public LatencyTracker(int size, int minSamples) {
+        this.samples = new long[Math.max(1, size)];
+        this.minSamples = Math.max(1, Math.min(minSamples, samples.length));
+    }
+
+    public synchronized void record(long latencyMillis) {
+        samples[position] = latencyMillis;
+        position = (position + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Return the response time that the given percentage of recent requests didn't exceed, or -1
+     * if too few requests have been recorded.
+     */
+    public synchronized long getPercentile(int percent) {
+        if (count < minSamples) {
+            return -1;
+        }
+
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(percent / 100.0 * count) - 1;
+
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
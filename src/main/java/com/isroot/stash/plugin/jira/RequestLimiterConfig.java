@@ -0,0 +1,70 @@
+package com.isroot.stash.plugin.jira;
+
+/**
+ * Tuning for {@link JiraRequestLimiter}. Server wide settings read from system properties (ex:
+ * {@code -Dyacc.jira.limiter.maxConcurrent=4}), like {@link CircuitBreakerConfig}.
+ */
+public class RequestLimiterConfig {
+    private final int maxConcurrent;
+    private final int minConcurrent;
+    private final boolean adaptive;
+    private final long latencyTargetMillis;
+    private final double requestsPerSecond;
+    private final long maxWaitMillis;
+
+    /**
+     * @param maxConcurrent requests in flight per link, 0 disables the limiter
+     * @param minConcurrent lowest limit adaptive concurrency may go down to
+     * @param adaptive true to lower the limit when JIRA slows down and raise it again when it recovers
+     * @param latencyTargetMillis responses slower than this lower an adaptive limit
+     * @param requestsPerSecond requests started per second per link, 0 for no rate limit
+     * @param maxWaitMillis how long a request without a push deadline may wait for its turn
+     */
+    public RequestLimiterConfig(int maxConcurrent, int minConcurrent, boolean adaptive, long latencyTargetMillis,
+                                double requestsPerSecond, long maxWaitMillis) {
+        this.maxConcurrent = Math.max(0, maxConcurrent);
+        this.minConcurrent = Math.max(1, Math.min(minConcurrent, this.maxConcurrent));
+        this.adaptive = adaptive;
+        this.latencyTargetMillis = latencyTargetMillis;
+        this.requestsPerSecond = Math.max(0, requestsPerSecond);
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+    }
+
+    public static RequestLimiterConfig fromSystemProperties() {
+        return new RequestLimiterConfig(
+                Integer.getInteger("yacc.jira.limiter.maxConcurrent", 10),
+                Integer.getInteger("yacc.jira.limiter.minConcurrent", 1),
+                Boolean.getBoolean("yacc.jira.limiter.adaptive"),
+                Long.getLong("yacc.jira.limiter.latencyTargetMillis", 2000),
+                Double.parseDouble(System.getProperty("yacc.jira.limiter.requestsPerSecond", "0")),
+                Long.getLong("yacc.jira.limiter.maxWaitMillis", 10000));
+    }
+
+    public boolean isEnabled() {
+        return maxConcurrent > 0;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMinConcurrent() {
+        return minConcurrent;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public long getLatencyTargetMillis() {
+        return latencyTargetMillis;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+}
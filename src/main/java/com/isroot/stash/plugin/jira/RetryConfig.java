@@ -0,0 +1,64 @@
+package com.isroot.stash.plugin.jira;
+
+/**
+ * Tuning for retrying and hedging JIRA searches. Searches don't change anything in JIRA, so they
+ * can safely be sent again. Server wide settings read from system properties (ex:
+ * {@code -Dyacc.jira.retry.maxAttempts=2}), like {@link CircuitBreakerConfig}.
+ */
+public class RetryConfig {
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final boolean hedgingEnabled;
+    private final long hedgeMinDelayMillis;
+
+    /**
+     * @param maxAttempts times a search is sent before giving up, 1 disables retries
+     * @param baseDelayMillis longest delay before the first retry, doubled for each retry after it
+     * @param maxDelayMillis longest delay before any retry
+     * @param hedgingEnabled true to send a second copy of searches that are slower than usual
+     * @param hedgeMinDelayMillis shortest time to wait for a response before sending a second copy
+     */
+    public RetryConfig(int maxAttempts, long baseDelayMillis, long maxDelayMillis, boolean hedgingEnabled,
+                       long hedgeMinDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.hedgingEnabled = hedgingEnabled;
+        this.hedgeMinDelayMillis = Math.max(0, hedgeMinDelayMillis);
+    }
+
+    public static RetryConfig fromSystemProperties() {
+        return new RetryConfig(
+                Integer.getInteger("yacc.jira.retry.maxAttempts", 3),
+                Long.getLong("yacc.jira.retry.baseDelayMillis", 100),
+                Long.getLong("yacc.jira.retry.maxDelayMillis", 1000),
+                Boolean.getBoolean("yacc.jira.hedge.enabled"),
+                Long.getLong("yacc.jira.hedge.minDelayMillis", 100));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Delay before sending a search again, with "full jitter": a random time up to an
+     * exponentially growing limit. Pushes that failed together don't all retry together.
+     *
+     * @param failedAttempts number of times the search has failed so far, at least 1
+     * @param random a random number between 0 (inclusive) and 1 (exclusive)
+     */
+    public long getBackoffMillis(int failedAttempts, double random) {
+        long limit = baseDelayMillis << Math.min(Math.max(0, failedAttempts - 1), 20);
+
+        return (long) (Math.min(maxDelayMillis, limit) * random);
+    }
+
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+
+    public long getHedgeMinDelayMillis() {
+        return hedgeMinDelayMillis;
+    }
+}
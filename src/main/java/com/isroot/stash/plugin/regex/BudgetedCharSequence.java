@@ -0,0 +1,61 @@
+package com.isroot.stash.plugin.regex;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * {@link CharSequence} that counts every character the regex engine reads and aborts the match
+ * once the budget is used up. {@link java.util.regex.Matcher} reads its input one character at a
+ * time through {@link #charAt(int)}, so this catches runaway backtracking without needing a
+ * separate thread to interrupt the match.
+ */
+class BudgetedCharSequence implements CharSequence {
+    /** Only check the clock every this many steps, reading it is not free. */
+    private static final int CLOCK_CHECK_INTERVAL = 1024;
+
+    private final CharSequence delegate;
+    private final Pattern pattern;
+    private final long maxSteps;
+    private final long startNanos;
+    private final long timeoutNanos;
+
+    private long steps;
+
+    BudgetedCharSequence(CharSequence delegate, Pattern pattern, RegexBudget budget) {
+        this.delegate = delegate;
+        this.pattern = pattern;
+        this.maxSteps = budget.getMaxSteps() > 0 ? budget.getMaxSteps() : Long.MAX_VALUE;
+        this.timeoutNanos = budget.getTimeoutMillis() > 0
+                ? TimeUnit.MILLISECONDS.toNanos(budget.getTimeoutMillis()) : Long.MAX_VALUE;
+        this.startNanos = System.nanoTime();
+    }
+
+    @Override
+    public char charAt(int index) {
+        steps++;
+
+        if (steps > maxSteps
+                || (steps % CLOCK_CHECK_INTERVAL == 0 && System.nanoTime() - startNanos > timeoutNanos)) {
+            throw new RegexBudgetExceededException(pattern.pattern(), steps,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+
+        return delegate.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return delegate.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        // Used by Matcher.group(), doesn't need to be counted
+        return delegate.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
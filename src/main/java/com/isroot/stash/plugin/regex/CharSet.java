@@ -0,0 +1,202 @@
+package com.isroot.stash.plugin.regex;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of code points, stored as sorted, non-overlapping, inclusive ranges.
+ */
+public final class CharSet {
+    public static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+
+    public static final CharSet EMPTY = new CharSet(new int[0]);
+    public static final CharSet ANY = range(0, MAX_CODE_POINT);
+    public static final CharSet DIGIT = range('0', '9');
+    public static final CharSet WORD = of(range('a', 'z'), range('A', 'Z'), range('0', '9'), single('_'));
+    public static final CharSet SPACE = of(single(' '), range('\t', '\r'));
+    public static final CharSet HORIZONTAL_SPACE = of(single(' '), single('\t'), single(0xA0), single(0x1680),
+            single(0x180e), range(0x2000, 0x200a), single(0x202f), single(0x205f), single(0x3000));
+    public static final CharSet VERTICAL_SPACE = of(range('\n', '\r'), single(0x85), range(0x2028, 0x2029));
+    /** Characters that end a line, as used by '.', '^' and '$' when UNIX_LINES is off. */
+    public static final CharSet LINE_TERMINATOR = of(single('\n'), single('\r'), single(0x85), range(0x2028, 0x2029));
+
+    /** Pairs of lo, hi values. */
+    private final int[] ranges;
+
+    private CharSet(int[] ranges) {
+        this.ranges = ranges;
+    }
+
+    public static CharSet single(int c) {
+        return range(c, c);
+    }
+
+    public static CharSet range(int lo, int hi) {
+        if (lo > hi) {
+            return EMPTY;
+        }
+
+        return new CharSet(new int[]{lo, hi});
+    }
+
+    public static CharSet of(CharSet... sets) {
+        CharSet result = EMPTY;
+        for (CharSet set : sets) {
+            result = result.union(set);
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    public boolean contains(int c) {
+        int lo = 0;
+        int hi = ranges.length / 2 - 1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if (c < ranges[mid * 2]) {
+                hi = mid - 1;
+            } else if (c > ranges[mid * 2 + 1]) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the smallest code point in the set, preferring a printable ASCII character if the set
+     * contains one. Returns -1 if the set is empty.
+     */
+    public int sample() {
+        if (isEmpty()) {
+            return -1;
+        }
+
+        for (int i = 0; i < ranges.length; i += 2) {
+            int lo = Math.max(ranges[i], '!');
+            int hi = Math.min(ranges[i + 1], '~');
+            if (lo <= hi) {
+                return lo;
+            }
+        }
+
+        return ranges[0];
+    }
+
+    public CharSet union(CharSet other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        int[] all = new int[ranges.length + other.ranges.length];
+        int[][] pairs = new int[all.length / 2][];
+        int n = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            pairs[n++] = new int[]{ranges[i], ranges[i + 1]};
+        }
+        for (int i = 0; i < other.ranges.length; i += 2) {
+            pairs[n++] = new int[]{other.ranges[i], other.ranges[i + 1]};
+        }
+        Arrays.sort(pairs, (a, b) -> Integer.compare(a[0], b[0]));
+
+        int count = 0;
+        for (int[] pair : pairs) {
+            if (count > 0 && pair[0] <= (long) all[count - 1] + 1) {
+                all[count - 1] = Math.max(all[count - 1], pair[1]);
+            } else {
+                all[count++] = pair[0];
+                all[count++] = pair[1];
+            }
+        }
+
+        return new CharSet(Arrays.copyOf(all, count));
+    }
+
+    public CharSet complement() {
+        int[] result = new int[ranges.length + 2];
+        int count = 0;
+        int next = 0;
+
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                result[count++] = next;
+                result[count++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+
+        if (next <= MAX_CODE_POINT) {
+            result[count++] = next;
+            result[count++] = MAX_CODE_POINT;
+        }
+
+        return new CharSet(Arrays.copyOf(result, count));
+    }
+
+    public CharSet intersect(CharSet other) {
+        return complement().union(other.complement()).complement();
+    }
+
+    public boolean intersects(CharSet other) {
+        return !intersect(other).isEmpty();
+    }
+
+    /**
+     * Add the other case of any ASCII letters in the set, matching what
+     * {@link java.util.regex.Pattern#CASE_INSENSITIVE} does without UNICODE_CASE.
+     */
+    public CharSet caseInsensitive() {
+        CharSet lower = intersect(range('a', 'z'));
+        CharSet upper = intersect(range('A', 'Z'));
+
+        return union(lower.shift('A' - 'a')).union(upper.shift('a' - 'A'));
+    }
+
+    private CharSet shift(int delta) {
+        int[] shifted = new int[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            shifted[i] = ranges[i] + delta;
+        }
+        return new CharSet(shifted);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof CharSet && Arrays.equals(ranges, ((CharSet) o).ranges));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < ranges.length; i += 2) {
+            appendChar(sb, ranges[i]);
+            if (ranges[i + 1] != ranges[i]) {
+                sb.append('-');
+                appendChar(sb, ranges[i + 1]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    private static void appendChar(StringBuilder sb, int c) {
+        if (c >= '!' && c <= '~') {
+            sb.appendCodePoint(c);
+        } else {
+            sb.append(String.format("\\x{%x}", c));
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.isroot.stash.plugin.regex;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Creates {@link Matcher}s that are limited by a {@link RegexBudget}. Matching operations on the
+ * returned matcher ({@link Matcher#matches()}, {@link Matcher#find()}, ...) throw
+ * {@link RegexBudgetExceededException} if the budget is used up.
+ */
+public final class GuardedMatcher {
+    private GuardedMatcher() {
+    }
+
+    public static Matcher matcher(Pattern pattern, CharSequence input, RegexBudget budget) {
+        if (budget.isUnlimited()) {
+            return pattern.matcher(input);
+        }
+
+        return pattern.matcher(new BudgetedCharSequence(input, pattern, budget));
+    }
+}
@@ -0,0 +1,671 @@
+package com.isroot.stash.plugin.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.MatchResult;
+
+/**
+ * Regex engine that matches in time linear to the input length, no matter what the regex is. The
+ * regex is compiled to a Thompson NFA which is simulated with a Pike VM: all possible positions in
+ * the regex are tracked at once, so the input is read exactly once and nothing is backtracked.
+ *
+ * <p>Only the subset of java.util.regex understood by {@link RegexParser} is supported, notably
+ * no back references and no lookaround. Results, including capturing groups, follow the same
+ * leftmost, priority ordered semantics as {@link java.util.regex.Matcher}.
+ */
+public final class LinearRegex {
+    /** Limit on program size, bounded repeats like (abc){1000} are expanded into copies */
+    static final int MAX_INSTRUCTIONS = 20000;
+
+    private static final int CHAR = 0;
+    private static final int ASSERT = 1;
+    private static final int SPLIT = 2;
+    private static final int JUMP = 3;
+    private static final int SAVE = 4;
+    private static final int MATCH = 5;
+
+    private final String pattern;
+    private final int groupCount;
+    private final int[] op;
+    private final int[] arg1;
+    private final int[] arg2;
+    private final CharSet[] chars;
+    private final RegexNode.Anchor.Kind[] anchors;
+
+    private LinearRegex(String pattern, int groupCount, Compiler compiler) {
+        this.pattern = pattern;
+        this.groupCount = groupCount;
+
+        int size = compiler.ops.size();
+        op = new int[size];
+        arg1 = new int[size];
+        arg2 = new int[size];
+        chars = new CharSet[size];
+        anchors = new RegexNode.Anchor.Kind[size];
+
+        for (int i = 0; i < size; i++) {
+            op[i] = compiler.ops.get(i);
+            arg1[i] = compiler.arg1.get(i);
+            arg2[i] = compiler.arg2.get(i);
+            chars[i] = compiler.chars.get(i);
+            anchors[i] = compiler.anchors.get(i);
+        }
+    }
+
+    /**
+     * Compile a regex with {@link java.util.regex.Pattern} flags.
+     *
+     * @throws IllegalArgumentException if the regex is invalid or uses constructs this engine does
+     * not support
+     */
+    public static LinearRegex compile(String regex, int flags) {
+        return compile(RegexParser.parse(regex, flags));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the regex uses constructs this engine does not support
+     */
+    public static LinearRegex compile(ParsedRegex parsed) {
+        if (!parsed.isFullySupported()) {
+            throw new IllegalArgumentException(describeUnsupported(parsed));
+        }
+
+        Compiler compiler = new Compiler();
+        compiler.emit(SAVE, 0, 0, null, null);
+        compiler.compile(parsed.getRoot());
+        compiler.emit(SAVE, 1, 0, null, null);
+        compiler.emit(MATCH, 0, 0, null, null);
+
+        return new LinearRegex(parsed.getPattern(), parsed.getGroupCount(), compiler);
+    }
+
+    /**
+     * Return true if this engine is guaranteed to give the same results as java.util.regex for
+     * the regex. The engines only disagree on repeated groups that can match an empty string,
+     * where java.util.regex stops repeating after an empty repetition.
+     */
+    public static boolean isEquivalentToJava(ParsedRegex parsed) {
+        return parsed.isFullySupported() && !hasNullableRepeat(parsed.getRoot());
+    }
+
+    /**
+     * Return true if the capturing group is guaranteed to capture the same text as with
+     * java.util.regex. When java.util.regex backtracks out of a repetition it can keep what a
+     * group inside the repetition captured, so this requires the group not to be repeated.
+     */
+    public static boolean isGroupEquivalentToJava(ParsedRegex parsed, int group) {
+        return isEquivalentToJava(parsed) && !isGroupRepeated(parsed.getRoot(), group, false);
+    }
+
+    private static boolean isGroupRepeated(RegexNode node, int group, boolean repeated) {
+        if (node instanceof RegexNode.Repeat) {
+            RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+            return isGroupRepeated(repeat.getBody(), group,
+                    repeated || repeat.isUnbounded() || repeat.getMax() > 1);
+        } else if (node instanceof RegexNode.Group) {
+            RegexNode.Group g = (RegexNode.Group) node;
+            if (g.getCaptureIndex() == group) {
+                return repeated;
+            }
+            return isGroupRepeated(g.getBody(), group, repeated);
+        } else if (node instanceof RegexNode.Concat) {
+            for (RegexNode child : ((RegexNode.Concat) node).getChildren()) {
+                if (isGroupRepeated(child, group, repeated)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof RegexNode.Alternation) {
+            for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                if (isGroupRepeated(alternative, group, repeated)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean hasNullableRepeat(RegexNode node) {
+        if (node instanceof RegexNode.Repeat) {
+            RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+            if ((repeat.isUnbounded() || repeat.getMax() > 1) && RegexCostAnalyzer.nullable(repeat.getBody())) {
+                return true;
+            }
+            return hasNullableRepeat(repeat.getBody());
+        } else if (node instanceof RegexNode.Group) {
+            return hasNullableRepeat(((RegexNode.Group) node).getBody());
+        } else if (node instanceof RegexNode.Concat) {
+            for (RegexNode child : ((RegexNode.Concat) node).getChildren()) {
+                if (hasNullableRepeat(child)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof RegexNode.Alternation) {
+            for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                if (hasNullableRepeat(alternative)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Describe why a parsed regex can't be used with this engine, ex: "back reference '\1'".
+     */
+    public static String describeUnsupported(ParsedRegex parsed) {
+        StringBuilder sb = new StringBuilder();
+        for (RegexNode.Unsupported unsupported : parsed.getUnsupported()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(unsupported.getDescription());
+            if (unsupported.getEnd() > unsupported.getStart()) {
+                sb.append(" '").append(unsupported.getSource(parsed.getPattern())).append("'");
+            }
+        }
+        return sb.toString();
+    }
+
+    public String pattern() {
+        return pattern;
+    }
+
+    public int groupCount() {
+        return groupCount;
+    }
+
+    /**
+     * Same as {@link java.util.regex.Matcher#matches()}.
+     */
+    public boolean matches(CharSequence input) {
+        return run(input, true) != null;
+    }
+
+    /**
+     * Same as {@link java.util.regex.Matcher#find()} on a new matcher.
+     */
+    public boolean find(CharSequence input) {
+        return run(input, false) != null;
+    }
+
+    /**
+     * Match the entire input, returns null if it doesn't match.
+     */
+    public MatchResult matchEntire(CharSequence input) {
+        int[] slots = run(input, true);
+        return slots == null ? null : new Result(input, slots);
+    }
+
+    /**
+     * Find the first match in the input, returns null if there is none.
+     */
+    public MatchResult findFirst(CharSequence input) {
+        int[] slots = run(input, false);
+        return slots == null ? null : new Result(input, slots);
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    /**
+     * Start matching the input one character at a time. This lets callers run several regexes
+     * over the same input in a single pass, see {@link Execution#step(int, int, int)}.
+     *
+     * @param entire true to match the entire input like {@link #matchEntire(CharSequence)}, false
+     *               to find the first match like {@link #findFirst(CharSequence)}
+     */
+    public Execution execute(CharSequence input, boolean entire) {
+        return new Execution(input, entire);
+    }
+
+    /**
+     * Run the program against the input, returning capture slots of the best match or null.
+     */
+    private int[] run(CharSequence input, boolean entire) {
+        Execution execution = new Execution(input, entire);
+        int length = input.length();
+        int pos = 0;
+
+        while (true) {
+            int c = pos < length ? Character.codePointAt(input, pos) : -1;
+            int nextPos = c < 0 ? pos : pos + Character.charCount(c);
+
+            if (!execution.step(pos, c, nextPos)) {
+                break;
+            }
+
+            pos = nextPos;
+        }
+
+        return execution.matched;
+    }
+
+    /**
+     * A match in progress.
+     */
+    public final class Execution {
+        private final CharSequence input;
+        private final boolean entire;
+        private final int[] initial;
+        private Threads current;
+        private Threads next;
+        private int[] matched;
+        private boolean done;
+
+        private Execution(CharSequence input, boolean entire) {
+            this.input = input;
+            this.entire = entire;
+            this.initial = new int[(groupCount + 1) * 2];
+            Arrays.fill(initial, -1);
+            this.current = new Threads(op.length);
+            this.next = new Threads(op.length);
+        }
+
+        /**
+         * Process the code point at a position. Callers must pass every code point of the input
+         * in order, followed by c = -1 at the end of the input.
+         *
+         * @param pos offset of the code point in the input
+         * @param c code point, -1 at the end of the input
+         * @param nextPos offset of the next code point
+         * @return false once the result is known, further calls are ignored
+         */
+        public boolean step(int pos, int c, int nextPos) {
+            if (done) {
+                return false;
+            }
+
+            // A new attempt starts at every position until something matches. It has the lowest
+            // priority, so matches starting further left always win.
+            if (matched == null && (pos == 0 || !entire)) {
+                addThread(current, 0, initial, input, pos);
+            }
+
+            if (current.size == 0 && (matched != null || entire)) {
+                done = true;
+                return false;
+            }
+
+            for (int i = 0; i < current.size; i++) {
+                int pc = current.pcs[i];
+                int[] slots = current.slots[i];
+
+                if (op[pc] == CHAR) {
+                    if (c >= 0 && chars[pc].contains(c)) {
+                        addThread(next, pc + 1, slots, input, nextPos);
+                    }
+                } else if (op[pc] == MATCH) {
+                    if (!entire || pos == input.length()) {
+                        matched = slots;
+                        // Lower priority threads can't produce a better match
+                        break;
+                    }
+                }
+            }
+
+            if (c < 0) {
+                done = true;
+                return false;
+            }
+
+            Threads swap = current;
+            current = next;
+            next = swap;
+            next.clear();
+            return true;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Return the match, or null if there is no match. Only valid once {@link #isDone()}.
+         */
+        public MatchResult getResult() {
+            return matched == null ? null : new Result(input, matched);
+        }
+    }
+
+    /**
+     * Add a thread and follow all instructions that don't consume input. Threads are added in
+     * priority order and a program counter already in the list is skipped, that is what keeps
+     * the simulation linear.
+     */
+    private void addThread(Threads threads, int startPc, int[] startSlots, CharSequence input, int pos) {
+        int[] stackPcs = threads.stackPcs;
+        int[][] stackSlots = threads.stackSlots;
+        int top = 0;
+
+        stackPcs[top] = startPc;
+        stackSlots[top] = startSlots;
+        top++;
+
+        while (top > 0) {
+            top--;
+            int pc = stackPcs[top];
+            int[] slots = stackSlots[top];
+            stackSlots[top] = null;
+
+            if (threads.contains(pc)) {
+                continue;
+            }
+            threads.mark(pc);
+
+            switch (op[pc]) {
+                case JUMP:
+                    stackPcs[top] = arg1[pc];
+                    stackSlots[top++] = slots;
+                    break;
+                case SPLIT:
+                    // Push the lower priority branch first so the preferred one is followed first
+                    stackPcs[top] = arg2[pc];
+                    stackSlots[top++] = slots;
+                    stackPcs[top] = arg1[pc];
+                    stackSlots[top++] = slots;
+                    break;
+                case SAVE:
+                    int[] copy = slots.clone();
+                    copy[arg1[pc]] = pos;
+                    stackPcs[top] = pc + 1;
+                    stackSlots[top++] = copy;
+                    break;
+                case ASSERT:
+                    if (assertion(anchors[pc], input, pos)) {
+                        stackPcs[top] = pc + 1;
+                        stackSlots[top++] = slots;
+                    }
+                    break;
+                default:
+                    threads.add(pc, slots);
+            }
+        }
+    }
+
+    private static boolean assertion(RegexNode.Anchor.Kind kind, CharSequence input, int pos) {
+        int length = input.length();
+
+        switch (kind) {
+            case INPUT_START:
+                return pos == 0;
+            case INPUT_END:
+                return pos == length;
+            case INPUT_END_BEFORE_TERMINATOR:
+                if (pos == length) {
+                    return true;
+                }
+                if (pos == length - 2) {
+                    return input.charAt(pos) == '\r' && input.charAt(pos + 1) == '\n';
+                }
+                return pos == length - 1 && isLineTerminator(input.charAt(pos))
+                        && !isBetweenCrLf(input, pos);
+            case LINE_START:
+                // Like java.util.regex, ^ never matches at the end of input, even after a line terminator
+                if (pos == length) {
+                    return false;
+                }
+                return pos == 0 || (isLineTerminator(input.charAt(pos - 1)) && !isBetweenCrLf(input, pos));
+            case LINE_END:
+                return pos == length || (isLineTerminator(input.charAt(pos)) && !isBetweenCrLf(input, pos));
+            case WORD_BOUNDARY:
+                return isWordBefore(input, pos) != isWordAt(input, pos);
+            case NOT_WORD_BOUNDARY:
+                return isWordBefore(input, pos) == isWordAt(input, pos);
+            default:
+                throw new IllegalStateException("unknown anchor: " + kind);
+        }
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isBetweenCrLf(CharSequence input, int pos) {
+        return pos > 0 && pos < input.length() && input.charAt(pos - 1) == '\r' && input.charAt(pos) == '\n';
+    }
+
+    private static boolean isWordBefore(CharSequence input, int pos) {
+        return pos > 0 && isWord(Character.codePointBefore(input, pos));
+    }
+
+    private static boolean isWordAt(CharSequence input, int pos) {
+        return pos < input.length() && isWord(Character.codePointAt(input, pos));
+    }
+
+    private static boolean isWord(int c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * Sparse set of threads, in priority order, plus a work stack for {@link #addThread}.
+     */
+    private static class Threads {
+        private final int[] pcs;
+        private final int[][] slots;
+        private final int[] dense;
+        private final int[] sparse;
+        private int marked;
+        private int size;
+
+        private final int[] stackPcs;
+        private final int[][] stackSlots;
+
+        Threads(int programSize) {
+            pcs = new int[programSize];
+            slots = new int[programSize][];
+            dense = new int[programSize];
+            sparse = new int[programSize];
+            // Each instruction is visited at most once and pushes at most two entries
+            stackPcs = new int[programSize * 2 + 1];
+            stackSlots = new int[programSize * 2 + 1][];
+        }
+
+        boolean contains(int pc) {
+            int i = sparse[pc];
+            return i < marked && dense[i] == pc;
+        }
+
+        void mark(int pc) {
+            sparse[pc] = marked;
+            dense[marked++] = pc;
+        }
+
+        void add(int pc, int[] threadSlots) {
+            pcs[size] = pc;
+            slots[size++] = threadSlots;
+        }
+
+        void clear() {
+            Arrays.fill(slots, 0, size, null);
+            marked = 0;
+            size = 0;
+        }
+    }
+
+    private static class Result implements MatchResult {
+        private final String input;
+        private final int[] slots;
+        private final int groupCount;
+
+        Result(CharSequence input, int[] slots) {
+            this.input = input.toString();
+            this.slots = slots;
+            this.groupCount = slots.length / 2 - 1;
+        }
+
+        @Override
+        public int start() {
+            return start(0);
+        }
+
+        @Override
+        public int start(int group) {
+            checkGroup(group);
+            return slots[group * 2];
+        }
+
+        @Override
+        public int end() {
+            return end(0);
+        }
+
+        @Override
+        public int end(int group) {
+            checkGroup(group);
+            return slots[group * 2 + 1];
+        }
+
+        @Override
+        public String group() {
+            return group(0);
+        }
+
+        @Override
+        public String group(int group) {
+            checkGroup(group);
+            int start = slots[group * 2];
+            int end = slots[group * 2 + 1];
+            return start < 0 || end < 0 ? null : input.substring(start, end);
+        }
+
+        @Override
+        public int groupCount() {
+            return groupCount;
+        }
+
+        private void checkGroup(int group) {
+            if (group < 0 || group > groupCount) {
+                throw new IndexOutOfBoundsException("No group " + group);
+            }
+        }
+    }
+
+    /**
+     * Turns a {@link RegexNode} tree into a flat program.
+     */
+    private static class Compiler {
+        private final List<Integer> ops = new ArrayList<>();
+        private final List<Integer> arg1 = new ArrayList<>();
+        private final List<Integer> arg2 = new ArrayList<>();
+        private final List<CharSet> chars = new ArrayList<>();
+        private final List<RegexNode.Anchor.Kind> anchors = new ArrayList<>();
+
+        private int emit(int op, int a1, int a2, CharSet charSet, RegexNode.Anchor.Kind anchor) {
+            if (ops.size() >= MAX_INSTRUCTIONS) {
+                throw new IllegalArgumentException("regex is too large for the linear regex engine, " +
+                        "try smaller repeat counts");
+            }
+
+            ops.add(op);
+            arg1.add(a1);
+            arg2.add(a2);
+            chars.add(charSet);
+            anchors.add(anchor);
+            return ops.size() - 1;
+        }
+
+        private void patch(int pc, int a1, int a2) {
+            arg1.set(pc, a1);
+            arg2.set(pc, a2);
+        }
+
+        private int pc() {
+            return ops.size();
+        }
+
+        void compile(RegexNode node) {
+            if (node instanceof RegexNode.Chars) {
+                emit(CHAR, 0, 0, ((RegexNode.Chars) node).getChars(), null);
+            } else if (node instanceof RegexNode.Anchor) {
+                emit(ASSERT, 0, 0, null, ((RegexNode.Anchor) node).getKind());
+            } else if (node instanceof RegexNode.Empty) {
+                // Nothing to match
+            } else if (node instanceof RegexNode.Concat) {
+                for (RegexNode child : ((RegexNode.Concat) node).getChildren()) {
+                    compile(child);
+                }
+            } else if (node instanceof RegexNode.Alternation) {
+                compileAlternation(((RegexNode.Alternation) node).getAlternatives());
+            } else if (node instanceof RegexNode.Group) {
+                RegexNode.Group group = (RegexNode.Group) node;
+                if (group.isCapturing()) {
+                    emit(SAVE, group.getCaptureIndex() * 2, 0, null, null);
+                    compile(group.getBody());
+                    emit(SAVE, group.getCaptureIndex() * 2 + 1, 0, null, null);
+                } else {
+                    compile(group.getBody());
+                }
+            } else if (node instanceof RegexNode.Repeat) {
+                compileRepeat((RegexNode.Repeat) node);
+            } else {
+                throw new IllegalArgumentException("not supported by the linear regex engine: " +
+                        node.getClass().getSimpleName());
+            }
+        }
+
+        private void compileAlternation(List<RegexNode> alternatives) {
+            List<Integer> jumps = new ArrayList<>();
+
+            for (int i = 0; i < alternatives.size(); i++) {
+                if (i < alternatives.size() - 1) {
+                    int split = emit(SPLIT, 0, 0, null, null);
+                    compile(alternatives.get(i));
+                    jumps.add(emit(JUMP, 0, 0, null, null));
+                    patch(split, split + 1, pc());
+                } else {
+                    compile(alternatives.get(i));
+                }
+            }
+
+            for (int jump : jumps) {
+                patch(jump, pc(), 0);
+            }
+        }
+
+        private void compileRepeat(RegexNode.Repeat repeat) {
+            for (int i = 0; i < repeat.getMin(); i++) {
+                compile(repeat.getBody());
+            }
+
+            if (repeat.isUnbounded()) {
+                // Loop back with a split instead of a jump. If an iteration matched nothing, the
+                // loop start was already visited at this position and the split leaves the loop
+                // keeping the groups captured by the empty iteration, like java.util.regex does.
+                int split = emit(SPLIT, 0, 0, null, null);
+                compile(repeat.getBody());
+                int loop = emit(SPLIT, 0, 0, null, null);
+                patchSplit(split, repeat.isGreedy());
+                if (repeat.isGreedy()) {
+                    patch(loop, split, pc());
+                } else {
+                    patch(loop, pc(), split);
+                }
+            } else {
+                List<Integer> splits = new ArrayList<>();
+                for (int i = repeat.getMin(); i < repeat.getMax(); i++) {
+                    splits.add(emit(SPLIT, 0, 0, null, null));
+                    compile(repeat.getBody());
+                }
+                for (int split : splits) {
+                    patchSplit(split, repeat.isGreedy());
+                }
+            }
+        }
+
+        /**
+         * Point a split at the instruction after it (take the body) and the end of the repeat.
+         */
+        private void patchSplit(int split, boolean greedy) {
+            if (greedy) {
+                patch(split, split + 1, pc());
+            } else {
+                patch(split, pc(), split + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.isroot.stash.plugin.regex;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Result of {@link RegexParser#parse(String, int)}.
+ */
+public class ParsedRegex {
+    private final String pattern;
+    private final int flags;
+    private final RegexNode root;
+    private final int groupCount;
+    private final List<RegexNode.Unsupported> unsupported;
+
+    ParsedRegex(String pattern, int flags, RegexNode root, int groupCount, List<RegexNode.Unsupported> unsupported) {
+        this.pattern = pattern;
+        this.flags = flags;
+        this.root = root;
+        this.groupCount = groupCount;
+        this.unsupported = ImmutableList.copyOf(unsupported);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * {@link java.util.regex.Pattern} flags the regex was parsed with.
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    public RegexNode getRoot() {
+        return root;
+    }
+
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * Constructs in the regex that the parser does not understand. If this is empty, the parsed
+     * tree describes exactly what the regex matches.
+     */
+    public List<RegexNode.Unsupported> getUnsupported() {
+        return unsupported;
+    }
+
+    public boolean isFullySupported() {
+        return unsupported.isEmpty();
+    }
+}
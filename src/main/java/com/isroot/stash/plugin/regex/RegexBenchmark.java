@@ -0,0 +1,208 @@
+package com.isroot.stash.plugin.regex;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Times a regex against realistic and adversarial inputs so slow regexes can be caught when
+ * settings are saved, instead of when somebody pushes a commit that triggers them.
+ */
+public class RegexBenchmark {
+    /**
+     * Inputs resembling what the hook actually matches: commit messages, branch names and
+     * committer emails.
+     */
+    private static final List<String> REALISTIC_INPUTS = ImmutableList.of(
+            "ABC-123: fix the build",
+            "ABC-123 ABC-124 DEF-1: update dependencies\n\nSee the linked issues for details.",
+            "Merge branch 'feature/ABC-123-new-thing' into develop",
+            "Revert \"ABC-123: fix the build\"\n\nThis reverts commit 0123456789abcdef0123456789abcdef01234567.",
+            "fixup! ABC-123: fix the build",
+            "no issue key in this commit message",
+            "",
+            "feature/ABC-123-some-branch-name",
+            "bugfix/ABC-123",
+            "release/1.2.3",
+            "user.name@example.com",
+            "first.last+tag@sub.example.co.uk",
+            longMessage());
+
+    private static final String[] PUMPS = {"a", "A", "0", " ", "-", ".", "\t", "\n", "a ", "a-", "a0", "aA"};
+
+    private final long warnMillis;
+    private final long rejectMillis;
+    private final long maxTotalMillis;
+
+    /**
+     * @param warnMillis matching an input slower than this is reported as slow
+     * @param rejectMillis matching an input slower than this is reported as too slow, the match is
+     *                     stopped at this point
+     * @param maxTotalMillis stop benchmarking after this long even if not all inputs were tried
+     */
+    public RegexBenchmark(long warnMillis, long rejectMillis, long maxTotalMillis) {
+        this.warnMillis = warnMillis;
+        this.rejectMillis = rejectMillis;
+        this.maxTotalMillis = maxTotalMillis;
+    }
+
+    /**
+     * Read thresholds from 'yacc.regex.benchmark.warnMillis', 'yacc.regex.benchmark.rejectMillis'
+     * and 'yacc.regex.benchmark.maxTotalMillis' system properties.
+     */
+    public static RegexBenchmark fromSystemProperties() {
+        return new RegexBenchmark(Long.getLong("yacc.regex.benchmark.warnMillis", 25),
+                Long.getLong("yacc.regex.benchmark.rejectMillis", 250),
+                Long.getLong("yacc.regex.benchmark.maxTotalMillis", 2000));
+    }
+
+    public long getWarnMillis() {
+        return warnMillis;
+    }
+
+    public long getRejectMillis() {
+        return rejectMillis;
+    }
+
+    /**
+     * Build the inputs to benchmark: realistic samples, generic adversarial inputs (long runs of
+     * one kind of character followed by something unexpected) and inputs targeting the given
+     * risks.
+     */
+    public static List<String> corpus(List<RegexRisk> risks) {
+        List<String> inputs = new ArrayList<>();
+
+        for (RegexRisk risk : risks) {
+            inputs.add(risk.getAttackInput(16));
+            inputs.add(risk.getAttackInput(32));
+            inputs.add(risk.getAttackInput(4096));
+        }
+
+        inputs.addAll(REALISTIC_INPUTS);
+
+        for (String pump : PUMPS) {
+            inputs.add(Strings.repeat(pump, 64) + "!");
+            inputs.add(Strings.repeat(pump, 64) + "\n!");
+            inputs.add(Strings.repeat(pump, 4096) + "!");
+        }
+
+        return inputs;
+    }
+
+    /**
+     * Match the pattern against each input and report the slowest one.
+     *
+     * @param find use {@link Matcher#find()} instead of {@link Matcher#matches()}
+     */
+    public Result run(Pattern pattern, boolean find, List<String> inputs) {
+        RegexBudget budget = new RegexBudget(0, rejectMillis);
+        long started = System.nanoTime();
+        long worstNanos = 0;
+        String worstInput = null;
+        String overflowInput = null;
+
+        for (String input : inputs) {
+            if (System.nanoTime() - started > maxTotalMillis * 1000000L) {
+                return new Result(worstNanos, worstInput, false, true, overflowInput);
+            }
+
+            // Best of a few runs to keep JIT warm-up and GC pauses from being counted
+            long bestNanos = Long.MAX_VALUE;
+            for (int i = 0; i < 3 && bestNanos > warnMillis * 1000000L / 10; i++) {
+                long start = System.nanoTime();
+
+                try {
+                    Matcher matcher = GuardedMatcher.matcher(pattern, input, budget);
+                    if (find) {
+                        while (matcher.find()) {
+                            // Find all matches like the hook does when extracting issue keys
+                        }
+                    } else {
+                        matcher.matches();
+                    }
+                } catch (RegexBudgetExceededException e) {
+                    return new Result(rejectMillis * 1000000L, input, true, false, overflowInput);
+                } catch (StackOverflowError e) {
+                    // Repeated groups recurse once per repetition in java.util.regex, long inputs
+                    // can exhaust the stack without being slow
+                    overflowInput = input;
+                    break;
+                }
+
+                bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            }
+
+            if (bestNanos != Long.MAX_VALUE && (bestNanos > worstNanos || worstInput == null)) {
+                worstNanos = bestNanos;
+                worstInput = input;
+            }
+        }
+
+        return new Result(worstNanos, worstInput, false, false, overflowInput);
+    }
+
+    private static String longMessage() {
+        StringBuilder sb = new StringBuilder("ABC-123: large change\n\n");
+        while (sb.length() < 4096) {
+            sb.append("* ABC-").append(sb.length()).append(" updated some code, see the review for details\n");
+        }
+        return sb.toString();
+    }
+
+    public class Result {
+        private final long worstNanos;
+        private final String worstInput;
+        private final boolean stopped;
+        private final boolean incomplete;
+        private final String overflowInput;
+
+        private Result(long worstNanos, String worstInput, boolean stopped, boolean incomplete,
+                       String overflowInput) {
+            this.worstNanos = worstNanos;
+            this.worstInput = worstInput;
+            this.stopped = stopped;
+            this.incomplete = incomplete;
+            this.overflowInput = overflowInput;
+        }
+
+        public long getWorstMillis() {
+            return worstNanos / 1000000L;
+        }
+
+        /**
+         * The input that took the longest to match.
+         */
+        public String getWorstInput() {
+            return worstInput;
+        }
+
+        /**
+         * True if a match was stopped because it took longer than the reject threshold.
+         */
+        public boolean isTooSlow() {
+            return stopped || getWorstMillis() >= rejectMillis;
+        }
+
+        public boolean isSlow() {
+            return isTooSlow() || getWorstMillis() >= warnMillis;
+        }
+
+        /**
+         * True if the benchmark ran out of time before trying all inputs.
+         */
+        public boolean isIncomplete() {
+            return incomplete;
+        }
+
+        /**
+         * An input that made the regex fail with a {@link StackOverflowError}, or null.
+         */
+        public String getStackOverflowInput() {
+            return overflowInput;
+        }
+    }
+}
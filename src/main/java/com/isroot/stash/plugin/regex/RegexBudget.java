@@ -0,0 +1,54 @@
+package com.isroot.stash.plugin.regex;
+
+/**
+ * Limits how much work a single regex match may do before it is stopped. Commit messages and
+ * branch names are user supplied, so a regex that backtracks badly can otherwise keep a CPU busy
+ * for minutes on a single push.
+ */
+public class RegexBudget {
+    private final long maxSteps;
+    private final long timeoutMillis;
+
+    /**
+     * @param maxSteps maximum number of characters the regex engine may read, 0 or less means no
+     *                 limit
+     * @param timeoutMillis maximum time per match in milliseconds, 0 or less means no limit
+     */
+    public RegexBudget(long maxSteps, long timeoutMillis) {
+        this.maxSteps = maxSteps;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Read budget from the 'yacc.regex.maxSteps' and 'yacc.regex.timeoutMillis' system
+     * properties.
+     */
+    public static RegexBudget fromSystemProperties() {
+        return new RegexBudget(Long.getLong("yacc.regex.maxSteps", 10000000),
+                Long.getLong("yacc.regex.timeoutMillis", 1000));
+    }
+
+    public static RegexBudget unlimited() {
+        return new RegexBudget(0, 0);
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public boolean isUnlimited() {
+        return maxSteps <= 0 && timeoutMillis <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "RegexBudget{" +
+                "maxSteps=" + maxSteps +
+                ", timeoutMillis=" + timeoutMillis +
+                '}';
+    }
+}
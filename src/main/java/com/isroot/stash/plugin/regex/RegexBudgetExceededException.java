@@ -0,0 +1,18 @@
+package com.isroot.stash.plugin.regex;
+
+/**
+ * Thrown when a regex match uses up its {@link RegexBudget}.
+ */
+public class RegexBudgetExceededException extends RuntimeException {
+    private final String regex;
+
+    public RegexBudgetExceededException(String regex, long steps, long elapsedMillis) {
+        super(String.format("regex '%s' was stopped because it took too long to match (%d steps, %d ms)."
+                + " The regex may be prone to catastrophic backtracking.", regex, steps, elapsedMillis));
+        this.regex = regex;
+    }
+
+    public String getRegex() {
+        return regex;
+    }
+}
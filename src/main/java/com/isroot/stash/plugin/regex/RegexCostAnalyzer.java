@@ -0,0 +1,384 @@
+package com.isroot.stash.plugin.regex;
+
+import com.google.common.base.Strings;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Looks for regex constructs that make {@link java.util.regex.Pattern} backtrack exponentially
+ * (or with a high polynomial degree) on inputs that don't match.
+ *
+ * <p>This is a heuristic. It reports places where the same text can be matched in more than one
+ * way under a quantifier, which is what makes backtracking blow up, but it can't tell whether
+ * the rest of the regex stops the engine from ever trying all of those ways. Use
+ * {@link RegexBenchmark} with {@link RegexRisk#getAttackInput(int)} to see how bad it really is.
+ */
+public final class RegexCostAnalyzer {
+    /** Characters tried, in order, to end a run of pumped text so the match fails. */
+    private static final int[] KILLER_CANDIDATES = {'!', 0, '\n', ' ', '#', '~', 'a', '0'};
+
+    private final ParsedRegex regex;
+    private final List<RegexRisk> risks = new ArrayList<>();
+
+    private RegexCostAnalyzer(ParsedRegex regex) {
+        this.regex = regex;
+    }
+
+    public static List<RegexRisk> analyze(ParsedRegex regex) {
+        RegexCostAnalyzer analyzer = new RegexCostAnalyzer(regex);
+        analyzer.visit(regex.getRoot());
+        return analyzer.risks;
+    }
+
+    private void visit(RegexNode node) {
+        if (node instanceof RegexNode.Repeat) {
+            RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+
+            if (repeat.isUnbounded() || repeat.getMax() > 1) {
+                checkNestedQuantifier(repeat);
+                checkOverlappingAlternation(repeat, repeat.getBody());
+            }
+
+            visit(repeat.getBody());
+        } else if (node instanceof RegexNode.Group) {
+            visit(((RegexNode.Group) node).getBody());
+        } else if (node instanceof RegexNode.Alternation) {
+            for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                visit(alternative);
+            }
+        } else if (node instanceof RegexNode.Concat) {
+            List<RegexNode> children = ((RegexNode.Concat) node).getChildren();
+
+            checkAdjacentQuantifiers(children);
+
+            for (RegexNode child : children) {
+                visit(child);
+            }
+        }
+    }
+
+    /**
+     * (a+)+, (\w+\s?)*, (.*a){20}: a quantifier inside the repeated body can consume text that
+     * the next or previous repetition could also start or end with.
+     */
+    private void checkNestedQuantifier(RegexNode.Repeat repeat) {
+        RegexNode body = repeat.getBody();
+
+        for (RegexNode.Repeat inner : lastRepeats(body)) {
+            CharSet overlap = consumed(inner.getBody()).intersect(first(body));
+            if (!overlap.isEmpty()) {
+                addNestedQuantifierRisk(repeat, overlap);
+                return;
+            }
+        }
+
+        for (RegexNode.Repeat inner : firstRepeats(body)) {
+            CharSet overlap = consumed(inner.getBody()).intersect(last(body));
+            if (!overlap.isEmpty()) {
+                addNestedQuantifierRisk(repeat, overlap);
+                return;
+            }
+        }
+    }
+
+    private void addNestedQuantifierRisk(RegexNode.Repeat repeat, CharSet overlap) {
+        addRisk(RegexRisk.Kind.NESTED_QUANTIFIER,
+                String.format("nested quantifier in '%s' can match the same text in many different ways",
+                        source(repeat)),
+                repeat, overlap, consumed(repeat));
+    }
+
+    /**
+     * (a|aa)*, (\w|\d)+: more than one alternative can match the next character.
+     */
+    private void checkOverlappingAlternation(RegexNode.Repeat repeat, RegexNode node) {
+        if (node instanceof RegexNode.Group) {
+            checkOverlappingAlternation(repeat, ((RegexNode.Group) node).getBody());
+        } else if (node instanceof RegexNode.Concat) {
+            for (RegexNode child : ((RegexNode.Concat) node).getChildren()) {
+                checkOverlappingAlternation(repeat, child);
+            }
+        } else if (node instanceof RegexNode.Alternation) {
+            List<RegexNode> alternatives = ((RegexNode.Alternation) node).getAlternatives();
+
+            for (int i = 0; i < alternatives.size(); i++) {
+                for (int j = i + 1; j < alternatives.size(); j++) {
+                    CharSet overlap = first(alternatives.get(i)).intersect(first(alternatives.get(j)));
+
+                    if (!overlap.isEmpty()) {
+                        addRisk(RegexRisk.Kind.OVERLAPPING_ALTERNATION,
+                                String.format("alternatives '%s' and '%s' in '%s' can match the same text",
+                                        source(alternatives.get(i)), source(alternatives.get(j)), source(repeat)),
+                                repeat, overlap, consumed(repeat));
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * \d+\d+, .*\s*$: two quantifiers next to each other that can match the same characters,
+     * so a failing match tries every way of splitting the text between them.
+     */
+    private void checkAdjacentQuantifiers(List<RegexNode> children) {
+        for (int i = 0; i < children.size(); i++) {
+            for (RegexNode.Repeat left : lastRepeats(children.get(i))) {
+                for (int j = i + 1; j < children.size(); j++) {
+                    RegexNode next = children.get(j);
+
+                    for (RegexNode.Repeat right : firstRepeats(next)) {
+                        CharSet overlap = last(left.getBody()).intersect(first(right.getBody()));
+
+                        if (!overlap.isEmpty()) {
+                            addRisk(RegexRisk.Kind.ADJACENT_QUANTIFIERS,
+                                    String.format("'%s' and '%s' can match the same text", source(left),
+                                            source(right)),
+                                    left, overlap, consumed(left).union(consumed(right)));
+                            return;
+                        }
+                    }
+
+                    if (!nullable(next)) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void addRisk(RegexRisk.Kind kind, String description, RegexNode target, CharSet pump,
+                         CharSet consumed) {
+        String killer = "";
+        for (int candidate : KILLER_CANDIDATES) {
+            if (!consumed.contains(candidate)) {
+                killer = new String(Character.toChars(candidate));
+                break;
+            }
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        appendPrefix(regex.getRoot(), target, prefix);
+
+        risks.add(new RegexRisk(kind, description, prefix.toString(),
+                new String(Character.toChars(pump.sample())), killer));
+    }
+
+    /**
+     * Append an example of the text that must be matched before the target node can be reached.
+     * Returns true if the target was found under this node.
+     */
+    private boolean appendPrefix(RegexNode node, RegexNode target, StringBuilder sb) {
+        if (node == target) {
+            return true;
+        }
+
+        if (node instanceof RegexNode.Concat) {
+            StringBuilder before = new StringBuilder();
+
+            for (RegexNode child : ((RegexNode.Concat) node).getChildren()) {
+                if (appendPrefix(child, target, before)) {
+                    sb.append(before);
+                    return true;
+                }
+                before.append(example(child));
+            }
+        } else if (node instanceof RegexNode.Alternation) {
+            for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                if (appendPrefix(alternative, target, sb)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof RegexNode.Group) {
+            return appendPrefix(((RegexNode.Group) node).getBody(), target, sb);
+        } else if (node instanceof RegexNode.Repeat) {
+            return appendPrefix(((RegexNode.Repeat) node).getBody(), target, sb);
+        }
+
+        return false;
+    }
+
+    /**
+     * Return a short string matched by the node.
+     */
+    private String example(RegexNode node) {
+        if (node instanceof RegexNode.Chars) {
+            int c = ((RegexNode.Chars) node).getChars().sample();
+            return c < 0 ? "" : new String(Character.toChars(c));
+        } else if (node instanceof RegexNode.Concat) {
+            StringBuilder sb = new StringBuilder();
+            for (RegexNode child : ((RegexNode.Concat) node).getChildren()) {
+                sb.append(example(child));
+            }
+            return sb.toString();
+        } else if (node instanceof RegexNode.Alternation) {
+            return example(((RegexNode.Alternation) node).getAlternatives().get(0));
+        } else if (node instanceof RegexNode.Group) {
+            return example(((RegexNode.Group) node).getBody());
+        } else if (node instanceof RegexNode.Repeat) {
+            RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+            return Strings.repeat(example(repeat.getBody()), Math.min(repeat.getMin(), 100));
+        }
+
+        return "";
+    }
+
+    private String source(RegexNode node) {
+        return node.getSource(regex.getPattern());
+    }
+
+    static boolean nullable(RegexNode node) {
+        if (node instanceof RegexNode.Chars) {
+            return false;
+        } else if (node instanceof RegexNode.Concat) {
+            for (RegexNode child : ((RegexNode.Concat) node).getChildren()) {
+                if (!nullable(child)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (node instanceof RegexNode.Alternation) {
+            for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                if (nullable(alternative)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (node instanceof RegexNode.Group) {
+            return nullable(((RegexNode.Group) node).getBody());
+        } else if (node instanceof RegexNode.Repeat) {
+            RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+            return repeat.getMin() == 0 || nullable(repeat.getBody());
+        }
+
+        // Anchors, empty and unsupported nodes
+        return true;
+    }
+
+    /**
+     * Characters that can start a non-empty match of the node.
+     */
+    static CharSet first(RegexNode node) {
+        return edge(node, true);
+    }
+
+    /**
+     * Characters that can end a non-empty match of the node.
+     */
+    static CharSet last(RegexNode node) {
+        return edge(node, false);
+    }
+
+    private static CharSet edge(RegexNode node, boolean first) {
+        if (node instanceof RegexNode.Chars) {
+            return ((RegexNode.Chars) node).getChars();
+        } else if (node instanceof RegexNode.Concat) {
+            List<RegexNode> children = ((RegexNode.Concat) node).getChildren();
+            CharSet result = CharSet.EMPTY;
+
+            for (int i = 0; i < children.size(); i++) {
+                RegexNode child = children.get(first ? i : children.size() - 1 - i);
+                result = result.union(edge(child, first));
+                if (!nullable(child)) {
+                    break;
+                }
+            }
+
+            return result;
+        } else if (node instanceof RegexNode.Alternation) {
+            CharSet result = CharSet.EMPTY;
+            for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                result = result.union(edge(alternative, first));
+            }
+            return result;
+        } else if (node instanceof RegexNode.Group) {
+            return edge(((RegexNode.Group) node).getBody(), first);
+        } else if (node instanceof RegexNode.Repeat) {
+            RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+            return repeat.getMax() == 0 ? CharSet.EMPTY : edge(repeat.getBody(), first);
+        } else if (node instanceof RegexNode.Unsupported) {
+            return CharSet.ANY;
+        }
+
+        return CharSet.EMPTY;
+    }
+
+    /**
+     * Every character the node could consume.
+     */
+    static CharSet consumed(RegexNode node) {
+        if (node instanceof RegexNode.Chars) {
+            return ((RegexNode.Chars) node).getChars();
+        } else if (node instanceof RegexNode.Concat) {
+            CharSet result = CharSet.EMPTY;
+            for (RegexNode child : ((RegexNode.Concat) node).getChildren()) {
+                result = result.union(consumed(child));
+            }
+            return result;
+        } else if (node instanceof RegexNode.Alternation) {
+            CharSet result = CharSet.EMPTY;
+            for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                result = result.union(consumed(alternative));
+            }
+            return result;
+        } else if (node instanceof RegexNode.Group) {
+            return consumed(((RegexNode.Group) node).getBody());
+        } else if (node instanceof RegexNode.Repeat) {
+            RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+            return repeat.getMax() == 0 ? CharSet.EMPTY : consumed(repeat.getBody());
+        } else if (node instanceof RegexNode.Unsupported) {
+            return CharSet.ANY;
+        }
+
+        return CharSet.EMPTY;
+    }
+
+    /**
+     * Unbounded quantifiers that can match the first characters of the node.
+     */
+    private static Set<RegexNode.Repeat> firstRepeats(RegexNode node) {
+        Set<RegexNode.Repeat> result = new LinkedHashSet<>();
+        edgeRepeats(node, true, result);
+        return result;
+    }
+
+    /**
+     * Unbounded quantifiers that can match the last characters of the node.
+     */
+    private static Set<RegexNode.Repeat> lastRepeats(RegexNode node) {
+        Set<RegexNode.Repeat> result = new LinkedHashSet<>();
+        edgeRepeats(node, false, result);
+        return result;
+    }
+
+    private static void edgeRepeats(RegexNode node, boolean first, Set<RegexNode.Repeat> result) {
+        if (node instanceof RegexNode.Concat) {
+            List<RegexNode> children = ((RegexNode.Concat) node).getChildren();
+
+            for (int i = 0; i < children.size(); i++) {
+                RegexNode child = children.get(first ? i : children.size() - 1 - i);
+                edgeRepeats(child, first, result);
+                if (!nullable(child)) {
+                    break;
+                }
+            }
+        } else if (node instanceof RegexNode.Alternation) {
+            for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                edgeRepeats(alternative, first, result);
+            }
+        } else if (node instanceof RegexNode.Group) {
+            edgeRepeats(((RegexNode.Group) node).getBody(), first, result);
+        } else if (node instanceof RegexNode.Repeat) {
+            RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+
+            if (repeat.isUnbounded() && !consumed(repeat.getBody()).isEmpty()) {
+                result.add(repeat);
+            }
+
+            edgeRepeats(repeat.getBody(), first, result);
+        }
+    }
+}
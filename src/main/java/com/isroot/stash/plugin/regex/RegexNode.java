@@ -0,0 +1,208 @@
+package com.isroot.stash.plugin.regex;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Node in a parsed regex, see {@link RegexParser}. Each node remembers where it came from in the
+ * original pattern so problems can be reported against the text the admin typed.
+ */
+public abstract class RegexNode {
+    private final int start;
+    private final int end;
+
+    RegexNode(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Offset of the first character of this node in the pattern.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Offset after the last character of this node in the pattern.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Return the part of the pattern this node was parsed from.
+     */
+    public String getSource(String pattern) {
+        return pattern.substring(start, end);
+    }
+
+    /**
+     * Matches a single character from a set.
+     */
+    public static final class Chars extends RegexNode {
+        private final CharSet chars;
+
+        Chars(int start, int end, CharSet chars) {
+            super(start, end);
+            this.chars = chars;
+        }
+
+        public CharSet getChars() {
+            return chars;
+        }
+    }
+
+    /**
+     * Zero width assertion.
+     */
+    public static final class Anchor extends RegexNode {
+        public enum Kind {
+            /** ^ in MULTILINE mode */
+            LINE_START,
+            /** $ in MULTILINE mode */
+            LINE_END,
+            /** ^ or \A */
+            INPUT_START,
+            /** $ or \Z, end of input or before a final line terminator */
+            INPUT_END_BEFORE_TERMINATOR,
+            /** \z */
+            INPUT_END,
+            /** \b */
+            WORD_BOUNDARY,
+            /** \B */
+            NOT_WORD_BOUNDARY
+        }
+
+        private final Kind kind;
+
+        Anchor(int start, int end, Kind kind) {
+            super(start, end);
+            this.kind = kind;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+    }
+
+    /**
+     * Matches the empty string.
+     */
+    public static final class Empty extends RegexNode {
+        Empty(int start, int end) {
+            super(start, end);
+        }
+    }
+
+    public static final class Concat extends RegexNode {
+        private final List<RegexNode> children;
+
+        Concat(int start, int end, List<RegexNode> children) {
+            super(start, end);
+            this.children = ImmutableList.copyOf(children);
+        }
+
+        public List<RegexNode> getChildren() {
+            return children;
+        }
+    }
+
+    public static final class Alternation extends RegexNode {
+        private final List<RegexNode> alternatives;
+
+        Alternation(int start, int end, List<RegexNode> alternatives) {
+            super(start, end);
+            this.alternatives = ImmutableList.copyOf(alternatives);
+        }
+
+        public List<RegexNode> getAlternatives() {
+            return alternatives;
+        }
+    }
+
+    /**
+     * Parenthesized group. Capturing groups are numbered from 1, non-capturing groups have an
+     * index of 0.
+     */
+    public static final class Group extends RegexNode {
+        private final RegexNode body;
+        private final int captureIndex;
+
+        Group(int start, int end, RegexNode body, int captureIndex) {
+            super(start, end);
+            this.body = body;
+            this.captureIndex = captureIndex;
+        }
+
+        public RegexNode getBody() {
+            return body;
+        }
+
+        public int getCaptureIndex() {
+            return captureIndex;
+        }
+
+        public boolean isCapturing() {
+            return captureIndex > 0;
+        }
+    }
+
+    public static final class Repeat extends RegexNode {
+        public static final int UNBOUNDED = -1;
+
+        private final RegexNode body;
+        private final int min;
+        private final int max;
+        private final boolean greedy;
+
+        Repeat(int start, int end, RegexNode body, int min, int max, boolean greedy) {
+            super(start, end);
+            this.body = body;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+        }
+
+        public RegexNode getBody() {
+            return body;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        /**
+         * Maximum repetitions or {@link #UNBOUNDED}.
+         */
+        public int getMax() {
+            return max;
+        }
+
+        public boolean isUnbounded() {
+            return max == UNBOUNDED;
+        }
+
+        public boolean isGreedy() {
+            return greedy;
+        }
+    }
+
+    /**
+     * A construct that is valid for java.util.regex but not understood by this parser (ex:
+     * back references, lookaround). Analysis treats it as something that could match anything.
+     */
+    public static final class Unsupported extends RegexNode {
+        private final String description;
+
+        Unsupported(int start, int end, String description) {
+            super(start, end);
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+}
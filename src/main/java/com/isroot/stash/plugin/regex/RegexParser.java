@@ -0,0 +1,624 @@
+package com.isroot.stash.plugin.regex;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Parses {@link java.util.regex.Pattern} syntax into a tree of {@link RegexNode}s.
+ *
+ * <p>The parser expects patterns that {@link Pattern#compile(String)} has already accepted and does
+ * not try to produce good error messages for invalid ones. Constructs it does not model exactly
+ * (back references, lookaround, possessive quantifiers, most \p{...} classes, ...) become
+ * {@link RegexNode.Unsupported} nodes and are listed in {@link ParsedRegex#getUnsupported()}.
+ */
+public final class RegexParser {
+    private static final int SUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL;
+
+    private static final Map<String, CharSet> POSIX_CLASSES = ImmutableMap.<String, CharSet>builder()
+            .put("Lower", CharSet.range('a', 'z'))
+            .put("Upper", CharSet.range('A', 'Z'))
+            .put("ASCII", CharSet.range(0, 0x7f))
+            .put("Alpha", CharSet.of(CharSet.range('a', 'z'), CharSet.range('A', 'Z')))
+            .put("Digit", CharSet.DIGIT)
+            .put("Alnum", CharSet.of(CharSet.range('a', 'z'), CharSet.range('A', 'Z'), CharSet.DIGIT))
+            .put("Punct", punct())
+            .put("Graph", CharSet.range('!', '~'))
+            .put("Print", CharSet.range(' ', '~'))
+            .put("Blank", CharSet.of(CharSet.single(' '), CharSet.single('\t')))
+            .put("Cntrl", CharSet.of(CharSet.range(0, 0x1f), CharSet.single(0x7f)))
+            .put("XDigit", CharSet.of(CharSet.DIGIT, CharSet.range('a', 'f'), CharSet.range('A', 'F')))
+            .put("Space", CharSet.SPACE)
+            .build();
+
+    private final String pattern;
+    private final List<RegexNode.Unsupported> unsupported = new ArrayList<>();
+
+    private int pos;
+    private int groupCount;
+    private boolean caseInsensitive;
+    private boolean multiline;
+    private boolean dotAll;
+
+    private RegexParser(String pattern, int flags) {
+        this.pattern = pattern;
+        this.caseInsensitive = (flags & Pattern.CASE_INSENSITIVE) != 0;
+        this.multiline = (flags & Pattern.MULTILINE) != 0;
+        this.dotAll = (flags & Pattern.DOTALL) != 0;
+
+        if ((flags & ~SUPPORTED_FLAGS) != 0) {
+            unsupported("flags " + Integer.toHexString(flags & ~SUPPORTED_FLAGS), 0, 0);
+        }
+    }
+
+    /**
+     * Parse a regex.
+     *
+     * @param pattern regex that is valid for {@link Pattern#compile(String, int)}
+     * @param flags {@link Pattern} flags the regex will be used with
+     * @throws IllegalArgumentException if the pattern can't be parsed
+     */
+    public static ParsedRegex parse(String pattern, int flags) {
+        RegexParser parser = new RegexParser(pattern, flags);
+
+        RegexNode root = parser.parseAlternation();
+
+        if (parser.pos < pattern.length()) {
+            throw parser.error("Unmatched closing ')'");
+        }
+
+        return new ParsedRegex(pattern, flags, root, parser.groupCount, parser.unsupported);
+    }
+
+    private RegexNode parseAlternation() {
+        int start = pos;
+        List<RegexNode> alternatives = new ArrayList<>();
+
+        alternatives.add(parseConcat());
+        while (more() && peek() == '|') {
+            pos++;
+            alternatives.add(parseConcat());
+        }
+
+        return alternatives.size() == 1 ? alternatives.get(0)
+                : new RegexNode.Alternation(start, pos, alternatives);
+    }
+
+    private RegexNode parseConcat() {
+        int start = pos;
+        List<RegexNode> items = new ArrayList<>();
+
+        while (more() && peek() != '|' && peek() != ')') {
+            RegexNode atom = parseAtom();
+
+            if (atom != null) {
+                items.add(parseQuantifier(atom));
+            }
+        }
+
+        if (items.isEmpty()) {
+            return new RegexNode.Empty(start, pos);
+        }
+
+        return items.size() == 1 ? items.get(0) : new RegexNode.Concat(start, pos, items);
+    }
+
+    private RegexNode parseQuantifier(RegexNode atom) {
+        boolean quantified = false;
+
+        while (more()) {
+            int start = atom.getStart();
+            int min;
+            int max;
+
+            char c = peek();
+            if (c == '*') {
+                min = 0;
+                max = RegexNode.Repeat.UNBOUNDED;
+                pos++;
+            } else if (c == '+') {
+                min = 1;
+                max = RegexNode.Repeat.UNBOUNDED;
+                pos++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (c == '{') {
+                pos++;
+                min = parseNumber();
+                max = min;
+                if (peek() == ',') {
+                    pos++;
+                    max = peek() == '}' ? RegexNode.Repeat.UNBOUNDED : parseNumber();
+                }
+                expect('}');
+            } else {
+                return atom;
+            }
+
+            boolean greedy = true;
+            if (more() && peek() == '?') {
+                greedy = false;
+                pos++;
+            } else if (more() && peek() == '+') {
+                pos++;
+                atom = unsupported("possessive quantifier", start, pos);
+                quantified = true;
+                continue;
+            }
+
+            if (quantified) {
+                // java.util.regex accepts a{2}{3} and a+{0,2} but ignores the second quantifier
+                continue;
+            }
+
+            atom = new RegexNode.Repeat(start, pos, atom, min, max, greedy);
+            quantified = true;
+        }
+
+        return atom;
+    }
+
+    /**
+     * Parse a single item. Returns null for items that don't match anything, ex: an inline flag
+     * group like (?i).
+     */
+    private RegexNode parseAtom() {
+        int start = pos;
+        int c = pattern.codePointAt(pos);
+        pos += Character.charCount(c);
+
+        switch (c) {
+            case '(':
+                return parseGroup(start);
+            case '[':
+                pos = start;
+                CharSet set = parseClass();
+                return new RegexNode.Chars(start, pos, set);
+            case '.':
+                return new RegexNode.Chars(start, pos, dotAll ? CharSet.ANY : CharSet.LINE_TERMINATOR.complement());
+            case '^':
+                return new RegexNode.Anchor(start, pos,
+                        multiline ? RegexNode.Anchor.Kind.LINE_START : RegexNode.Anchor.Kind.INPUT_START);
+            case '$':
+                return new RegexNode.Anchor(start, pos,
+                        multiline ? RegexNode.Anchor.Kind.LINE_END : RegexNode.Anchor.Kind.INPUT_END_BEFORE_TERMINATOR);
+            case '\\':
+                return parseEscape(start);
+            default:
+                return new RegexNode.Chars(start, pos, literal(c));
+        }
+    }
+
+    private RegexNode parseGroup(int start) {
+        boolean savedCaseInsensitive = caseInsensitive;
+        boolean savedMultiline = multiline;
+        boolean savedDotAll = dotAll;
+
+        try {
+            if (!more() || peek() != '?') {
+                int index = ++groupCount;
+                RegexNode body = parseAlternation();
+                expect(')');
+                return new RegexNode.Group(start, pos, body, index);
+            }
+
+            pos++;
+            char c = next();
+
+            if (c == ':') {
+                RegexNode body = parseAlternation();
+                expect(')');
+                return new RegexNode.Group(start, pos, body, 0);
+            }
+
+            if (c == '<' && more() && peek() != '=' && peek() != '!') {
+                while (next() != '>') {
+                    // skip group name
+                }
+                int index = ++groupCount;
+                RegexNode body = parseAlternation();
+                expect(')');
+                return new RegexNode.Group(start, pos, body, index);
+            }
+
+            if (c == '=' || c == '!' || c == '>' || c == '<') {
+                String description = c == '>' ? "atomic group" : c == '<' ? "lookbehind" : "lookahead";
+                if (c == '<') {
+                    next();
+                }
+                parseAlternation();
+                expect(')');
+                return unsupported(description, start, pos);
+            }
+
+            // Inline flags: (?idmsuxU-idmsuxU) or (?idmsuxU-idmsuxU:X)
+            pos--;
+            boolean enable = true;
+            while (true) {
+                c = next();
+
+                if (c == '-') {
+                    enable = false;
+                } else if (c == 'i') {
+                    caseInsensitive = enable;
+                } else if (c == 'm') {
+                    multiline = enable;
+                } else if (c == 's') {
+                    dotAll = enable;
+                } else if (c == ')') {
+                    // Flags apply to the rest of the enclosing group, so don't restore them
+                    savedCaseInsensitive = caseInsensitive;
+                    savedMultiline = multiline;
+                    savedDotAll = dotAll;
+                    return null;
+                } else if (c == ':') {
+                    RegexNode body = parseAlternation();
+                    expect(')');
+                    return new RegexNode.Group(start, pos, body, 0);
+                } else {
+                    unsupported("flag '" + c + "'", pos - 1, pos);
+                }
+            }
+        } finally {
+            caseInsensitive = savedCaseInsensitive;
+            multiline = savedMultiline;
+            dotAll = savedDotAll;
+        }
+    }
+
+    private RegexNode parseEscape(int start) {
+        char c = next();
+
+        CharSet predefined = predefinedClass(c);
+        if (predefined != null) {
+            return new RegexNode.Chars(start, pos, predefined);
+        }
+
+        switch (c) {
+            case 'b':
+                return new RegexNode.Anchor(start, pos, RegexNode.Anchor.Kind.WORD_BOUNDARY);
+            case 'B':
+                return new RegexNode.Anchor(start, pos, RegexNode.Anchor.Kind.NOT_WORD_BOUNDARY);
+            case 'A':
+                return new RegexNode.Anchor(start, pos, RegexNode.Anchor.Kind.INPUT_START);
+            case 'Z':
+                return new RegexNode.Anchor(start, pos, RegexNode.Anchor.Kind.INPUT_END_BEFORE_TERMINATOR);
+            case 'z':
+                return new RegexNode.Anchor(start, pos, RegexNode.Anchor.Kind.INPUT_END);
+            case 'G':
+                return unsupported("\\G", start, pos);
+            case 'R':
+                return unsupported("\\R", start, pos);
+            case 'X':
+                return unsupported("\\X", start, pos);
+            case 'k':
+                while (next() != '>') {
+                    // skip group name
+                }
+                return unsupported("back reference", start, pos);
+            case 'Q':
+                return parseQuoted(start);
+            case 'p':
+            case 'P':
+                CharSet property = parseProperty(c == 'P');
+                return property != null ? new RegexNode.Chars(start, pos, property)
+                        : unsupported("character property", start, pos);
+            default:
+                if (c >= '1' && c <= '9') {
+                    // Java keeps reading digits while they form a valid group number
+                    int group = c - '0';
+                    while (more() && Character.isDigit(peek()) && group * 10 + (peek() - '0') <= groupCount) {
+                        group = group * 10 + (next() - '0');
+                    }
+                    return unsupported("back reference", start, pos);
+                }
+
+                pos--;
+                int literal = parseEscapedChar();
+                return new RegexNode.Chars(start, pos, literal(literal));
+        }
+    }
+
+    private RegexNode parseQuoted(int start) {
+        int end = pattern.indexOf("\\E", pos);
+        String quoted = end < 0 ? pattern.substring(pos) : pattern.substring(pos, end);
+        int quoteStart = pos;
+        pos = end < 0 ? pattern.length() : end + 2;
+
+        List<RegexNode> chars = new ArrayList<>();
+        for (int i = 0; i < quoted.length(); ) {
+            int c = quoted.codePointAt(i);
+            int next = i + Character.charCount(c);
+            chars.add(new RegexNode.Chars(quoteStart + i, quoteStart + next, literal(c)));
+            i = next;
+        }
+
+        if (chars.isEmpty()) {
+            return null;
+        }
+
+        return chars.size() == 1 ? chars.get(0) : new RegexNode.Concat(start, pos, chars);
+    }
+
+    /**
+     * Parse a character after a backslash that stands for a single character, ex: \n, \x41, \.
+     * The backslash has already been consumed.
+     */
+    private int parseEscapedChar() {
+        char c = next();
+
+        switch (c) {
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return 0x07;
+            case 'e':
+                return 0x1b;
+            case 'c':
+                return next() ^ 64;
+            case '0': {
+                int value = 0;
+                for (int i = 0; i < 3 && more() && peek() >= '0' && peek() <= '7'; i++) {
+                    int candidate = value * 8 + (peek() - '0');
+                    if (candidate > 0377) {
+                        break;
+                    }
+                    value = candidate;
+                    pos++;
+                }
+                return value;
+            }
+            case 'x':
+                if (peek() == '{') {
+                    int end = pattern.indexOf('}', pos);
+                    int value = Integer.parseInt(pattern.substring(pos + 1, end), 16);
+                    pos = end + 1;
+                    return value;
+                }
+                pos += 2;
+                return Integer.parseInt(pattern.substring(pos - 2, pos), 16);
+            case 'u':
+                pos += 4;
+                return Integer.parseInt(pattern.substring(pos - 4, pos), 16);
+            default:
+                if (Character.isLetterOrDigit(c)) {
+                    throw error("Illegal/unsupported escape sequence");
+                }
+                pos--;
+                int literal = pattern.codePointAt(pos);
+                pos += Character.charCount(literal);
+                return literal;
+        }
+    }
+
+    private CharSet parseClass() {
+        int start = pos;
+        expect('[');
+
+        boolean negate = false;
+        if (more() && peek() == '^') {
+            negate = true;
+            pos++;
+        }
+
+        List<CharSet> operands = new ArrayList<>();
+        CharSet current = CharSet.EMPTY;
+        boolean first = true;
+
+        while (true) {
+            if (!more()) {
+                pos = start;
+                throw error("Unclosed character class");
+            }
+
+            char c = peek();
+
+            if (c == ']' && !first) {
+                pos++;
+                break;
+            }
+
+            first = false;
+
+            if (c == '[') {
+                current = current.union(parseClass());
+            } else if (c == '&' && pattern.startsWith("&&", pos)) {
+                pos += 2;
+                operands.add(current);
+                current = CharSet.EMPTY;
+            } else {
+                current = current.union(parseClassItem());
+            }
+        }
+
+        CharSet result = current;
+        for (CharSet operand : operands) {
+            result = result.intersect(operand);
+        }
+
+        if (caseInsensitive) {
+            result = result.caseInsensitive();
+        }
+
+        return negate ? result.complement() : result;
+    }
+
+    private CharSet parseClassItem() {
+        int lo;
+
+        if (peek() == '\\') {
+            pos++;
+            char c = peek();
+
+            CharSet predefined = predefinedClass(c);
+            if (predefined != null) {
+                pos++;
+                return predefined;
+            }
+
+            if (c == 'p' || c == 'P') {
+                pos++;
+                CharSet property = parseProperty(c == 'P');
+                if (property == null) {
+                    unsupported("character property", pos - 1, pos);
+                    return CharSet.ANY;
+                }
+                return property;
+            }
+
+            if (c == 'Q') {
+                pos++;
+                int end = pattern.indexOf("\\E", pos);
+                String quoted = end < 0 ? pattern.substring(pos) : pattern.substring(pos, end);
+                pos = end < 0 ? pattern.length() : end + 2;
+
+                CharSet set = CharSet.EMPTY;
+                for (int i = 0; i < quoted.length(); ) {
+                    int cp = quoted.codePointAt(i);
+                    set = set.union(CharSet.single(cp));
+                    i += Character.charCount(cp);
+                }
+                return set;
+            }
+
+            lo = parseEscapedChar();
+        } else {
+            lo = pattern.codePointAt(pos);
+            pos += Character.charCount(lo);
+        }
+
+        if (more() && peek() == '-' && pos + 1 < pattern.length() && pattern.charAt(pos + 1) != ']'
+                && pattern.charAt(pos + 1) != '[') {
+            pos++;
+
+            int hi;
+            if (peek() == '\\') {
+                pos++;
+                hi = parseEscapedChar();
+            } else {
+                hi = pattern.codePointAt(pos);
+                pos += Character.charCount(hi);
+            }
+
+            return CharSet.range(lo, hi);
+        }
+
+        return CharSet.single(lo);
+    }
+
+    /**
+     * Parse the name after \p or \P. Returns null if the property is not supported.
+     */
+    private CharSet parseProperty(boolean negate) {
+        String name;
+        if (more() && peek() == '{') {
+            int end = pattern.indexOf('}', pos);
+            name = pattern.substring(pos + 1, end);
+            pos = end + 1;
+        } else {
+            name = String.valueOf(next());
+        }
+
+        if (name.startsWith("Is")) {
+            name = name.substring(2);
+        }
+
+        CharSet set = POSIX_CLASSES.get(name);
+        if (set == null) {
+            return null;
+        }
+
+        return negate ? set.complement() : set;
+    }
+
+    private static CharSet predefinedClass(char c) {
+        switch (c) {
+            case 'd':
+                return CharSet.DIGIT;
+            case 'D':
+                return CharSet.DIGIT.complement();
+            case 's':
+                return CharSet.SPACE;
+            case 'S':
+                return CharSet.SPACE.complement();
+            case 'w':
+                return CharSet.WORD;
+            case 'W':
+                return CharSet.WORD.complement();
+            case 'h':
+                return CharSet.HORIZONTAL_SPACE;
+            case 'H':
+                return CharSet.HORIZONTAL_SPACE.complement();
+            case 'v':
+                return CharSet.VERTICAL_SPACE;
+            case 'V':
+                return CharSet.VERTICAL_SPACE.complement();
+            default:
+                return null;
+        }
+    }
+
+    private static CharSet punct() {
+        return CharSet.of(CharSet.range('!', '/'), CharSet.range(':', '@'), CharSet.range('[', '`'),
+                CharSet.range('{', '~'));
+    }
+
+    private CharSet literal(int c) {
+        CharSet set = CharSet.single(c);
+        return caseInsensitive ? set.caseInsensitive() : set;
+    }
+
+    private RegexNode.Unsupported unsupported(String description, int start, int end) {
+        RegexNode.Unsupported node = new RegexNode.Unsupported(start, end, description);
+        unsupported.add(node);
+        return node;
+    }
+
+    private int parseNumber() {
+        int start = pos;
+        while (more() && Character.isDigit(peek())) {
+            pos++;
+        }
+        if (start == pos) {
+            throw error("Illegal repetition");
+        }
+        return Integer.parseInt(pattern.substring(start, pos));
+    }
+
+    private boolean more() {
+        return pos < pattern.length();
+    }
+
+    private char peek() {
+        return pattern.charAt(pos);
+    }
+
+    private char next() {
+        if (!more()) {
+            throw error("Unexpected end of pattern");
+        }
+        return pattern.charAt(pos++);
+    }
+
+    private void expect(char c) {
+        if (!more() || peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " near index " + pos + ": " + pattern);
+    }
+}
@@ -0,0 +1,56 @@
+package com.isroot.stash.plugin.regex;
+
+import com.google.common.base.Strings;
+
+/**
+ * Part of a regex that is likely to backtrack heavily, found by {@link RegexCostAnalyzer}.
+ */
+public class RegexRisk {
+    public enum Kind {
+        /** Quantifier inside a repeated group that can also match across repetitions, ex: (a+)+ */
+        NESTED_QUANTIFIER,
+        /** Repeated alternation where more than one alternative can match the same text, ex: (a|ab)* */
+        OVERLAPPING_ALTERNATION,
+        /** Neighbouring quantifiers that can match the same characters, ex: \d+\d+ */
+        ADJACENT_QUANTIFIERS
+    }
+
+    private final Kind kind;
+    private final String description;
+    private final String prefix;
+    private final String pump;
+    private final String suffix;
+
+    RegexRisk(Kind kind, String description, String prefix, String pump, String suffix) {
+        this.kind = kind;
+        this.description = description;
+        this.prefix = prefix;
+        this.pump = pump;
+        this.suffix = suffix;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Build an input that should trigger the backtracking: text needed to reach the risky part of
+     * the regex, the repeated text it can match in many ways and a character that makes the match
+     * fail.
+     */
+    public String getAttackInput(int repetitions) {
+        return prefix + Strings.repeat(pump, repetitions) + suffix;
+    }
+
+    @Override
+    public String toString() {
+        return "RegexRisk{" +
+                "kind=" + kind +
+                ", description='" + description + '\'' +
+                '}';
+    }
+}
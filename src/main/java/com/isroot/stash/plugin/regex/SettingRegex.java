@@ -0,0 +1,128 @@
+package com.isroot.stash.plugin.regex;
+
+import com.atlassian.bitbucket.setting.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Regex configured in a hook setting. It is matched with java.util.regex, limited by a
+ * {@link RegexBudget}, unless the 'linearRegex.&lt;setting&gt;' setting selects
+ * {@link LinearRegex} for it.
+ */
+public class SettingRegex {
+    private static final Logger log = LoggerFactory.getLogger(SettingRegex.class);
+
+    /** Prefix of the settings that enable the linear regex engine for a regex setting */
+    public static final String LINEAR_SETTING_PREFIX = "linearRegex.";
+
+    private final String regex;
+    private final Pattern pattern;
+    private final LinearRegex linearRegex;
+    private final RegexBudget budget;
+
+    private SettingRegex(String regex, Pattern pattern, LinearRegex linearRegex, RegexBudget budget) {
+        this.regex = regex;
+        this.pattern = pattern;
+        this.linearRegex = linearRegex;
+        this.budget = budget;
+    }
+
+    /**
+     * Compile the regex in a setting. Returns null if the setting is empty.
+     *
+     * @param flags {@link Pattern} flags
+     */
+    @Nullable
+    public static SettingRegex fromSettings(Settings settings, String setting, int flags, RegexBudget budget) {
+        String regex = settings.getString(setting);
+        if (isNullOrEmpty(regex)) {
+            return null;
+        }
+
+        if (isLinearEnabled(settings, setting)) {
+            try {
+                return new SettingRegex(regex, null, LinearRegex.compile(regex, flags), budget);
+            } catch (IllegalArgumentException e) {
+                // Settings are validated on save, so this only happens for settings saved by an
+                // older version
+                log.warn("{} regex '{}' can't be used with the linear regex engine, using java.util.regex " +
+                        "instead: {}", setting, regex, e.getMessage());
+            }
+        }
+
+        return new SettingRegex(regex, Pattern.compile(regex, flags), null, budget);
+    }
+
+    public static boolean isLinearEnabled(Settings settings, String setting) {
+        return settings.getBoolean(LINEAR_SETTING_PREFIX + setting, false);
+    }
+
+    public String getRegex() {
+        return regex;
+    }
+
+    public boolean isLinear() {
+        return linearRegex != null;
+    }
+
+    /**
+     * Return the linear regex if the linear engine is used for this setting, else null.
+     */
+    @Nullable
+    public LinearRegex getLinearRegex() {
+        return linearRegex;
+    }
+
+    /**
+     * Same as {@link Matcher#matches()}.
+     *
+     * @throws RegexBudgetExceededException if java.util.regex is used and the budget runs out
+     */
+    public boolean matches(CharSequence input) {
+        if (linearRegex != null) {
+            return linearRegex.matches(input);
+        }
+
+        return GuardedMatcher.matcher(pattern, input, budget).matches();
+    }
+
+    /**
+     * Same as {@link Matcher#find()}.
+     *
+     * @throws RegexBudgetExceededException if java.util.regex is used and the budget runs out
+     */
+    public boolean find(CharSequence input) {
+        if (linearRegex != null) {
+            return linearRegex.find(input);
+        }
+
+        return GuardedMatcher.matcher(pattern, input, budget).find();
+    }
+
+    /**
+     * Match the entire input and return the groups, or null if it doesn't match.
+     *
+     * @throws RegexBudgetExceededException if java.util.regex is used and the budget runs out
+     */
+    @Nullable
+    public MatchResult matchEntire(CharSequence input) {
+        if (linearRegex != null) {
+            return linearRegex.matchEntire(input);
+        }
+
+        Matcher matcher = GuardedMatcher.matcher(pattern, input, budget);
+        return matcher.matches() ? matcher.toMatchResult() : null;
+    }
+
+    @Override
+    public String toString() {
+        return regex;
+    }
+}
@@ -0,0 +1,59 @@
+package com.isroot.stash.plugin.rest;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.google.gson.Gson;
+import com.isroot.stash.plugin.audit.AuditRecord;
+import com.isroot.stash.plugin.audit.PushAuditLog;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists the problems found by auditing pushes to a repository after they were accepted:
+ * {@code GET /rest/yacc/1.0/projects/{projectKey}/repos/{repositorySlug}/audit?limit=25}.
+ * Requires permission to read the repository.
+ */
+@Path("projects/{projectKey}/repos/{repositorySlug}/audit")
+@Produces(MediaType.APPLICATION_JSON)
+public class AuditResource {
+    private static final Gson GSON = new Gson();
+    private static final int MAX_LIMIT = 1000;
+
+    private final RepositoryService repositoryService;
+    private final PushAuditLog auditLog;
+
+    public AuditResource(RepositoryService repositoryService, PushAuditLog auditLog) {
+        this.repositoryService = repositoryService;
+        this.auditLog = auditLog;
+    }
+
+    @GET
+    public Response getAuditRecords(@PathParam("projectKey") String projectKey,
+                                    @PathParam("repositorySlug") String repositorySlug,
+                                    @QueryParam("limit") @DefaultValue("25") int limit) {
+        // Repositories the user can't read are not found
+        Repository repository = repositoryService.getBySlug(projectKey, repositorySlug);
+        if (repository == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        List<AuditRecord> records = auditLog.getRecords(repository.getId(),
+                Math.max(1, Math.min(limit, MAX_LIMIT)));
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("size", records.size());
+        json.put("values", records);
+
+        return Response.ok(GSON.toJson(json), MediaType.APPLICATION_JSON).build();
+    }
+}
@@ -0,0 +1,139 @@
+package com.isroot.stash.plugin.rest;
+
+import com.atlassian.bitbucket.auth.AuthenticationContext;
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.permission.PermissionService;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.google.gson.Gson;
+import com.isroot.stash.plugin.audit.HistoryAudit;
+import com.isroot.stash.plugin.audit.HistoryAuditService;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts, follows and cancels the audit of a repository's full history:
+ * {@code /rest/yacc/1.0/projects/{projectKey}/repos/{repositorySlug}/history-audit}.
+ * Reading progress requires permission to read the repository, starting and cancelling an
+ * audit requires repository admin permission.
+ */
+@Path("projects/{projectKey}/repos/{repositorySlug}/history-audit")
+@Produces(MediaType.APPLICATION_JSON)
+public class HistoryAuditResource {
+    private static final Gson GSON = new Gson();
+    private static final int MAX_LIMIT = 1000;
+
+    private final RepositoryService repositoryService;
+    private final PermissionService permissionService;
+    private final AuthenticationContext authenticationContext;
+    private final HistoryAuditService historyAuditService;
+
+    public HistoryAuditResource(RepositoryService repositoryService, PermissionService permissionService,
+                                AuthenticationContext authenticationContext,
+                                HistoryAuditService historyAuditService) {
+        this.repositoryService = repositoryService;
+        this.permissionService = permissionService;
+        this.authenticationContext = authenticationContext;
+        this.historyAuditService = historyAuditService;
+    }
+
+    @GET
+    public Response getAudit(@PathParam("projectKey") String projectKey,
+                             @PathParam("repositorySlug") String repositorySlug,
+                             @QueryParam("limit") @DefaultValue("25") int limit) {
+        // Repositories the user can't read are not found
+        Repository repository = repositoryService.getBySlug(projectKey, repositorySlug);
+        if (repository == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        HistoryAudit audit = historyAuditService.getAudit(repository.getId());
+        if (audit == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        return Response.ok(GSON.toJson(toJson(audit, Math.max(0, Math.min(limit, MAX_LIMIT)))),
+                MediaType.APPLICATION_JSON).build();
+    }
+
+    @POST
+    public Response startAudit(@PathParam("projectKey") String projectKey,
+                               @PathParam("repositorySlug") String repositorySlug) {
+        Repository repository = repositoryService.getBySlug(projectKey, repositorySlug);
+        if (repository == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (!permissionService.hasRepositoryPermission(repository, Permission.REPO_ADMIN)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        HistoryAudit audit;
+        try {
+            audit = historyAuditService.start(repository, authenticationContext.getCurrentUser());
+        } catch (IllegalStateException e) {
+            return error(Response.Status.CONFLICT, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return error(Response.Status.BAD_REQUEST, e.getMessage());
+        }
+
+        return Response.status(Response.Status.ACCEPTED)
+                .entity(GSON.toJson(toJson(audit, 0)))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+    }
+
+    @DELETE
+    public Response cancelAudit(@PathParam("projectKey") String projectKey,
+                                @PathParam("repositorySlug") String repositorySlug) {
+        Repository repository = repositoryService.getBySlug(projectKey, repositorySlug);
+        if (repository == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (!permissionService.hasRepositoryPermission(repository, Permission.REPO_ADMIN)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        if (!historyAuditService.cancel(repository)) {
+            return error(Response.Status.NOT_FOUND, "history of " + repository + " is not being audited");
+        }
+
+        return Response.status(Response.Status.ACCEPTED).build();
+    }
+
+    private static Map<String, Object> toJson(HistoryAudit audit, int limit) {
+        List<String> violations = audit.getViolations();
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("status", audit.getStatus());
+        json.put("startedBy", audit.getStartedBy());
+        json.put("checkedCommits", audit.getCheckedCommits());
+        json.put("commitsPerSecond", audit.getCommitsPerSecond());
+        json.put("violationCount", audit.getViolationCount());
+        json.put("startedTimestamp", audit.getStartedTimestamp());
+        json.put("updatedTimestamp", audit.getUpdatedTimestamp());
+        json.put("completedTimestamp", audit.getCompletedTimestamp());
+        json.put("error", audit.getError());
+        json.put("violations", violations.subList(0, Math.min(limit, violations.size())));
+
+        return json;
+    }
+
+    private static Response error(Response.Status status, String message) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("message", message);
+
+        return Response.status(status).entity(GSON.toJson(json)).type(MediaType.APPLICATION_JSON).build();
+    }
+}
@@ -0,0 +1,83 @@
+package com.isroot.stash.plugin.rest;
+
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.permission.PermissionService;
+import com.google.gson.Gson;
+import com.isroot.stash.plugin.jira.JiraCircuitBreaker;
+import com.isroot.stash.plugin.jira.JiraRequestLimiter;
+import com.isroot.stash.plugin.jira.JiraServiceImpl;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows how JIRA searches are doing on this node: {@code GET /rest/yacc/1.0/jira-metrics}.
+ * Counts retries and hedged searches, and the state of the circuit breaker and request limiter
+ * of each JIRA application link used since the plugin started, including how long searches
+ * waited for their turn. Requires admin permission.
+ */
+@Path("jira-metrics")
+@Produces(MediaType.APPLICATION_JSON)
+public class JiraMetricsResource {
+    private static final Gson GSON = new Gson();
+
+    private final PermissionService permissionService;
+    private final JiraServiceImpl jiraService;
+
+    public JiraMetricsResource(PermissionService permissionService, JiraServiceImpl jiraService) {
+        this.permissionService = permissionService;
+        this.jiraService = jiraService;
+    }
+
+    @GET
+    public Response getMetrics() {
+        if (!permissionService.hasGlobalPermission(Permission.ADMIN)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        List<Map<String, Object>> circuitBreakers = new ArrayList<>();
+        for (JiraCircuitBreaker breaker : jiraService.getCircuitBreakers()) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("name", breaker.getName());
+            json.put("state", breaker.getState());
+            json.put("timeoutMillis", breaker.getTimeoutMillis());
+            json.put("calls", breaker.getCalls());
+            json.put("failures", breaker.getFailures());
+            json.put("slowCalls", breaker.getSlowCalls());
+            json.put("rejectedCalls", breaker.getRejectedCalls());
+            json.put("timesOpened", breaker.getTimesOpened());
+            circuitBreakers.add(json);
+        }
+
+        List<Map<String, Object>> requestLimiters = new ArrayList<>();
+        for (JiraRequestLimiter limiter : jiraService.getRequestLimiters()) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("name", limiter.getName());
+            json.put("limit", limiter.getLimit());
+            json.put("inFlight", limiter.getInFlight());
+            json.put("queued", limiter.getQueued());
+            json.put("acquired", limiter.getAcquired());
+            json.put("waited", limiter.getWaited());
+            json.put("timedOut", limiter.getTimedOut());
+            json.put("averageWaitMillis", limiter.getAverageWaitMillis());
+            json.put("maxWaitMillis", limiter.getMaxWaitMillis());
+            json.put("limitDecreases", limiter.getLimitDecreases());
+            requestLimiters.add(json);
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("retries", jiraService.getRetryCount());
+        json.put("hedges", jiraService.getHedgeCount());
+        json.put("circuitBreakers", circuitBreakers);
+        json.put("requestLimiters", requestLimiters);
+
+        return Response.ok(GSON.toJson(json), MediaType.APPLICATION_JSON).build();
+    }
+}
@@ -0,0 +1,244 @@
+package com.isroot.stash.plugin.rest;
+
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.permission.PermissionService;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.SimplePerson;
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.isroot.stash.plugin.HookSettingsResolver;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.PushDeadlineExceededException;
+import com.isroot.stash.plugin.YaccCommit;
+import com.isroot.stash.plugin.YaccService;
+import com.isroot.stash.plugin.errors.YaccError;
+import com.isroot.stash.plugin.errors.YaccErrorBuilder;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks commits before they are pushed, so that a client side pre-push hook can reject them
+ * without uploading anything:
+ * {@code POST /rest/yacc/1.0/projects/{projectKey}/repos/{repositorySlug}/check}.
+ *
+ * <p>The request describes every ref the push would update and the commits it would add to
+ * each. The commits are checked with the repository's settings, as if the current user pushed
+ * them, and the response gives the errors of each ref and commit. Requires permission to push
+ * to the repository. The 'yacc.prePush.maxCommits' system property limits the commits in a
+ * single request.
+ */
+@Path("projects/{projectKey}/repos/{repositorySlug}/check")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class PrePushCheckResource {
+    private static final Gson GSON = new Gson();
+
+    private final RepositoryService repositoryService;
+    private final PermissionService permissionService;
+    private final HookSettingsResolver settingsResolver;
+    private final YaccService yaccService;
+    private final int maxCommits;
+
+    public PrePushCheckResource(RepositoryService repositoryService, PermissionService permissionService,
+                                HookSettingsResolver settingsResolver, YaccService yaccService) {
+        this.repositoryService = repositoryService;
+        this.permissionService = permissionService;
+        this.settingsResolver = settingsResolver;
+        this.yaccService = yaccService;
+        this.maxCommits = Integer.getInteger("yacc.prePush.maxCommits", 1000);
+    }
+
+    @POST
+    public Response check(String body,
+                          @PathParam("projectKey") String projectKey,
+                          @PathParam("repositorySlug") String repositorySlug) {
+        // Repositories the user can't read are not found
+        Repository repository = repositoryService.getBySlug(projectKey, repositorySlug);
+        if (repository == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (!permissionService.hasRepositoryPermission(repository, Permission.REPO_WRITE)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        CheckRequest request;
+        try {
+            request = GSON.fromJson(body, CheckRequest.class);
+        } catch (JsonParseException e) {
+            return error("request body is not valid JSON: " + e.getMessage());
+        }
+
+        String problem = validate(request);
+        if (problem != null) {
+            return error(problem);
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        List<Map<String, Object>> refResults = new ArrayList<>();
+        List<YaccError> allErrors = new ArrayList<>();
+
+        Settings settings = settingsResolver.getSettings(repository);
+        json.put("enabled", settings != null);
+
+        if (settings != null) {
+            PushDeadline deadline = PushDeadline.fromSettings(settings);
+
+            for (RefRequest ref : request.refs) {
+                List<YaccError> errors = checkRef(repository, settings, ref, deadline);
+                refResults.add(toJson(ref, errors));
+                allErrors.addAll(errors);
+            }
+        }
+
+        json.put("accepted", allErrors.isEmpty());
+        if (!allErrors.isEmpty()) {
+            // What the push would have been rejected with
+            json.put("message", new YaccErrorBuilder(settings).getErrorMessage(allErrors));
+        }
+        json.put("refs", refResults);
+
+        return Response.ok(GSON.toJson(json), MediaType.APPLICATION_JSON).build();
+    }
+
+    private String validate(CheckRequest request) {
+        if (request == null || request.refs == null || request.refs.isEmpty()) {
+            return "'refs' must list the refs the push would update";
+        }
+
+        int commits = 0;
+        for (RefRequest ref : request.refs) {
+            if (Strings.isNullOrEmpty(ref.refId)) {
+                return "every ref needs a 'refId'";
+            }
+            if (ref.commits == null) {
+                continue;
+            }
+
+            for (CommitRequest commit : ref.commits) {
+                if (commit == null || Strings.isNullOrEmpty(commit.id)) {
+                    return "every commit needs an 'id'";
+                }
+            }
+            commits += ref.commits.size();
+        }
+
+        if (commits > maxCommits) {
+            return String.format("at most %d commits can be checked at once, split the request", maxCommits);
+        }
+
+        return null;
+    }
+
+    private List<YaccError> checkRef(Repository repository, Settings settings, RefRequest ref,
+                                     PushDeadline deadline) {
+        String refId = ref.refId.startsWith("refs/") ? ref.refId : "refs/heads/" + ref.refId;
+
+        List<YaccCommit> commits = new ArrayList<>();
+        if (ref.commits != null) {
+            for (CommitRequest commit : ref.commits) {
+                commits.add(new YaccCommit(commit.id, new SimplePerson(Strings.nullToEmpty(commit.committerName),
+                        Strings.nullToEmpty(commit.committerEmail)), Strings.nullToEmpty(commit.message),
+                        commit.merge));
+            }
+        }
+
+        try {
+            return yaccService.checkUnpushedCommits(repository, settings, refId, ref.newRef, commits, deadline);
+        } catch (PushDeadlineExceededException e) {
+            List<YaccError> errors = new ArrayList<>();
+            if (!settings.getBoolean("allowPushOnTimeout", false)) {
+                errors.add(new YaccError(YaccError.Type.TIMEOUT, "Commit checks did not complete within %d seconds",
+                        TimeUnit.MILLISECONDS.toSeconds(deadline.getTimeoutMillis())));
+            }
+            return errors;
+        }
+    }
+
+    /**
+     * Split the errors of a ref into those about its commits, which are prefixed with the commit
+     * id, and those about the ref itself.
+     */
+    private static Map<String, Object> toJson(RefRequest ref, List<YaccError> errors) {
+        List<YaccError> refErrors = new ArrayList<>(errors);
+        List<Map<String, Object>> commitResults = new ArrayList<>();
+
+        if (ref.commits != null) {
+            for (CommitRequest commit : ref.commits) {
+                String prefix = commit.id + ": ";
+                List<Map<String, Object>> commitErrors = new ArrayList<>();
+
+                for (YaccError error : errors) {
+                    if (error.getMessage().startsWith(prefix)) {
+                        commitErrors.add(toJson(error));
+                        refErrors.remove(error);
+                    }
+                }
+
+                Map<String, Object> commitJson = new LinkedHashMap<>();
+                commitJson.put("id", commit.id);
+                commitJson.put("errors", commitErrors);
+                commitResults.add(commitJson);
+            }
+        }
+
+        List<Map<String, Object>> refErrorsJson = new ArrayList<>();
+        for (YaccError error : refErrors) {
+            refErrorsJson.add(toJson(error));
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("refId", ref.refId);
+        json.put("errors", refErrorsJson);
+        json.put("commits", commitResults);
+
+        return json;
+    }
+
+    private static Map<String, Object> toJson(YaccError error) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("type", error.getType());
+        json.put("message", error.getMessage());
+
+        return json;
+    }
+
+    private static Response error(String message) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("message", message);
+
+        return Response.status(Response.Status.BAD_REQUEST).entity(GSON.toJson(json))
+                .type(MediaType.APPLICATION_JSON).build();
+    }
+
+    private static class CheckRequest {
+        private List<RefRequest> refs;
+    }
+
+    private static class RefRequest {
+        private String refId;
+        private boolean newRef;
+        private List<CommitRequest> commits;
+    }
+
+    private static class CommitRequest {
+        private String id;
+        private String committerName;
+        private String committerEmail;
+        private String message;
+        private boolean merge;
+    }
+}
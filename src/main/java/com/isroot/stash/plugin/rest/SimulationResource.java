@@ -0,0 +1,182 @@
+package com.isroot.stash.plugin.rest;
+
+import com.atlassian.bitbucket.hook.repository.RepositoryHookService;
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.permission.PermissionService;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.setting.SettingsValidationErrors;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.isroot.stash.plugin.ConfigValidator;
+import com.isroot.stash.plugin.JiraService;
+import com.isroot.stash.plugin.YaccUtils;
+import com.isroot.stash.plugin.simulation.PolicySimulator;
+import com.isroot.stash.plugin.simulation.SimulationResult;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays proposed settings against recent commits without saving them. The request body is a
+ * JSON object of settings, named as in the hook form:
+ * <ul>
+ *     <li>{@code POST /rest/yacc/1.0/simulate?repositories=10&commits=100&commitsPerPush=1}
+ *     replays them against a sample of repositories, as global settings. Requires admin
+ *     permission.</li>
+ *     <li>{@code POST /rest/yacc/1.0/projects/{projectKey}/repos/{repositorySlug}/simulate?commits=100&commitsPerPush=1}
+ *     replays them against one repository. Requires repository admin permission.</li>
+ * </ul>
+ */
+@Path("/")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class SimulationResource {
+    private static final Gson GSON = new Gson();
+
+    private final RepositoryService repositoryService;
+    private final RepositoryHookService repositoryHookService;
+    private final PermissionService permissionService;
+    private final JiraService jiraService;
+    private final PolicySimulator policySimulator;
+
+    public SimulationResource(RepositoryService repositoryService, RepositoryHookService repositoryHookService,
+                              PermissionService permissionService, JiraService jiraService,
+                              PolicySimulator policySimulator) {
+        this.repositoryService = repositoryService;
+        this.repositoryHookService = repositoryHookService;
+        this.permissionService = permissionService;
+        this.jiraService = jiraService;
+        this.policySimulator = policySimulator;
+    }
+
+    @POST
+    @Path("simulate")
+    public Response simulateGlobal(String body,
+                                   @QueryParam("repositories") @DefaultValue("10") int repositories,
+                                   @QueryParam("commits") @DefaultValue("100") int commits,
+                                   @QueryParam("commitsPerPush") @DefaultValue("1") int commitsPerPush) {
+        if (!permissionService.hasGlobalPermission(Permission.ADMIN)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        Settings settings = parseSettings(body);
+        if (settings == null) {
+            return error("request body must be a JSON object of settings");
+        }
+
+        Map<String, List<String>> fieldErrors = validate(settings, null);
+        if (!fieldErrors.isEmpty()) {
+            return invalid(fieldErrors);
+        }
+
+        return ok(policySimulator.simulateSample(settings, repositories, commits, commitsPerPush));
+    }
+
+    @POST
+    @Path("projects/{projectKey}/repos/{repositorySlug}/simulate")
+    public Response simulateRepository(String body,
+                                       @PathParam("projectKey") String projectKey,
+                                       @PathParam("repositorySlug") String repositorySlug,
+                                       @QueryParam("commits") @DefaultValue("100") int commits,
+                                       @QueryParam("commitsPerPush") @DefaultValue("1") int commitsPerPush) {
+        // Repositories the user can't read are not found
+        Repository repository = repositoryService.getBySlug(projectKey, repositorySlug);
+        if (repository == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (!permissionService.hasRepositoryPermission(repository, Permission.REPO_ADMIN)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        Settings settings = parseSettings(body);
+        if (settings == null) {
+            return error("request body must be a JSON object of settings");
+        }
+
+        Map<String, List<String>> fieldErrors = validate(settings, repository);
+        if (!fieldErrors.isEmpty()) {
+            return invalid(fieldErrors);
+        }
+
+        return ok(policySimulator.simulate(repository, settings, commits, commitsPerPush));
+    }
+
+    @Nullable
+    private Settings parseSettings(String body) {
+        JsonElement json;
+        try {
+            json = new JsonParser().parse(body);
+        } catch (JsonParseException e) {
+            return null;
+        }
+
+        if (!json.isJsonObject()) {
+            return null;
+        }
+
+        Map<String, String> fields = new HashMap<>();
+        for (Map.Entry<String, JsonElement> field : ((JsonObject) json).entrySet()) {
+            if (field.getValue().isJsonPrimitive()) {
+                fields.put(field.getKey(), field.getValue().getAsString());
+            }
+        }
+
+        return YaccUtils.buildSettings(repositoryHookService, fields);
+    }
+
+    private Map<String, List<String>> validate(Settings settings, @Nullable Repository repository) {
+        Map<String, List<String>> fieldErrors = new LinkedHashMap<>();
+
+        new ConfigValidator(jiraService).validate(settings, new SettingsValidationErrors() {
+            @Override
+            public void addFieldError(String fieldName, String errorMessage) {
+                fieldErrors.computeIfAbsent(fieldName, name -> new ArrayList<>()).add(errorMessage);
+            }
+
+            @Override
+            public void addFormError(String errorMessage) {
+                fieldErrors.computeIfAbsent("", name -> new ArrayList<>()).add(errorMessage);
+            }
+        }, repository);
+
+        return fieldErrors;
+    }
+
+    private static Response ok(SimulationResult result) {
+        return Response.ok(GSON.toJson(result), MediaType.APPLICATION_JSON).build();
+    }
+
+    private static Response invalid(Map<String, List<String>> fieldErrors) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("errors", fieldErrors);
+
+        return Response.status(Response.Status.BAD_REQUEST).entity(GSON.toJson(json))
+                .type(MediaType.APPLICATION_JSON).build();
+    }
+
+    private static Response error(String message) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("message", message);
+
+        return Response.status(Response.Status.BAD_REQUEST).entity(GSON.toJson(json))
+                .type(MediaType.APPLICATION_JSON).build();
+    }
+}
@@ -0,0 +1,291 @@
+package com.isroot.stash.plugin.simulation;
+
+import com.atlassian.bitbucket.auth.AuthenticationContext;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.util.Page;
+import com.atlassian.bitbucket.util.PageRequest;
+import com.atlassian.bitbucket.util.PageRequestImpl;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.isroot.stash.plugin.CommitResultCache;
+import com.isroot.stash.plugin.IssueKey;
+import com.isroot.stash.plugin.JiraService;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.PushDeadlineExceededException;
+import com.isroot.stash.plugin.YaccCommit;
+import com.isroot.stash.plugin.YaccService;
+import com.isroot.stash.plugin.YaccServiceImpl;
+import com.isroot.stash.plugin.checks.BranchNameCache;
+import com.isroot.stash.plugin.commits.CommitsService;
+import com.isroot.stash.plugin.errors.YaccError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays proposed settings against recent commits before they are saved, to show how many
+ * pushes they would reject and what they would cost. Commits are checked by the real check
+ * engine, against the real JIRA, in pushes of a given size, and each push is timed.
+ *
+ * <p>Like a history audit, only the checks that don't depend on who pushed or to which branch
+ * are run, but JIRA lookups are batched as they are for pushes, see
+ * {@link YaccService#replayExistingCommits}. The shared JIRA lookup cache is used as it is, so the
+ * costs are those of the replay rather than of real pushes. Simulations are bounded by
+ * 'yacc.simulation.timeoutSeconds', or a shorter time given by the caller, and by
+ * 'yacc.simulation.maxJiraLookups', as their JIRA searches wait for the same request limits as
+ * pushes do. Commits left unchecked when either runs out are left out of the result.
+ */
+public class PolicySimulator {
+    private static final Logger log = LoggerFactory.getLogger(PolicySimulator.class);
+
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_VIOLATIONS = 25;
+
+    private final AuthenticationContext authenticationContext;
+    private final CommitsService commitsService;
+    private final JiraService jiraService;
+    private final RepositoryService repositoryService;
+    private final int maxCommits;
+    private final int maxRepositories;
+    private final long timeoutMillis;
+    private final int maxJiraLookups;
+
+    public PolicySimulator(AuthenticationContext authenticationContext, CommitsService commitsService,
+                           JiraService jiraService, RepositoryService repositoryService) {
+        this(authenticationContext, commitsService, jiraService, repositoryService,
+                Integer.getInteger("yacc.simulation.maxCommits", 1000),
+                Integer.getInteger("yacc.simulation.maxRepositories", 20),
+                TimeUnit.SECONDS.toMillis(Long.getLong("yacc.simulation.timeoutSeconds", 60)));
+    }
+
+    public PolicySimulator(AuthenticationContext authenticationContext, CommitsService commitsService,
+                           JiraService jiraService, RepositoryService repositoryService, int maxCommits,
+                           int maxRepositories, long timeoutMillis) {
+        this(authenticationContext, commitsService, jiraService, repositoryService, maxCommits, maxRepositories,
+                timeoutMillis, Integer.getInteger("yacc.simulation.maxJiraLookups", 200));
+    }
+
+    /**
+     * @param maxCommits most recent commits replayed per repository
+     * @param maxRepositories most repositories sampled by {@link #simulateSample}
+     * @param timeoutMillis longest time a simulation runs for
+     * @param maxJiraLookups most JIRA lookups a simulation asks for, counted before the JIRA caches
+     */
+    public PolicySimulator(AuthenticationContext authenticationContext, CommitsService commitsService,
+                           JiraService jiraService, RepositoryService repositoryService, int maxCommits,
+                           int maxRepositories, long timeoutMillis, int maxJiraLookups) {
+        this.authenticationContext = authenticationContext;
+        this.commitsService = commitsService;
+        this.jiraService = jiraService;
+        this.repositoryService = repositoryService;
+        this.maxCommits = Math.max(1, maxCommits);
+        this.maxRepositories = Math.max(1, maxRepositories);
+        this.timeoutMillis = timeoutMillis;
+        this.maxJiraLookups = Math.max(1, maxJiraLookups);
+    }
+
+    /**
+     * Replay settings against the newest commits on the default branch of a repository.
+     *
+     * @param commits number of commits to replay
+     * @param commitsPerPush commits checked together, as if pushed together
+     */
+    public SimulationResult simulate(Repository repository, Settings settings, int commits, int commitsPerPush) {
+        Simulation simulation = new Simulation(timeoutMillis);
+        simulation.replay(repository, settings, commits, commitsPerPush);
+
+        return simulation.finish();
+    }
+
+    /**
+     * Replay settings against the newest commits of a random sample of repositories, as would
+     * happen if they were saved as the global settings.
+     */
+    public SimulationResult simulateSample(Settings settings, int repositories, int commits, int commitsPerPush) {
+        return simulateSample(settings, repositories, commits, commitsPerPush, timeoutMillis);
+    }
+
+    /**
+     * Replay settings against a sample of repositories, like
+     * {@link #simulateSample(Settings, int, int, int)}, for no longer than the given time. Callers
+     * that wait for the result while a page loads give it less time than
+     * 'yacc.simulation.timeoutSeconds'.
+     *
+     * @param timeoutMillis longest time the simulation runs for, capped by
+     *                      'yacc.simulation.timeoutSeconds'
+     */
+    public SimulationResult simulateSample(Settings settings, int repositories, int commits, int commitsPerPush,
+                                           long timeoutMillis) {
+        if (timeoutMillis <= 0 || (this.timeoutMillis > 0 && this.timeoutMillis < timeoutMillis)) {
+            timeoutMillis = this.timeoutMillis;
+        }
+        Simulation simulation = new Simulation(timeoutMillis);
+
+        for (Repository repository : sampleRepositories(Math.min(Math.max(1, repositories), maxRepositories))) {
+            simulation.replay(repository, settings, commits, commitsPerPush);
+            if (simulation.result.isTruncated()) {
+                break;
+            }
+        }
+
+        return simulation.finish();
+    }
+
+    /**
+     * Pick repositories visible to the current user, each as likely as any other.
+     */
+    private List<Repository> sampleRepositories(int size) {
+        List<Repository> sample = new ArrayList<>(size);
+        Random random = ThreadLocalRandom.current();
+        int seen = 0;
+
+        PageRequest pageRequest = new PageRequestImpl(0, PAGE_SIZE);
+        while (pageRequest != null) {
+            Page<Repository> page = repositoryService.findAll(pageRequest);
+
+            for (Repository repository : page.getValues()) {
+                if (sample.size() < size) {
+                    sample.add(repository);
+                } else {
+                    int replaced = random.nextInt(seen + 1);
+                    if (replaced < size) {
+                        sample.set(replaced, repository);
+                    }
+                }
+                seen++;
+            }
+
+            pageRequest = page.getIsLastPage() ? null : page.getNextPageRequest();
+        }
+
+        return sample;
+    }
+
+    private class Simulation {
+        private final SimulationResult result = new SimulationResult(MAX_VIOLATIONS);
+        private final CountingJiraService countingJiraService = new CountingJiraService(jiraService);
+        // A check engine of its own, so that JIRA lookups can be counted and no results are cached
+        private final YaccService yaccService = new YaccServiceImpl(authenticationContext, commitsService,
+                countingJiraService, new BranchNameCache(), new CommitResultCache());
+        private final PushDeadline deadline;
+
+        Simulation(long timeoutMillis) {
+            deadline = timeoutMillis > 0 ? new PushDeadline(timeoutMillis, Ticker.systemTicker())
+                    : PushDeadline.none();
+        }
+
+        void replay(Repository repository, Settings settings, int commits, int commitsPerPush) {
+            List<YaccCommit> recent = new ArrayList<>();
+            try {
+                commitsService.streamRecentCommits(repository, 0, Math.min(Math.max(1, commits), maxCommits),
+                        recent::add);
+            } catch (RuntimeException e) {
+                // Empty repositories have no HEAD to read
+                log.debug("could not read recent commits of {}", repository, e);
+                return;
+            }
+
+            result.repositoryReplayed();
+
+            for (List<YaccCommit> push : Lists.partition(recent, Math.max(1, commitsPerPush))) {
+                // Stop before the next push once the lookups that would compete with pushes are used up
+                if (deadline.isExpired() || countingJiraService.lookups.get() >= maxJiraLookups) {
+                    result.truncated();
+                    return;
+                }
+
+                long lookups = countingJiraService.lookups.get();
+                long issueKeys = countingJiraService.issueKeys.get();
+                long start = System.nanoTime();
+
+                List<YaccError> errors;
+                try {
+                    errors = yaccService.replayExistingCommits(repository, settings, push, deadline);
+                } catch (PushDeadlineExceededException e) {
+                    result.truncated();
+                    return;
+                }
+
+                result.pushChecked(push, errors, System.nanoTime() - start,
+                        countingJiraService.lookups.get() - lookups,
+                        countingJiraService.issueKeys.get() - issueKeys);
+            }
+        }
+
+        SimulationResult finish() {
+            result.finish();
+
+            log.info("simulated settings against {} commits of {} repositories, {} rejected, {} JIRA lookups",
+                    result.getCommits(), result.getRepositories(), result.getRejectedCommits(),
+                    result.getJiraLookups());
+
+            return result;
+        }
+    }
+
+    /**
+     * Counts the lookups the check engine asks for. Lookups answered by the JIRA caches are
+     * counted too, so this is the most JIRA would be asked.
+     */
+    private static class CountingJiraService implements JiraService {
+        private final JiraService delegate;
+        private final AtomicLong lookups = new AtomicLong();
+        private final AtomicLong issueKeys = new AtomicLong();
+
+        CountingJiraService(JiraService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean doesJiraApplicationLinkExist() {
+            return delegate.doesJiraApplicationLinkExist();
+        }
+
+        @Override
+        public List<YaccError> doesIssueMatchJqlQuery(String jqlQuery, IssueKey issueKey, PushDeadline deadline) {
+            count(1);
+            return delegate.doesIssueMatchJqlQuery(jqlQuery, issueKey, deadline);
+        }
+
+        @Override
+        public List<YaccError> doesIssueExist(IssueKey issueKey, PushDeadline deadline) {
+            count(1);
+            return delegate.doesIssueExist(issueKey, deadline);
+        }
+
+        @Override
+        public boolean doesProjectExist(IssueKey issueKey, PushDeadline deadline) {
+            count(1);
+            return delegate.doesProjectExist(issueKey, deadline);
+        }
+
+        @Override
+        public Map<IssueKey, List<YaccError>> checkIssues(Collection<IssueKey> keys, @Nullable String jqlQuery,
+                                                          PushDeadline deadline) {
+            count(keys.size());
+            return delegate.checkIssues(keys, jqlQuery, deadline);
+        }
+
+        @Override
+        public List<String> checkJqlQuery(@Nonnull String jqlQuery) {
+            return delegate.checkJqlQuery(jqlQuery);
+        }
+
+        private void count(int keys) {
+            lookups.incrementAndGet();
+            issueKeys.addAndGet(keys);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.isroot.stash.plugin.simulation;
+
+import com.isroot.stash.plugin.YaccCommit;
+import com.isroot.stash.plugin.errors.YaccError;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a proposed policy would have done to recent commits: how many would have been rejected,
+ * and what checking them cost. Latencies are measured per replayed push.
+ *
+ * <p>The costs are those of the replay, not of real pushes, as {@link #getCostNote()} says in the
+ * result itself.
+ */
+public class SimulationResult {
+    static final String COST_NOTE = "Latencies and JIRA lookups are of replaying existing commits, not of real "
+            + "pushes. JIRA lookups are counted as the checks ask for them, batched as pushes batch them. Issues "
+            + "already in the JIRA lookup cache or issue index are answered without searching JIRA, so replayed "
+            + "pushes are faster than pushes whose issues JIRA has to be searched for, and repeated simulations "
+            + "faster still.";
+
+    private final transient int maxViolations;
+    private final String costNote = COST_NOTE;
+    private final List<String> violations = new ArrayList<>();
+    private transient long[] pushNanos = new long[16];
+    private int repositories;
+    private int commits;
+    private int pushes;
+    private int rejectedCommits;
+    private int rejectedPushes;
+    private long jiraLookups;
+    private long jiraIssueKeys;
+    private double meanPushMillis;
+    private double p50PushMillis;
+    private double p95PushMillis;
+    private double maxPushMillis;
+    private double jiraLookupsPerPush;
+    private boolean truncated;
+
+    SimulationResult(int maxViolations) {
+        this.maxViolations = maxViolations;
+    }
+
+    void repositoryReplayed() {
+        repositories++;
+    }
+
+    void pushChecked(List<YaccCommit> push, List<YaccError> errors, long nanos, long lookups, long issueKeys) {
+        if (pushes == pushNanos.length) {
+            pushNanos = Arrays.copyOf(pushNanos, pushes * 2);
+        }
+        pushNanos[pushes++] = nanos;
+
+        commits += push.size();
+        jiraLookups += lookups;
+        jiraIssueKeys += issueKeys;
+
+        if (errors.isEmpty()) {
+            return;
+        }
+
+        rejectedPushes++;
+        for (YaccCommit commit : push) {
+            // Errors are prefixed with the id of the commit they are about
+            String prefix = commit.getId() + ": ";
+            if (errors.stream().anyMatch(error -> error.getMessage().startsWith(prefix))) {
+                rejectedCommits++;
+            }
+        }
+
+        for (YaccError error : errors) {
+            if (violations.size() >= maxViolations) {
+                break;
+            }
+            violations.add(error.getMessage());
+        }
+    }
+
+    void truncated() {
+        truncated = true;
+    }
+
+    /**
+     * Work out the latency statistics once every push has been checked.
+     */
+    void finish() {
+        if (pushes == 0) {
+            return;
+        }
+
+        long[] sorted = Arrays.copyOf(pushNanos, pushes);
+        Arrays.sort(sorted);
+
+        long total = 0;
+        for (long nanos : sorted) {
+            total += nanos;
+        }
+
+        meanPushMillis = toMillis(total / pushes);
+        p50PushMillis = toMillis(sorted[(pushes - 1) / 2]);
+        p95PushMillis = toMillis(sorted[(int) Math.ceil(pushes * 0.95) - 1]);
+        maxPushMillis = toMillis(sorted[pushes - 1]);
+        jiraLookupsPerPush = (double) jiraLookups / pushes;
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public int getRepositories() {
+        return repositories;
+    }
+
+    public int getCommits() {
+        return commits;
+    }
+
+    public int getPushes() {
+        return pushes;
+    }
+
+    public int getRejectedCommits() {
+        return rejectedCommits;
+    }
+
+    public int getRejectedPushes() {
+        return rejectedPushes;
+    }
+
+    public long getJiraLookups() {
+        return jiraLookups;
+    }
+
+    public long getJiraIssueKeys() {
+        return jiraIssueKeys;
+    }
+
+    public double getMeanPushMillis() {
+        return meanPushMillis;
+    }
+
+    public double getP50PushMillis() {
+        return p50PushMillis;
+    }
+
+    public double getP95PushMillis() {
+        return p95PushMillis;
+    }
+
+    public double getMaxPushMillis() {
+        return maxPushMillis;
+    }
+
+    public double getJiraLookupsPerPush() {
+        return jiraLookupsPerPush;
+    }
+
+    /**
+     * Return a note on what the latencies and JIRA lookups measure, for whoever reads the result.
+     */
+    public String getCostNote() {
+        return costNote;
+    }
+
+    /**
+     * Return true if the simulation ran out of time or JIRA lookups before every commit was
+     * checked.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public List<String> getViolations() {
+        return violations;
+    }
+}
@@ -0,0 +1,135 @@
+package ut.com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.setting.Settings;
+import com.google.common.base.Strings;
+import com.isroot.stash.plugin.CommitMessageScanner;
+import com.isroot.stash.plugin.IssueKey;
+import com.isroot.stash.plugin.regex.RegexBudget;
+import com.isroot.stash.plugin.regex.SettingRegex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares checking commit messages with {@link CommitMessageScanner}, with and without the
+ * linear regex engine selected, against the baseline of one pass per check as the hook used to do:
+ * exclude by regex, commit message regex and group 1 with java.util.regex and the regex budget,
+ * then {@link IssueKey#parseIssueKeys}. Not run as part of the unit tests, since timings depend on
+ * the machine.
+ */
+public class CommitMessageScannerBenchmark {
+    private static final int MESSAGES = 100000;
+    private static final int ROUNDS = 5;
+    private static final RegexBudget BUDGET = RegexBudget.fromSystemProperties();
+
+    private static final String EXCLUDE_REGEX = "#skipchecks|^Revert \"";
+    private static final String COMMIT_REGEX = "([A-Z]+-\\d+)(, [A-Z]+-\\d+)*: .*";
+
+    public static void main(String[] args) {
+        List<String> messages = messages();
+        List<String> huge = new ArrayList<>();
+        huge.add("ABC-1: squashed\n\n" + Strings.repeat("fix the thing for DEF-2 again\n", 35000));
+
+        run("typical messages", messages);
+        run("1 MB message", huge);
+    }
+
+    private static void run(String name, List<String> messages) {
+        Settings settings = settings(false);
+        CommitMessageScanner scanner = new CommitMessageScanner(settings, BUDGET);
+        CommitMessageScanner linearScanner = new CommitMessageScanner(settings(true), BUDGET);
+        SettingRegex exclude = SettingRegex.fromSettings(settings, "excludeByRegex", 0, BUDGET);
+        SettingRegex commit = SettingRegex.fromSettings(settings, "commitMessageRegex", Pattern.MULTILINE, BUDGET);
+        SettingRegex group = SettingRegex.fromSettings(settings, "commitMessageRegex", 0, BUDGET);
+
+        long baseline = Long.MAX_VALUE;
+        long java = Long.MAX_VALUE;
+        long linear = Long.MAX_VALUE;
+        int blackhole = 0;
+
+        // The first rounds warm up the JIT, the fastest round is reported
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String message : messages) {
+                blackhole += baseline(exclude, commit, group, message);
+            }
+            baseline = Math.min(baseline, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (String message : messages) {
+                blackhole += scan(scanner, message);
+            }
+            java = Math.min(java, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (String message : messages) {
+                blackhole += scan(linearScanner, message);
+            }
+            linear = Math.min(linear, System.nanoTime() - start);
+        }
+
+        System.out.printf("%s (%d): baseline %.1f ms, scanner %.1f ms, scanner with linear engine %.1f ms (%d)%n",
+                name, messages.size(), baseline / 1e6, java / 1e6, linear / 1e6, blackhole);
+    }
+
+    private static int baseline(SettingRegex exclude, SettingRegex commit, SettingRegex group, String message) {
+        if (exclude.find(message)) {
+            return 0;
+        }
+        if (!commit.matches(message)) {
+            return IssueKey.parseIssueKeys(message).size();
+        }
+
+        MatchResult match = group.matchEntire(message);
+        return match != null ? IssueKey.parseIssueKeys(match.group(1)).size()
+                : IssueKey.parseIssueKeys(message).size();
+    }
+
+    private static int scan(CommitMessageScanner scanner, String message) {
+        CommitMessageScanner.Result result = scanner.scan(message);
+        if (result.isExcluded()) {
+            return 0;
+        }
+
+        result.matchesCommitMessageRegex();
+        return result.getIssueKeys().size();
+    }
+
+    private static Settings settings(boolean linear) {
+        Settings settings = mock(Settings.class);
+        when(settings.getString("excludeByRegex")).thenReturn(EXCLUDE_REGEX);
+        when(settings.getString("commitMessageRegex")).thenReturn(COMMIT_REGEX);
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(settings.getBoolean("linearRegex.excludeByRegex", false)).thenReturn(linear);
+        when(settings.getBoolean("linearRegex.commitMessageRegex", false)).thenReturn(linear);
+
+        return settings;
+    }
+
+    private static List<String> messages() {
+        Random random = new Random(42);
+        List<String> messages = new ArrayList<>();
+
+        for (int i = 0; i < MESSAGES; i++) {
+            String subject = "PROJ-" + random.nextInt(10000) + ": change number " + i;
+            switch (random.nextInt(10)) {
+                case 0:
+                    messages.add("Revert \"" + subject + "\"\n\nThis reverts commit 0123456789abcdef.");
+                    break;
+                case 1:
+                    messages.add("no issue key in change number " + i);
+                    break;
+                default:
+                    messages.add(subject + "\n\nA longer description of the change, as most commits have one.");
+            }
+        }
+
+        return messages;
+    }
+}
@@ -0,0 +1,138 @@
+package ut.com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.setting.Settings;
+import com.isroot.stash.plugin.CommitMessageScanner;
+import com.isroot.stash.plugin.IssueKey;
+import com.isroot.stash.plugin.regex.RegexBudget;
+import com.isroot.stash.plugin.regex.RegexBudgetExceededException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CommitMessageScannerTest {
+    private Settings settings;
+
+    @Before
+    public void setup() {
+        settings = mock(Settings.class);
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+    }
+
+    @Test
+    public void testScan_noRegexes() {
+        CommitMessageScanner.Result result = scanner().scan("ABC-1: fix DEF-2");
+
+        assertThat(result.isExcluded()).isFalse();
+        assertThat(result.matchesCommitMessageRegex()).isTrue();
+        assertThat(result.getIssueKeys()).containsExactly(new IssueKey("ABC", "1"), new IssueKey("DEF", "2"));
+    }
+
+    @Test
+    public void testScan_excludeByRegex() {
+        when(settings.getString("excludeByRegex")).thenReturn("#skip\\w*");
+
+        assertThat(scanner().scan("wip #skipcheck").isExcluded()).isTrue();
+        assertThat(scanner().scan("wip").isExcluded()).isFalse();
+    }
+
+    @Test
+    public void testScan_commitMessageRegexIsMultiline() {
+        when(settings.getString("commitMessageRegex")).thenReturn("^[A-Z]+-\\d+: .*$");
+
+        assertThat(scanner().scan("ABC-1: fix").matchesCommitMessageRegex()).isTrue();
+        assertThat(scanner().scan("ABC-1: fix\nmore").matchesCommitMessageRegex()).isFalse();
+        assertThat(scanner().scan("fix").matchesCommitMessageRegex()).isFalse();
+    }
+
+    @Test
+    public void testScan_issueKeysFromGroup1() {
+        when(settings.getString("commitMessageRegex")).thenReturn("([A-Z]+-\\d+): .*");
+
+        assertThat(scanner().scan("ABC-1: see DEF-2").getIssueKeys()).containsExactly(new IssueKey("ABC", "1"));
+    }
+
+    @Test
+    public void testScan_issueKeysFromGroup1_groupNotMatched() {
+        when(settings.getString("commitMessageRegex")).thenReturn("(?:([A-Z]+-\\d+): )?.*");
+
+        assertThat(scanner().scan("see DEF-2").getIssueKeys()).isEmpty();
+    }
+
+    @Test
+    public void testScan_issueKeysFromWholeMessageIfRegexDoesNotMatch() {
+        when(settings.getString("commitMessageRegex")).thenReturn("([A-Z]+-\\d+): .*");
+
+        assertThat(scanner().scan("see DEF-2").getIssueKeys()).containsExactly(new IssueKey("DEF", "2"));
+    }
+
+    @Test
+    public void testScan_issueKeysFromGroup1InsideRepeat() {
+        // Not merged, group 1 is matched with java.util.regex and keeps the last repetition
+        when(settings.getString("commitMessageRegex")).thenReturn("([A-Z]+-\\d+ )+.*");
+
+        assertThat(scanner().scan("ABC-1 DEF-2 fix").getIssueKeys()).containsExactly(new IssueKey("DEF", "2"));
+    }
+
+    @Test
+    public void testScan_issueKeysFromGroup1WithLinearEngine() {
+        when(settings.getString("commitMessageRegex")).thenReturn("([A-Z]+-\\d+): .*");
+        when(settings.getBoolean("linearRegex.commitMessageRegex", false)).thenReturn(true);
+
+        assertThat(scanner().scan("ABC-1: see DEF-2").getIssueKeys()).containsExactly(new IssueKey("ABC", "1"));
+        assertThat(scanner().scan("see DEF-2").getIssueKeys()).containsExactly(new IssueKey("DEF", "2"));
+    }
+
+    @Test
+    public void testScan_catastrophicRegexIsMergedWithLinearEngine() {
+        when(settings.getString("commitMessageRegex")).thenReturn("(.*a){25}");
+        when(settings.getBoolean("linearRegex.commitMessageRegex", false)).thenReturn(true);
+
+        assertThat(scanner(new RegexBudget(0, 1)).scan("aaaaaaaaaaaaaaaaaaaaaaaaaaaaab")
+                .matchesCommitMessageRegex()).isFalse();
+    }
+
+    @Test
+    public void testScan_regexNotMergedUnlessLinearEngineSelected() {
+        when(settings.getString("commitMessageRegex")).thenReturn("(.*a){25}");
+
+        CommitMessageScanner.Result result = scanner(new RegexBudget(0, 100))
+                .scan("aaaaaaaaaaaaaaaaaaaaaaaaaaaaab");
+
+        assertThatThrownBy(result::matchesCommitMessageRegex).isInstanceOf(RegexBudgetExceededException.class);
+    }
+
+    @Test
+    public void testScan_stackedQuantifierAgreesWithJava() {
+        when(settings.getString("commitMessageRegex")).thenReturn("[A-Z]+-\\d{2}{2} .*");
+
+        assertThat(scanner().scan("ABC-12 fix").matchesCommitMessageRegex()).isTrue();
+        assertThat(scanner().scan("ABC-1234 fix").matchesCommitMessageRegex()).isFalse();
+
+        when(settings.getBoolean("linearRegex.commitMessageRegex", false)).thenReturn(true);
+
+        assertThat(scanner().scan("ABC-12 fix").matchesCommitMessageRegex()).isTrue();
+        assertThat(scanner().scan("ABC-1234 fix").matchesCommitMessageRegex()).isFalse();
+    }
+
+    @Test
+    public void testScan_regexThatCanNotBeMergedUsesBudget() {
+        when(settings.getString("excludeByRegex")).thenReturn("(?=a)(.*a){25}");
+
+        CommitMessageScanner.Result result = scanner(new RegexBudget(0, 100))
+                .scan("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+
+        assertThatThrownBy(result::isExcluded).isInstanceOf(RegexBudgetExceededException.class);
+    }
+
+    private CommitMessageScanner scanner() {
+        return scanner(RegexBudget.fromSystemProperties());
+    }
+
+    private CommitMessageScanner scanner(RegexBudget budget) {
+        return new CommitMessageScanner(settings, budget);
+    }
+}
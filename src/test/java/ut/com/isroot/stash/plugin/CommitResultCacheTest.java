@@ -0,0 +1,98 @@
+package ut.com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.UserType;
+import com.google.common.collect.ImmutableMap;
+import com.isroot.stash.plugin.CommitResultCache;
+import com.isroot.stash.plugin.errors.YaccError;
+import org.junit.Before;
+import org.junit.Test;
+import ut.com.isroot.stash.plugin.mock.MockSettings;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CommitResultCacheTest {
+    private CommitResultCache cache;
+    private ApplicationUser user;
+
+    @Before
+    public void setup() {
+        cache = new CommitResultCache(100, 10);
+
+        user = mock(ApplicationUser.class);
+        when(user.getId()).thenReturn(1);
+        when(user.getType()).thenReturn(UserType.NORMAL);
+        when(user.getName()).thenReturn("jsmith");
+        when(user.getEmailAddress()).thenReturn("jsmith@example.com");
+        when(user.getDisplayName()).thenReturn("John Smith");
+    }
+
+    @Test
+    public void testGet_passedCommitIsCached() {
+        cache.put(key("deadbeef"), Collections.<YaccError>emptyList());
+
+        assertThat(cache.get(key("deadbeef"))).isEmpty();
+        assertThat(cache.get(key("cafebabe"))).isNull();
+        assertThat(cache.getStats().hitCount()).isEqualTo(1);
+        assertThat(cache.getStats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGet_committerErrorsAreCached() {
+        YaccError error = new YaccError(YaccError.Type.COMMITTER_NAME, "expected committer name");
+        cache.put(key("deadbeef"), Collections.singletonList(error));
+
+        assertThat(cache.get(key("deadbeef"))).containsExactly(error);
+    }
+
+    @Test
+    public void testGet_jiraAndRegexErrorsAreNotCached() {
+        cache.put(key("deadbeef"), Collections.singletonList(
+                new YaccError(YaccError.Type.ISSUE_JQL, "ABC-1: JIRA Issue does not exist")));
+        cache.put(key("cafebabe"), Collections.singletonList(
+                new YaccError(YaccError.Type.COMMIT_REGEX, "commit message doesn't match regex: foo")));
+
+        assertThat(cache.get(key("deadbeef"))).isNull();
+        assertThat(cache.get(key("cafebabe"))).isNull();
+    }
+
+    @Test
+    public void testGet_keyIncludesPusher() {
+        cache.put(key("deadbeef"), Collections.<YaccError>emptyList());
+
+        when(user.getEmailAddress()).thenReturn("john.smith@example.com");
+
+        assertThat(cache.get(key("deadbeef"))).isNull();
+    }
+
+    @Test
+    public void testGet_keyIncludesBranchAndMessageChecks() {
+        cache.put(new CommitResultCache.Key("deadbeef", "policy", user, "master", true),
+                Collections.<YaccError>emptyList());
+
+        assertThat(cache.get(new CommitResultCache.Key("deadbeef", "policy", user, "develop", true))).isNull();
+        assertThat(cache.get(new CommitResultCache.Key("deadbeef", "policy", user, "master", false))).isNull();
+        assertThat(cache.get(new CommitResultCache.Key("deadbeef", "other", user, "master", true))).isNull();
+    }
+
+    @Test
+    public void testPolicyHash() {
+        MockSettings settings = new MockSettings(ImmutableMap.<String, Object>of("commitMessageRegex", "foo",
+                "requireJiraIssue", true));
+        MockSettings sameSettings = new MockSettings(ImmutableMap.<String, Object>of("requireJiraIssue", true,
+                "commitMessageRegex", "foo"));
+        MockSettings otherSettings = new MockSettings(ImmutableMap.<String, Object>of("commitMessageRegex", "bar",
+                "requireJiraIssue", true));
+
+        assertThat(CommitResultCache.policyHash(settings)).isEqualTo(CommitResultCache.policyHash(sameSettings));
+        assertThat(CommitResultCache.policyHash(settings)).isNotEqualTo(CommitResultCache.policyHash(otherSettings));
+    }
+
+    private CommitResultCache.Key key(String commitId) {
+        return new CommitResultCache.Key(commitId, "policy", user, "master", true);
+    }
+}
@@ -5,6 +5,7 @@ import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.setting.SettingsValidationErrors;
 import com.isroot.stash.plugin.ConfigValidator;
 import com.isroot.stash.plugin.JiraService;
+import com.isroot.stash.plugin.regex.RegexBenchmark;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -13,7 +14,11 @@ import org.mockito.MockitoAnnotations;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.mockito.AdditionalMatchers.and;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.endsWith;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -198,4 +203,92 @@ public class ConfigValidatorTest {
         verify(settingsValidationErrors)
                 .addFieldError("committerEmailRegex", "Invalid Regex: Unmatched closing ')'\n)");
     }
+
+    @Test
+    public void testValidate_pushTimeoutSeconds_positiveNumberAllowed() {
+        when(settings.getString("pushTimeoutSeconds")).thenReturn("30");
+
+        configValidator.validate(settings, settingsValidationErrors, repository);
+
+        verifyZeroInteractions(settingsValidationErrors);
+    }
+
+    @Test
+    public void testValidate_pushTimeoutSeconds_errorIfNotPositiveNumber() {
+        when(settings.getString("pushTimeoutSeconds")).thenReturn("0");
+
+        configValidator.validate(settings, settingsValidationErrors, repository);
+
+        verify(settingsValidationErrors).addFieldError("pushTimeoutSeconds", "Must be a positive number.");
+    }
+
+    @Test
+    public void testValidate_pushTimeoutSeconds_errorIfNotANumber() {
+        when(settings.getString("pushTimeoutSeconds")).thenReturn("abc");
+
+        configValidator.validate(settings, settingsValidationErrors, repository);
+
+        verify(settingsValidationErrors).addFieldError("pushTimeoutSeconds", "Must be a positive number.");
+    }
+
+    @Test
+    public void testValidate_commitMessageRegex_errorIfCatastrophicBacktracking() {
+        when(settings.getString("commitMessageRegex")).thenReturn("(.*a){25}");
+
+        configValidator.validate(settings, settingsValidationErrors, repository);
+
+        verify(settingsValidationErrors).addFieldError(eq("commitMessageRegex"), and(
+                startsWith("Regex is too slow: matching a "),
+                endsWith("character test input took more than 250 ms. Possible cause: nested quantifier in " +
+                        "'(.*a){25}' can match the same text in many different ways.")));
+    }
+
+    @Test
+    public void testValidate_branchNameRegex_errorIfCatastrophicBacktracking() {
+        configValidator = new ConfigValidator(jiraService, new RegexBenchmark(10, 50, 2000));
+        when(settings.getString("branchNameRegex")).thenReturn("(.*a){25}");
+
+        configValidator.validate(settings, settingsValidationErrors, repository);
+
+        verify(settingsValidationErrors).addFieldError(eq("branchNameRegex"), startsWith("Regex is too slow:"));
+    }
+
+    @Test
+    public void testValidate_commitMessageRegex_riskyLookingButFastRegexAllowed() {
+        when(settings.getString("commitMessageRegex")).thenReturn("(?s)[A-Z]+-\\d+.*");
+
+        configValidator.validate(settings, settingsValidationErrors, repository);
+
+        verifyZeroInteractions(settingsValidationErrors);
+    }
+
+    @Test
+    public void testValidate_linearRegexEngine_errorIfRegexIsNotSupported() {
+        when(settings.getString("commitMessageRegex")).thenReturn("(a)\\1");
+        when(settings.getBoolean("linearRegex.commitMessageRegex", false)).thenReturn(true);
+
+        configValidator.validate(settings, settingsValidationErrors, repository);
+
+        verify(settingsValidationErrors).addFieldError("commitMessageRegex",
+                "Not supported by the linear regex engine: back reference '\\1'");
+    }
+
+    @Test
+    public void testValidate_linearRegexEngine_backtrackingRegexAllowed() {
+        when(settings.getString("branchNameRegex")).thenReturn("(.*a){25}");
+        when(settings.getBoolean("linearRegex.branchNameRegex", false)).thenReturn(true);
+
+        configValidator.validate(settings, settingsValidationErrors, repository);
+
+        verifyZeroInteractions(settingsValidationErrors);
+    }
+
+    @Test
+    public void testValidate_maxCommits_errorIfNotANumber() {
+        when(settings.getString("maxCommits")).thenReturn("lots");
+
+        configValidator.validate(settings, settingsValidationErrors, repository);
+
+        verify(settingsValidationErrors).addFieldError("maxCommits", "Must be a positive number.");
+    }
 }
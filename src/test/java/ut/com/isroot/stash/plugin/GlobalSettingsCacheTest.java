@@ -0,0 +1,73 @@
+package ut.com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.hook.repository.RepositoryHookService;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.testresources.pluginsettings.MockPluginSettingsFactory;
+import com.isroot.stash.plugin.GlobalSettingsCache;
+import com.isroot.stash.plugin.YaccConfigServlet;
+import com.isroot.stash.plugin.cluster.InvalidationBus;
+import com.isroot.stash.plugin.cluster.LocalInvalidationBus;
+import org.junit.Before;
+import org.junit.Test;
+import ut.com.isroot.stash.plugin.mock.MockSettingsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GlobalSettingsCacheTest {
+    private PluginSettingsFactory pluginSettingsFactory;
+    private InvalidationBus invalidationBus;
+    private GlobalSettingsCache cache;
+
+    @Before
+    public void setup() {
+        pluginSettingsFactory = new MockPluginSettingsFactory();
+        invalidationBus = new LocalInvalidationBus();
+
+        RepositoryHookService repositoryHookService = mock(RepositoryHookService.class);
+        when(repositoryHookService.createSettingsBuilder()).thenAnswer(invocation -> new MockSettingsBuilder());
+
+        cache = new GlobalSettingsCache(pluginSettingsFactory, repositoryHookService, invalidationBus);
+    }
+
+    @Test
+    public void testGetSettings_readOnce() {
+        save("commitMessageRegex", "[A-Z]+-[0-9]+.*");
+        assertThat(cache.getSettings().getString("commitMessageRegex")).isEqualTo("[A-Z]+-[0-9]+.*");
+
+        save("commitMessageRegex", "changed");
+        assertThat(cache.getSettings().getString("commitMessageRegex")).isEqualTo("[A-Z]+-[0-9]+.*");
+    }
+
+    @Test
+    public void testGetSettings_readAgainAfterSave() {
+        save("requireMatchingAuthorName", "on");
+        assertThat(cache.getSettings().asMap()).containsEntry("requireMatchingAuthorName", true);
+
+        save("commitMessageRegex", "changed");
+        cache.settingsSaved();
+
+        assertThat(cache.getSettings().getString("commitMessageRegex")).isEqualTo("changed");
+        assertThat(cache.getSettings().asMap()).doesNotContainKey("requireMatchingAuthorName");
+    }
+
+    @Test
+    public void testGetSettings_readAgainWhenAnotherNodeSaves() {
+        cache.getSettings();
+
+        save("commitMessageRegex", "changed");
+        invalidationBus.publish(InvalidationBus.GLOBAL_SETTINGS);
+
+        assertThat(cache.getSettings().getString("commitMessageRegex")).isEqualTo("changed");
+    }
+
+    private void save(String key, String value) {
+        Map<String, Object> settingsMap = new HashMap<>();
+        settingsMap.put(key, value);
+        pluginSettingsFactory.createGlobalSettings().put(YaccConfigServlet.SETTINGS_MAP, settingsMap);
+    }
+}
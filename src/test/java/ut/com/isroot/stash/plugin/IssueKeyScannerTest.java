@@ -0,0 +1,43 @@
+package ut.com.isroot.stash.plugin;
+
+import com.isroot.stash.plugin.IssueKey;
+import com.isroot.stash.plugin.IssueKeyScanner;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IssueKeyScannerTest {
+    @Test
+    public void testGetIssueKeys() {
+        assertThat(IssueKeyScanner.scan("Issue: ABC-123, CBA-321, UNDER_SCORE-123;").getIssueKeys())
+                .containsExactly(new IssueKey("ABC", "123"), new IssueKey("CBA", "321"),
+                        new IssueKey("UNDER_SCORE", "123"));
+    }
+
+    @Test
+    public void testGetIssueKeys_sameAsParseIssueKeys() {
+        String[] inputs = {"", "ABC-123", "A-1", "1AB-2", "aAB-1", "AB-1-2", "AB--1", "AB-1CD-2", "AB-x AB-3",
+                "ÄAB-1", "fix AB_1-22, AB-", "AB1-2a", "X ABC-123abc"};
+
+        for (String input : inputs) {
+            assertThat(IssueKeyScanner.scan(input).getIssueKeys()).as(input)
+                    .isEqualTo(IssueKey.parseIssueKeys(input));
+        }
+    }
+
+    @Test
+    public void testGetIssueKeys_range() {
+        IssueKeyScanner scanner = IssueKeyScanner.scan("ABC-1 DEF-2 GHI-3");
+
+        assertThat(scanner.getIssueKeys(6, 17)).containsExactly(new IssueKey("DEF", "2"), new IssueKey("GHI", "3"));
+        assertThat(scanner.getIssueKeys(5, 6)).isEmpty();
+    }
+
+    @Test
+    public void testGetIssueKeys_rangeCutsKey() {
+        IssueKeyScanner scanner = IssueKeyScanner.scan("XABC-12");
+
+        // Substring "ABC-1" contains a key that isn't in the whole input
+        assertThat(scanner.getIssueKeys(1, 6)).containsExactly(new IssueKey("ABC", "1"));
+    }
+}
@@ -3,18 +3,37 @@ package ut.com.isroot.stash.plugin;
 import com.atlassian.applinks.api.ApplicationLink;
 import com.atlassian.applinks.api.ApplicationLinkService;
 import com.atlassian.sal.api.net.Request;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.isroot.stash.plugin.IssueKey;
+import com.isroot.stash.plugin.JiraService;
+import com.isroot.stash.plugin.PushDeadline;
 import com.isroot.stash.plugin.errors.YaccError;
+import com.isroot.stash.plugin.jira.CircuitBreakerConfig;
+import com.isroot.stash.plugin.jira.JiraIssueIndex;
+import com.isroot.stash.plugin.jira.JiraCircuitBreaker;
+import com.isroot.stash.plugin.jira.JiraLookupCache;
 import com.isroot.stash.plugin.jira.JiraServiceImpl;
+import com.isroot.stash.plugin.jira.RequestLimiterConfig;
+import com.isroot.stash.plugin.jira.RetryConfig;
 import org.junit.Test;
+import ut.com.isroot.stash.plugin.mock.FakeJira;
 import ut.com.isroot.stash.plugin.mock.MockApplicationLink;
 import ut.com.isroot.stash.plugin.mock.MockApplicationLinkService;
 
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -23,13 +42,15 @@ import static org.assertj.core.api.Assertions.assertThat;
  * @since 2014-01-15
  */
 public class JiraServiceImplTest {
+    private static final RetryConfig NO_RETRIES = new RetryConfig(1, 0, 0, false, 0);
+
     @Test
     public void testDoesIssueExist_returnsEmptyListIfJiraSearchResultsIsNonZero() {
         JiraServiceImpl jiraService = setupTest(
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(1))
         );
 
-        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123")))
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none()))
                 .isEmpty();
     }
 
@@ -41,7 +62,7 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(0))
         );
 
-        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123")))
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none()))
                 .containsExactly(new YaccError(YaccError.Type.ISSUE_JQL, "TEST-123: JIRA Issue does not exist"));
     }
 
@@ -53,7 +74,7 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", 400)
         );
 
-        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123")))
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none()))
                 .containsExactly(new YaccError(YaccError.Type.ISSUE_JQL, "TEST-123: JIRA Issue does not exist"));
     }
 
@@ -64,7 +85,7 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(1))
         );
 
-        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123")))
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none()))
                 .isEmpty();
     }
 
@@ -75,7 +96,7 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(1))
         );
 
-        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123")))
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none()))
                 .isEmpty();
     }
 
@@ -86,7 +107,7 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestThrowsCredentialException().setName("jira2")
         );
 
-        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"))).containsExactly(
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).containsExactly(
                 new YaccError(YaccError.Type.OTHER, "jira1: Could not authenticate. Visit https://server/auth/uri to link your Stash account to your JIRA account"),
                 new YaccError(YaccError.Type.OTHER, "jira2: Could not authenticate. Visit https://server/auth/uri to link your Stash account to your JIRA account"));
     }
@@ -98,7 +119,7 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(0)).setName("jira2")
         );
 
-        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"))).containsExactly(
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).containsExactly(
                 new YaccError(YaccError.Type.OTHER, "jira1: Could not authenticate. Visit https://server/auth/uri to link your Stash account to your JIRA account"),
                 new YaccError(YaccError.Type.OTHER, "jira2: TEST-123: JIRA Issue does not exist"));
 
@@ -111,7 +132,7 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(0))
         );
 
-        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123")))
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none()))
                 .containsExactly(new YaccError(YaccError.Type.ISSUE_JQL, "TEST-123: JIRA Issue does not exist"));
     }
 
@@ -121,7 +142,7 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(1))
         );
 
-        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123")))
+        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"), PushDeadline.none()))
                 .isEmpty();
     }
 
@@ -131,7 +152,7 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(0))
         );
 
-        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123")))
+        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"), PushDeadline.none()))
                 .containsExactly(new YaccError(YaccError.Type.ISSUE_JQL, "TEST-123: JIRA Issue does not match JQL Query: query"));
     }
 
@@ -141,8 +162,133 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", 400).setName("jira1")
         );
 
-        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123")))
-                .containsExactly(new YaccError(YaccError.Type.OTHER, "jira1: Query is not valid for JIRA instance: issueKey=TEST-123 and (query)"));
+        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"), PushDeadline.none()))
+                .containsExactly(new YaccError(YaccError.Type.OTHER, "jira1: Query is not valid for JIRA instance: query"));
+    }
+
+    @Test
+    public void testDoesIssueMatchJqlQuery_invalidQueryIsNotRemembered() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(
+                MockApplicationLink.requestAnswers(request -> 400, requests).setName("jira1"));
+
+        jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"), PushDeadline.none());
+
+        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "124"), PushDeadline.none()))
+                .containsExactly(new YaccError(YaccError.Type.OTHER, "jira1: Query is not valid for JIRA instance: query"));
+        // Only the validation is sent, the issue query is skipped
+        assertThat(requests).hasSize(2);
+        assertThat(requests.get(0)).contains("\"jql\":\"query\"");
+        assertThat(requests.get(1)).contains("\"jql\":\"query\"");
+    }
+
+    @Test
+    public void testDoesIssueMatchJqlQuery_queryInvalidForOneUserStillRunForOthers() {
+        // JIRA rejects JQL naming a project the user can't browse
+        AtomicBoolean canBrowseProject = new AtomicBoolean(false);
+        JiraServiceImpl jiraService = setupTest(MockApplicationLink.requestAnswers(
+                request -> canBrowseProject.get() ? jiraResponse(1) : 400, new ArrayList<>()).setName("jira1"));
+
+        assertThat(jiraService.doesIssueMatchJqlQuery("project = SECRET", new IssueKey("TEST", "123"),
+                PushDeadline.none()))
+                .containsExactly(new YaccError(YaccError.Type.OTHER,
+                        "jira1: Query is not valid for JIRA instance: project = SECRET"));
+
+        canBrowseProject.set(true);
+
+        assertThat(jiraService.doesIssueMatchJqlQuery("project = SECRET", new IssueKey("TEST", "123"),
+                PushDeadline.none())).isEmpty();
+    }
+
+    @Test
+    public void testDoesIssueExist_requestsSingleIssueWithoutFields() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(MockApplicationLink.requestAnswers(request -> jiraResponse(1), requests));
+
+        jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none());
+
+        assertThat(requests).containsExactly("{\"jql\":\"issueKey='TEST-123'\",\"maxResults\":1,\"fields\":[]}");
+    }
+
+    @Test
+    public void testCheckJqlQuery_validationAsksForNoIssues() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(MockApplicationLink.requestAnswers(request -> jiraResponse(1), requests));
+
+        jiraService.checkJqlQuery("query");
+
+        assertThat(requests).containsExactly("{\"jql\":\"query\",\"maxResults\":0,\"fields\":[]}");
+    }
+
+    @Test
+    public void testCheckIssues_readsKeysFromFullSearchResponse() {
+        String response = "{\"expand\":\"names,schema\",\"startAt\":0,\"maxResults\":2,\"total\":2,\"issues\":["
+                + "{\"expand\":\"operations\",\"id\":\"10001\",\"self\":\"https://jira/rest/api/2/issue/10001\","
+                + "\"key\":\"TEST-1\",\"fields\":{\"summary\":\"first\"}},"
+                + "{\"id\":\"10002\",\"key\":\"TEST-2\",\"fields\":{}}],\"warningMessages\":[]}";
+        JiraServiceImpl jiraService = setupTest(MockApplicationLink.requestAnswers(request -> response, new ArrayList<>()));
+
+        Map<IssueKey, List<YaccError>> results = jiraService.checkIssues(Lists.newArrayList(
+                new IssueKey("TEST-1"), new IssueKey("TEST-2")), null, PushDeadline.none());
+
+        assertThat(results.get(new IssueKey("TEST-1"))).isEmpty();
+        assertThat(results.get(new IssueKey("TEST-2"))).isEmpty();
+    }
+
+    @Test
+    public void testDoesIssueExist_malformedResponseIsLinkError() {
+        JiraServiceImpl jiraService = setupTest(
+                MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", "<html>")
+                        .setName("jira1"));
+
+        List<YaccError> errors = jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none());
+
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0).getMessage()).startsWith("jira1: ");
+    }
+
+    @Test
+    public void testDoesIssueMatchJqlQuery_invalidLinkSkippedWhenQueryValidOnOtherLink() {
+        List<String> jira1Requests = new ArrayList<>();
+        List<String> jira2Requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(
+                MockApplicationLink.requestAnswers(request -> 400, jira1Requests).setName("jira1"),
+                MockApplicationLink.requestAnswers(request -> jiraResponse(1), jira2Requests).setName("jira2"));
+
+        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"), PushDeadline.none()))
+                .isEmpty();
+        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "124"), PushDeadline.none()))
+                .isEmpty();
+
+        // Validated again for each issue, since JIRA may only reject the query for some users
+        assertThat(jira1Requests).hasSize(2);
+        // Validated once, then one request per issue
+        assertThat(jira2Requests).hasSize(3);
+    }
+
+    @Test
+    public void testDoesIssueMatchJqlQuery_validityKnownFromCheckJqlQuery() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(
+                MockApplicationLink.requestAnswers(request -> jiraResponse(1), requests));
+
+        jiraService.checkJqlQuery("query");
+        jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"), PushDeadline.none());
+
+        assertThat(requests).hasSize(2);
+    }
+
+    @Test
+    public void testDoesIssueMatchJqlQuery_missingIssueIsNotReportedAsInvalidQuery() {
+        // JIRA returns 400 when the project exists but the issue doesn't, even if the JQL is valid
+        JiraServiceImpl jiraService = setupTest(
+                MockApplicationLink.requestAnswers(
+                        request -> request.contains("issueKey") ? 400 : jiraResponse(0), new ArrayList<>())
+                        .setName("jira1"));
+
+        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"), PushDeadline.none()))
+                .containsExactly(new YaccError(YaccError.Type.OTHER,
+                        "jira1: Query is not valid for JIRA instance: issueKey=TEST-123 and (query)"));
     }
 
     @Test
@@ -154,7 +300,7 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(1)).setName("jira4")
         );
 
-        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123")))
+        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"), PushDeadline.none()))
                 .isEmpty();
     }
 
@@ -167,9 +313,9 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(0)).setName("jira4")
         );
 
-        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"))).containsExactly(
+        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"), PushDeadline.none())).containsExactly(
                 new YaccError(YaccError.Type.OTHER, "jira1: Could not authenticate. Visit https://server/auth/uri to link your Stash account to your JIRA account"),
-                new YaccError(YaccError.Type.OTHER, "jira2: Query is not valid for JIRA instance: issueKey=TEST-123 and (query)"),
+                new YaccError(YaccError.Type.OTHER, "jira2: Query is not valid for JIRA instance: query"),
                 new YaccError(YaccError.Type.OTHER, "jira3: TEST-123: JIRA Issue does not match JQL Query: query"),
                 new YaccError(YaccError.Type.OTHER, "jira4: TEST-123: JIRA Issue does not match JQL Query: query"));
     }
@@ -181,16 +327,123 @@ public class JiraServiceImplTest {
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(0))
         );
 
-        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"))).containsExactly(
+        assertThat(jiraService.doesIssueMatchJqlQuery("query", new IssueKey("TEST", "123"), PushDeadline.none())).containsExactly(
                 new YaccError(YaccError.Type.ISSUE_JQL, "TEST-123: JIRA Issue does not match JQL Query: query"));
     }
 
+    @Test
+    public void testCheckIssues_existenceAndJqlFromTwoSearches() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(MockApplicationLink.requestAnswers(request -> {
+            if (!request.contains("issueKey in")) {
+                return jiraResponse(0);
+            } else if (request.contains("and (query)")) {
+                return jiraResponseWithKeys("TEST-1");
+            }
+            return jiraResponseWithKeys("TEST-1", "TEST-2");
+        }, requests));
+
+        Map<IssueKey, List<YaccError>> results = jiraService.checkIssues(Lists.newArrayList(
+                new IssueKey("TEST-1"), new IssueKey("TEST-2"), new IssueKey("TEST-3")), "query", PushDeadline.none());
+
+        assertThat(results.get(new IssueKey("TEST-1"))).isEmpty();
+        assertThat(results.get(new IssueKey("TEST-2"))).containsExactly(
+                new YaccError(YaccError.Type.ISSUE_JQL, "TEST-2: JIRA Issue does not match JQL Query: query"));
+        assertThat(results.get(new IssueKey("TEST-3"))).containsExactly(
+                new YaccError(YaccError.Type.ISSUE_JQL, "TEST-3: JIRA Issue does not exist"));
+        // Existence, JQL validation and JQL match
+        assertThat(requests).hasSize(3);
+        assertThat(requests.get(0)).contains("issueKey in ('TEST-1', 'TEST-2', 'TEST-3')");
+        assertThat(requests.get(0)).contains("\"validateQuery\":false");
+        assertThat(requests.get(2)).contains("issueKey in ('TEST-1', 'TEST-2', 'TEST-3') and (query)");
+    }
+
+    @Test
+    public void testCheckIssues_withoutJqlOnlySearchesForExistence() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(
+                MockApplicationLink.requestAnswers(request -> jiraResponseWithKeys("TEST-1", "TEST-2"), requests));
+
+        Map<IssueKey, List<YaccError>> results = jiraService.checkIssues(Lists.newArrayList(
+                new IssueKey("TEST-1"), new IssueKey("TEST-2")), null, PushDeadline.none());
+
+        assertThat(results.get(new IssueKey("TEST-1"))).isEmpty();
+        assertThat(results.get(new IssueKey("TEST-2"))).isEmpty();
+        assertThat(requests).hasSize(1);
+    }
+
+    @Test
+    public void testCheckIssues_multipleLinks_issuesFoundOnDifferentLinks() {
+        List<String> jira2Requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(
+                MockApplicationLink.requestAnswers(request -> jiraResponseWithKeys("TEST-1"), new ArrayList<>()),
+                MockApplicationLink.requestAnswers(request -> jiraResponseWithKeys("TEST-2"), jira2Requests));
+
+        Map<IssueKey, List<YaccError>> results = jiraService.checkIssues(Lists.newArrayList(
+                new IssueKey("TEST-1"), new IssueKey("TEST-2")), null, PushDeadline.none());
+
+        assertThat(results.get(new IssueKey("TEST-1"))).isEmpty();
+        assertThat(results.get(new IssueKey("TEST-2"))).isEmpty();
+        assertThat(jira2Requests).hasSize(1);
+        assertThat(jira2Requests.get(0)).contains("issueKey in ('TEST-2')");
+        assertThat(jira2Requests.get(0)).contains("\"maxResults\":1");
+    }
+
+    @Test
+    public void testCheckIssues_multipleLinks_detailedErrorsIfIssueNotFoundAndALinkFailed() {
+        JiraServiceImpl jiraService = setupTest(
+                MockApplicationLink.requestThrowsCredentialException().setName("jira1"),
+                MockApplicationLink.requestAnswers(request -> jiraResponseWithKeys("TEST-1"), new ArrayList<>())
+                        .setName("jira2"));
+
+        Map<IssueKey, List<YaccError>> results = jiraService.checkIssues(Lists.newArrayList(
+                new IssueKey("TEST-1"), new IssueKey("TEST-2")), null, PushDeadline.none());
+
+        assertThat(results.get(new IssueKey("TEST-1"))).isEmpty();
+        assertThat(results.get(new IssueKey("TEST-2"))).containsExactly(
+                new YaccError(YaccError.Type.OTHER, "jira1: Could not authenticate. Visit https://server/auth/uri to link your Stash account to your JIRA account"),
+                new YaccError(YaccError.Type.OTHER, "jira2: TEST-2: JIRA Issue does not exist"));
+    }
+
+    @Test
+    public void testCheckIssues_rejectedBatchSearchedOneIssueAtATime() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(MockApplicationLink.requestAnswers(request -> {
+            if (request.contains("issueKey in")) {
+                return 400;
+            }
+            return request.contains("TEST-1") ? jiraResponseWithKeys("TEST-1") : 400;
+        }, requests));
+
+        Map<IssueKey, List<YaccError>> results = jiraService.checkIssues(Lists.newArrayList(
+                new IssueKey("TEST-1"), new IssueKey("TEST-2")), null, PushDeadline.none());
+
+        assertThat(results.get(new IssueKey("TEST-1"))).isEmpty();
+        assertThat(results.get(new IssueKey("TEST-2"))).containsExactly(
+                new YaccError(YaccError.Type.ISSUE_JQL, "TEST-2: JIRA Issue does not exist"));
+        assertThat(requests).hasSize(3);
+    }
+
+    @Test
+    public void testCheckIssues_movedIssueSearchedOnItsOwn() {
+        // TEST-1 was moved to project OTHER, searching for the old key returns the new one
+        JiraServiceImpl jiraService = setupTest(MockApplicationLink.requestAnswers(
+                request -> request.contains("TEST-1") ? jiraResponseWithKeys("OTHER-5") : jiraResponse(0),
+                new ArrayList<>()));
+
+        Map<IssueKey, List<YaccError>> results = jiraService.checkIssues(Lists.newArrayList(
+                new IssueKey("TEST-1"), new IssueKey("TEST-2")), null, PushDeadline.none());
+
+        assertThat(results.get(new IssueKey("TEST-1"))).isEmpty();
+        assertThat(results.get(new IssueKey("TEST-2"))).isNotEmpty();
+    }
+
     @Test
     public void testDoesProjectExit_returnsTrueIfJiraReturnsNoSearchResults() {
         JiraServiceImpl jiraService = setupTest(
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(0)));
 
-        assertThat(jiraService.doesProjectExist(new IssueKey("TEST", "1")))
+        assertThat(jiraService.doesProjectExist(new IssueKey("TEST", "1"), PushDeadline.none()))
                 .isTrue();
     }
 
@@ -199,7 +452,7 @@ public class JiraServiceImplTest {
         JiraServiceImpl jiraService = setupTest(
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(1)));
 
-        assertThat(jiraService.doesProjectExist(new IssueKey("TEST", "1")))
+        assertThat(jiraService.doesProjectExist(new IssueKey("TEST", "1"), PushDeadline.none()))
                 .isTrue();
     }
 
@@ -208,10 +461,79 @@ public class JiraServiceImplTest {
         JiraServiceImpl jiraService = setupTest(
                 MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", 400));
 
-        assertThat(jiraService.doesProjectExist(new IssueKey("TEST", "1")))
+        assertThat(jiraService.doesProjectExist(new IssueKey("TEST", "1"), PushDeadline.none()))
                 .isFalse();
     }
 
+    @Test
+    public void testDoesProjectExist_verdictRememberedPerLink() {
+        List<String> jira1Requests = new ArrayList<>();
+        List<String> jira2Requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(
+                MockApplicationLink.requestAnswers(request -> 400, jira1Requests),
+                MockApplicationLink.requestAnswers(request -> request.contains("'TEST'") ? jiraResponse(0) : 400,
+                        jira2Requests));
+
+        assertThat(jiraService.doesProjectExist(new IssueKey("TEST", "1"), PushDeadline.none())).isTrue();
+        assertThat(jiraService.doesProjectExist(new IssueKey("TEST", "2"), PushDeadline.none())).isTrue();
+        assertThat(jiraService.doesProjectExist(new IssueKey("UTF", "8"), PushDeadline.none())).isFalse();
+        assertThat(jiraService.doesProjectExist(new IssueKey("UTF", "16"), PushDeadline.none())).isFalse();
+
+        assertThat(jira1Requests).hasSize(2);
+        assertThat(jira2Requests).hasSize(2);
+    }
+
+    @Test
+    public void testDoesProjectExist_errorIsNotRemembered() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(NO_RETRIES,
+                MockApplicationLink.requestAnswers(request -> 500, requests));
+
+        assertThat(jiraService.doesProjectExist(new IssueKey("TEST", "1"), PushDeadline.none())).isTrue();
+        assertThat(jiraService.doesProjectExist(new IssueKey("TEST", "1"), PushDeadline.none())).isTrue();
+
+        assertThat(requests).hasSize(2);
+    }
+
+    @Test
+    public void testDoesIssueExist_foundIssueIsRemembered() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(MockApplicationLink.requestAnswers(request -> jiraResponse(1), requests));
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).isEmpty();
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).isEmpty();
+
+        assertThat(requests).hasSize(1);
+    }
+
+    @Test
+    public void testDoesIssueExist_missingIssueIsNotRemembered() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(MockApplicationLink.requestAnswers(request -> jiraResponse(0), requests));
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).isNotEmpty();
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).isNotEmpty();
+
+        assertThat(requests).hasSize(2);
+    }
+
+    @Test
+    public void testCheckIssues_knownIssuesAreNotSearchedFor() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(MockApplicationLink.requestAnswers(
+                request -> request.contains("issueKey in") ? jiraResponseWithKeys("TEST-2") : jiraResponse(1),
+                requests));
+
+        jiraService.doesIssueExist(new IssueKey("TEST", "1"), PushDeadline.none());
+        Map<IssueKey, List<YaccError>> results = jiraService.checkIssues(Lists.newArrayList(
+                new IssueKey("TEST-1"), new IssueKey("TEST-2")), null, PushDeadline.none());
+
+        assertThat(results.get(new IssueKey("TEST-1"))).isEmpty();
+        assertThat(results.get(new IssueKey("TEST-2"))).isEmpty();
+        assertThat(requests).hasSize(2);
+        assertThat(requests.get(1)).contains("issueKey in ('TEST-2')");
+    }
+
     @Test
     public void testCheckJqlQuery_returnsEmptyListIfQueryIsValid() {
         JiraServiceImpl jiraService = setupTest(
@@ -251,6 +573,295 @@ public class JiraServiceImplTest {
                         "jira1: JQL Query is invalid.");
     }
 
+    @Test
+    public void testCircuitBreaker_requestsSkippedWhileOpen() {
+        JiraServiceImpl jiraService = setupTest(breakerConfig(false),
+                MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", 500).setName("jira1"));
+
+        jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none());
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).containsExactly(
+                new YaccError(YaccError.Type.OTHER, "jira1: JIRA is not responding, request was not sent. Try again later."));
+
+        JiraCircuitBreaker breaker = jiraService.getCircuitBreakers().iterator().next();
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.OPEN);
+        assertThat(breaker.getFailures()).isEqualTo(1);
+        assertThat(breaker.getRejectedCalls()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCircuitBreaker_failOpenSkipsCheckWhileOpen() {
+        JiraServiceImpl jiraService = setupTest(breakerConfig(true),
+                MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", 500).setName("jira1"));
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).isNotEmpty();
+
+        List<YaccError> skipped = jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none());
+        assertThat(skipped).isEmpty();
+        assertThat(JiraService.isUnverified(skipped)).isTrue();
+    }
+
+    @Test
+    public void testCircuitBreaker_failOpenBatchIsUnverified() {
+        JiraServiceImpl jiraService = setupTest(breakerConfig(true),
+                MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", 500).setName("jira1"));
+
+        jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none());
+
+        Map<IssueKey, List<YaccError>> results = jiraService.checkIssues(
+                Lists.newArrayList(new IssueKey("TEST", "1")), "status = Open", PushDeadline.none());
+
+        assertThat(JiraService.isUnverified(results.get(new IssueKey("TEST", "1")))).isTrue();
+    }
+
+    @Test
+    public void testCircuitBreaker_passConfirmedByOtherLinkIsVerified() {
+        JiraServiceImpl jiraService = setupTest(breakerConfig(true),
+                MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", 500).setName("jira1"),
+                MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(1)).setName("jira2"));
+
+        jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none());
+
+        List<YaccError> errors = jiraService.doesIssueExist(new IssueKey("TEST", "456"), PushDeadline.none());
+        assertThat(errors).isEmpty();
+        assertThat(JiraService.isUnverified(errors)).isFalse();
+    }
+
+    @Test
+    public void testCircuitBreaker_invalidJqlDoesNotTripBreaker() {
+        JiraServiceImpl jiraService = setupTest(breakerConfig(false),
+                MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", 400));
+
+        jiraService.checkJqlQuery("query");
+        jiraService.checkJqlQuery("query");
+
+        JiraCircuitBreaker breaker = jiraService.getCircuitBreakers().iterator().next();
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.CLOSED);
+        assertThat(breaker.getCalls()).isEqualTo(2);
+    }
+
+    @Test
+    public void testCircuitBreaker_otherLinksStillQueriedWhileOneIsOpen() {
+        JiraServiceImpl jiraService = setupTest(breakerConfig(false),
+                MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", 500).setName("jira1"),
+                MockApplicationLink.requestReturnsResponse(Request.MethodType.POST, "/rest/api/2/search", jiraResponse(1)).setName("jira2"));
+
+        jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none());
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).isEmpty();
+    }
+
+    @Test
+    public void testRetry_serverErrorRetried() {
+        List<String> requests = new ArrayList<>();
+        AtomicInteger calls = new AtomicInteger();
+        JiraServiceImpl jiraService = setupTest(new RetryConfig(3, 1, 1, false, 0),
+                MockApplicationLink.requestAnswers(request -> calls.incrementAndGet() == 1 ? 502 : jiraResponse(1),
+                        requests));
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).isEmpty();
+
+        assertThat(requests).hasSize(2);
+        assertThat(jiraService.getRetryCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRetry_givesUpAfterMaxAttempts() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(new RetryConfig(3, 1, 1, false, 0),
+                MockApplicationLink.requestAnswers(request -> 503, requests).setName("jira1"));
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).hasSize(1);
+
+        assertThat(requests).hasSize(3);
+        assertThat(jiraService.getRetryCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRetry_clientErrorNotRetried() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(new RetryConfig(3, 1, 1, false, 0),
+                MockApplicationLink.requestAnswers(request -> 400, requests));
+
+        jiraService.checkJqlQuery("query");
+
+        assertThat(requests).hasSize(1);
+    }
+
+    @Test
+    public void testRetry_notRetriedWhenDeadlineTooClose() {
+        List<String> requests = new ArrayList<>();
+        JiraServiceImpl jiraService = setupTest(new RetryConfig(3, 60000, 60000, false, 0),
+                MockApplicationLink.requestAnswers(request -> 502, requests));
+
+        jiraService.doesIssueExist(new IssueKey("TEST", "123"), new PushDeadline(30000, Ticker.systemTicker()));
+
+        assertThat(requests).hasSize(1);
+    }
+
+    @Test
+    public void testHedge_slowSearchSentAgain() {
+        List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean slow = new AtomicBoolean();
+        JiraServiceImpl jiraService = setupTest(new RetryConfig(1, 1, 1, true, 50),
+                MockApplicationLink.requestAnswers(request -> {
+                    if (slow.getAndSet(false)) {
+                        sleep(5000);
+                    }
+                    return jiraResponse(1);
+                }, requests));
+
+        jiraService.onStart();
+        try {
+            // Enough fast searches to know how long searches normally take
+            for (int i = 0; i < 20; i++) {
+                jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none());
+            }
+            requests.clear();
+            slow.set(true);
+
+            long start = System.nanoTime();
+            assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).isEmpty();
+
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5000);
+            assertThat(requests).hasSize(2);
+            assertThat(jiraService.getHedgeCount()).isEqualTo(1);
+        } finally {
+            jiraService.onStop();
+        }
+    }
+
+    @Test
+    public void testHedge_notSentOnceStopped() {
+        List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean slow = new AtomicBoolean();
+        JiraServiceImpl jiraService = setupTest(new RetryConfig(1, 1, 1, true, 50),
+                MockApplicationLink.requestAnswers(request -> {
+                    if (slow.getAndSet(false)) {
+                        sleep(200);
+                    }
+                    return jiraResponse(1);
+                }, requests));
+
+        jiraService.onStart();
+        for (int i = 0; i < 20; i++) {
+            jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none());
+        }
+        jiraService.onStop();
+        requests.clear();
+        slow.set(true);
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).isEmpty();
+
+        assertThat(requests).hasSize(1);
+        assertThat(jiraService.getHedgeCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testHedge_permitsOfHedgeCancelledBeforeItStartedReleased() {
+        List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean slow = new AtomicBoolean();
+        // Once the slow search is being sent, the pool has no thread to start the hedge on
+        AtomicBoolean poolBusy = new AtomicBoolean();
+        List<Runnable> notStarted = Collections.synchronizedList(new ArrayList<>());
+        JiraServiceImpl jiraService = new JiraServiceImpl(new MockApplicationLinkService(
+                MockApplicationLink.requestAnswers(request -> {
+                    if (slow.getAndSet(false)) {
+                        poolBusy.set(true);
+                        sleep(300);
+                    }
+                    return jiraResponse(1);
+                }, requests)),
+                CircuitBreakerConfig.fromSystemProperties(), RequestLimiterConfig.fromSystemProperties(),
+                new RetryConfig(1, 1, 1, true, 50), Ticker.systemTicker(),
+                new JiraLookupCache(0, 0, 0, Clock.systemUTC()), new JiraIssueIndex(false, 50, Clock.systemUTC())) {
+            @Override
+            protected ExecutorService createHedgeExecutor() {
+                return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()) {
+                    @Override
+                    public void execute(Runnable task) {
+                        if (poolBusy.get()) {
+                            notStarted.add(task);
+                        } else {
+                            super.execute(task);
+                        }
+                    }
+                };
+            }
+        };
+
+        jiraService.onStart();
+        try {
+            for (int i = 0; i < 20; i++) {
+                jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none());
+            }
+            requests.clear();
+            slow.set(true);
+
+            assertThat(jiraService.doesIssueExist(new IssueKey("TEST", "123"), PushDeadline.none())).isEmpty();
+
+            assertThat(jiraService.getHedgeCount()).isEqualTo(1);
+            assertThat(notStarted).hasSize(1);
+            assertThat(jiraService.getRequestLimiters().iterator().next().getInFlight()).isEqualTo(0);
+
+            // A thread that frees up later finds the hedge cancelled
+            notStarted.get(0).run();
+            assertThat(requests).hasSize(1);
+            assertThat(jiraService.getRequestLimiters().iterator().next().getInFlight()).isEqualTo(0);
+        } finally {
+            jiraService.onStop();
+        }
+    }
+
+    @Test
+    public void testDoesIssueExist_issueIndexAnswersForSyncedProject() {
+        List<String> requests = new ArrayList<>();
+        FakeJira jira = new FakeJira().addIssue("TEST-1", "done").addIssue("TEST-2", "new");
+        JiraServiceImpl jiraService = setupTestWithIndex(MockApplicationLink.requestAnswers(jira, requests));
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST-1"), PushDeadline.none())).isEmpty();
+        jiraService.syncIssueIndex();
+        requests.clear();
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST-2"), PushDeadline.none())).isEmpty();
+        assertThat(jiraService.checkIssues(Lists.newArrayList(new IssueKey("TEST-1"), new IssueKey("TEST-2")),
+                null, PushDeadline.none()).get(new IssueKey("TEST-1"))).isEmpty();
+        assertThat(requests).isEmpty();
+    }
+
+    @Test
+    public void testDoesIssueExist_issuesMissingFromIndexSearchedInJira() {
+        List<String> requests = new ArrayList<>();
+        FakeJira jira = new FakeJira().addIssue("TEST-1", "done");
+        JiraServiceImpl jiraService = setupTestWithIndex(MockApplicationLink.requestAnswers(jira, requests));
+
+        jiraService.doesIssueExist(new IssueKey("TEST-1"), PushDeadline.none());
+        jiraService.syncIssueIndex();
+        requests.clear();
+
+        assertThat(jiraService.doesIssueExist(new IssueKey("TEST-9"), PushDeadline.none()))
+                .containsExactly(new YaccError(YaccError.Type.ISSUE_JQL, "TEST-9: JIRA Issue does not exist"));
+        assertThat(requests).hasSize(1);
+    }
+
+    @Test
+    public void testSyncIssueIndex_rejectedQueryResetsIndex() {
+        List<String> requests = new ArrayList<>();
+        FakeJira jira = new FakeJira().addIssue("TEST-1", "done").addIssue("TEST-2", "new");
+        JiraIssueIndex index = new JiraIssueIndex(true, 50, Clock.systemUTC());
+        MockApplicationLink link = MockApplicationLink.requestAnswers(jira, requests);
+        JiraServiceImpl jiraService = setupTestWithIndex(index, link);
+
+        jiraService.doesIssueExist(new IssueKey("TEST-1"), PushDeadline.none());
+        jiraService.syncIssueIndex();
+        assertThat(index.size(link.getId().get())).isEqualTo(2);
+
+        // The project was deleted
+        jira.removeIssue("TEST-1").removeIssue("TEST-2");
+        jiraService.syncIssueIndex();
+
+        assertThat(index.size(link.getId().get())).isEqualTo(0);
+    }
 
     private String jiraResponse(int searchResults) {
         List<String> results = new ArrayList<>();
@@ -265,8 +876,63 @@ public class JiraServiceImplTest {
         return new Gson().toJson(response);
     }
 
+    private String jiraResponseWithKeys(String... keys) {
+        List<Map<String, Object>> issues = new ArrayList<>();
+
+        for (String key : keys) {
+            Map<String, Object> issue = new HashMap<>();
+            issue.put("key", key);
+            issues.add(issue);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("issues", issues);
+
+        return new Gson().toJson(response);
+    }
+
+    private CircuitBreakerConfig breakerConfig(boolean failOpen) {
+        return new CircuitBreakerConfig(true, 10, 1, 50, 60000, 60000, failOpen, 1000, 10000);
+    }
+
     private JiraServiceImpl setupTest(ApplicationLink... links) {
         ApplicationLinkService linkService = new MockApplicationLinkService(links);
         return new JiraServiceImpl(linkService);
     }
+
+    private JiraServiceImpl setupTestWithIndex(ApplicationLink... links) {
+        return setupTestWithIndex(new JiraIssueIndex(true, 50, Clock.systemUTC()), links);
+    }
+
+    private JiraServiceImpl setupTestWithIndex(JiraIssueIndex index, ApplicationLink... links) {
+        ApplicationLinkService linkService = new MockApplicationLinkService(links);
+        // Without lookups served from the cache, so only the index answers without asking JIRA
+        return new JiraServiceImpl(linkService, CircuitBreakerConfig.fromSystemProperties(), Ticker.systemTicker(),
+                new JiraLookupCache(0, 0, 0, Clock.systemUTC()), index);
+    }
+
+    private JiraServiceImpl setupTest(CircuitBreakerConfig config, ApplicationLink... links) {
+        return setupTest(config, NO_RETRIES, links);
+    }
+
+    private JiraServiceImpl setupTest(RetryConfig retryConfig, ApplicationLink... links) {
+        return setupTest(CircuitBreakerConfig.fromSystemProperties(), retryConfig, links);
+    }
+
+    private JiraServiceImpl setupTest(CircuitBreakerConfig config, RetryConfig retryConfig,
+                                      ApplicationLink... links) {
+        ApplicationLinkService linkService = new MockApplicationLinkService(links);
+        // Without lookups served from the cache, so every check reaches the breaker
+        return new JiraServiceImpl(linkService, config, RequestLimiterConfig.fromSystemProperties(), retryConfig,
+                Ticker.systemTicker(), new JiraLookupCache(0, 0, 0, Clock.systemUTC()),
+                new JiraIssueIndex(false, 50, Clock.systemUTC()));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -0,0 +1,64 @@
+package ut.com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.setting.Settings;
+import com.isroot.stash.plugin.LargePushPolicy;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class LargePushPolicyTest {
+    @Mock private Settings settings;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void testFromSettings_noCeiling() {
+        LargePushPolicy policy = LargePushPolicy.fromSettings(settings);
+
+        assertThat(policy.isExceeded(Long.MAX_VALUE)).isFalse();
+    }
+
+    @Test
+    public void testFromSettings_defaultActionIsReject() {
+        when(settings.getString("maxCommits")).thenReturn("100");
+
+        LargePushPolicy policy = LargePushPolicy.fromSettings(settings);
+
+        assertThat(policy.getMaxCommits()).isEqualTo(100);
+        assertThat(policy.getAction()).isEqualTo(LargePushPolicy.Action.REJECT);
+        assertThat(policy.isExceeded(100)).isFalse();
+        assertThat(policy.isExceeded(101)).isTrue();
+    }
+
+    @Test
+    public void testFromSettings_action() {
+        when(settings.getString("maxCommits")).thenReturn("100");
+        when(settings.getString("maxCommitsAction")).thenReturn("sample");
+
+        assertThat(LargePushPolicy.fromSettings(settings).getAction()).isEqualTo(LargePushPolicy.Action.SAMPLE);
+    }
+
+    @Test
+    public void testFromSettings_invalidValuesIgnored() {
+        when(settings.getString("maxCommits")).thenReturn("lots");
+        when(settings.getString("maxCommitsAction")).thenReturn("explode");
+
+        assertThat(LargePushPolicy.fromSettings(settings).isExceeded(Long.MAX_VALUE)).isFalse();
+    }
+
+    @Test
+    public void testGetSampleStride() {
+        LargePushPolicy policy = new LargePushPolicy(100, LargePushPolicy.Action.SAMPLE);
+
+        assertThat(policy.getSampleStride(101)).isEqualTo(2);
+        assertThat(policy.getSampleStride(200)).isEqualTo(2);
+        assertThat(policy.getSampleStride(100000)).isEqualTo(1000);
+    }
+}
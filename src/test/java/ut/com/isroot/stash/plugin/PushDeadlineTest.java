@@ -0,0 +1,117 @@
+package ut.com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.setting.Settings;
+import com.google.common.base.Ticker;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.PushDeadlineExceededException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class PushDeadlineTest {
+    @Mock private Settings settings;
+
+    private FakeTicker ticker;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+
+        ticker = new FakeTicker();
+    }
+
+    @Test
+    public void testNone_neverExpires() {
+        PushDeadline deadline = PushDeadline.none();
+
+        assertThat(deadline.isBounded()).isFalse();
+        assertThat(deadline.isExpired()).isFalse();
+        assertThat(deadline.getRemainingMillis()).isEqualTo(Long.MAX_VALUE);
+
+        deadline.check();
+    }
+
+    @Test
+    public void testIsExpired_falseBeforeTimeout() {
+        PushDeadline deadline = new PushDeadline(1000, ticker);
+
+        ticker.advance(999);
+
+        assertThat(deadline.isExpired()).isFalse();
+        assertThat(deadline.getRemainingMillis()).isEqualTo(1);
+    }
+
+    @Test
+    public void testIsExpired_trueAfterTimeout() {
+        PushDeadline deadline = new PushDeadline(1000, ticker);
+
+        ticker.advance(1000);
+
+        assertThat(deadline.isExpired()).isTrue();
+        assertThat(deadline.getRemainingMillis()).isEqualTo(0);
+        assertThat(deadline.getRemaining().toMillis()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetRemainingSeconds_roundedUp() {
+        PushDeadline deadline = new PushDeadline(2500, ticker);
+
+        assertThat(deadline.getRemainingSeconds()).isEqualTo(3);
+
+        ticker.advance(500);
+        assertThat(deadline.getRemainingSeconds()).isEqualTo(2);
+
+        ticker.advance(2000);
+        assertThat(deadline.getRemainingSeconds()).isEqualTo(1);
+    }
+
+    @Test(expected = PushDeadlineExceededException.class)
+    public void testCheck_throwsIfExpired() {
+        PushDeadline deadline = new PushDeadline(1000, ticker);
+
+        ticker.advance(1001);
+
+        deadline.check();
+    }
+
+    @Test
+    public void testFromSettings_timeoutIsReadFromSettings() {
+        when(settings.getString("pushTimeoutSeconds")).thenReturn("30");
+
+        PushDeadline deadline = PushDeadline.fromSettings(settings);
+
+        assertThat(deadline.isBounded()).isTrue();
+        assertThat(deadline.getTimeoutMillis()).isEqualTo(30000);
+    }
+
+    @Test
+    public void testFromSettings_missingSettingMeansNoTimeout() {
+        assertThat(PushDeadline.fromSettings(settings).isBounded()).isFalse();
+    }
+
+    @Test
+    public void testFromSettings_invalidSettingMeansNoTimeout() {
+        when(settings.getString("pushTimeoutSeconds")).thenReturn("abc");
+
+        assertThat(PushDeadline.fromSettings(settings).isBounded()).isFalse();
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
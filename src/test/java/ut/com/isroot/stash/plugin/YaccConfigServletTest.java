@@ -8,11 +8,15 @@ import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 import com.atlassian.sal.testresources.pluginsettings.MockPluginSettings;
 import com.atlassian.soy.renderer.SoyException;
 import com.atlassian.soy.renderer.SoyTemplateRenderer;
+import com.isroot.stash.plugin.GlobalSettingsCache;
 import com.isroot.stash.plugin.JiraService;
 import com.isroot.stash.plugin.YaccConfigServlet;
+import com.isroot.stash.plugin.simulation.PolicySimulator;
+import com.isroot.stash.plugin.simulation.SimulationResult;
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import ut.com.isroot.stash.plugin.mock.MockSettingsBuilder;
@@ -39,6 +43,9 @@ public class YaccConfigServletTest {
     @Mock private NavBuilder navBuilder;
     @Mock private NavBuilder.Addons addons;
     @Mock private Settings settings;
+    @Mock private GlobalSettingsCache globalSettingsCache;
+    @Mock private PolicySimulator policySimulator;
+    @Mock private SimulationResult simulationResult;
 
     @Mock private HttpServletRequest request;
     @Mock private HttpServletResponse response;
@@ -87,9 +94,8 @@ public class YaccConfigServletTest {
         parameterMap.put("requireMatchingAuthorEmail", new String[]{"true"});
         parameterMap.put("requireMatchingAuthorName", new String[]{"true"});
         parameterMap.put("branchNameRegex", new String[]{"master"});
-        when(request.getParameterMap()).thenReturn(parameterMap);
-        when(request.getParameter(anyString())).then(invocationOnMock ->
-                parameterMap.get(invocationOnMock.getArguments()[0].toString())[0]);
+        parameterMap.put("simulationCommitsPerPush", new String[]{"20"});
+        stubParameters(parameterMap);
 
         yaccConfigServlet.doGet(request, response); // calling doGet to populate the settings map
         yaccConfigServlet.doPost(request, response);
@@ -106,4 +112,57 @@ public class YaccConfigServletTest {
                 .containsEntry("branchNameRegex", "master");
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDoPostSimulate_settingsNotSaved() throws IOException, ServletException, SoyException {
+        yaccConfigServlet = new YaccConfigServlet(soyTemplateRenderer, pluginSettingsFactory, jiraService,
+                repositoryHookService, navBuilder, globalSettingsCache, policySimulator);
+        Map<String, String[]> parameterMap = new HashMap<>();
+        parameterMap.put("branchNameRegex", new String[]{"master"});
+        parameterMap.put("simulate", new String[]{"Simulate"});
+        stubParameters(parameterMap);
+        when(policySimulator.simulateSample(any(Settings.class), anyInt(), anyInt(), anyInt(), anyLong()))
+                .thenReturn(simulationResult);
+        when(simulationResult.getCostNote()).thenReturn("not the costs of real pushes");
+
+        yaccConfigServlet.doGet(request, response);
+        yaccConfigServlet.doPost(request, response);
+
+        verify(policySimulator).simulateSample(any(Settings.class), eq(10), eq(100), eq(5), eq(10000L));
+        verify(response, never()).sendRedirect(anyString());
+        verify(globalSettingsCache, never()).settingsSaved();
+        Assertions.assertThat(pluginSettings.get(YaccConfigServlet.SETTINGS_MAP)).isNull();
+        ArgumentCaptor<Map> data = ArgumentCaptor.forClass(Map.class);
+        verify(soyTemplateRenderer, times(2)).render(any(), anyString(), anyString(), data.capture());
+        Assertions.assertThat((Map<String, Object>) data.getValue()).containsKey("simulation");
+    }
+
+    @Test
+    public void testDoPostSimulate_commitsAndPushSizeTakenFromForm() throws IOException, ServletException {
+        yaccConfigServlet = new YaccConfigServlet(soyTemplateRenderer, pluginSettingsFactory, jiraService,
+                repositoryHookService, navBuilder, globalSettingsCache, policySimulator);
+        Map<String, String[]> parameterMap = new HashMap<>();
+        parameterMap.put("branchNameRegex", new String[]{"master"});
+        parameterMap.put("simulationCommits", new String[]{"50"});
+        parameterMap.put("simulationCommitsPerPush", new String[]{"20"});
+        parameterMap.put("simulate", new String[]{"Simulate"});
+        stubParameters(parameterMap);
+        when(policySimulator.simulateSample(any(Settings.class), anyInt(), anyInt(), anyInt(), anyLong()))
+                .thenReturn(simulationResult);
+        when(simulationResult.getCostNote()).thenReturn("not the costs of real pushes");
+
+        yaccConfigServlet.doGet(request, response);
+        yaccConfigServlet.doPost(request, response);
+
+        verify(policySimulator).simulateSample(any(Settings.class), eq(10), eq(50), eq(20), anyLong());
+    }
+
+    private void stubParameters(Map<String, String[]> parameterMap) {
+        when(request.getParameterMap()).thenReturn(parameterMap);
+        when(request.getParameter(anyString())).then(invocationOnMock -> {
+            String[] values = parameterMap.get(invocationOnMock.getArguments()[0].toString());
+            return values == null ? null : values[0];
+        });
+    }
+
 }
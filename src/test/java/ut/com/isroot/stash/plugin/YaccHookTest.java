@@ -7,12 +7,16 @@ import com.atlassian.bitbucket.repository.RefChangeType;
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.setting.Settings;
 import com.google.common.collect.Lists;
+import com.isroot.stash.plugin.CommitterVerdicts;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.PushDeadlineExceededException;
 import com.isroot.stash.plugin.YaccHook;
 import com.isroot.stash.plugin.YaccService;
 import com.isroot.stash.plugin.errors.YaccError;
 import com.isroot.stash.plugin.errors.YaccErrorBuilder;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import ut.com.isroot.stash.plugin.mock.MockRefChange;
@@ -75,7 +79,7 @@ public class YaccHookTest {
 
     @Test
     public void testOnReceive_pushRejectedIfThereAreErrors() {
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error with commit")));
 
         boolean allowed = yaccHook.onReceive(repositoryHookContext, Lists.newArrayList(new MockRefChange()),
@@ -85,7 +89,7 @@ public class YaccHookTest {
 
     @Test
     public void testOnReceive_errorsArePrintedToHookStdErr() {
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error1"), new YaccError("error2")));
 
         yaccHook.onReceive(repositoryHookContext, getMockRefChanges(), hookResponse);
@@ -101,7 +105,7 @@ public class YaccHookTest {
 
     @Test
     public void testOnReceive_defaultHeaderDisplayedIfErrorMessageHeaderIsEmpty() {
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error1")));
 
         when(settings.getString("errorMessageHeader")).thenReturn("");
@@ -113,7 +117,7 @@ public class YaccHookTest {
 
     @Test
     public void testOnReceive_nonEmptyErrorMessageHeaderReplacesDefaultHeader() {
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error1")));
 
         when(settings.getString("errorMessageHeader")).thenReturn("Custom Header");
@@ -127,7 +131,7 @@ public class YaccHookTest {
 
     @Test
     public void testOnReceive_errorMessageFooterAddedToEndOfOutput() {
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error1")));
 
         when(settings.getString("errorMessageFooter")).thenReturn("Custom Footer");
@@ -139,7 +143,7 @@ public class YaccHookTest {
 
     @Test
     public void testOnReceive_gitNotesAreIgnored() {
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error1")));
 
         List<RefChange> refChanges = Lists.newArrayList(new MockRefChange("refs/notes/commits"));
@@ -148,6 +152,63 @@ public class YaccHookTest {
         assertThat(isAllowed).isTrue();
     }
 
+    @Test
+    public void testOnReceive_pushRejectedIfChecksTimeOut() {
+        when(settings.getString("pushTimeoutSeconds")).thenReturn("5");
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
+                .thenThrow(new PushDeadlineExceededException(PushDeadline.none()));
+
+        boolean allowed = yaccHook.onReceive(repositoryHookContext, getMockRefChanges(), hookResponse);
+
+        assertThat(allowed).isFalse();
+        assertThat(errorMessage.toString())
+                .contains("Commit checks did not complete within 5 seconds");
+    }
+
+    @Test
+    public void testOnReceive_pushAllowedIfChecksTimeOutAndAllowPushOnTimeoutIsEnabled() {
+        StringWriter out = new StringWriter();
+        when(hookResponse.out()).thenReturn(new PrintWriter(out));
+        when(settings.getString("pushTimeoutSeconds")).thenReturn("5");
+        when(settings.getBoolean("allowPushOnTimeout", false)).thenReturn(true);
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
+                .thenThrow(new PushDeadlineExceededException(PushDeadline.none()));
+
+        boolean allowed = yaccHook.onReceive(repositoryHookContext, getMockRefChanges(), hookResponse);
+
+        assertThat(allowed).isTrue();
+        assertThat(errorMessage.toString()).isEmpty();
+        assertThat(out.toString()).contains("did not complete within 5 seconds");
+    }
+
+    @Test
+    public void testOnReceive_errorsFoundBeforeTimeoutStillRejectPush() {
+        when(hookResponse.out()).thenReturn(new PrintWriter(new StringWriter()));
+        when(settings.getString("pushTimeoutSeconds")).thenReturn("5");
+        when(settings.getBoolean("allowPushOnTimeout", false)).thenReturn(true);
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
+                .thenReturn(Lists.newArrayList(new YaccError("error1")))
+                .thenThrow(new PushDeadlineExceededException(PushDeadline.none()));
+
+        List<RefChange> refChanges = Lists.newArrayList(new MockRefChange(), new MockRefChange("refs/heads/other"));
+        boolean allowed = yaccHook.onReceive(repositoryHookContext, refChanges, hookResponse);
+
+        assertThat(allowed).isFalse();
+        assertThat(errorMessage.toString()).contains("refs/heads/master: error1");
+    }
+
+    @Test
+    public void testOnReceive_committerVerdictsSharedByRefChangesOfPush() {
+        List<RefChange> refChanges = Lists.newArrayList(new MockRefChange(), new MockRefChange("refs/heads/other"));
+
+        yaccHook.onReceive(repositoryHookContext, refChanges, hookResponse);
+
+        ArgumentCaptor<CommitterVerdicts> committerVerdicts = ArgumentCaptor.forClass(CommitterVerdicts.class);
+        verify(yaccService, times(2)).checkRefChange(any(Repository.class), any(Settings.class),
+                any(RefChange.class), any(PushDeadline.class), committerVerdicts.capture());
+        assertThat(committerVerdicts.getAllValues().get(0)).isSameAs(committerVerdicts.getAllValues().get(1));
+    }
+
     private List<RefChange> getMockRefChanges() {
         List<RefChange> refChanges = new ArrayList<>();
         refChanges.add(new MockRefChange());
@@ -0,0 +1,142 @@
+package ut.com.isroot.stash.plugin;
+
+import com.atlassian.bitbucket.pull.PullRequest;
+import com.atlassian.bitbucket.pull.PullRequestParticipant;
+import com.atlassian.bitbucket.pull.PullRequestRef;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scm.pull.MergeRequest;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.EscalatedSecurityContext;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.user.SimplePerson;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.google.common.collect.Lists;
+import com.isroot.stash.plugin.HookSettingsResolver;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.PushDeadlineExceededException;
+import com.isroot.stash.plugin.YaccCommit;
+import com.isroot.stash.plugin.YaccMergeCheck;
+import com.isroot.stash.plugin.YaccService;
+import com.isroot.stash.plugin.commits.PullRequestCommitCache;
+import com.isroot.stash.plugin.errors.YaccError;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class YaccMergeCheckTest {
+    @Mock private YaccService yaccService;
+    @Mock private HookSettingsResolver settingsResolver;
+    @Mock private SecurityService securityService;
+    @Mock private EscalatedSecurityContext impersonating;
+    @Mock private PullRequestCommitCache commitCache;
+    @Mock private MergeRequest mergeRequest;
+    @Mock private PullRequest pullRequest;
+    @Mock private PullRequestRef fromRef;
+    @Mock private PullRequestRef toRef;
+    @Mock private PullRequestParticipant author;
+    @Mock private ApplicationUser authorUser;
+    @Mock private Repository repository;
+    @Mock private Settings settings;
+
+    private List<YaccCommit> commits;
+    private YaccMergeCheck mergeCheck;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+
+        when(mergeRequest.getPullRequest()).thenReturn(pullRequest);
+        when(pullRequest.getFromRef()).thenReturn(fromRef);
+        when(pullRequest.getToRef()).thenReturn(toRef);
+        when(pullRequest.getAuthor()).thenReturn(author);
+        when(author.getUser()).thenReturn(authorUser);
+        when(fromRef.getLatestCommit()).thenReturn("source");
+        when(toRef.getLatestCommit()).thenReturn("target");
+        when(toRef.getId()).thenReturn("refs/heads/master");
+        when(toRef.getRepository()).thenReturn(repository);
+
+        when(settingsResolver.getSettings(repository)).thenReturn(settings);
+        when(settings.getBoolean("checkPullRequests", false)).thenReturn(true);
+
+        when(securityService.impersonating(eq(authorUser), anyString())).thenReturn(impersonating);
+        when(impersonating.call(any(UncheckedOperation.class))).thenAnswer(invocation ->
+                ((UncheckedOperation<Object>) invocation.getArguments()[0]).perform());
+
+        commits = Lists.newArrayList(new YaccCommit("c1", new SimplePerson("John Smith", "jsmith@example.com"),
+                "no issue key", false));
+        when(commitCache.getCommits(eq(repository), eq("target"), eq("source"), anyInt(), any(PushDeadline.class)))
+                .thenReturn(commits);
+
+        mergeCheck = new YaccMergeCheck(yaccService, settingsResolver, securityService, commitCache, 1000, 0);
+    }
+
+    @Test
+    public void testCheck_failingCommitsVetoMerge() {
+        when(yaccService.checkPullRequestCommits(eq(repository), eq(settings), eq("refs/heads/master"),
+                eq(commits), any(PushDeadline.class)))
+                .thenReturn(Lists.newArrayList(new YaccError("c1: commit message doesn't match regex")));
+
+        mergeCheck.check(mergeRequest);
+
+        verify(securityService).impersonating(eq(authorUser), anyString());
+        verify(mergeRequest).veto(eq("Commits do not pass the commit checker"),
+                contains("c1: commit message doesn't match regex"));
+    }
+
+    @Test
+    public void testCheck_passingCommitsAllowMerge() {
+        when(yaccService.checkPullRequestCommits(eq(repository), eq(settings), anyString(),
+                anyListOf(YaccCommit.class), any(PushDeadline.class))).thenReturn(Lists.newArrayList());
+
+        mergeCheck.check(mergeRequest);
+
+        verify(mergeRequest, never()).veto(anyString(), anyString());
+    }
+
+    @Test
+    public void testCheck_notCheckedUnlessEnabled() {
+        when(settings.getBoolean("checkPullRequests", false)).thenReturn(false);
+
+        mergeCheck.check(mergeRequest);
+
+        verifyZeroInteractions(yaccService, commitCache);
+        verify(mergeRequest, never()).veto(anyString(), anyString());
+    }
+
+    @Test
+    public void testCheck_timeoutVetoesMerge() {
+        when(yaccService.checkPullRequestCommits(eq(repository), eq(settings), anyString(),
+                anyListOf(YaccCommit.class), any(PushDeadline.class)))
+                .thenThrow(new PushDeadlineExceededException(PushDeadline.none()));
+
+        mergeCheck.check(mergeRequest);
+
+        verify(mergeRequest).veto(eq("Commits do not pass the commit checker"), anyString());
+    }
+
+    @Test
+    public void testCheck_unexpectedFailureAllowsMerge() {
+        when(commitCache.getCommits(eq(repository), anyString(), anyString(), anyInt(), any(PushDeadline.class)))
+                .thenThrow(new IllegalStateException("bad object source"));
+
+        mergeCheck.check(mergeRequest);
+
+        verify(mergeRequest, never()).veto(anyString(), anyString());
+    }
+}
@@ -15,6 +15,8 @@ import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 import com.atlassian.sal.testresources.pluginsettings.MockPluginSettingsFactory;
 import com.google.common.collect.Lists;
+import com.isroot.stash.plugin.CommitterVerdicts;
+import com.isroot.stash.plugin.PushDeadline;
 import com.isroot.stash.plugin.YaccConfigServlet;
 import com.isroot.stash.plugin.YaccPreReceiveHook;
 import com.isroot.stash.plugin.YaccService;
@@ -130,7 +132,7 @@ public class YaccPreReceiveHookTest {
     @Test
     public void testOnReceive_pushRejectedIfThereAreErrors() {
         globalSettingsMap.put("someSetting", "true");
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error with commit")));
 
         boolean allowed = yaccPreReceiveHook.onReceive(repository, Lists.newArrayList(new MockRefChange()),
@@ -141,7 +143,7 @@ public class YaccPreReceiveHookTest {
     @Test
     public void testOnReceive_errorsArePrintedToHookStdErr() {
         globalSettingsMap.put("someSetting", "true");
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error1"), new YaccError("error2")));
 
         yaccPreReceiveHook.onReceive(repository, getMockRefChanges(), hookResponse);
@@ -157,7 +159,7 @@ public class YaccPreReceiveHookTest {
 
     @Test
     public void testOnReceive_defaultHeaderDisplayedIfErrorMessageHeaderIsEmpty() {
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error1")));
 
         globalSettingsMap.put("someSetting", "true");
@@ -170,7 +172,7 @@ public class YaccPreReceiveHookTest {
 
     @Test
     public void testOnReceive_nonEmptyErrorMessageHeaderReplacesDefaultHeader() {
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error1")));
 
         globalSettingsMap.put("someSetting", "true");
@@ -185,7 +187,7 @@ public class YaccPreReceiveHookTest {
 
     @Test
     public void testOnReceive_errorMessageFooterAddedToEndOfOutput() {
-        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class)))
+        when(yaccService.checkRefChange(any(Repository.class), any(Settings.class), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("error1")));
 
         globalSettingsMap.put("someSetting", "true");
@@ -213,7 +215,7 @@ public class YaccPreReceiveHookTest {
 
         yaccPreReceiveHook.onReceive(repository, getMockRefChanges(), hookResponse);
 
-        verify(yaccService).checkRefChange(eq(repository), settingsCapture.capture(), any(RefChange.class));
+        verify(yaccService).checkRefChange(eq(repository), settingsCapture.capture(), any(RefChange.class), any(PushDeadline.class), any(CommitterVerdicts.class));
 
         Settings hookSettings = settingsCapture.getValue();
 
@@ -9,9 +9,11 @@ import com.atlassian.bitbucket.user.ApplicationUser;
 import com.atlassian.bitbucket.user.UserType;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.isroot.stash.plugin.CommitterVerdicts;
 import com.isroot.stash.plugin.commits.CommitsService;
 import com.isroot.stash.plugin.IssueKey;
 import com.isroot.stash.plugin.JiraService;
+import com.isroot.stash.plugin.PushDeadline;
 import com.isroot.stash.plugin.YaccCommit;
 import com.isroot.stash.plugin.YaccService;
 import com.isroot.stash.plugin.YaccServiceImpl;
@@ -22,14 +24,22 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import ut.com.isroot.stash.plugin.mock.MockRefChange;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -66,9 +76,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getName()).thenReturn("Incorrect Name");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).containsOnly(new YaccError(YaccError.Type.COMMITTER_NAME,
                 "deadbeef: expected committer name 'John Smith' but found 'Incorrect Name'"));
     }
@@ -83,9 +93,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getName()).thenReturn("Incorrect Name");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
     }
 
@@ -97,9 +107,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getName()).thenReturn("John Smith");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
     }
 
@@ -111,9 +121,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getName()).thenReturn("John Smith");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
     }
 
@@ -125,10 +135,10 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getName()).thenReturn("John Smith");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class)))
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
                 .thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
     }
 
@@ -140,9 +150,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getEmailAddress()).thenReturn("wrong@email.com");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).containsOnly(new YaccError(YaccError.Type.COMMITTER_EMAIL,
                 "deadbeef: expected committer email 'correct@email.com' but found 'wrong@email.com'"));
     }
@@ -157,9 +167,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getEmailAddress()).thenReturn("wrong@email.com");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
     }
 
@@ -171,9 +181,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getEmailAddress()).thenReturn("correct@email.com");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
     }
 
@@ -185,9 +195,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getEmailAddress()).thenReturn("CoRrect@EMAIL.com");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
     }
     @Test
@@ -199,9 +209,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getEmailAddress()).thenReturn("wrong@email.com");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).contains(new YaccError(YaccError.Type.COMMITTER_EMAIL_REGEX,
                     String.format("deadbeef: committer email regex '%s' does not match user email '%s'",
                             settings.getString("committerEmailRegex"),
@@ -216,9 +226,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getEmailAddress()).thenReturn("wrong@email.com");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
     }
     @Test
@@ -229,9 +239,9 @@ public class YaccServiceImplTest {
         
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getEmailAddress()).thenReturn("CoRrect@EMAIL.com");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
         verify(stashUser, never()).getDisplayName();
         verify(stashUser, never()).getEmailAddress();
@@ -243,9 +253,9 @@ public class YaccServiceImplTest {
         when(jiraService.doesJiraApplicationLinkExist()).thenReturn(false);
 
         Set<YaccCommit> commit = Sets.newHashSet(mockCommit());
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(commit);
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(commit);
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).containsOnly(new YaccError("deadbeef: Unable to verify JIRA issue because JIRA Application Link does not exist"));
     }
 
@@ -256,9 +266,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("this commit message has no jira issues. abc-123 is not a valid issue because it is lowercase.");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).containsOnly(new YaccError("deadbeef: No JIRA Issue found in commit message."));
     }
 
@@ -268,18 +278,91 @@ public class YaccServiceImplTest {
         when(settings.getBoolean("ignoreUnknownIssueProjectKeys", false)).thenReturn(true);
 
         when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
-        when(jiraService.doesProjectExist(new IssueKey("ABC", "123"))).thenReturn(true);
-        when(jiraService.doesProjectExist(new IssueKey("UTF", "8"))).thenReturn(false);
+        when(jiraService.doesProjectExist(eq(new IssueKey("ABC", "123")), any(PushDeadline.class))).thenReturn(true);
+        when(jiraService.doesProjectExist(eq(new IssueKey("UTF", "8")), any(PushDeadline.class))).thenReturn(false);
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("ABC-123: this commit has valid issue id and an invalid issue id of UTF-8");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
         verify(jiraService).doesJiraApplicationLinkExist();
-        verify(jiraService).doesIssueExist(new IssueKey("ABC-123"));
+        verify(jiraService).doesIssueExist(eq(new IssueKey("ABC-123")), any(PushDeadline.class));
+    }
+
+    @Test
+    public void testCheckRefChange_commitResultCache_passedCommitIsNotCheckedAgain() throws Exception {
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("ABC-123: this commit has valid issue id");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
+
+        assertThat(yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none())).isEmpty();
+        assertThat(yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none())).isEmpty();
+
+        verify(jiraService, times(1)).doesIssueExist(eq(new IssueKey("ABC-123")), any(PushDeadline.class));
+    }
+
+    @Test
+    public void testCheckRefChange_commitResultCache_jiraRejectionIsCheckedAgain() throws Exception {
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+        when(jiraService.doesIssueExist(eq(new IssueKey("ABC-123")), any(PushDeadline.class)))
+                .thenReturn(Lists.newArrayList(new YaccError(YaccError.Type.ISSUE_JQL, "ABC-123: JIRA Issue does not exist")))
+                .thenReturn(Lists.<YaccError>newArrayList());
+
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("ABC-123: issue created after the first push");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
+
+        assertThat(yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none())).hasSize(1);
+        assertThat(yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none())).isEmpty();
+    }
+
+    @Test
+    public void testCheckRefChange_commitResultCache_unverifiedJiraPassIsCheckedAgain() throws Exception {
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+        when(jiraService.doesIssueExist(eq(new IssueKey("ABC-123")), any(PushDeadline.class)))
+                .thenReturn(JiraService.UNVERIFIED);
+
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("ABC-123: pushed while JIRA was skipped");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
+
+        assertThat(yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none())).isEmpty();
+        assertThat(yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none())).isEmpty();
+
+        verify(jiraService, times(2)).doesIssueExist(eq(new IssueKey("ABC-123")), any(PushDeadline.class));
+    }
+
+    @Test
+    public void testCheckRefChange_commitResultCache_unverifiedBatchedJiraPassIsCheckedAgain() throws Exception {
+        System.setProperty("yacc.jira.batchSize", "10");
+        try {
+            yaccService = new YaccServiceImpl(stashAuthenticationContext, commitsService, jiraService);
+        } finally {
+            System.clearProperty("yacc.jira.batchSize");
+        }
+
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+        Map<IssueKey, List<YaccError>> verdicts = new HashMap<>();
+        verdicts.put(new IssueKey("ABC-1"), JiraService.UNVERIFIED);
+        when(jiraService.checkIssues(any(), any(), any(PushDeadline.class))).thenReturn(verdicts);
+
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("ABC-1: pushed while JIRA was skipped");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
+
+        assertThat(yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none())).isEmpty();
+        assertThat(yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none())).isEmpty();
+
+        verify(jiraService, times(2)).checkIssues(any(), any(), any(PushDeadline.class));
     }
 
     @Test
@@ -287,13 +370,13 @@ public class YaccServiceImplTest {
         when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
         when(settings.getBoolean("ignoreUnknownIssueProjectKeys", false)).thenReturn(true);
         when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
-        when(jiraService.doesProjectExist(new IssueKey("UTF", "8"))).thenReturn(false);
+        when(jiraService.doesProjectExist(eq(new IssueKey("UTF", "8")), any(PushDeadline.class))).thenReturn(false);
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("this commit message has no jira issues. UTF-8 is not a valid issue because it has an invalid project key.");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).containsOnly(new YaccError("deadbeef: No JIRA Issue found in commit message."));
     }
 
@@ -304,12 +387,12 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("ABC-123: this commit has valid issue id");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
         verify(jiraService).doesJiraApplicationLinkExist();
-        verify(jiraService).doesIssueExist(new IssueKey("ABC-123"));
+        verify(jiraService).doesIssueExist(eq(new IssueKey("ABC-123")), any(PushDeadline.class));
     }
 
     @Test
@@ -319,29 +402,29 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("these issue ids should be extracted: ABC-123, ABC_D-123, ABC2-123");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        yaccService.checkRefChange(null, settings, mockRefChange());
-        verify(jiraService).doesIssueExist(new IssueKey("ABC-123"));
-        verify(jiraService).doesIssueExist(new IssueKey("ABC_D-123"));
-        verify(jiraService).doesIssueExist(new IssueKey("ABC2-123"));
+        yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+        verify(jiraService).doesIssueExist(eq(new IssueKey("ABC-123")), any(PushDeadline.class));
+        verify(jiraService).doesIssueExist(eq(new IssueKey("ABC_D-123")), any(PushDeadline.class));
+        verify(jiraService).doesIssueExist(eq(new IssueKey("ABC2-123")), any(PushDeadline.class));
     }
 
     @Test
     public void testCheckRefChange_requireJiraIssue_errorsPassedThroughIfTheyAreReturned() {
         when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
         when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
-        when(jiraService.doesIssueExist(any(IssueKey.class)))
+        when(jiraService.doesIssueExist(any(IssueKey.class), any(PushDeadline.class)))
                 .thenReturn(Lists.newArrayList(new YaccError("some error")));
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("ABC-123: this commit has valid issue id");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).containsExactly(new YaccError("deadbeef: some error"));
-        verify(jiraService).doesIssueExist(new IssueKey("ABC", "123"));
+        verify(jiraService).doesIssueExist(eq(new IssueKey("ABC", "123")), any(PushDeadline.class));
     }
 
     @Test
@@ -351,9 +434,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("matches regex");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
     }
 
@@ -364,13 +447,71 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("123 does not match regex because it contains numbers");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).containsOnly(new YaccError(YaccError.Type.COMMIT_REGEX,
                 "deadbeef: commit message doesn't match regex: [a-z ]+"));
     }
 
+    @Test
+    public void testCheckRefChange_commitMessageRegex_rejectIfRegexTakesTooLong() throws Exception {
+        // The lookahead keeps the regex out of the single pass scan, so java.util.regex is used
+        when(settings.getString("commitMessageRegex")).thenReturn("(?=a)(.*a){25}");
+
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0).getType()).isEqualTo(YaccError.Type.COMMIT_REGEX);
+        assertThat(errors.get(0).getMessage())
+                .startsWith("deadbeef: regex '(?=a)(.*a){25}' was stopped because it took too long to match");
+    }
+
+    @Test
+    public void testCheckRefChange_commitMessageRegex_notMergedUnlessLinearEngineSelected() throws Exception {
+        // Without the linear engine the regex is matched with java.util.regex and its budget
+        when(settings.getString("commitMessageRegex")).thenReturn("(.*a){25}");
+
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("aaaaaaaaaaaaaaaaaaaaaaaaaaaaab");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0).getMessage())
+                .startsWith("deadbeef: regex '(.*a){25}' was stopped because it took too long to match");
+    }
+
+    @Test
+    public void testCheckRefChange_commitMessageRegex_linearRegexEngine() throws Exception {
+        when(settings.getString("commitMessageRegex")).thenReturn("(.*a){25}");
+        when(settings.getBoolean("linearRegex.commitMessageRegex", false)).thenReturn(true);
+
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("aaaaaaaaaaaaaaaaaaaaaaaaaaaaab");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+        assertThat(errors).containsOnly(new YaccError(YaccError.Type.COMMIT_REGEX,
+                "deadbeef: commit message doesn't match regex: (.*a){25}"));
+    }
+
+    @Test
+    public void testCheckRefChange_excludeByRegex_rejectIfRegexTakesTooLong() {
+        when(settings.getString("excludeByRegex")).thenReturn("(?=a)(.*a){25}");
+
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0).getMessage()).contains("was stopped because it took too long to match");
+    }
+
     @Test
     public void testCheckRefChange_excludeByRegex_commitAllowedIfRegexMatches() {
         when(settings.getString("commitMessageRegex")).thenReturn("foo");
@@ -378,9 +519,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("this commit will be allowed #skipcheck");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
 
         verify(settings).getString("excludeByRegex");
@@ -393,9 +534,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("this commit will be rejected");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isNotEmpty();
     }
 
@@ -410,9 +551,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("this commit message has no jira issues.");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, refChange);
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, refChange, PushDeadline.none());
         assertThat(errors).containsOnly(new YaccError("deadbeef: No JIRA Issue found in commit message."));
         verify(settings).getString("excludeBranchRegex");
     }
@@ -427,9 +568,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("this commit message has no jira issues.");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, refChange);
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, refChange, PushDeadline.none());
         assertThat(errors).containsOnly(new YaccError(YaccError.Type.COMMIT_REGEX,
                 "deadbeef: commit message doesn't match regex: [A-Z0-9\\-]+: .*"));
         verify(settings).getString("excludeBranchRegex");
@@ -445,9 +586,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("no JIRA issues but will be allowed anyway");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, refChange);
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, refChange, PushDeadline.none());
         assertThat(errors).isEmpty();
         verify(settings).getString("excludeBranchRegex");
     }
@@ -460,9 +601,9 @@ public class YaccServiceImplTest {
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("This is a merge commit");
         when(commit.isMerge()).thenReturn(true);
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
 
         verify(settings).getBoolean("excludeMergeCommits", false);
@@ -479,9 +620,9 @@ public class YaccServiceImplTest {
         YaccCommit commit = mockCommit();
         when(commit.getCommitter().getName()).thenReturn("Incorrect Name");
         when(commit.getCommitter().getEmailAddress()).thenReturn("wrong@email.com");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockTagChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockTagChange(), PushDeadline.none());
         assertThat(errors).containsOnly(new YaccError(YaccError.Type.COMMITTER_NAME,
                 "deadbeef: expected committer name 'John Smith' but found 'Incorrect Name'"),
                                         new YaccError(YaccError.Type.COMMITTER_EMAIL,
@@ -495,9 +636,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("a message");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockTagChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockTagChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
     }
 
@@ -506,13 +647,13 @@ public class YaccServiceImplTest {
         when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
         when(settings.getBoolean("ignoreUnknownIssueProjectKeys", false)).thenReturn(true);
         when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
-        when(jiraService.doesProjectExist(new IssueKey("UTF", "8"))).thenReturn(false);
+        when(jiraService.doesProjectExist(eq(new IssueKey("UTF", "8")), any(PushDeadline.class))).thenReturn(false);
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("this commit message has no jira issues. UTF-8 is not a valid issue because it has an invalid project key.");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockTagChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockTagChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
 
         verifyNoMoreInteractions(jiraService);
@@ -527,9 +668,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("123 does not match regex because it contains numbers");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
         verify(settings).getBoolean("excludeServiceUserCommits", false);
     }
@@ -544,9 +685,9 @@ public class YaccServiceImplTest {
 
         YaccCommit commit = mockCommit();
         when(commit.getMessage()).thenReturn("123 does not match regex because it contains numbers");
-        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class))).thenReturn(Sets.newHashSet(commit));
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class))).thenReturn(Sets.newHashSet(commit));
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange());
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
         assertThat(errors).isEmpty();
         verify(settings).getString("excludeUsers");
     }
@@ -557,7 +698,7 @@ public class YaccServiceImplTest {
 
         RefChange refChange = mockRefAdd();
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, refChange);
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, refChange, PushDeadline.none());
 
         assertThat(errors)
                 .containsOnly(new YaccError(YaccError.Type.BRANCH_NAME,
@@ -570,9 +711,350 @@ public class YaccServiceImplTest {
 
         RefChange refChange = mockRefChange();
 
-        List<YaccError> errors = yaccService.checkRefChange(null, settings, refChange);
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, refChange, PushDeadline.none());
+
+        assertThat(errors).isEmpty();
+    }
+
+    @Test
+    public void testCheckRefChange_committerVerdictSharedByCommitsOfSameCommitter() {
+        when(settings.getBoolean("requireMatchingAuthorName", false)).thenReturn(true);
+        when(settings.getString("committerEmailRegex")).thenReturn("[a-z]+@example\\.com");
+        when(stashUser.getType()).thenReturn(UserType.NORMAL);
+        when(stashUser.getDisplayName()).thenReturn("John Smith");
+        when(stashUser.getEmailAddress()).thenReturn("jsmith@example.com");
+
+        YaccCommit first = mockCommit();
+        when(first.getCommitter().getName()).thenReturn("Incorrect Name");
+        when(first.getCommitter().getEmailAddress()).thenReturn("wrong@example.org");
+        YaccCommit second = mockCommit();
+        when(second.getId()).thenReturn("cafebabe");
+        when(second.getCommitter().getName()).thenReturn("Incorrect Name");
+        when(second.getCommitter().getEmailAddress()).thenReturn("wrong@example.org");
+        YaccCommit other = mockCommit();
+        when(other.getId()).thenReturn("f00dfeed");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(Sets.newLinkedHashSet(Lists.newArrayList(first, second, other)));
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+
+        assertThat(errors).containsOnly(
+                new YaccError(YaccError.Type.COMMITTER_EMAIL_REGEX,
+                        "deadbeef: committer email regex '[a-z]+@example\\.com' does not match user email 'wrong@example.org'"),
+                new YaccError(YaccError.Type.COMMITTER_NAME,
+                        "deadbeef: expected committer name 'John Smith' but found 'Incorrect Name'"),
+                new YaccError(YaccError.Type.COMMITTER_EMAIL_REGEX,
+                        "cafebabe: committer email regex '[a-z]+@example\\.com' does not match user email 'wrong@example.org'"),
+                new YaccError(YaccError.Type.COMMITTER_NAME,
+                        "cafebabe: expected committer name 'John Smith' but found 'Incorrect Name'"));
+    }
+
+    @Test
+    public void testCheckRefChange_committerVerdictSharedByRefChangesOfPush() {
+        when(settings.getBoolean("requireMatchingAuthorName", false)).thenReturn(true);
+        when(stashUser.getType()).thenReturn(UserType.NORMAL);
+        when(stashUser.getDisplayName()).thenReturn("John Smith");
+        when(stashUser.getEmailAddress()).thenReturn("jsmith@example.com");
+        YaccCommit commit = mockCommit();
+        when(commit.getCommitter().getName()).thenReturn("Incorrect Name");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(Sets.newHashSet(commit));
+        CommitterVerdicts committerVerdicts = new CommitterVerdicts();
+
+        List<YaccError> master = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none(),
+                committerVerdicts);
+        List<YaccError> other = yaccService.checkRefChange(null, settings,
+                mockRefChange().setRefId("refs/heads/other"), PushDeadline.none(), committerVerdicts);
+
+        YaccError expected = new YaccError(YaccError.Type.COMMITTER_NAME,
+                "deadbeef: expected committer name 'John Smith' but found 'Incorrect Name'");
+        assertThat(master).containsOnly(expected);
+        assertThat(other).containsOnly(expected);
+        // The name is only worked out for the first ref change
+        verify(stashUser, times(2)).getDisplayName();
+    }
+
+    @Test
+    public void testCheckRefChange_maxCommits_rejectedWithoutReadingCommits() {
+        when(settings.getString("maxCommits")).thenReturn("100");
+        when(commitsService.countNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(101L);
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+
+        assertThat(errors).containsOnly(new YaccError(YaccError.Type.OTHER,
+                "master: push contains 101 new commits, more than the limit of 100"));
+        verify(commitsService, never()).getNewCommits(any(Repository.class), any(RefChange.class),
+                any(PushDeadline.class));
+        verify(commitsService, never()).streamNewCommits(any(Repository.class), any(RefChange.class),
+                any(PushDeadline.class), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void testCheckRefChange_maxCommits_underLimitCheckedNormally() {
+        when(settings.getString("maxCommits")).thenReturn("100");
+        when(commitsService.countNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(100L);
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("ABC-1 fix");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(Sets.newHashSet(commit));
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
 
         assertThat(errors).isEmpty();
+        verify(commitsService).getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class));
+    }
+
+    @Test
+    public void testCheckRefChange_jiraBatch_issuesOfAllCommitsLookedUpTogether() throws Exception {
+        System.setProperty("yacc.jira.batchSize", "10");
+        try {
+            yaccService = new YaccServiceImpl(stashAuthenticationContext, commitsService, jiraService);
+        } finally {
+            System.clearProperty("yacc.jira.batchSize");
+        }
+
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+        Map<IssueKey, List<YaccError>> verdicts = new HashMap<>();
+        verdicts.put(new IssueKey("ABC-1"), Lists.<YaccError>newArrayList());
+        verdicts.put(new IssueKey("ABC-2"), Lists.newArrayList(
+                new YaccError(YaccError.Type.ISSUE_JQL, "ABC-2: JIRA Issue does not exist")));
+        when(jiraService.checkIssues(any(), any(), any(PushDeadline.class))).thenReturn(verdicts);
+
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("ABC-1: first commit");
+        YaccCommit otherCommit = mockCommit();
+        when(otherCommit.getId()).thenReturn("cafebabe");
+        when(otherCommit.getMessage()).thenReturn("ABC-1 ABC-2: second commit");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(Sets.newLinkedHashSet(Lists.newArrayList(commit, otherCommit)));
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+
+        assertThat(errors).containsExactly(
+                new YaccError(YaccError.Type.ISSUE_JQL, "cafebabe: ABC-2: JIRA Issue does not exist"));
+        verify(jiraService, times(1)).checkIssues(eq(Lists.newArrayList(new IssueKey("ABC-1"), new IssueKey("ABC-2"))),
+                any(), any(PushDeadline.class));
+        verify(jiraService, never()).doesIssueExist(any(IssueKey.class), any(PushDeadline.class));
+    }
+
+    @Test
+    public void testCheckRefChange_asyncJiraChecks_jiraNotCheckedDuringPush() {
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(settings.getBoolean("asyncJiraChecks", false)).thenReturn(true);
+        when(settings.getString("commitMessageRegex")).thenReturn("[A-Z]+-[0-9]+.*");
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("ABC-1: commit");
+        YaccCommit otherCommit = mockCommit();
+        when(otherCommit.getId()).thenReturn("cafebabe");
+        when(otherCommit.getMessage()).thenReturn("no issue key");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(Sets.newLinkedHashSet(Lists.newArrayList(commit, otherCommit)));
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0).getType()).isEqualTo(YaccError.Type.COMMIT_REGEX);
+        verifyNoMoreInteractions(jiraService);
+    }
+
+    @Test
+    public void testAuditRefChange_onlyJiraIssuesChecked() {
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(settings.getBoolean("asyncJiraChecks", false)).thenReturn(true);
+        when(settings.getBoolean("requireMatchingAuthorName", false)).thenReturn(true);
+        when(settings.getString("branchNameRegex")).thenReturn("feature/.*");
+        when(stashUser.getType()).thenReturn(UserType.NORMAL);
+        when(stashUser.getDisplayName()).thenReturn("Someone Else");
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+        Map<IssueKey, List<YaccError>> verdicts = new HashMap<>();
+        verdicts.put(new IssueKey("ABC-1"), Lists.newArrayList(
+                new YaccError(YaccError.Type.OTHER, "ABC-1: JIRA Issue does not exist")));
+        when(jiraService.checkIssues(any(), any(), any(PushDeadline.class))).thenReturn(verdicts);
+
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("ABC-1: commit");
+        streamPushedCommits(commit);
+
+        List<YaccError> errors = yaccService.auditRefChange(null, settings, mockRefAdd(),
+                Lists.newArrayList("refs/heads/master"), PushDeadline.none());
+
+        assertThat(errors).containsExactly(
+                new YaccError(YaccError.Type.OTHER, "deadbeef: ABC-1: JIRA Issue does not exist"));
+        verify(jiraService, never()).doesIssueExist(any(IssueKey.class), any(PushDeadline.class));
+    }
+
+    @Test
+    public void testAuditRefChange_nothingToDoWithoutRequireJiraIssue() {
+        when(settings.getBoolean("asyncJiraChecks", false)).thenReturn(true);
+
+        assertThat(yaccService.auditRefChange(null, settings, mockRefChange(), Lists.newArrayList("refs/heads/master"),
+                PushDeadline.none())).isEmpty();
+
+        verifyNoMoreInteractions(commitsService);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAuditRefChange_commitsListedAfterRefsWereUpdated() {
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(settings.getBoolean("asyncJiraChecks", false)).thenReturn(true);
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("no issue key");
+        streamPushedCommits(commit);
+        List<String> pushedRefIds = Lists.newArrayList("refs/heads/master", "refs/heads/other");
+        MockRefChange refChange = mockRefChange();
+
+        List<YaccError> errors = yaccService.auditRefChange(null, settings, refChange, pushedRefIds,
+                PushDeadline.none());
+
+        assertThat(errors).hasSize(1);
+        verify(commitsService).countPushedCommits(eq(null), eq(refChange), eq(pushedRefIds), any(PushDeadline.class));
+        verify(commitsService).streamPushedCommits(eq(null), eq(refChange), eq(pushedRefIds),
+                any(PushDeadline.class), eq(0), eq(1), any(Consumer.class));
+        // Every pushed commit is reachable from a ref by now, so there are no new commits to list
+        verify(commitsService, never()).countNewCommits(any(Repository.class), any(RefChange.class),
+                any(PushDeadline.class));
+        verify(commitsService, never()).getNewCommits(any(Repository.class), any(RefChange.class),
+                any(PushDeadline.class));
+    }
+
+    @Test
+    public void testCheckExistingCommits_pusherAndBranchChecksSkipped() {
+        when(settings.getBoolean("requireMatchingAuthorName", false)).thenReturn(true);
+        when(settings.getBoolean("requireMatchingAuthorEmail", false)).thenReturn(true);
+        when(settings.getString("branchNameRegex")).thenReturn("feature/.*");
+        when(settings.getString("commitMessageRegex")).thenReturn("[A-Z]+-[0-9]+.*");
+        when(stashUser.getType()).thenReturn(UserType.NORMAL);
+        when(stashUser.getDisplayName()).thenReturn("Someone Else");
+        when(stashUser.getEmailAddress()).thenReturn("someone@example.com");
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("ABC-1: commit");
+        YaccCommit otherCommit = mockCommit();
+        when(otherCommit.getId()).thenReturn("cafebabe");
+        when(otherCommit.getMessage()).thenReturn("no issue key");
+
+        List<YaccError> errors = yaccService.checkExistingCommits(null, settings,
+                Lists.newArrayList(commit, otherCommit), PushDeadline.none());
+
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0).getType()).isEqualTo(YaccError.Type.COMMIT_REGEX);
+        assertThat(errors.get(0).getMessage()).startsWith("cafebabe: ");
+    }
+
+    @Test
+    public void testCheckUnpushedCommits_rejectedAsPushWouldBe() {
+        when(settings.getString("commitMessageRegex")).thenReturn("[A-Z]+-[0-9]+.*");
+        when(settings.getString("branchNameRegex")).thenReturn("feature/.*");
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("no issue key");
+
+        List<YaccError> errors = yaccService.checkUnpushedCommits(null, settings, "refs/heads/master", true,
+                Lists.newArrayList(commit), PushDeadline.none());
+
+        assertThat(errors).hasSize(2);
+        assertThat(errors.get(0).getType()).isEqualTo(YaccError.Type.BRANCH_NAME);
+        assertThat(errors.get(1).getType()).isEqualTo(YaccError.Type.COMMIT_REGEX);
+        assertThat(errors.get(1).getMessage()).startsWith("deadbeef: ");
+        verifyNoMoreInteractions(commitsService);
+    }
+
+    @Test
+    public void testCheckUnpushedCommits_resultNotUsedForRealPush() {
+        when(settings.getString("commitMessageRegex")).thenReturn("[A-Z]+-[0-9]+.*");
+        YaccCommit described = mockCommit();
+        when(described.getMessage()).thenReturn("ABC-1: not what is really pushed");
+        YaccCommit pushed = mockCommit();
+        when(pushed.getMessage()).thenReturn("no issue key");
+        when(commitsService.getNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(Sets.newHashSet(pushed));
+
+        assertThat(yaccService.checkUnpushedCommits(null, settings, "refs/heads/master", false,
+                Lists.newArrayList(described), PushDeadline.none())).isEmpty();
+
+        assertThat(yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none())).hasSize(1);
+    }
+
+    @Test
+    public void testCheckRefChange_maxCommits_tipChecksNewestCommits() {
+        when(settings.getString("maxCommits")).thenReturn("100");
+        when(settings.getString("maxCommitsAction")).thenReturn("tip");
+        when(settings.getString("commitMessageRegex")).thenReturn("[A-Z]+-[0-9]+.*");
+        when(commitsService.countNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(5000L);
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("no issue key");
+        streamCommits(commit);
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0).getType()).isEqualTo(YaccError.Type.COMMIT_REGEX);
+        verify(commitsService).streamNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class),
+                eq(100), eq(1), any());
+    }
+
+    @Test
+    public void testCheckRefChange_maxCommits_sampleSpreadsChecksOverPush() {
+        when(settings.getString("maxCommits")).thenReturn("100");
+        when(settings.getString("maxCommitsAction")).thenReturn("sample");
+        when(commitsService.countNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(5000L);
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("no issue key");
+        streamCommits(commit);
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+
+        assertThat(errors).isEmpty();
+        verify(commitsService).streamNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class),
+                eq(0), eq(50), any());
+    }
+
+    @Test
+    public void testCheckRefChange_largePushStreamedWithoutCeiling() {
+        when(settings.getString("commitMessageRegex")).thenReturn("[A-Z]+-[0-9]+.*");
+        when(commitsService.countNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class)))
+                .thenReturn(5000L);
+        YaccCommit commit = mockCommit();
+        when(commit.getMessage()).thenReturn("no issue key");
+        YaccCommit otherCommit = mockCommit();
+        when(otherCommit.getId()).thenReturn("cafebabe");
+        when(otherCommit.getMessage()).thenReturn("no issue key either");
+        streamCommits(commit, otherCommit);
+
+        List<YaccError> errors = yaccService.checkRefChange(null, settings, mockRefChange(), PushDeadline.none());
+
+        assertThat(errors).hasSize(2);
+        verify(commitsService, never()).getNewCommits(any(Repository.class), any(RefChange.class),
+                any(PushDeadline.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void streamCommits(YaccCommit... commits) {
+        doAnswer(invocation -> {
+            Consumer<YaccCommit> consumer = (Consumer<YaccCommit>) invocation.getArguments()[5];
+            for (YaccCommit commit : commits) {
+                consumer.accept(commit);
+            }
+            return null;
+        }).when(commitsService).streamNewCommits(any(Repository.class), any(RefChange.class), any(PushDeadline.class),
+                anyInt(), anyInt(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void streamPushedCommits(YaccCommit... commits) {
+        doAnswer(invocation -> {
+            Consumer<YaccCommit> consumer = (Consumer<YaccCommit>) invocation.getArguments()[6];
+            for (YaccCommit commit : commits) {
+                consumer.accept(commit);
+            }
+            return null;
+        }).when(commitsService).streamPushedCommits(any(Repository.class), any(RefChange.class), any(Collection.class),
+                any(PushDeadline.class), anyInt(), anyInt(), any());
     }
 
     private YaccCommit mockCommit() {
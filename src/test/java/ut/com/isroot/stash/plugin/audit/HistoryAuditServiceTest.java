@@ -0,0 +1,210 @@
+package ut.com.isroot.stash.plugin.audit;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.atlassian.bitbucket.server.ApplicationPropertiesService;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.EscalatedSecurityContext;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.user.UserService;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.isroot.stash.plugin.CommitResultCache;
+import com.isroot.stash.plugin.HookSettingsResolver;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.YaccService;
+import com.isroot.stash.plugin.audit.HistoryAudit;
+import com.isroot.stash.plugin.audit.HistoryAuditService;
+import com.isroot.stash.plugin.commits.CommitsService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import ut.com.isroot.stash.plugin.mock.MockSettings;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HistoryAuditServiceTest {
+    @Rule
+    public TemporaryFolder sharedHome = new TemporaryFolder();
+
+    @Mock private YaccService yaccService;
+    @Mock private CommitsService commitsService;
+    @Mock private HookSettingsResolver settingsResolver;
+    @Mock private SecurityService securityService;
+    @Mock private EscalatedSecurityContext impersonating;
+    @Mock private UserService userService;
+    @Mock private RepositoryService repositoryService;
+    @Mock private ApplicationPropertiesService applicationPropertiesService;
+    @Mock private Repository repository;
+    @Mock private ApplicationUser user;
+
+    private final CountDownLatch walkReleased = new CountDownLatch(1);
+    private final List<HistoryAuditService> nodes = new ArrayList<>();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+
+        when(applicationPropertiesService.getSharedHomeDir()).thenReturn(sharedHome.getRoot());
+        when(repository.getId()).thenReturn(1);
+        when(user.getName()).thenReturn("admin");
+        when(userService.getUserByName("admin")).thenReturn(user);
+        when(repositoryService.getById(1)).thenReturn(repository);
+        when(settingsResolver.getSettings(repository)).thenReturn(
+                new MockSettings(ImmutableMap.of("requireJiraIssue", true)));
+
+        when(securityService.impersonating(eq(user), anyString())).thenReturn(impersonating);
+        when(impersonating.call(any(UncheckedOperation.class))).thenAnswer(invocation ->
+                ((UncheckedOperation<Object>) invocation.getArguments()[0]).perform());
+
+        when(commitsService.getRefTips(eq(repository), any(PushDeadline.class)))
+                .thenReturn(Lists.newArrayList("35d938b060bb361503e021f228e43351f1a71551"));
+        doAnswer(invocation -> {
+            walkReleased.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(commitsService).streamCommitsFrom(eq(repository), any(Collection.class), anyLong(),
+                any(PushDeadline.class), any());
+    }
+
+    @After
+    public void tearDown() {
+        walkReleased.countDown();
+        nodes.forEach(HistoryAuditService::onStop);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStart_walksFromRefTipsSavedAtStart() throws Exception {
+        HistoryAuditService node = startNode();
+
+        node.start(repository, user);
+
+        verify(commitsService, timeout(5000)).streamCommitsFrom(eq(repository),
+                eq(Lists.newArrayList("35d938b060bb361503e021f228e43351f1a71551")), eq(0L),
+                any(PushDeadline.class), any());
+        assertThat(node.getAudit(1).getTips()).containsExactly("35d938b060bb361503e021f228e43351f1a71551");
+    }
+
+    @Test
+    public void testStart_auditRunningOnAnotherNodeNotStarted() {
+        HistoryAuditService node1 = startNode();
+        HistoryAuditService node2 = startNode();
+
+        node1.start(repository, user);
+
+        try {
+            node2.start(repository, user);
+            fail("audit started on two nodes");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("another node");
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnStart_auditClaimedByRunningNodeNotResumed() throws Exception {
+        writeRunningCheckpoint();
+        File claim = writeClaim("other node", System.currentTimeMillis());
+
+        startNode();
+        Thread.sleep(500);
+
+        assertThat(new String(Files.readAllBytes(claim.toPath()), StandardCharsets.UTF_8)).isEqualTo("other node");
+        verify(commitsService, never()).streamCommitsFrom(any(Repository.class),
+                any(Collection.class), anyLong(), any(PushDeadline.class), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnStart_abandonedAuditResumedByOneNode() throws Exception {
+        writeRunningCheckpoint();
+        File claim = writeClaim("stopped node", System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+
+        startNode();
+        startNode();
+
+        verify(commitsService, timeout(5000)).streamCommitsFrom(eq(repository), any(Collection.class), anyLong(),
+                any(PushDeadline.class), any());
+        Thread.sleep(500);
+        verify(commitsService).streamCommitsFrom(any(Repository.class), any(Collection.class), anyLong(),
+                any(PushDeadline.class), any());
+        assertThat(new String(Files.readAllBytes(claim.toPath()), StandardCharsets.UTF_8))
+                .isNotEqualTo("stopped node");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnStart_auditWithSameSettingsContinuesFromCheckpoint() throws Exception {
+        HistoryAudit audit = new HistoryAudit(1, "admin", 10);
+        audit.resume(CommitResultCache.policyHash(settingsResolver.getSettings(repository)));
+        audit.startWalk(Lists.newArrayList("5773fc438a763e64df8a9c5c32f3b1e83010ada7"));
+        audit.chunkChecked(500, new ArrayList<>());
+        writeCheckpoint(audit);
+
+        startNode();
+
+        verify(commitsService, timeout(5000)).streamCommitsFrom(eq(repository),
+                eq(Lists.newArrayList("5773fc438a763e64df8a9c5c32f3b1e83010ada7")), eq(500L),
+                any(PushDeadline.class), any());
+    }
+
+    private HistoryAuditService startNode() {
+        HistoryAuditService node = new HistoryAuditService(yaccService, commitsService, settingsResolver,
+                securityService, userService, repositoryService, applicationPropertiesService, 1, 10, 0, 10,
+                1000, 60000);
+        node.onStart();
+        nodes.add(node);
+        return node;
+    }
+
+    private void writeRunningCheckpoint() throws Exception {
+        HistoryAudit audit = new HistoryAudit(1, "admin", 10);
+        audit.resume("policy");
+        writeCheckpoint(audit);
+    }
+
+    private void writeCheckpoint(HistoryAudit audit) throws Exception {
+        File file = new File(getCheckpointDir(), "1.json");
+        Files.write(file.toPath(), new Gson().toJson(audit).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private File writeClaim(String nodeId, long refreshedMillis) throws Exception {
+        File file = new File(getCheckpointDir(), "1.claim");
+        Files.write(file.toPath(), nodeId.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(refreshedMillis));
+        return file;
+    }
+
+    private File getCheckpointDir() {
+        File dir = new File(new File(sharedHome.getRoot(), "yacc"), "history-audit");
+        dir.mkdirs();
+        return dir;
+    }
+}
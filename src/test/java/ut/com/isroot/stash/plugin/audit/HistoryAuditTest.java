@@ -0,0 +1,97 @@
+package ut.com.isroot.stash.plugin.audit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.isroot.stash.plugin.audit.HistoryAudit;
+import com.isroot.stash.plugin.errors.YaccError;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HistoryAuditTest {
+    @Test
+    public void testChunkChecked_violationsBeyondMaximumOnlyCounted() {
+        HistoryAudit audit = new HistoryAudit(1, "admin", 2);
+        audit.resume("policy");
+
+        audit.chunkChecked(500, ImmutableList.of(error("a"), error("b"), error("c")));
+
+        assertThat(audit.getCheckedCommits()).isEqualTo(500);
+        assertThat(audit.getViolationCount()).isEqualTo(3);
+        assertThat(audit.getViolations()).containsExactly("a", "b");
+    }
+
+    @Test
+    public void testResume_samePolicyKeepsProgress() {
+        HistoryAudit audit = checkpoint(new HistoryAudit(1, "admin", 10));
+
+        audit.resume("policy");
+
+        assertThat(audit.getStatus()).isEqualTo(HistoryAudit.Status.RUNNING);
+        assertThat(audit.getCheckedCommits()).isEqualTo(500);
+        assertThat(audit.getViolations()).containsExactly("a");
+        assertThat(audit.getError()).isNull();
+    }
+
+    @Test
+    public void testResume_changedPolicyStartsOver() {
+        HistoryAudit audit = checkpoint(new HistoryAudit(1, "admin", 10));
+
+        audit.resume("other policy");
+
+        assertThat(audit.getCheckedCommits()).isEqualTo(0);
+        assertThat(audit.getViolationCount()).isEqualTo(0);
+        assertThat(audit.getViolations()).isEmpty();
+    }
+
+    @Test
+    public void testResume_samePolicyKeepsTips() {
+        HistoryAudit audit = checkpoint(new HistoryAudit(1, "admin", 10));
+
+        audit.resume("policy");
+
+        assertThat(audit.getTips()).containsExactly("35d938b060bb361503e021f228e43351f1a71551");
+    }
+
+    @Test
+    public void testResume_changedPolicyWalksFromNewTips() {
+        HistoryAudit audit = checkpoint(new HistoryAudit(1, "admin", 10));
+
+        audit.resume("other policy");
+
+        assertThat(audit.getTips()).isNull();
+    }
+
+    @Test
+    public void testStartWalk_progressStartsOver() {
+        HistoryAudit audit = checkpoint(new HistoryAudit(1, "admin", 10));
+        audit.resume("policy");
+
+        audit.startWalk(ImmutableList.of("5773fc438a763e64df8a9c5c32f3b1e83010ada7"));
+
+        assertThat(audit.getTips()).containsExactly("5773fc438a763e64df8a9c5c32f3b1e83010ada7");
+        assertThat(audit.getCheckedCommits()).isEqualTo(0);
+        assertThat(audit.getViolations()).isEmpty();
+    }
+
+    /**
+     * Return a failed audit as it is read back from its checkpoint.
+     */
+    private HistoryAudit checkpoint(HistoryAudit audit) {
+        audit.resume("policy");
+        audit.startWalk(ImmutableList.of("35d938b060bb361503e021f228e43351f1a71551"));
+        audit.chunkChecked(500, ImmutableList.of(error("a")));
+        audit.failed("git failed");
+
+        Gson gson = new Gson();
+        HistoryAudit read = gson.fromJson(gson.toJson(audit), HistoryAudit.class);
+
+        assertThat(read.getStatus()).isEqualTo(HistoryAudit.Status.FAILED);
+        assertThat(read.getError()).isEqualTo("git failed");
+        return read;
+    }
+
+    private static YaccError error(String message) {
+        return new YaccError(YaccError.Type.OTHER, message);
+    }
+}
@@ -0,0 +1,178 @@
+package ut.com.isroot.stash.plugin.audit;
+
+import com.atlassian.bitbucket.event.repository.RepositoryPushEvent;
+import com.atlassian.bitbucket.repository.RefChange;
+import com.atlassian.bitbucket.repository.RefChangeType;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.EscalatedSecurityContext;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.google.common.collect.Lists;
+import com.isroot.stash.plugin.HookSettingsResolver;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.YaccService;
+import com.isroot.stash.plugin.audit.AuditRecord;
+import com.isroot.stash.plugin.audit.PushAuditLog;
+import com.isroot.stash.plugin.audit.PushAuditNotifier;
+import com.isroot.stash.plugin.audit.PushAuditor;
+import com.isroot.stash.plugin.errors.YaccError;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import ut.com.isroot.stash.plugin.mock.MockRefChange;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PushAuditorTest {
+    @Mock private YaccService yaccService;
+    @Mock private HookSettingsResolver settingsResolver;
+    @Mock private SecurityService securityService;
+    @Mock private EscalatedSecurityContext impersonating;
+    @Mock private PushAuditNotifier notifier;
+    @Mock private Repository repository;
+    @Mock private ApplicationUser pusher;
+    @Mock private Settings settings;
+
+    private PushAuditLog auditLog;
+    private PushAuditor auditor;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+
+        when(repository.getId()).thenReturn(1);
+        when(pusher.getName()).thenReturn("jsmith");
+        when(settingsResolver.getSettings(repository)).thenReturn(settings);
+        when(settings.getBoolean("asyncJiraChecks", false)).thenReturn(true);
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+
+        when(securityService.impersonating(eq(pusher), anyString())).thenReturn(impersonating);
+        when(impersonating.call(any(UncheckedOperation.class))).thenAnswer(invocation ->
+                ((UncheckedOperation<Object>) invocation.getArguments()[0]).perform());
+
+        auditLog = new PushAuditLog(10);
+        auditor = new PushAuditor(yaccService, settingsResolver, securityService, auditLog, notifier, 1, 10, 0);
+        auditor.onStart();
+    }
+
+    @After
+    public void tearDown() {
+        auditor.onStop();
+    }
+
+    @Test
+    public void testOnPush_violationsRecordedAndSentToPusher() throws Exception {
+        RefChange refChange = new MockRefChange("refs/heads/master");
+        when(yaccService.auditRefChange(eq(repository), eq(settings), eq(refChange), any(Collection.class),
+                any(PushDeadline.class)))
+                .thenReturn(Lists.newArrayList(new YaccError("deadbeef: ABC-1: JIRA Issue does not exist")));
+
+        auditor.onPush(pushEvent(refChange));
+        waitForAudits(1);
+
+        List<AuditRecord> records = auditLog.getRecords(1, 10);
+        assertThat(records).hasSize(1);
+        assertThat(records.get(0).getRefId()).isEqualTo("refs/heads/master");
+        assertThat(records.get(0).getPusher()).isEqualTo("jsmith");
+        assertThat(records.get(0).getViolations()).containsExactly("deadbeef: ABC-1: JIRA Issue does not exist");
+        verify(notifier).violationsFound(pusher, repository, records.get(0));
+    }
+
+    @Test
+    public void testOnPush_cleanPushNotRecorded() throws Exception {
+        RefChange refChange = new MockRefChange("refs/heads/master");
+        when(yaccService.auditRefChange(any(Repository.class), any(Settings.class), any(RefChange.class),
+                any(Collection.class), any(PushDeadline.class))).thenReturn(Lists.newArrayList());
+
+        auditor.onPush(pushEvent(refChange));
+        waitForAudits(1);
+
+        assertThat(auditLog.getRecords(1, 10)).isEmpty();
+        verify(notifier, never()).violationsFound(any(ApplicationUser.class), any(Repository.class),
+                any(AuditRecord.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnPush_everyRefOfThePushPassedOn() throws Exception {
+        RefChange master = new MockRefChange("refs/heads/master");
+        MockRefChange deleted = new MockRefChange("refs/heads/old");
+        deleted.setType(RefChangeType.DELETE);
+        when(yaccService.auditRefChange(any(Repository.class), any(Settings.class), any(RefChange.class),
+                any(Collection.class), any(PushDeadline.class))).thenReturn(Lists.newArrayList());
+
+        auditor.onPush(pushEvent(master, deleted));
+        waitForAudits(1);
+
+        verify(yaccService).auditRefChange(eq(repository), eq(settings), eq(master),
+                eq(Lists.newArrayList("refs/heads/master", "refs/heads/old")), any(PushDeadline.class));
+        verify(yaccService, never()).auditRefChange(any(Repository.class), any(Settings.class), eq(deleted),
+                any(Collection.class), any(PushDeadline.class));
+    }
+
+    @Test
+    public void testOnPush_notAuditedWithoutAsyncJiraChecks() {
+        when(settings.getBoolean("asyncJiraChecks", false)).thenReturn(false);
+
+        auditor.onPush(pushEvent(new MockRefChange("refs/heads/master")));
+
+        verify(securityService, never()).impersonating(any(ApplicationUser.class), anyString());
+    }
+
+    @Test
+    public void testOnPush_deletesNotAudited() {
+        MockRefChange delete = new MockRefChange("refs/heads/master");
+        delete.setType(RefChangeType.DELETE);
+
+        auditor.onPush(pushEvent(delete));
+
+        verify(settingsResolver, never()).getSettings(any(Repository.class));
+    }
+
+    @Test
+    public void testGetRecords_newestFirstAndLimited() {
+        PushAuditLog log = new PushAuditLog(2);
+        log.add(record("refs/heads/a"));
+        log.add(record("refs/heads/b"));
+        log.add(record("refs/heads/c"));
+
+        List<AuditRecord> records = log.getRecords(1, 10);
+        assertThat(records).extracting("refId").containsExactly("refs/heads/c", "refs/heads/b");
+        assertThat(log.getRecords(1, 1)).hasSize(1);
+        assertThat(log.getRecords(2, 10)).isEmpty();
+    }
+
+    private RepositoryPushEvent pushEvent(RefChange... refChanges) {
+        RepositoryPushEvent event = mock(RepositoryPushEvent.class);
+        when(event.getRepository()).thenReturn(repository);
+        when(event.getUser()).thenReturn(pusher);
+        when(event.getRefChanges()).thenReturn(Lists.newArrayList(refChanges));
+        return event;
+    }
+
+    private AuditRecord record(String refId) {
+        return new AuditRecord(1, refId, "from", "to", "jsmith", 0, 0, Lists.newArrayList("violation"));
+    }
+
+    private void waitForAudits(long count) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (auditor.getAuditedCount() < count && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+    }
+}
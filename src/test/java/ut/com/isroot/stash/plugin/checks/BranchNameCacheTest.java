@@ -0,0 +1,119 @@
+package ut.com.isroot.stash.plugin.checks;
+
+import com.atlassian.bitbucket.setting.Settings;
+import com.isroot.stash.plugin.checks.BranchNameCache;
+import com.isroot.stash.plugin.checks.BranchNameCheck;
+import com.isroot.stash.plugin.errors.YaccError;
+import com.isroot.stash.plugin.regex.RegexBudget;
+import com.isroot.stash.plugin.regex.SettingRegex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BranchNameCacheTest {
+    private BranchNameCache cache;
+
+    @Before
+    public void setup() {
+        cache = new BranchNameCache(10, 10, new RegexBudget(100000, 0));
+    }
+
+    @Test
+    public void testGetRegex_compiledOncePerPolicy() {
+        SettingRegex regex = cache.getRegex(getSettings("ci/build-\\d+"));
+
+        assertThat(regex).isNotNull();
+        assertThat(cache.getRegex(getSettings("ci/build-\\d+"))).isSameAs(regex);
+        assertThat(cache.getRegex(getSettings("feature/.*"))).isNotSameAs(regex);
+    }
+
+    @Test
+    public void testGetRegex_noRegex() {
+        assertThat(cache.getRegex(getSettings(null))).isNull();
+        assertThat(cache.getRegex(getSettings(""))).isNull();
+    }
+
+    @Test
+    public void testGetRegex_linearEngineIsPartOfPolicy() {
+        Settings linear = getSettings("ci/build-\\d+");
+        when(linear.getBoolean("linearRegex.branchNameRegex", false)).thenReturn(true);
+
+        assertThat(cache.getRegex(linear).isLinear()).isTrue();
+        assertThat(cache.getRegex(getSettings("ci/build-\\d+")).isLinear()).isFalse();
+    }
+
+    @Test
+    public void testMatches_verdictIsCached() {
+        SettingRegex regex = cache.getRegex(getSettings("ci/build-\\d+"));
+
+        assertThat(cache.matches(regex, "ci/build-1")).isTrue();
+        assertThat(cache.matches(regex, "ci/build-1")).isTrue();
+        assertThat(cache.matches(regex, "ci/build-x")).isFalse();
+
+        assertThat(cache.getVerdictStats().hitCount()).isEqualTo(1);
+        assertThat(cache.getVerdictStats().missCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testMatches_verdictsAreKeyedByPolicy() {
+        SettingRegex buildRegex = cache.getRegex(getSettings("ci/build-\\d+"));
+        SettingRegex featureRegex = cache.getRegex(getSettings("feature/.*"));
+
+        assertThat(cache.matches(buildRegex, "ci/build-1")).isTrue();
+        assertThat(cache.matches(featureRegex, "ci/build-1")).isFalse();
+    }
+
+    @Test
+    public void testMatches_leastRecentlyUsedVerdictIsEvicted() {
+        cache = new BranchNameCache(10, 1, RegexBudget.unlimited());
+        SettingRegex regex = cache.getRegex(getSettings("ci/build-\\d+"));
+
+        cache.matches(regex, "ci/build-1");
+        cache.matches(regex, "ci/build-2");
+        cache.matches(regex, "ci/build-1");
+
+        assertThat(cache.getVerdictStats().hitCount()).isEqualTo(0);
+        assertThat(cache.getVerdictStats().evictionCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testCheck_usesCache() {
+        Settings settings = getSettings("ci/build-\\d+");
+
+        List<YaccError> errors = new BranchNameCheck(settings, "refs/heads/ci/build-x", cache).check();
+        assertThat(errors).containsOnly(new YaccError(YaccError.Type.BRANCH_NAME,
+                "Invalid branch name. 'ci/build-x' does not match regex 'ci/build-\\d+'"));
+
+        errors = new BranchNameCheck(settings, "refs/heads/ci/build-x", cache).check();
+        assertThat(errors).hasSize(1);
+        assertThat(cache.getVerdictStats().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCheck_regexTakingTooLongIsNotCached() {
+        Settings settings = getSettings("(.*a){25}");
+
+        for (int i = 0; i < 2; i++) {
+            List<YaccError> errors = new BranchNameCheck(settings, "refs/heads/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa",
+                    cache).check();
+
+            assertThat(errors).hasSize(1);
+            assertThat(errors.get(0).getMessage()).contains("was stopped because it took too long to match");
+        }
+
+        assertThat(cache.getVerdictStats().hitCount()).isEqualTo(0);
+    }
+
+    private Settings getSettings(String branchNameRegex) {
+        Settings settings = mock(Settings.class);
+
+        when(settings.getString("branchNameRegex")).thenReturn(branchNameRegex);
+
+        return settings;
+    }
+}
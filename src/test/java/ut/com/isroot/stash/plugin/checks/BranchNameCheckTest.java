@@ -3,6 +3,7 @@ package ut.com.isroot.stash.plugin.checks;
 import com.atlassian.bitbucket.setting.Settings;
 import com.isroot.stash.plugin.checks.BranchNameCheck;
 import com.isroot.stash.plugin.errors.YaccError;
+import com.isroot.stash.plugin.regex.RegexBudget;
 import org.junit.Test;
 
 import java.util.List;
@@ -53,6 +54,39 @@ public class BranchNameCheckTest {
         assertThat(errors).isEmpty();
     }
 
+    @Test
+    public void testCheck_errorIfRegexTakesTooLong() {
+        List<YaccError> errors = new BranchNameCheck(getSettings("(.*a){25}"),
+                "refs/heads/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", new RegexBudget(100000, 0)).check();
+
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0).getType()).isEqualTo(YaccError.Type.BRANCH_NAME);
+        assertThat(errors.get(0).getMessage()).contains("was stopped because it took too long to match");
+    }
+
+    @Test
+    public void testCheck_linearRegexEngine_noBacktracking() {
+        Settings settings = getSettings("(.*a){25}");
+        when(settings.getBoolean("linearRegex.branchNameRegex", false)).thenReturn(true);
+
+        List<YaccError> errors = new BranchNameCheck(settings, "refs/heads/aaaaaaaaaaaaaaaaaaaaaaaaaaaaab",
+                new RegexBudget(100000, 0)).check();
+
+        assertThat(errors)
+                .containsOnly(new YaccError(YaccError.Type.BRANCH_NAME,
+                        "Invalid branch name. 'aaaaaaaaaaaaaaaaaaaaaaaaaaaaab' does not match regex '(.*a){25}'"));
+    }
+
+    @Test
+    public void testCheck_linearRegexEngine_noErrorIfBranchNameMatchesRegex() {
+        Settings settings = getSettings("feature/[A-Z]+-\\d+");
+        when(settings.getBoolean("linearRegex.branchNameRegex", false)).thenReturn(true);
+
+        List<YaccError> errors = new BranchNameCheck(settings, "refs/heads/feature/ABC-123").check();
+
+        assertThat(errors).isEmpty();
+    }
+
     private Settings getSettings(String branchNameRegex) {
         Settings settings = mock(Settings.class);
 
@@ -0,0 +1,96 @@
+package ut.com.isroot.stash.plugin.cluster;
+
+import com.atlassian.cache.Cache;
+import com.atlassian.cache.CacheLoader;
+import com.atlassian.cache.CacheManager;
+import com.atlassian.cache.CacheSettings;
+import com.isroot.stash.plugin.cluster.ClusterInvalidationBus;
+import com.isroot.stash.plugin.cluster.InvalidationBus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ClusterInvalidationBusTest {
+    private ClusterInvalidationBus node1;
+    private ClusterInvalidationBus node2;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        // Both nodes see the same replicated cache
+        Map<String, String> replicated = new ConcurrentHashMap<>();
+        Cache<String, String> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(invocation -> replicated.get(invocation.getArguments()[0]));
+        when(cache.getKeys()).thenAnswer(invocation -> replicated.keySet());
+        doAnswer(invocation -> replicated.put((String) invocation.getArguments()[0],
+                (String) invocation.getArguments()[1])).when(cache).put(anyString(), anyString());
+
+        CacheManager cacheManager = mock(CacheManager.class);
+        when(cacheManager.getCache(anyString(), any(CacheLoader.class), any(CacheSettings.class)))
+                .thenReturn((Cache) cache);
+
+        node1 = new ClusterInvalidationBus(cacheManager, 1000);
+        node2 = new ClusterInvalidationBus(cacheManager, 1000);
+    }
+
+    @Test
+    public void testPublish_publishingNodeNotifiedImmediately() {
+        AtomicInteger invalidations = new AtomicInteger();
+        node1.subscribe(InvalidationBus.GLOBAL_SETTINGS, invalidations::incrementAndGet);
+
+        node1.publish(InvalidationBus.GLOBAL_SETTINGS);
+        assertThat(invalidations.get()).isEqualTo(1);
+
+        node1.poll();
+        assertThat(invalidations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPoll_otherNodeNotifiedOnce() {
+        AtomicInteger invalidations = new AtomicInteger();
+        node2.subscribe(InvalidationBus.GLOBAL_SETTINGS, invalidations::incrementAndGet);
+
+        node1.publish(InvalidationBus.GLOBAL_SETTINGS);
+        assertThat(invalidations.get()).isEqualTo(0);
+
+        node2.poll();
+        node2.poll();
+        assertThat(invalidations.get()).isEqualTo(1);
+
+        node1.publish(InvalidationBus.GLOBAL_SETTINGS);
+        node2.poll();
+        assertThat(invalidations.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testPoll_otherTopicsIgnored() {
+        AtomicInteger invalidations = new AtomicInteger();
+        node2.subscribe(InvalidationBus.GLOBAL_SETTINGS, invalidations::incrementAndGet);
+
+        node1.publish("other");
+        node2.poll();
+
+        assertThat(invalidations.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSubscribe_earlierPublicationsIgnored() {
+        node1.publish(InvalidationBus.GLOBAL_SETTINGS);
+
+        AtomicInteger invalidations = new AtomicInteger();
+        node2.subscribe(InvalidationBus.GLOBAL_SETTINGS, invalidations::incrementAndGet);
+        node2.poll();
+
+        assertThat(invalidations.get()).isEqualTo(0);
+    }
+}
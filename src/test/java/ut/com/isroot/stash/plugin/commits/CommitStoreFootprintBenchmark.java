@@ -0,0 +1,76 @@
+package ut.com.isroot.stash.plugin.commits;
+
+import com.atlassian.bitbucket.user.SimplePerson;
+import com.isroot.stash.plugin.YaccCommit;
+import com.isroot.stash.plugin.commits.CommitStore;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Compares the heap used by 100,000 commits held as {@link YaccCommit} objects in a HashSet, as
+ * rev-list output used to be collected, with the same commits in a {@link CommitStore}. Not run
+ * as part of the unit tests, since heap measurements depend on the JVM and garbage collector. Run
+ * with a fixed heap, e.g. -Xms1g -Xmx1g.
+ */
+public class CommitStoreFootprintBenchmark {
+    private static final int COMMITS = 100000;
+    private static final int COMMITTERS = 50;
+
+    public static void main(String[] args) {
+        // Warm up, so class loading and JIT don't show up in the measurements
+        build(new HashSet<>(), 1000, false);
+        build(new CommitStore(), 1000, true);
+
+        long baseline = usedHeap();
+        Collection<YaccCommit> objects = build(new HashSet<>(), COMMITS, false);
+        long objectBytes = usedHeap() - baseline;
+        System.out.printf("YaccCommit objects: %,d bytes (%d per commit)%n", objectBytes, objectBytes / objects.size());
+        objects = null;
+
+        baseline = usedHeap();
+        Collection<YaccCommit> store = build(new CommitStore(), COMMITS, true);
+        long storeBytes = usedHeap() - baseline;
+        System.out.printf("CommitStore: %,d bytes (%d per commit)%n", storeBytes, storeBytes / store.size());
+
+        System.out.printf("CommitStore uses %.0f%% of the heap%n", 100.0 * storeBytes / objectBytes);
+    }
+
+    private static Collection<YaccCommit> build(Collection<YaccCommit> commits, int count, boolean store) {
+        Random random = new Random(42);
+
+        for (int i = 0; i < count; i++) {
+            byte[] sha = new byte[20];
+            random.nextBytes(sha);
+            StringBuilder id = new StringBuilder();
+            for (byte b : sha) {
+                id.append(String.format("%02x", b));
+            }
+
+            int committer = random.nextInt(COMMITTERS);
+            // Parsed rev-list output has a new string per commit, even for the same committer
+            String name = new String("Committer Number " + committer);
+            String email = new String("committer" + committer + "@example.com");
+            String message = "PROJ-" + random.nextInt(10000) + " change number " + i
+                    + "\n\nA longer description of the change, as most commits have one.";
+            boolean merge = random.nextInt(10) == 0;
+
+            if (store) {
+                ((CommitStore) commits).add(id.toString(), name, email, message, merge);
+            } else {
+                commits.add(new YaccCommit(id.toString(), new SimplePerson(name, email), message, merge));
+            }
+        }
+
+        return commits;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,76 @@
+package ut.com.isroot.stash.plugin.commits;
+
+import com.atlassian.bitbucket.user.SimplePerson;
+import com.isroot.stash.plugin.YaccCommit;
+import com.isroot.stash.plugin.commits.CommitStore;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommitStoreTest {
+    @Test
+    public void testGet_returnsAddedCommit() {
+        CommitStore store = new CommitStore();
+        store.add("9a1ced131648d5481e4a3f00b9c5522d466ec693", "Commit Last", "some@email.com",
+                "Multiple\n\nLines \u00e9\u00e8 \ud83d\ude00\n", true);
+
+        YaccCommit commit = store.get(0);
+
+        assertThat(commit.getId()).isEqualTo("9a1ced131648d5481e4a3f00b9c5522d466ec693");
+        assertThat(commit.getCommitter().getName()).isEqualTo("Commit Last");
+        assertThat(commit.getCommitter().getEmailAddress()).isEqualTo("some@email.com");
+        assertThat(commit.getMessage()).isEqualTo("Multiple\n\nLines \u00e9\u00e8 \ud83d\ude00");
+        assertThat(commit.isMerge()).isTrue();
+    }
+
+    @Test
+    public void testIterator_keepsOrderAcrossGrowth() {
+        CommitStore store = new CommitStore();
+        for (int i = 0; i < 1000; i++) {
+            store.add(String.format("%040x", i), "Name", "name@example.com", "message " + i, i % 7 == 0);
+        }
+
+        assertThat(store).hasSize(1000);
+
+        int i = 0;
+        for (YaccCommit commit : store) {
+            assertThat(commit.getId()).isEqualTo(String.format("%040x", i));
+            assertThat(commit.getMessage()).isEqualTo("message " + i);
+            assertThat(commit.isMerge()).isEqualTo(i % 7 == 0);
+            i++;
+        }
+    }
+
+    @Test
+    public void testAdd_committersAreShared() {
+        CommitStore store = new CommitStore();
+        store.add("9a1ced131648d5481e4a3f00b9c5522d466ec693", "Name", "name@example.com", "one", false);
+        store.add("1060dc57a0c0b27fdd7aef1481ca914a1d7d084e", "Other", "other@example.com", "two", false);
+        store.add("a293f806780249dc855ff560cb70f3c21c7f9c1e", "Name", "name@example.com", "three", false);
+
+        assertThat(store.getCommitterCount()).isEqualTo(2);
+        assertThat(store.get(2).getCommitter()).isSameAs(store.get(0).getCommitter());
+    }
+
+    @Test
+    public void testAdd_idThatIsNotAHashIsKept() {
+        CommitStore store = new CommitStore();
+        store.add("deadbeef", "Name", "name@example.com", "short id", false);
+        store.add("9A1CED131648D5481E4A3F00B9C5522D466EC693", "Name", "name@example.com", "upper case", false);
+
+        assertThat(store.get(0).getId()).isEqualTo("deadbeef");
+        assertThat(store.get(1).getId()).isEqualTo("9A1CED131648D5481E4A3F00B9C5522D466EC693");
+    }
+
+    @Test
+    public void testAdd_yaccCommit() {
+        CommitStore store = new CommitStore();
+        YaccCommit commit = new YaccCommit("a293f806780249dc855ff560cb70f3c21c7f9c1e",
+                new SimplePerson("Name", "name@example.com"), "tag message", false);
+
+        store.add(commit);
+
+        assertThat(store).containsExactly(commit);
+        assertThat(store.get(0).getMessage()).isEqualTo("tag message");
+    }
+}
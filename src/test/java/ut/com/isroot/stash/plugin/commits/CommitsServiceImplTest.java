@@ -2,7 +2,17 @@ package ut.com.isroot.stash.plugin.commits;
 
 import com.atlassian.bitbucket.repository.MinimalRef;
 import com.atlassian.bitbucket.repository.RefChange;
+import com.atlassian.bitbucket.repository.RefChangeType;
 import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.StandardRefType;
+import com.atlassian.bitbucket.scm.Command;
+import com.atlassian.bitbucket.scm.CommandOutputHandler;
+import com.atlassian.bitbucket.scm.ScmService;
+import com.atlassian.bitbucket.scm.git.GitScm;
+import com.atlassian.bitbucket.scm.git.command.GitScmCommandBuilder;
+import com.atlassian.bitbucket.scm.git.command.revlist.GitRevListBuilder;
+import com.google.common.collect.Lists;
+import com.isroot.stash.plugin.PushDeadline;
 import com.isroot.stash.plugin.YaccCommit;
 import com.isroot.stash.plugin.commits.CommitsServiceImpl;
 import org.junit.Before;
@@ -10,10 +20,16 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -25,23 +41,108 @@ public class CommitsServiceImplTest {
 
     @Mock private Repository repository;
     @Mock private RefChange refChange;
+    @Mock private ScmService scmService;
+    @Mock private GitScmCommandBuilder commandBuilder;
+    @Mock private Command<Object> command;
+    private GitRevListBuilder revListBuilder;
 
     @Before
+    @SuppressWarnings("unchecked")
     public void setup() {
         MockitoAnnotations.initMocks(this);
 
-        commitsService = new CommitsServiceImpl(null);
+        commitsService = new CommitsServiceImpl(scmService);
 
         when(refChange.getRef()).thenReturn(mock(MinimalRef.class));
+
+        // Builder methods return the builder, so the arguments of the whole chain can be verified
+        revListBuilder = mock(GitRevListBuilder.class, invocation ->
+                invocation.getMethod().getReturnType() == GitRevListBuilder.class ? invocation.getMock()
+                        : RETURNS_DEFAULTS.answer(invocation));
+        when(revListBuilder.build(any(CommandOutputHandler.class))).thenReturn(command);
+        when(commandBuilder.revList()).thenReturn(revListBuilder);
+        doReturn(commandBuilder).when(scmService).createBuilder(repository);
     }
 
     @Test
     public void testGetNewCommits_noCommitsReturnedForUnsupportedScm() {
         when(repository.getScmId()).thenReturn("unsupported");
 
-        Set<YaccCommit> commits = commitsService.getNewCommits(repository, refChange);
+        Set<YaccCommit> commits = commitsService.getNewCommits(repository, refChange, PushDeadline.none());
+
+        assertThat(commits).isEmpty();
+    }
+
+    @Test
+    public void testCountNewCommits_noCommitsForUnsupportedScm() {
+        when(repository.getScmId()).thenReturn("unsupported");
+
+        assertThat(commitsService.countNewCommits(repository, refChange, PushDeadline.none())).isEqualTo(0);
+    }
+
+    @Test
+    public void testStreamPushedCommits_updateExcludesOldTipAndRefsNotPushed() {
+        pushedRefChange(RefChangeType.UPDATE);
+
+        commitsService.streamPushedCommits(repository, refChange,
+                Lists.newArrayList("refs/heads/master", "refs/heads/other"), PushDeadline.none(), 0, 1, commit -> { });
+
+        verify(revListBuilder).revs("35d938b060bb361503e021f228e43351f1a71551", "--not",
+                "5773fc438a763e64df8a9c5c32f3b1e83010ada7",
+                "--exclude=refs/heads/master", "--exclude=refs/heads/other", "--glob=refs/heads",
+                "--exclude=refs/heads/master", "--exclude=refs/heads/other", "--glob=refs/tags");
+    }
+
+    @Test
+    public void testCountPushedCommits_addExcludesRefsNotPushed() {
+        pushedRefChange(RefChangeType.ADD);
+
+        commitsService.countPushedCommits(repository, refChange, Lists.newArrayList("refs/heads/master"),
+                PushDeadline.none());
+
+        verify(revListBuilder).count(true);
+        verify(revListBuilder).revs("35d938b060bb361503e021f228e43351f1a71551", "--not",
+                "--exclude=refs/heads/master", "--glob=refs/heads",
+                "--exclude=refs/heads/master", "--glob=refs/tags");
+    }
+
+    @Test
+    public void testGetRefTips_tipsOfAllRefs() {
+        when(repository.getScmId()).thenReturn(GitScm.ID);
+
+        commitsService.getRefTips(repository, PushDeadline.none());
+
+        verify(revListBuilder).revs("--no-walk", "--all");
+    }
+
+    @Test
+    public void testStreamCommitsFrom_walkContinuesFromSavedTips() {
+        when(repository.getScmId()).thenReturn(GitScm.ID);
+
+        commitsService.streamCommitsFrom(repository, Lists.newArrayList("35d938b060bb361503e021f228e43351f1a71551",
+                "5773fc438a763e64df8a9c5c32f3b1e83010ada7"), 1000, PushDeadline.none(), commit -> { });
+
+        verify(revListBuilder).revs("--skip=1000", "35d938b060bb361503e021f228e43351f1a71551",
+                "5773fc438a763e64df8a9c5c32f3b1e83010ada7");
+    }
+
+    @Test
+    public void testStreamRecentCommits_noCommitsForUnsupportedScm() {
+        when(repository.getScmId()).thenReturn("unsupported");
+        List<YaccCommit> commits = new ArrayList<>();
+
+        commitsService.streamRecentCommits(repository, 0, 10, commits::add);
 
         assertThat(commits).isEmpty();
     }
 
+    private void pushedRefChange(RefChangeType type) {
+        when(repository.getScmId()).thenReturn(GitScm.ID);
+        when(refChange.getRef().getType()).thenReturn(StandardRefType.BRANCH);
+        when(refChange.getRef().getId()).thenReturn("refs/heads/master");
+        when(refChange.getType()).thenReturn(type);
+        when(refChange.getFromHash()).thenReturn(type == RefChangeType.ADD ? "0000000000000000000000000000000000000000"
+                : "5773fc438a763e64df8a9c5c32f3b1e83010ada7");
+        when(refChange.getToHash()).thenReturn("35d938b060bb361503e021f228e43351f1a71551");
+    }
 }
@@ -0,0 +1,71 @@
+package ut.com.isroot.stash.plugin.commits;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.user.SimplePerson;
+import com.google.common.collect.Lists;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.YaccCommit;
+import com.isroot.stash.plugin.commits.CommitsService;
+import com.isroot.stash.plugin.commits.PullRequestCommitCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PullRequestCommitCacheTest {
+    @Mock private CommitsService commitsService;
+    @Mock private Repository repository;
+
+    private List<YaccCommit> commits;
+    private PullRequestCommitCache commitCache;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+
+        when(repository.getId()).thenReturn(1);
+
+        commits = Lists.newArrayList(new YaccCommit("c1", new SimplePerson("John Smith", "jsmith@example.com"),
+                "ABC-1: one", false));
+        when(commitsService.getCommitsBetween(eq(repository), anyString(), anyString(), anyInt(),
+                any(PushDeadline.class))).thenReturn(commits);
+
+        commitCache = new PullRequestCommitCache(commitsService, 100);
+    }
+
+    @Test
+    public void testGetCommits_cachedUntilBranchesMove() {
+        assertThat(commitCache.getCommits(repository, "target", "source", 10, PushDeadline.none()))
+                .containsExactlyElementsOf(commits);
+        assertThat(commitCache.getCommits(repository, "target", "source", 10, PushDeadline.none()))
+                .containsExactlyElementsOf(commits);
+
+        verify(commitsService, times(1)).getCommitsBetween(repository, "target", "source", 10, PushDeadline.none());
+        assertThat(commitCache.getStats().hitCount()).isEqualTo(1);
+
+        commitCache.getCommits(repository, "target", "source2", 10, PushDeadline.none());
+
+        verify(commitsService).getCommitsBetween(repository, "target", "source2", 10, PushDeadline.none());
+    }
+
+    @Test
+    public void testGetCommits_disabledCacheAlwaysLists() {
+        commitCache = new PullRequestCommitCache(commitsService, 0);
+
+        commitCache.getCommits(repository, "target", "source", 10, PushDeadline.none());
+        commitCache.getCommits(repository, "target", "source", 10, PushDeadline.none());
+
+        verify(commitsService, times(2)).getCommitsBetween(repository, "target", "source", 10, PushDeadline.none());
+    }
+}
@@ -0,0 +1,26 @@
+package ut.com.isroot.stash.plugin.commits;
+
+import com.isroot.stash.plugin.commits.RevListCountOutputHandler;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RevListCountOutputHandlerTest {
+    @Test
+    public void testGetOutput() throws Exception {
+        RevListCountOutputHandler handler = new RevListCountOutputHandler();
+        handler.process(new ByteArrayInputStream("104233\n".getBytes()));
+
+        assertThat(handler.getOutput()).isEqualTo(104233L);
+    }
+
+    @Test
+    public void testGetOutput_noOutput() throws Exception {
+        RevListCountOutputHandler handler = new RevListCountOutputHandler();
+        handler.process(new ByteArrayInputStream(new byte[0]));
+
+        assertThat(handler.getOutput()).isNull();
+    }
+}
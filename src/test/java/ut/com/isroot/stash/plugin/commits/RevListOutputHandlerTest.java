@@ -1,11 +1,13 @@
 package ut.com.isroot.stash.plugin.commits;
 
 import com.atlassian.utils.process.ProcessException;
+import com.isroot.stash.plugin.PushDeadline;
 import com.isroot.stash.plugin.YaccCommit;
 import com.isroot.stash.plugin.commits.RevListOutputHandler;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -89,6 +91,25 @@ public class RevListOutputHandlerTest {
         assertThat(commits.get(0).getCommitter().getEmailAddress()).isEmpty();
     }
 
+    @Test
+    public void testProcess_streamsEveryStrideCommitToConsumer() throws Exception {
+        StringBuilder revList = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            revList.append("commit ").append(i).append("\n")
+                    .append(i).append("\u0002a293f806780249dc855ff560cb70f3c21c7f9c1e\u0002Commit Last\u0002some@email.com\n")
+                    .append("message ").append(i).append("\n")
+                    .append("\u0003END\u0004\n");
+        }
+
+        List<YaccCommit> streamed = new ArrayList<>();
+        RevListOutputHandler handler = new RevListOutputHandler(PushDeadline.none(), 2, streamed::add);
+        handler.process(new ByteArrayInputStream(revList.toString().getBytes()));
+
+        assertThat(streamed).extracting("id").containsExactly("0", "2", "4");
+        assertThat(streamed).extracting("message").containsExactly("message 0", "message 2", "message 4");
+        assertThat(handler.getOutput()).isEmpty();
+    }
+
     private List<YaccCommit> parse(String revList) {
         RevListOutputHandler handler = new RevListOutputHandler();
 
@@ -98,6 +119,6 @@ public class RevListOutputHandlerTest {
             throw new RuntimeException(e);
         }
 
-        return handler.getOutput();
+        return new ArrayList<>(handler.getOutput());
     }
 }
@@ -0,0 +1,261 @@
+package ut.com.isroot.stash.plugin.jira;
+
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.EscalatedSecurityContext;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.user.UserService;
+import com.atlassian.bitbucket.util.Operation;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.atlassian.bitbucket.util.Page;
+import com.atlassian.bitbucket.util.PageRequest;
+import com.google.common.collect.Lists;
+import com.isroot.stash.plugin.IssueKey;
+import com.isroot.stash.plugin.JiraService;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.YaccCommit;
+import com.isroot.stash.plugin.commits.CommitsService;
+import com.isroot.stash.plugin.errors.YaccError;
+import com.isroot.stash.plugin.jira.JiraCacheWarmer;
+import com.isroot.stash.plugin.jira.JiraIssueIndex;
+import com.isroot.stash.plugin.jira.JiraLookupCache;
+import com.isroot.stash.plugin.jira.JiraServiceImpl;
+import com.isroot.stash.plugin.jira.JiraServiceUser;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import ut.com.isroot.stash.plugin.mock.FakeJira;
+import ut.com.isroot.stash.plugin.mock.MockApplicationLink;
+import ut.com.isroot.stash.plugin.mock.MockApplicationLinkService;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JiraCacheWarmerTest {
+    @Mock private RepositoryService repositoryService;
+    @Mock private SecurityService securityService;
+    @Mock private EscalatedSecurityContext securityContext;
+    @Mock private EscalatedSecurityContext impersonating;
+    @Mock private UserService userService;
+    @Mock private ApplicationUser serviceUser;
+    @Mock private CommitsService commitsService;
+    @Mock private JiraService jiraService;
+    @Mock private Repository repository;
+    @Mock private Repository emptyRepository;
+
+    private final AtomicBoolean asServiceUser = new AtomicBoolean();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Throwable {
+        MockitoAnnotations.initMocks(this);
+
+        when(securityService.withPermission(eq(Permission.REPO_READ), anyString())).thenReturn(securityContext);
+        when(securityContext.call(any(Operation.class)))
+                .thenAnswer(invocation -> ((Operation<?, ?>) invocation.getArguments()[0]).perform());
+
+        Page<Repository> page = mock(Page.class);
+        when(page.getValues()).thenReturn(Lists.newArrayList(emptyRepository, repository));
+        when(page.getIsLastPage()).thenReturn(true);
+        when(repositoryService.findAll(any(PageRequest.class))).thenReturn(page);
+
+        when(userService.getUserByName("jira-bot")).thenReturn(serviceUser);
+        when(securityService.impersonating(eq(serviceUser), anyString())).thenReturn(impersonating);
+        when(impersonating.call(any(UncheckedOperation.class))).thenAnswer(invocation -> {
+            asServiceUser.set(true);
+            try {
+                return ((UncheckedOperation<Object>) invocation.getArguments()[0]).perform();
+            } finally {
+                asServiceUser.set(false);
+            }
+        });
+
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+        when(jiraService.checkIssues(any(Collection.class), (String) isNull(), any(PushDeadline.class)))
+                .thenAnswer(invocation -> results((Collection<IssueKey>) invocation.getArguments()[0],
+                        Collections.emptyList()));
+
+        doThrow(new IllegalStateException("unknown revision HEAD")).when(commitsService)
+                .streamRecentCommits(eq(emptyRepository), anyLong(), anyInt(), any());
+    }
+
+    @Test
+    public void testWarmUp_issuesInRecentCommitsAreLookedUp() {
+        recentCommits("ABC-1: first", "ABC-2 ABC-1: second", "no issue");
+
+        warmer(100).warmUp();
+
+        verify(jiraService).checkIssues(eq(Lists.newArrayList(new IssueKey("ABC-1"), new IssueKey("ABC-2"))),
+                (String) isNull(), any(PushDeadline.class));
+    }
+
+    @Test
+    public void testWarmUp_issueCountIsBounded() {
+        recentCommits("ABC-1 ABC-2 ABC-3");
+
+        warmer(2).warmUp();
+
+        verify(jiraService).checkIssues(eq(Lists.newArrayList(new IssueKey("ABC-1"), new IssueKey("ABC-2"))),
+                (String) isNull(), any(PushDeadline.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWarmUp_issuesLookedUpInBatches() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 1; i <= 120; i++) {
+            message.append("ABC-").append(i).append(' ');
+        }
+        recentCommits(message.toString());
+
+        warmer(1000).warmUp();
+
+        verify(jiraService, times(3)).checkIssues(any(Collection.class), (String) isNull(),
+                any(PushDeadline.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWarmUp_skippedWithoutJiraLink() {
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(false);
+
+        warmer(100).warmUp();
+
+        verify(repositoryService, never()).findAll(any(PageRequest.class));
+        verify(jiraService, never()).checkIssues(any(Collection.class), any(String.class), any(PushDeadline.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWarmUp_issuesLookedUpAsServiceUser() {
+        recentCommits("ABC-1: first");
+        List<Boolean> lookedUpAsServiceUser = new ArrayList<>();
+        when(jiraService.checkIssues(any(Collection.class), (String) isNull(), any(PushDeadline.class)))
+                .thenAnswer(invocation -> {
+                    lookedUpAsServiceUser.add(asServiceUser.get());
+                    return results((Collection<IssueKey>) invocation.getArguments()[0], Collections.emptyList());
+                });
+
+        warmer(100).warmUp();
+
+        assertThat(lookedUpAsServiceUser).containsExactly(true);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWarmUp_skippedWithoutServiceUser() {
+        recentCommits("ABC-1: first");
+
+        warmer(new JiraServiceUser(securityService, userService, null), 100).warmUp();
+
+        verify(repositoryService, never()).findAll(any(PageRequest.class));
+        verify(jiraService, never()).checkIssues(any(Collection.class), any(String.class), any(PushDeadline.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWarmUp_skippedWhenServiceUserDoesNotExist() {
+        recentCommits("ABC-1: first");
+
+        warmer(new JiraServiceUser(securityService, userService, "nobody"), 100).warmUp();
+
+        verify(jiraService, never()).checkIssues(any(Collection.class), any(String.class), any(PushDeadline.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWarmUp_stopsWhenNoIssueOfBatchFound() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 1; i <= 120; i++) {
+            message.append("ABC-").append(i).append(' ');
+        }
+        recentCommits(message.toString());
+        List<YaccError> credentialsRequired = Lists.newArrayList(
+                new YaccError(YaccError.Type.OTHER, "Could not authenticate"));
+        when(jiraService.checkIssues(any(Collection.class), (String) isNull(), any(PushDeadline.class)))
+                .thenAnswer(invocation -> results((Collection<IssueKey>) invocation.getArguments()[0],
+                        credentialsRequired));
+
+        warmer(1000).warmUp();
+
+        verify(jiraService, times(1)).checkIssues(any(Collection.class), (String) isNull(),
+                any(PushDeadline.class));
+    }
+
+    @Test
+    public void testWarmUp_linkRequiringCredentialsIsAskedAsServiceUser() {
+        recentCommits("ABC-1: first", "ABC-2: second");
+        List<String> requests = new ArrayList<>();
+        FakeJira jira = new FakeJira().addIssue("ABC-1", "done").addIssue("ABC-2", "new");
+        JiraServiceImpl realJiraService = new JiraServiceImpl(new MockApplicationLinkService(
+                MockApplicationLink.requiresCredentials(asServiceUser::get, jira, requests)),
+                new JiraLookupCache(100, 60, 10, Clock.systemUTC()), new JiraIssueIndex());
+
+        new JiraCacheWarmer(repositoryService, securityService, commitsService, realJiraService,
+                new JiraServiceUser(securityService, userService, "jira-bot"), 60, 14, 500, 100, 1000).warmUp();
+
+        assertThat(requests).isNotEmpty();
+        requests.clear();
+
+        // Found by the service user, so known without asking JIRA
+        assertThat(realJiraService.doesIssueExist(new IssueKey("ABC-2"), PushDeadline.none())).isEmpty();
+        assertThat(requests).isEmpty();
+    }
+
+    private JiraCacheWarmer warmer(int maxIssues) {
+        return warmer(new JiraServiceUser(securityService, userService, "jira-bot"), maxIssues);
+    }
+
+    private JiraCacheWarmer warmer(JiraServiceUser jiraServiceUser, int maxIssues) {
+        return new JiraCacheWarmer(repositoryService, securityService, commitsService, jiraService, jiraServiceUser,
+                60, 14, 500, maxIssues, 1000);
+    }
+
+    private static Map<IssueKey, List<YaccError>> results(Collection<IssueKey> issueKeys, List<YaccError> result) {
+        Map<IssueKey, List<YaccError>> results = new LinkedHashMap<>();
+        for (IssueKey issueKey : issueKeys) {
+            results.put(issueKey, result);
+        }
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void recentCommits(String... messages) {
+        doAnswer(invocation -> {
+            Consumer<YaccCommit> consumer = (Consumer<YaccCommit>) invocation.getArguments()[3];
+            for (String message : messages) {
+                YaccCommit commit = mock(YaccCommit.class, RETURNS_DEEP_STUBS);
+                when(commit.getMessage()).thenReturn(message);
+                consumer.accept(commit);
+            }
+            return null;
+        }).when(commitsService).streamRecentCommits(eq(repository), anyLong(), anyInt(), any());
+    }
+}
@@ -0,0 +1,185 @@
+package ut.com.isroot.stash.plugin.jira;
+
+import com.google.common.base.Ticker;
+import com.isroot.stash.plugin.jira.CircuitBreakerConfig;
+import com.isroot.stash.plugin.jira.JiraCircuitBreaker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JiraCircuitBreakerTest {
+    private FakeTicker ticker;
+    private JiraCircuitBreaker breaker;
+
+    @Before
+    public void setup() {
+        ticker = new FakeTicker();
+
+        // window of 10 calls, trips at 50% failures after at least 4 calls, open for 30 seconds
+        breaker = new JiraCircuitBreaker("jira",
+                new CircuitBreakerConfig(true, 10, 4, 50, 1000, 30000, false, 100, 5000), ticker);
+    }
+
+    @Test
+    public void testBreakerStaysClosedBelowFailureRate() {
+        call(true);
+        call(true);
+        call(true);
+        call(false);
+
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void testBreakerDoesNotTripBeforeMinimumCalls() {
+        call(false);
+        call(false);
+        call(false);
+
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void testBreakerOpensAtFailureRate() {
+        call(true);
+        call(true);
+        call(false);
+        call(false);
+
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.getRejectedCalls()).isEqualTo(1);
+        assertThat(breaker.getTimesOpened()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSlowCallsCountAsFailures() {
+        for (int i = 0; i < 4; i++) {
+            breaker.tryAcquire();
+            breaker.onSuccess(1000);
+        }
+
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.OPEN);
+        assertThat(breaker.getSlowCalls()).isEqualTo(4);
+    }
+
+    @Test
+    public void testHalfOpenAllowsSingleProbeAfterOpenPeriod() {
+        tripBreaker();
+
+        ticker.advance(29999);
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        ticker.advance(1);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void testSuccessfulProbeClosesBreaker() {
+        tripBreaker();
+        ticker.advance(30000);
+
+        call(true);
+
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void testFailedProbeReopensBreaker() {
+        tripBreaker();
+        ticker.advance(30000);
+
+        call(false);
+
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.OPEN);
+        assertThat(breaker.getTimesOpened()).isEqualTo(2);
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void testIgnoredProbeReleasesPermit() {
+        tripBreaker();
+        ticker.advance(30000);
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onIgnored();
+
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void testTimeoutIsMaxUntilLatencyIsKnown() {
+        assertThat(breaker.getTimeoutMillis()).isEqualTo(5000);
+    }
+
+    @Test
+    public void testTimeoutAdaptsToLatency() {
+        for (int i = 0; i < 20; i++) {
+            breaker.tryAcquire();
+            breaker.onSuccess(200);
+        }
+
+        assertThat(breaker.getTimeoutMillis()).isBetween(200, 300);
+    }
+
+    @Test
+    public void testTimeoutIsNeverBelowMinimum() {
+        for (int i = 0; i < 20; i++) {
+            breaker.tryAcquire();
+            breaker.onSuccess(1);
+        }
+
+        assertThat(breaker.getTimeoutMillis()).isEqualTo(100);
+    }
+
+    @Test
+    public void testDisabledBreakerNeverOpens() {
+        breaker = new JiraCircuitBreaker("jira",
+                new CircuitBreakerConfig(false, 10, 1, 50, 1000, 30000, false, 100, 5000), ticker);
+
+        call(false);
+        call(false);
+
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getFailures()).isEqualTo(2);
+    }
+
+    private void tripBreaker() {
+        for (int i = 0; i < 4; i++) {
+            call(false);
+        }
+
+        assertThat(breaker.getState()).isEqualTo(JiraCircuitBreaker.State.OPEN);
+    }
+
+    private void call(boolean success) {
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        if (success) {
+            breaker.onSuccess(10);
+        } else {
+            breaker.onFailure(10);
+        }
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ut.com.isroot.stash.plugin.jira;
+
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.EscalatedSecurityContext;
+import com.atlassian.bitbucket.user.SecurityService;
+import com.atlassian.bitbucket.user.UserService;
+import com.atlassian.bitbucket.util.UncheckedOperation;
+import com.isroot.stash.plugin.IssueKey;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.jira.JiraIssueIndex;
+import com.isroot.stash.plugin.jira.JiraIssueIndexSync;
+import com.isroot.stash.plugin.jira.JiraLookupCache;
+import com.isroot.stash.plugin.jira.JiraServiceImpl;
+import com.isroot.stash.plugin.jira.JiraServiceUser;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import ut.com.isroot.stash.plugin.mock.FakeJira;
+import ut.com.isroot.stash.plugin.mock.MockApplicationLink;
+import ut.com.isroot.stash.plugin.mock.MockApplicationLinkService;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+public class JiraIssueIndexSyncTest {
+    @Mock private SecurityService securityService;
+    @Mock private EscalatedSecurityContext impersonating;
+    @Mock private UserService userService;
+    @Mock private ApplicationUser serviceUser;
+
+    private final AtomicBoolean authenticated = new AtomicBoolean();
+    private final List<String> requests = new ArrayList<>();
+    private JiraIssueIndex index;
+    private MockApplicationLink link;
+    private JiraServiceImpl jiraService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+
+        when(userService.getUserByName("jira-bot")).thenReturn(serviceUser);
+        when(securityService.impersonating(eq(serviceUser), anyString())).thenReturn(impersonating);
+        when(impersonating.call(any(UncheckedOperation.class))).thenAnswer(invocation -> {
+            authenticated.set(true);
+            try {
+                return ((UncheckedOperation<Object>) invocation.getArguments()[0]).perform();
+            } finally {
+                authenticated.set(false);
+            }
+        });
+
+        FakeJira jira = new FakeJira().addIssue("TEST-1", "done").addIssue("TEST-2", "new");
+        index = new JiraIssueIndex(true, 50, Clock.systemUTC());
+        link = MockApplicationLink.requiresCredentials(authenticated::get, jira, requests);
+        jiraService = new JiraServiceImpl(new MockApplicationLinkService(link),
+                new JiraLookupCache(0, 0, 0, Clock.systemUTC()), index);
+
+        // A pusher finds an issue, so its project is indexed
+        authenticated.set(true);
+        jiraService.doesIssueExist(new IssueKey("TEST-1"), PushDeadline.none());
+        authenticated.set(false);
+    }
+
+    @Test
+    public void testSync_linkRequiringCredentialsIsAskedAsServiceUser() {
+        sync(new JiraServiceUser(securityService, userService, "jira-bot"));
+
+        assertThat(index.size(link.getId().get())).isEqualTo(2);
+    }
+
+    @Test
+    public void testSync_skippedWithoutServiceUser() {
+        requests.clear();
+
+        sync(new JiraServiceUser(securityService, userService, null));
+
+        assertThat(index.size(link.getId().get())).isEqualTo(1);
+        assertThat(requests).isEmpty();
+    }
+
+    @Test
+    public void testSyncIssueIndex_withoutCredentialsLeavesIndexAsIs() {
+        jiraService.syncIssueIndex();
+
+        assertThat(index.size(link.getId().get())).isEqualTo(1);
+    }
+
+    private void sync(JiraServiceUser jiraServiceUser) {
+        new JiraIssueIndexSync(jiraService, index, jiraServiceUser, 60).sync();
+    }
+}
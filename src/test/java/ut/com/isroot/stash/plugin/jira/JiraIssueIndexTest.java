@@ -0,0 +1,152 @@
+package ut.com.isroot.stash.plugin.jira;
+
+import com.google.gson.Gson;
+import com.isroot.stash.plugin.jira.JiraIssueIndex;
+import org.junit.Before;
+import org.junit.Test;
+import ut.com.isroot.stash.plugin.mock.FakeJira;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JiraIssueIndexTest {
+    private JiraLookupCacheTest.FakeClock clock;
+    private FakeJira jira;
+    private List<String> searches;
+    private JiraIssueIndex.Searcher searcher;
+
+    @Before
+    public void setup() {
+        clock = new JiraLookupCacheTest.FakeClock();
+        jira = new FakeJira()
+                .addIssue("TEST-1", "done")
+                .addIssue("TEST-2", "indeterminate")
+                .addIssue("TEST-3", "new")
+                .addIssue("OTHER-1", "new");
+
+        searches = new ArrayList<>();
+        searcher = (jql, startAt, maxResults, fields) -> {
+            searches.add(jql + " @" + startAt);
+
+            Map<String, Object> request = new LinkedHashMap<>();
+            request.put("jql", jql);
+            request.put("startAt", startAt);
+            request.put("maxResults", maxResults);
+            request.put("fields", fields);
+
+            Object response = jira.apply(new Gson().toJson(request));
+            return JiraIssueIndex.readSearchPage(
+                    new ByteArrayInputStream(((String) response).getBytes(StandardCharsets.UTF_8)));
+        };
+    }
+
+    @Test
+    public void testReadSearchPage() throws Exception {
+        String response = "{\"startAt\":0,\"total\":7,\"issues\":[" +
+                "{\"id\":\"10001\",\"key\":\"TEST-1\",\"fields\":{\"updated\":\"2017-07-14T02:40:00.000+0000\"," +
+                "\"status\":{\"name\":\"Closed\",\"statusCategory\":{\"id\":3,\"key\":\"done\"}}}}," +
+                "{\"key\":\"TEST-2\",\"fields\":{\"status\":null}}]}";
+
+        JiraIssueIndex.SearchPage page = JiraIssueIndex.readSearchPage(
+                new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(page.getTotal()).isEqualTo(7);
+        assertThat(page.getIssues()).hasSize(2);
+        assertThat(page.getIssues().get(0).getKey()).isEqualTo("TEST-1");
+        assertThat(page.getIssues().get(0).getStatusCategory()).isEqualTo("done");
+        assertThat(page.getIssues().get(0).getUpdated()).isEqualTo(1500000000000L);
+        assertThat(page.getIssues().get(1).getKey()).isEqualTo("TEST-2");
+        assertThat(page.getIssues().get(1).getStatusCategory()).isNull();
+        assertThat(page.getIssues().get(1).getUpdated()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSync_disabledIndexIsEmpty() throws Exception {
+        JiraIssueIndex index = new JiraIssueIndex(false, 2, clock);
+
+        index.issueFound("link1", "TEST-1");
+
+        assertThat(index.sync("link1", searcher)).isEqualTo(0);
+        assertThat(index.contains("link1", "TEST-1")).isFalse();
+        assertThat(searches).isEmpty();
+    }
+
+    @Test
+    public void testSync_projectOfFoundIssueLoadedInPages() throws Exception {
+        JiraIssueIndex index = new JiraIssueIndex(true, 2, clock);
+
+        index.issueFound("link1", "TEST-1");
+        assertThat(index.contains("link1", "TEST-1")).isTrue();
+        assertThat(index.contains("link1", "TEST-2")).isFalse();
+
+        assertThat(index.sync("link1", searcher)).isEqualTo(3);
+
+        assertThat(searches).containsExactly(
+                "project in ('TEST') order by key @0",
+                "project in ('TEST') order by key @2");
+        assertThat(index.size("link1")).isEqualTo(3);
+        assertThat(index.get("link1", "TEST-2").getStatusCategory()).isEqualTo("indeterminate");
+        assertThat(index.contains("link1", "OTHER-1")).isFalse();
+        assertThat(index.contains("link2", "TEST-1")).isFalse();
+    }
+
+    @Test
+    public void testSync_onlyUpdatedIssuesSearchedAfterFirstSync() throws Exception {
+        JiraIssueIndex index = new JiraIssueIndex(true, 50, clock);
+        index.issueFound("link1", "TEST-1");
+        index.sync("link1", searcher);
+
+        advance(10);
+        index.sync("link1", searcher);
+
+        advance(10);
+        jira.addIssue("TEST-4", "new");
+        searches.clear();
+
+        assertThat(index.sync("link1", searcher)).isEqualTo(1);
+
+        assertThat(searches).containsExactly("project in ('TEST') and updated >= -12m order by key @0");
+        assertThat(index.contains("link1", "TEST-4")).isTrue();
+    }
+
+    @Test
+    public void testSync_newProjectLoadedAlongsideKnownProjects() throws Exception {
+        JiraIssueIndex index = new JiraIssueIndex(true, 50, clock);
+        index.issueFound("link1", "TEST-1");
+        index.sync("link1", searcher);
+
+        advance(1);
+        index.issueFound("link1", "OTHER-1");
+        searches.clear();
+        index.sync("link1", searcher);
+
+        assertThat(searches).containsExactly(
+                "project in ('TEST') and updated >= -3m order by key @0",
+                "project in ('OTHER') order by key @0");
+        assertThat(index.size("link1")).isEqualTo(4);
+    }
+
+    @Test
+    public void testReset_forgetsLink() throws Exception {
+        JiraIssueIndex index = new JiraIssueIndex(true, 50, clock);
+        index.issueFound("link1", "TEST-1");
+        index.sync("link1", searcher);
+
+        index.reset("link1");
+
+        assertThat(index.size("link1")).isEqualTo(0);
+        assertThat(index.sync("link1", searcher)).isEqualTo(0);
+    }
+
+    private void advance(long minutes) {
+        clock.advance(minutes, TimeUnit.MINUTES);
+        jira.advanceMinutes(minutes);
+    }
+}
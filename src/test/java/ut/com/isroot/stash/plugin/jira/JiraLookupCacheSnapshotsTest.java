@@ -0,0 +1,78 @@
+package ut.com.isroot.stash.plugin.jira;
+
+import com.atlassian.bitbucket.server.ApplicationPropertiesService;
+import com.isroot.stash.plugin.jira.JiraLookupCache;
+import com.isroot.stash.plugin.jira.JiraLookupCacheSnapshots;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JiraLookupCacheSnapshotsTest {
+    @Rule
+    public TemporaryFolder sharedHome = new TemporaryFolder();
+
+    private ApplicationPropertiesService applicationPropertiesService;
+    private JiraLookupCacheTest.FakeClock clock;
+
+    @Before
+    public void setup() {
+        applicationPropertiesService = mock(ApplicationPropertiesService.class);
+        when(applicationPropertiesService.getSharedHomeDir()).thenReturn(sharedHome.getRoot());
+
+        clock = new JiraLookupCacheTest.FakeClock();
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        JiraLookupCache cache = new JiraLookupCache(100, 60, 10, clock);
+        cache.issueFound("link1", "TEST-1");
+        new JiraLookupCacheSnapshots(cache, applicationPropertiesService, 10).save();
+
+        JiraLookupCache restored = new JiraLookupCache(100, 60, 10, clock);
+        new JiraLookupCacheSnapshots(restored, applicationPropertiesService, 10).load();
+
+        assertThat(restored.isIssueKnown("link1", "TEST-1")).isTrue();
+    }
+
+    @Test
+    public void testSave_unchangedCacheIsNotWrittenAgain() throws IOException {
+        JiraLookupCache cache = new JiraLookupCache(100, 60, 10, clock);
+        cache.issueFound("link1", "TEST-1");
+        JiraLookupCacheSnapshots snapshots = new JiraLookupCacheSnapshots(cache, applicationPropertiesService, 10);
+
+        snapshots.save();
+        Files.delete(snapshots.getSnapshotFile().toPath());
+        snapshots.save();
+
+        assertThat(snapshots.getSnapshotFile()).doesNotExist();
+    }
+
+    @Test
+    public void testLoad_missingSnapshotIsIgnored() {
+        JiraLookupCache cache = new JiraLookupCache(100, 60, 10, clock);
+
+        new JiraLookupCacheSnapshots(cache, applicationPropertiesService, 10).load();
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testLoad_corruptSnapshotIsIgnored() throws IOException {
+        JiraLookupCache cache = new JiraLookupCache(100, 60, 10, clock);
+        JiraLookupCacheSnapshots snapshots = new JiraLookupCacheSnapshots(cache, applicationPropertiesService, 10);
+        Files.createDirectories(snapshots.getSnapshotFile().getParentFile().toPath());
+        Files.write(snapshots.getSnapshotFile().toPath(), "garbage".getBytes("UTF-8"));
+
+        snapshots.load();
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,150 @@
+package ut.com.isroot.stash.plugin.jira;
+
+import com.isroot.stash.plugin.jira.JiraLookupCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JiraLookupCacheTest {
+    private FakeClock clock;
+    private JiraLookupCache cache;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock();
+        cache = new JiraLookupCache(100, 60, 10, clock);
+    }
+
+    @Test
+    public void testIssueFound_rememberedPerLink() {
+        cache.issueFound("link1", "TEST-1");
+
+        assertThat(cache.isIssueKnown("link1", "TEST-1")).isTrue();
+        assertThat(cache.isIssueKnown("link2", "TEST-1")).isFalse();
+        assertThat(cache.isIssueKnown("link1", "TEST-2")).isFalse();
+    }
+
+    @Test
+    public void testIssueFound_expires() {
+        cache.issueFound("link1", "TEST-1");
+
+        clock.advance(59, TimeUnit.MINUTES);
+        assertThat(cache.isIssueKnown("link1", "TEST-1")).isTrue();
+
+        clock.advance(1, TimeUnit.MINUTES);
+        assertThat(cache.isIssueKnown("link1", "TEST-1")).isFalse();
+    }
+
+    @Test
+    public void testProjectChecked_missingProjectExpiresSooner() {
+        cache.projectChecked("link1", "TEST", true);
+        cache.projectChecked("link1", "UTF", false);
+
+        assertThat(cache.getProjectExists("link1", "TEST")).isTrue();
+        assertThat(cache.getProjectExists("link1", "UTF")).isFalse();
+        assertThat(cache.getProjectExists("link1", "OTHER")).isNull();
+
+        clock.advance(10, TimeUnit.MINUTES);
+        assertThat(cache.getProjectExists("link1", "TEST")).isTrue();
+        assertThat(cache.getProjectExists("link1", "UTF")).isNull();
+    }
+
+    @Test
+    public void testProjectChecked_createdProjectReplacesMissing() {
+        cache.projectChecked("link1", "TEST", false);
+        cache.projectChecked("link1", "TEST", true);
+
+        assertThat(cache.getProjectExists("link1", "TEST")).isTrue();
+    }
+
+    @Test
+    public void testSnapshot_roundTripKeepsRemainingTime() throws IOException {
+        cache.issueFound("link1", "TEST-1");
+        cache.issueFound("link2", "OTHER-1");
+        cache.projectChecked("link1", "TEST", true);
+        cache.projectChecked("link1", "UTF", false);
+        clock.advance(30, TimeUnit.MINUTES);
+        cache.issueFound("link1", "TEST-2");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(cache.writeSnapshot(out)).isEqualTo(4);
+
+        JiraLookupCache restored = new JiraLookupCache(100, 60, 10, clock);
+        assertThat(restored.readSnapshot(new ByteArrayInputStream(out.toByteArray()))).isEqualTo(4);
+
+        assertThat(restored.isIssueKnown("link1", "TEST-1")).isTrue();
+        assertThat(restored.isIssueKnown("link2", "OTHER-1")).isTrue();
+        assertThat(restored.getProjectExists("link1", "TEST")).isTrue();
+        assertThat(restored.getProjectExists("link1", "UTF")).isNull();
+
+        clock.advance(30, TimeUnit.MINUTES);
+        assertThat(restored.isIssueKnown("link1", "TEST-1")).isFalse();
+        assertThat(restored.isIssueKnown("link1", "TEST-2")).isTrue();
+    }
+
+    @Test
+    public void testReadSnapshot_expiredEntriesAreSkipped() throws IOException {
+        cache.issueFound("link1", "TEST-1");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.writeSnapshot(out);
+
+        clock.advance(2, TimeUnit.HOURS);
+        JiraLookupCache restored = new JiraLookupCache(100, 60, 10, clock);
+
+        assertThat(restored.readSnapshot(new ByteArrayInputStream(out.toByteArray()))).isEqualTo(0);
+        assertThat(restored.size()).isEqualTo(0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadSnapshot_rejectsOtherData() throws IOException {
+        cache.readSnapshot(new ByteArrayInputStream("not a snapshot".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testModificationCount_changesWhenLookupAdded() {
+        long before = cache.getModificationCount();
+
+        cache.issueFound("link1", "TEST-1");
+
+        assertThat(cache.getModificationCount()).isGreaterThan(before);
+    }
+
+    static class FakeClock extends Clock {
+        private long millis = 1500000000000L;
+
+        void advance(long duration, TimeUnit unit) {
+            millis += unit.toMillis(duration);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package ut.com.isroot.stash.plugin.jira;
+
+import com.google.common.base.Ticker;
+import com.isroot.stash.plugin.jira.JiraRequestLimiter;
+import com.isroot.stash.plugin.jira.RequestLimiterConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JiraRequestLimiterTest {
+    private FakeTicker ticker;
+
+    @Before
+    public void setup() {
+        ticker = new FakeTicker();
+    }
+
+    @Test
+    public void testTryAcquire_limitsConcurrentRequests() throws Exception {
+        JiraRequestLimiter limiter = limiter(new RequestLimiterConfig(2, 1, false, 1000, 0, 0));
+
+        assertThat(limiter.tryAcquire(0)).isTrue();
+        assertThat(limiter.tryAcquire(0)).isTrue();
+        assertThat(limiter.tryAcquire(0)).isFalse();
+        assertThat(limiter.getTimedOut()).isEqualTo(1);
+
+        limiter.release(10, false);
+
+        assertThat(limiter.tryAcquire(0)).isTrue();
+        assertThat(limiter.getInFlight()).isEqualTo(2);
+        assertThat(limiter.getAcquired()).isEqualTo(3);
+    }
+
+    @Test
+    public void testTryAcquire_disabledLimiterNeverWaits() throws Exception {
+        JiraRequestLimiter limiter = limiter(new RequestLimiterConfig(0, 1, false, 1000, 0, 0));
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(limiter.tryAcquire(0)).isTrue();
+        }
+    }
+
+    @Test
+    public void testTryAcquire_waitingRequestGetsReleasedTurn() throws Exception {
+        JiraRequestLimiter limiter = new JiraRequestLimiter("jira", new RequestLimiterConfig(1, 1, false, 1000, 0, 0),
+                Ticker.systemTicker());
+        assertThat(limiter.tryAcquire(0)).isTrue();
+
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.tryAcquire(10000);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        });
+
+        while (limiter.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        limiter.release(10, false);
+
+        assertThat(waiting.get(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(limiter.getWaited()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTryAcquire_rateLimited() throws Exception {
+        // Two requests per second, bursts of two
+        JiraRequestLimiter limiter = limiter(new RequestLimiterConfig(10, 1, false, 1000, 2, 0));
+
+        assertThat(acquireAndRelease(limiter)).isTrue();
+        assertThat(acquireAndRelease(limiter)).isTrue();
+        assertThat(acquireAndRelease(limiter)).isFalse();
+
+        ticker.advance(500);
+
+        assertThat(acquireAndRelease(limiter)).isTrue();
+        assertThat(acquireAndRelease(limiter)).isFalse();
+    }
+
+    @Test
+    public void testRelease_adaptiveLimitCutBySlowResponse() throws Exception {
+        JiraRequestLimiter limiter = limiter(new RequestLimiterConfig(8, 2, true, 1000, 0, 0));
+
+        limiter.tryAcquire(0);
+        limiter.release(1500, false);
+        assertThat(limiter.getLimit()).isEqualTo(6);
+
+        // Responses to requests sent before the cut don't cut it again
+        limiter.tryAcquire(0);
+        limiter.release(1500, false);
+        assertThat(limiter.getLimit()).isEqualTo(6);
+
+        ticker.advance(1000);
+        limiter.tryAcquire(0);
+        limiter.release(0, true);
+        assertThat(limiter.getLimit()).isEqualTo(4);
+        assertThat(limiter.getLimitDecreases()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRelease_adaptiveLimitNeverBelowMinimum() throws Exception {
+        JiraRequestLimiter limiter = limiter(new RequestLimiterConfig(4, 2, true, 1000, 0, 0));
+
+        for (int i = 0; i < 10; i++) {
+            ticker.advance(1000);
+            limiter.tryAcquire(0);
+            limiter.release(5000, false);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRelease_adaptiveLimitRecoversAdditively() throws Exception {
+        JiraRequestLimiter limiter = limiter(new RequestLimiterConfig(8, 2, true, 1000, 0, 0));
+        limiter.tryAcquire(0);
+        limiter.release(5000, false);
+        assertThat(limiter.getLimit()).isEqualTo(6);
+
+        // A limit's worth of fast responses raises the limit by one
+        for (int i = 0; i < 6; i++) {
+            limiter.tryAcquire(0);
+            limiter.release(10, false);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(6);
+
+        limiter.tryAcquire(0);
+        limiter.release(10, false);
+        assertThat(limiter.getLimit()).isEqualTo(7);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire(0);
+            limiter.release(10, false);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(8);
+    }
+
+    @Test
+    public void testReleaseUnmeasured_limitUnchanged() throws Exception {
+        JiraRequestLimiter limiter = limiter(new RequestLimiterConfig(1, 1, true, 1000, 0, 0));
+
+        assertThat(limiter.tryAcquire(0)).isTrue();
+        limiter.releaseUnmeasured();
+
+        assertThat(limiter.getLimit()).isEqualTo(1);
+        assertThat(limiter.tryAcquire(0)).isTrue();
+    }
+
+    private JiraRequestLimiter limiter(RequestLimiterConfig config) {
+        return new JiraRequestLimiter("jira", config, ticker);
+    }
+
+    private boolean acquireAndRelease(JiraRequestLimiter limiter) throws InterruptedException {
+        if (!limiter.tryAcquire(0)) {
+            return false;
+        }
+
+        limiter.release(10, false);
+        return true;
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ut.com.isroot.stash.plugin.jira;
+
+import com.isroot.stash.plugin.jira.LatencyTracker;
+import com.isroot.stash.plugin.jira.RetryConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyTrackerTest {
+    @Test
+    public void testGetPercentile_unknownUntilMinimumSamples() {
+        LatencyTracker tracker = new LatencyTracker(10, 3);
+
+        tracker.record(10);
+        tracker.record(20);
+        assertThat(tracker.getPercentile(95)).isEqualTo(-1);
+
+        tracker.record(30);
+        assertThat(tracker.getPercentile(95)).isEqualTo(30);
+    }
+
+    @Test
+    public void testGetPercentile() {
+        LatencyTracker tracker = new LatencyTracker(100, 1);
+
+        for (int i = 100; i > 0; i--) {
+            tracker.record(i);
+        }
+
+        assertThat(tracker.getPercentile(50)).isEqualTo(50);
+        assertThat(tracker.getPercentile(95)).isEqualTo(95);
+        assertThat(tracker.getPercentile(100)).isEqualTo(100);
+    }
+
+    @Test
+    public void testGetPercentile_onlyMostRecentSamplesKept() {
+        LatencyTracker tracker = new LatencyTracker(2, 1);
+
+        tracker.record(5000);
+        tracker.record(10);
+        tracker.record(20);
+
+        assertThat(tracker.getPercentile(100)).isEqualTo(20);
+    }
+
+    @Test
+    public void testRetryConfig_backoffDoublesUpToMaximum() {
+        RetryConfig config = new RetryConfig(5, 100, 300, false, 0);
+
+        assertThat(config.getBackoffMillis(1, 0.5)).isEqualTo(50);
+        assertThat(config.getBackoffMillis(2, 0.5)).isEqualTo(100);
+        assertThat(config.getBackoffMillis(3, 0.5)).isEqualTo(150);
+        assertThat(config.getBackoffMillis(30, 0.5)).isEqualTo(150);
+        assertThat(config.getBackoffMillis(1, 0)).isEqualTo(0);
+    }
+}
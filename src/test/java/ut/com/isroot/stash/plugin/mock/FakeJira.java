@@ -0,0 +1,164 @@
+package ut.com.isroot.stash.plugin.mock;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Answers JIRA searches from issues held in memory, for use with
+ * {@link MockApplicationLink#requestAnswers}. Understands the queries YACC sends:
+ * {@code issueKey='X'}, {@code issueKey in (...)}, {@code project = 'X'} and
+ * {@code project in (...) [and updated >= -Nm] order by key}, with startAt and maxResults.
+ * Anything else is answered with a 400, like JIRA does for queries it can't run.
+ */
+public class FakeJira implements Function<String, Object> {
+    private static final Pattern ISSUE_KEY = Pattern.compile("^issueKey='([^']+)'$");
+    private static final Pattern ISSUE_KEY_IN = Pattern.compile("^issueKey in \\(([^)]*)\\)$");
+    private static final Pattern PROJECT = Pattern.compile("^project = '([^']+)'$");
+    private static final Pattern PROJECT_IN = Pattern.compile(
+            "^project in \\(([^)]*)\\)(?: and updated >= -(\\d+)m)? order by key$");
+
+    private final Map<String, Issue> issues = new TreeMap<>();
+    private long now = System.currentTimeMillis();
+
+    public FakeJira addIssue(String key, String statusCategory) {
+        issues.put(key, new Issue(key, statusCategory, now));
+        return this;
+    }
+
+    public FakeJira removeIssue(String key) {
+        issues.remove(key);
+        return this;
+    }
+
+    /**
+     * Move the time of the fake forward. Issues added or updated afterwards have the new time.
+     */
+    public FakeJira advanceMinutes(long minutes) {
+        now += TimeUnit.MINUTES.toMillis(minutes);
+        return this;
+    }
+
+    @Override
+    public Object apply(String entity) {
+        JsonObject request = new Gson().fromJson(entity, JsonObject.class);
+        String jql = request.get("jql").getAsString();
+        int startAt = request.has("startAt") ? request.get("startAt").getAsInt() : 0;
+        int maxResults = request.has("maxResults") ? request.get("maxResults").getAsInt() : 50;
+
+        List<Issue> found = new ArrayList<>();
+
+        Matcher matcher;
+        if ((matcher = ISSUE_KEY.matcher(jql)).matches()) {
+            Issue issue = issues.get(matcher.group(1));
+            if (issue == null) {
+                return 400;
+            }
+            found.add(issue);
+        } else if ((matcher = ISSUE_KEY_IN.matcher(jql)).matches()) {
+            for (String key : unquote(matcher.group(1))) {
+                if (issues.containsKey(key)) {
+                    found.add(issues.get(key));
+                }
+            }
+        } else if ((matcher = PROJECT.matcher(jql)).matches()) {
+            if (!projects().contains(matcher.group(1))) {
+                return 400;
+            }
+            found.addAll(inProjects(unquote(matcher.group(1))));
+        } else if ((matcher = PROJECT_IN.matcher(jql)).matches()) {
+            Set<String> projectKeys = unquote(matcher.group(1));
+            if (!projects().containsAll(projectKeys)) {
+                return 400;
+            }
+
+            long since = matcher.group(2) == null ? Long.MIN_VALUE
+                    : now - TimeUnit.MINUTES.toMillis(Long.parseLong(matcher.group(2)));
+            found.addAll(inProjects(projectKeys).stream()
+                    .filter(issue -> issue.updated >= since)
+                    .collect(Collectors.toList()));
+        } else {
+            return 400;
+        }
+
+        return response(found, startAt, maxResults);
+    }
+
+    private Set<String> projects() {
+        return issues.keySet().stream().map(FakeJira::projectKey).collect(Collectors.toSet());
+    }
+
+    private List<Issue> inProjects(Set<String> projectKeys) {
+        return issues.values().stream()
+                .filter(issue -> projectKeys.contains(projectKey(issue.key)))
+                .collect(Collectors.toList());
+    }
+
+    private static String projectKey(String issueKey) {
+        return issueKey.substring(0, issueKey.indexOf('-'));
+    }
+
+    private static Set<String> unquote(String list) {
+        return new HashSet<>(Arrays.stream(list.split(","))
+                .map(key -> key.trim().replace("'", ""))
+                .collect(Collectors.toList()));
+    }
+
+    private static String response(List<Issue> found, int startAt, int maxResults) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+        List<Map<String, Object>> page = new ArrayList<>();
+        for (Issue issue : found.subList(Math.min(startAt, found.size()),
+                Math.min(startAt + maxResults, found.size()))) {
+            Map<String, Object> statusCategory = new LinkedHashMap<>();
+            statusCategory.put("key", issue.statusCategory);
+
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("statusCategory", statusCategory);
+
+            Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("status", status);
+            fields.put("updated", dateFormat.format(new Date(issue.updated)));
+
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("key", issue.key);
+            json.put("fields", fields);
+            page.add(json);
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("startAt", startAt);
+        response.put("maxResults", maxResults);
+        response.put("total", found.size());
+        response.put("issues", page);
+
+        return new Gson().toJson(response);
+    }
+
+    private static class Issue {
+        private final String key;
+        private final String statusCategory;
+        private final long updated;
+
+        private Issue(String key, String statusCategory, long updated) {
+            this.key = key;
+            this.statusCategory = statusCategory;
+            this.updated = updated;
+        }
+    }
+}
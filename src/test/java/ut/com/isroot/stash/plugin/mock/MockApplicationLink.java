@@ -11,12 +11,17 @@ import com.atlassian.sal.api.net.Request;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 
 /**
  * @author Sean Ford
  * @since 2016-02-14
  */
 public class MockApplicationLink implements ApplicationLink {
+    private final ApplicationId id = new ApplicationId(UUID.randomUUID().toString());
     private String name;
 
     public MockApplicationLink() {
@@ -71,6 +76,43 @@ public class MockApplicationLink implements ApplicationLink {
         };
     }
 
+    /**
+     * Create a link whose search responses depend on the request.
+     *
+     * @param responder given the JSON request entity, returns the response body or an Integer
+     *                  status code to fail with
+     * @param requests receives the JSON entity of every request sent
+     */
+    public static MockApplicationLink requestAnswers(Function<String, Object> responder, List<String> requests) {
+        MockApplicationLinkRequest request = new MockApplicationLinkRequest(responder, requests);
+
+        return new MockApplicationLink() {
+            @Override
+            public ApplicationLinkRequestFactory createAuthenticatedRequestFactory() {
+                return MockApplicationLinkRequestFactory.mockReturnResponse(Request.MethodType.POST,
+                        "/rest/api/2/search", request);
+            }
+        };
+    }
+
+    /**
+     * A link that needs user credentials, like an OAuth link: requests are answered while
+     * {@code authenticated} is true and throw {@link CredentialsRequiredException} otherwise.
+     */
+    public static MockApplicationLink requiresCredentials(BooleanSupplier authenticated,
+                                                          Function<String, Object> responder, List<String> requests) {
+        MockApplicationLink answers = requestAnswers(responder, requests);
+        MockApplicationLink throwsCredentialException = requestThrowsCredentialException();
+
+        return new MockApplicationLink() {
+            @Override
+            public ApplicationLinkRequestFactory createAuthenticatedRequestFactory() {
+                return authenticated.getAsBoolean() ? answers.createAuthenticatedRequestFactory()
+                        : throwsCredentialException.createAuthenticatedRequestFactory();
+            }
+        };
+    }
+
     public MockApplicationLink setName(String name) {
         this.name = name;
         return this;
@@ -78,7 +120,7 @@ public class MockApplicationLink implements ApplicationLink {
 
     @Override
     public ApplicationId getId() {
-        throw new UnsupportedOperationException();
+        return id;
     }
 
     @Override
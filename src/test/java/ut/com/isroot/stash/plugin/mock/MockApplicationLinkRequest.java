@@ -12,6 +12,7 @@ import com.atlassian.sal.api.net.auth.Authenticator;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * @author Sean Ford
@@ -20,15 +21,34 @@ import java.util.Map;
 class MockApplicationLinkRequest implements ApplicationLinkRequest {
     private final String response;
     private final Integer statusCode;
+    private final Function<String, Object> responder;
+    private final List<String> entities;
+    private String entity;
 
     public MockApplicationLinkRequest(String response) {
         this.response = response;
         this.statusCode = null;
+        this.responder = null;
+        this.entities = null;
     }
 
     public MockApplicationLinkRequest(int statusCode) {
         this.response = null;
         this.statusCode = statusCode;
+        this.responder = null;
+        this.entities = null;
+    }
+
+    /**
+     * @param responder given the request entity, returns the response body or an Integer status
+     *                  code to fail with
+     * @param entities receives the entity of every request executed
+     */
+    public MockApplicationLinkRequest(Function<String, Object> responder, List<String> entities) {
+        this.response = null;
+        this.statusCode = null;
+        this.responder = responder;
+        this.entities = entities;
     }
 
     @Override
@@ -38,12 +58,12 @@ class MockApplicationLinkRequest implements ApplicationLinkRequest {
 
     @Override
     public ApplicationLinkRequest setConnectionTimeout(int i) {
-        throw new UnsupportedOperationException();
+        return this;
     }
 
     @Override
     public ApplicationLinkRequest setSoTimeout(int i) {
-        throw new UnsupportedOperationException();
+        return this;
     }
 
     @Override
@@ -63,6 +83,7 @@ class MockApplicationLinkRequest implements ApplicationLinkRequest {
 
     @Override
     public ApplicationLinkRequest setEntity(Object o) {
+        entity = String.valueOf(o);
         return this;
     }
 
@@ -128,15 +149,33 @@ class MockApplicationLinkRequest implements ApplicationLinkRequest {
 
     @Override
     public String execute() throws ResponseException {
-        if(response != null) {
-            return response;
-        } else {
-            throw new ResponseStatusException("exception", new MockResponse(statusCode));
+        MockResponse mockResponse = respond();
+        if (!mockResponse.isSuccessful()) {
+            throw new ResponseStatusException("exception", mockResponse);
         }
+        return mockResponse.getResponseBodyAsString();
     }
 
     @Override
     public <RET> RET executeAndReturn(ReturningResponseHandler<Response, RET> returningResponseHandler) throws ResponseException {
-        throw new UnsupportedOperationException();
+        return returningResponseHandler.handle(respond());
+    }
+
+    private MockResponse respond() {
+        if (responder != null) {
+            entities.add(entity);
+
+            Object answer = responder.apply(entity);
+            if (answer instanceof Integer) {
+                return new MockResponse((Integer) answer);
+            }
+            return new MockResponse((String) answer);
+        }
+
+        if(response != null) {
+            return new MockResponse(response);
+        } else {
+            return new MockResponse(statusCode);
+        }
     }
 }
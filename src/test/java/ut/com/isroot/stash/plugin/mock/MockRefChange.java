@@ -33,7 +33,7 @@ public class MockRefChange implements RefChange {
             @Nonnull
             @Override
             public String getDisplayId() {
-                throw new UnsupportedOperationException();
+                return refId.replaceFirst("^refs/(heads|tags)/", "");
             }
 
             @Nonnull
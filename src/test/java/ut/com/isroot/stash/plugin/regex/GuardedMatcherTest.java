@@ -0,0 +1,63 @@
+package ut.com.isroot.stash.plugin.regex;
+
+import com.isroot.stash.plugin.regex.GuardedMatcher;
+import com.isroot.stash.plugin.regex.RegexBudget;
+import com.isroot.stash.plugin.regex.RegexBudgetExceededException;
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GuardedMatcherTest {
+    private static final Pattern BACKTRACKING = Pattern.compile("(.*a){25}");
+    private static final String BACKTRACKING_INPUT = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+
+    @Test
+    public void testMatcher_matchesAndGroupsWork() {
+        Matcher matcher = GuardedMatcher.matcher(Pattern.compile("([A-Z]+-\\d+): .*"), "ABC-123: fix bug",
+                new RegexBudget(1000, 1000));
+
+        assertThat(matcher.matches()).isTrue();
+        assertThat(matcher.group(1)).isEqualTo("ABC-123");
+    }
+
+    @Test
+    public void testMatcher_findWorks() {
+        Matcher matcher = GuardedMatcher.matcher(Pattern.compile("#skip"), "message #skip",
+                new RegexBudget(1000, 1000));
+
+        assertThat(matcher.find()).isTrue();
+    }
+
+    @Test(expected = RegexBudgetExceededException.class)
+    public void testMatcher_throwsIfStepBudgetIsExceeded() {
+        GuardedMatcher.matcher(BACKTRACKING, BACKTRACKING_INPUT, new RegexBudget(100000, 0)).matches();
+    }
+
+    @Test(expected = RegexBudgetExceededException.class)
+    public void testMatcher_throwsIfTimeBudgetIsExceeded() {
+        GuardedMatcher.matcher(BACKTRACKING, BACKTRACKING_INPUT, new RegexBudget(0, 50)).matches();
+    }
+
+    @Test
+    public void testMatcher_exceptionMessageContainsRegex() {
+        try {
+            GuardedMatcher.matcher(BACKTRACKING, BACKTRACKING_INPUT, new RegexBudget(100000, 0)).matches();
+        } catch (RegexBudgetExceededException e) {
+            assertThat(e.getRegex()).isEqualTo("(.*a){25}");
+            assertThat(e.getMessage()).startsWith("regex '(.*a){25}' was stopped because it took too long to match");
+            return;
+        }
+
+        throw new AssertionError("expected RegexBudgetExceededException");
+    }
+
+    @Test
+    public void testMatcher_unlimitedBudgetUsesPlainMatcher() {
+        Matcher matcher = GuardedMatcher.matcher(Pattern.compile("foo"), "foo", RegexBudget.unlimited());
+
+        assertThat(matcher.matches()).isTrue();
+    }
+}
@@ -0,0 +1,131 @@
+package ut.com.isroot.stash.plugin.regex;
+
+import com.google.common.base.Strings;
+import com.isroot.stash.plugin.regex.LinearRegex;
+import com.isroot.stash.plugin.regex.RegexParser;
+import org.junit.Test;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LinearRegexTest {
+    @Test
+    public void testMatches() {
+        LinearRegex regex = LinearRegex.compile("[A-Z]+-\\d+: .*", 0);
+
+        assertThat(regex.matches("ABC-123: fix bug")).isTrue();
+        assertThat(regex.matches("fix bug")).isFalse();
+        assertThat(regex.matches("x ABC-123: fix bug")).isFalse();
+    }
+
+    @Test
+    public void testFind() {
+        LinearRegex regex = LinearRegex.compile("#skip(checks)?", 0);
+
+        assertThat(regex.find("message #skipchecks")).isTrue();
+        assertThat(regex.find("message #skip")).isTrue();
+        assertThat(regex.find("message")).isFalse();
+    }
+
+    @Test
+    public void testMatchEntire_groupsAreCaptured() {
+        MatchResult result = LinearRegex.compile("(?:fixup! )?(([A-Z]+-\\d+[ ,]*)+): .*", 0)
+                .matchEntire("fixup! ABC-1, DEF-2: message");
+
+        assertThat(result).isNotNull();
+        assertThat(result.group(1)).isEqualTo("ABC-1, DEF-2");
+        assertThat(result.group(2)).isEqualTo("DEF-2");
+    }
+
+    @Test
+    public void testFindFirst_leftmostMatchIsReturned() {
+        MatchResult result = LinearRegex.compile("[A-Z]+-\\d+", 0).findFirst("see ABC-1 and DEF-2");
+
+        assertThat(result.group()).isEqualTo("ABC-1");
+        assertThat(result.start()).isEqualTo(4);
+    }
+
+    @Test
+    public void testMatchEntire_lazyQuantifier() {
+        MatchResult result = LinearRegex.compile("(.*?)(\\d*)", 0).matchEntire("abc123");
+
+        assertThat(result.group(1)).isEqualTo("abc");
+        assertThat(result.group(2)).isEqualTo("123");
+    }
+
+    @Test
+    public void testMatches_multilineAnchors() {
+        LinearRegex regex = LinearRegex.compile("^[A-Z]+-\\d+ .*$\\n^$\\n^.*", Pattern.MULTILINE);
+
+        assertThat(regex.matches("ABC-1 subject\n\nbody")).isTrue();
+        assertThat(regex.matches("ABC-1 subject\nbody")).isFalse();
+    }
+
+    @Test
+    public void testMatches_agreesWithJavaRegex() {
+        String[] regexes = {"(a|ab)(c|bcd)(d*)", "\\bfoo\\b.*", "(?i)abc-\\d{2,3}", "[^\\s]+@[a-z.]+",
+                "(x?)*y", "a{2,}?b", "$|^a", "a{2}{3}", "a+{0,2}", "a{2}?{3}b", "[A-Z]+-\\d{2}{2} .*"};
+        String[] inputs = {"", "abcd", "abcdd", "foo bar", "foobar", "ABC-12", "abc-1234", "me@example.com",
+                "xxy", "aaab", "a", "aa", "aaa", "aaaaaa", "ABC-12 fix", "ABC-1234 fix"};
+
+        for (String regex : regexes) {
+            LinearRegex linear = LinearRegex.compile(regex, 0);
+            Pattern pattern = Pattern.compile(regex);
+
+            for (String input : inputs) {
+                assertThat(linear.matches(input)).as(regex + " matches " + input)
+                        .isEqualTo(pattern.matcher(input).matches());
+                assertThat(linear.find(input)).as(regex + " find " + input)
+                        .isEqualTo(pattern.matcher(input).find());
+            }
+        }
+    }
+
+    @Test
+    public void testMatches_catastrophicRegexIsFast() {
+        LinearRegex regex = LinearRegex.compile("^(\\w+\\s?)*$", 0);
+
+        long start = System.nanoTime();
+        assertThat(regex.matches(Strings.repeat("a", 10000) + "!")).isFalse();
+        assertThat(System.nanoTime() - start).isLessThan(5000000000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompile_backReferenceIsNotSupported() {
+        LinearRegex.compile("(a)\\1", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompile_lookaheadIsNotSupported() {
+        LinearRegex.compile("(?!WIP).*", 0);
+    }
+
+    @Test
+    public void testExecute_stepByStep() {
+        String input = "ABC-1: fix";
+        LinearRegex.Execution execution = LinearRegex.compile("([A-Z]+-\\d+): .*", 0).execute(input, true);
+
+        for (int pos = 0; execution.step(pos, pos < input.length() ? input.charAt(pos) : -1, pos + 1); pos++) {
+            assertThat(execution.isDone()).isFalse();
+        }
+
+        assertThat(execution.isDone()).isTrue();
+        assertThat(execution.getResult().group(1)).isEqualTo("ABC-1");
+    }
+
+    @Test
+    public void testIsEquivalentToJava() {
+        assertThat(LinearRegex.isEquivalentToJava(RegexParser.parse("(.*a){25}", 0))).isTrue();
+        assertThat(LinearRegex.isEquivalentToJava(RegexParser.parse("(a|)*", 0))).isFalse();
+        assertThat(LinearRegex.isEquivalentToJava(RegexParser.parse("(a)\\1", 0))).isFalse();
+        assertThat(LinearRegex.isEquivalentToJava(RegexParser.parse("[A-Z]+-\\d{2}{2} .*", 0))).isTrue();
+    }
+
+    @Test
+    public void testIsGroupEquivalentToJava() {
+        assertThat(LinearRegex.isGroupEquivalentToJava(RegexParser.parse("(a+)(b)*", 0), 1)).isTrue();
+        assertThat(LinearRegex.isGroupEquivalentToJava(RegexParser.parse("(a+)(b)*", 0), 2)).isFalse();
+    }
+}
@@ -0,0 +1,69 @@
+package ut.com.isroot.stash.plugin.regex;
+
+import com.isroot.stash.plugin.regex.RegexCostAnalyzer;
+import com.isroot.stash.plugin.regex.RegexParser;
+import com.isroot.stash.plugin.regex.RegexRisk;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RegexCostAnalyzerTest {
+    @Test
+    public void testAnalyze_nestedQuantifier() {
+        List<RegexRisk> risks = analyze("^(\\w+\\s?)*$");
+
+        assertThat(risks).hasSize(1);
+        assertThat(risks.get(0).getKind()).isEqualTo(RegexRisk.Kind.NESTED_QUANTIFIER);
+        assertThat(risks.get(0).getDescription()).contains("'(\\w+\\s?)*'");
+        assertThat(risks.get(0).getAttackInput(3)).isEqualTo("000!");
+    }
+
+    @Test
+    public void testAnalyze_nestedQuantifierWithBoundedOuterRepeat() {
+        List<RegexRisk> risks = analyze("(.*a){25}");
+
+        assertThat(risks).hasSize(1);
+        assertThat(risks.get(0).getKind()).isEqualTo(RegexRisk.Kind.NESTED_QUANTIFIER);
+        assertThat(risks.get(0).getAttackInput(3)).isEqualTo("aaa\n");
+    }
+
+    @Test
+    public void testAnalyze_attackInputIncludesPrefix() {
+        List<RegexRisk> risks = analyze("ABC-\\d+: (a+)+$");
+
+        assertThat(risks).hasSize(1);
+        assertThat(risks.get(0).getAttackInput(3)).isEqualTo("ABC-0: aaa!");
+    }
+
+    @Test
+    public void testAnalyze_overlappingAlternation() {
+        List<RegexRisk> risks = analyze("(a|ab)*c");
+
+        assertThat(risks).hasSize(1);
+        assertThat(risks.get(0).getKind()).isEqualTo(RegexRisk.Kind.OVERLAPPING_ALTERNATION);
+    }
+
+    @Test
+    public void testAnalyze_adjacentQuantifiers() {
+        List<RegexRisk> risks = analyze("\\d+\\d+x");
+
+        assertThat(risks).hasSize(1);
+        assertThat(risks.get(0).getKind()).isEqualTo(RegexRisk.Kind.ADJACENT_QUANTIFIERS);
+    }
+
+    @Test
+    public void testAnalyze_disjointQuantifiersAreSafe() {
+        assertThat(analyze("[A-Z]+-\\d+: .*")).isEmpty();
+        assertThat(analyze("(feature|bugfix)/[a-z0-9-]+")).isEmpty();
+        assertThat(analyze("^Revert \"|#skipchecks")).isEmpty();
+        assertThat(analyze("([a-z]+\\.)*[a-z]+@example\\.com")).isEmpty();
+        assertThat(analyze("a+{0,2}b")).isEmpty();
+    }
+
+    private List<RegexRisk> analyze(String regex) {
+        return RegexCostAnalyzer.analyze(RegexParser.parse(regex, Pattern.MULTILINE));
+    }
+}
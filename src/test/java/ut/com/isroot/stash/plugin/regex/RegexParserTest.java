@@ -0,0 +1,109 @@
+package ut.com.isroot.stash.plugin.regex;
+
+import com.isroot.stash.plugin.regex.CharSet;
+import com.isroot.stash.plugin.regex.ParsedRegex;
+import com.isroot.stash.plugin.regex.RegexNode;
+import com.isroot.stash.plugin.regex.RegexParser;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RegexParserTest {
+    @Test
+    public void testParse_concatOfRepeats() {
+        ParsedRegex parsed = RegexParser.parse("[A-Z]+-\\d+", 0);
+
+        assertThat(parsed.isFullySupported()).isTrue();
+        assertThat(parsed.getRoot()).isInstanceOf(RegexNode.Concat.class);
+
+        RegexNode.Concat concat = (RegexNode.Concat) parsed.getRoot();
+        assertThat(concat.getChildren()).hasSize(3);
+
+        RegexNode.Repeat repeat = (RegexNode.Repeat) concat.getChildren().get(0);
+        assertThat(repeat.getMin()).isEqualTo(1);
+        assertThat(repeat.isUnbounded()).isTrue();
+        assertThat(repeat.getSource(parsed.getPattern())).isEqualTo("[A-Z]+");
+        assertThat(((RegexNode.Chars) repeat.getBody()).getChars()).isEqualTo(CharSet.range('A', 'Z'));
+    }
+
+    @Test
+    public void testParse_stackedQuantifierIsIgnoredLikeJava() {
+        ParsedRegex parsed = RegexParser.parse("a{2}{3}", 0);
+
+        RegexNode.Repeat repeat = (RegexNode.Repeat) parsed.getRoot();
+        assertThat(repeat.getMin()).isEqualTo(2);
+        assertThat(repeat.getMax()).isEqualTo(2);
+        assertThat(repeat.getBody()).isInstanceOf(RegexNode.Chars.class);
+
+        repeat = (RegexNode.Repeat) RegexParser.parse("a+{0,2}", 0).getRoot();
+        assertThat(repeat.getMin()).isEqualTo(1);
+        assertThat(repeat.isUnbounded()).isTrue();
+        assertThat(repeat.getBody()).isInstanceOf(RegexNode.Chars.class);
+    }
+
+    @Test
+    public void testParse_capturingGroupsAreCounted() {
+        ParsedRegex parsed = RegexParser.parse("(a)(?:b)(?<name>c)", 0);
+
+        assertThat(parsed.getGroupCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testParse_classIntersection() {
+        ParsedRegex parsed = RegexParser.parse("[a-z&&[^c]]", 0);
+
+        CharSet chars = ((RegexNode.Chars) parsed.getRoot()).getChars();
+        assertThat(chars.contains('b')).isTrue();
+        assertThat(chars.contains('c')).isFalse();
+        assertThat(chars.contains('d')).isTrue();
+    }
+
+    @Test
+    public void testParse_caseInsensitiveFlag() {
+        ParsedRegex parsed = RegexParser.parse("a", Pattern.CASE_INSENSITIVE);
+
+        CharSet chars = ((RegexNode.Chars) parsed.getRoot()).getChars();
+        assertThat(chars.contains('a')).isTrue();
+        assertThat(chars.contains('A')).isTrue();
+    }
+
+    @Test
+    public void testParse_dotExcludesLineTerminatorsUnlessDotAll() {
+        CharSet dot = ((RegexNode.Chars) RegexParser.parse(".", 0).getRoot()).getChars();
+        CharSet dotAll = ((RegexNode.Chars) RegexParser.parse("(?s).", 0).getRoot()).getChars();
+
+        assertThat(dot.contains('\n')).isFalse();
+        assertThat(dotAll.contains('\n')).isTrue();
+    }
+
+    @Test
+    public void testParse_backReferenceIsUnsupported() {
+        ParsedRegex parsed = RegexParser.parse("(a)\\1", 0);
+
+        assertThat(parsed.isFullySupported()).isFalse();
+        assertThat(parsed.getUnsupported()).hasSize(1);
+        assertThat(parsed.getUnsupported().get(0).getSource(parsed.getPattern())).isEqualTo("\\1");
+    }
+
+    @Test
+    public void testParse_lookaheadIsUnsupported() {
+        ParsedRegex parsed = RegexParser.parse("(?!WIP)[A-Z]+", 0);
+
+        assertThat(parsed.isFullySupported()).isFalse();
+    }
+
+    @Test
+    public void testParse_quotedTextIsLiteral() {
+        ParsedRegex parsed = RegexParser.parse("\\Q.*\\E", 0);
+
+        assertThat(parsed.isFullySupported()).isTrue();
+        assertThat(parsed.getRoot()).isInstanceOf(RegexNode.Concat.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParse_invalidRegexThrows() {
+        RegexParser.parse("(abc", 0);
+    }
+}
@@ -0,0 +1,176 @@
+package ut.com.isroot.stash.plugin.simulation;
+
+import com.atlassian.bitbucket.auth.AuthenticationContext;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.user.SimplePerson;
+import com.atlassian.bitbucket.user.UserType;
+import com.google.gson.Gson;
+import com.isroot.stash.plugin.IssueKey;
+import com.isroot.stash.plugin.JiraService;
+import com.isroot.stash.plugin.PushDeadline;
+import com.isroot.stash.plugin.YaccCommit;
+import com.isroot.stash.plugin.commits.CommitsService;
+import com.isroot.stash.plugin.errors.YaccError;
+import com.isroot.stash.plugin.simulation.PolicySimulator;
+import com.isroot.stash.plugin.simulation.SimulationResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PolicySimulatorTest {
+    @Mock private AuthenticationContext authenticationContext;
+    @Mock private CommitsService commitsService;
+    @Mock private JiraService jiraService;
+    @Mock private RepositoryService repositoryService;
+    @Mock private Repository repository;
+    @Mock private ApplicationUser user;
+    @Mock private Settings settings;
+
+    private PolicySimulator policySimulator;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+
+        when(authenticationContext.getCurrentUser()).thenReturn(user);
+        when(user.getType()).thenReturn(UserType.NORMAL);
+
+        policySimulator = new PolicySimulator(authenticationContext, commitsService, jiraService,
+                repositoryService, 1000, 20, 60000);
+    }
+
+    @Test
+    public void testSimulate_rejectedCommitsCounted() {
+        when(settings.getString("commitMessageRegex")).thenReturn("[A-Z]+-[0-9]+.*");
+        recentCommits(commit("c1", "ABC-1: ok"), commit("c2", "no issue key"), commit("c3", "ABC-2: ok"));
+
+        SimulationResult result = policySimulator.simulate(repository, settings, 100, 2);
+
+        assertThat(result.getRepositories()).isEqualTo(1);
+        assertThat(result.getCommits()).isEqualTo(3);
+        assertThat(result.getPushes()).isEqualTo(2);
+        assertThat(result.getRejectedCommits()).isEqualTo(1);
+        assertThat(result.getRejectedPushes()).isEqualTo(1);
+        assertThat(result.getViolations()).hasSize(1);
+        assertThat(result.getViolations().get(0)).startsWith("c2: ");
+        assertThat(result.getMaxPushMillis()).isGreaterThanOrEqualTo(result.getP50PushMillis());
+        assertThat(result.isTruncated()).isFalse();
+    }
+
+    @Test
+    public void testSimulate_jiraLookupsNotBatchedAsPushesDontBatchThem() {
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+        recentCommits(commit("c1", "ABC-1: one"), commit("c2", "ABC-2: two"));
+
+        SimulationResult result = policySimulator.simulate(repository, settings, 100, 2);
+
+        verify(jiraService).doesIssueExist(eq(new IssueKey("ABC-1")), any(PushDeadline.class));
+        verify(jiraService).doesIssueExist(eq(new IssueKey("ABC-2")), any(PushDeadline.class));
+        verify(jiraService, never()).checkIssues(any(), any(), any(PushDeadline.class));
+        assertThat(result.getRejectedCommits()).isEqualTo(0);
+        assertThat(result.getJiraLookups()).isEqualTo(2);
+        assertThat(result.getJiraIssueKeys()).isEqualTo(2);
+        assertThat(result.getJiraLookupsPerPush()).isEqualTo(2.0);
+    }
+
+    @Test
+    public void testSimulate_jiraLookupsBatchedAsForPushes() {
+        System.setProperty("yacc.jira.batchSize", "10");
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+        when(jiraService.checkIssues(any(), any(), any(PushDeadline.class))).then(invocation -> {
+            Map<IssueKey, List<YaccError>> verdicts = new HashMap<>();
+            for (Object issueKey : (Collection<?>) invocation.getArguments()[0]) {
+                verdicts.put((IssueKey) issueKey, new ArrayList<>());
+            }
+            return verdicts;
+        });
+        recentCommits(commit("c1", "ABC-1: one"), commit("c2", "ABC-2: two"));
+
+        SimulationResult result;
+        try {
+            result = policySimulator.simulate(repository, settings, 100, 2);
+        } finally {
+            System.clearProperty("yacc.jira.batchSize");
+        }
+
+        assertThat(result.getRejectedCommits()).isEqualTo(0);
+        assertThat(result.getJiraLookups()).isEqualTo(1);
+        assertThat(result.getJiraIssueKeys()).isEqualTo(2);
+        assertThat(result.getJiraLookupsPerPush()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testSimulate_costsLabelledAsReplayCosts() {
+        recentCommits(commit("c1", "ABC-1: one"));
+
+        SimulationResult result = policySimulator.simulate(repository, settings, 100, 1);
+
+        assertThat(result.getCostNote()).contains("not of real pushes");
+        assertThat(new Gson().toJsonTree(result).getAsJsonObject().get("costNote").getAsString())
+                .isEqualTo(result.getCostNote());
+    }
+
+    @Test
+    public void testSimulate_commitsLimited() {
+        policySimulator = new PolicySimulator(authenticationContext, commitsService, jiraService,
+                repositoryService, 10, 20, 60000);
+
+        policySimulator.simulate(repository, settings, 5000, 1);
+
+        verify(commitsService).streamRecentCommits(eq(repository), anyLong(), eq(10), any());
+    }
+
+    @Test
+    public void testSimulate_stopsWhenJiraLookupsUsedUp() {
+        policySimulator = new PolicySimulator(authenticationContext, commitsService, jiraService,
+                repositoryService, 1000, 20, 60000, 2);
+        when(settings.getBoolean("requireJiraIssue", false)).thenReturn(true);
+        when(jiraService.doesJiraApplicationLinkExist()).thenReturn(true);
+        recentCommits(commit("c1", "ABC-1: one"), commit("c2", "ABC-2: two"), commit("c3", "ABC-3: three"));
+
+        SimulationResult result = policySimulator.simulate(repository, settings, 100, 1);
+
+        verify(jiraService, never()).doesIssueExist(eq(new IssueKey("ABC-3")), any(PushDeadline.class));
+        assertThat(result.getCommits()).isEqualTo(2);
+        assertThat(result.getJiraLookups()).isEqualTo(2);
+        assertThat(result.isTruncated()).isTrue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void recentCommits(YaccCommit... commits) {
+        doAnswer(invocation -> {
+            Consumer<YaccCommit> consumer = (Consumer<YaccCommit>) invocation.getArguments()[3];
+            for (YaccCommit commit : commits) {
+                consumer.accept(commit);
+            }
+            return null;
+        }).when(commitsService).streamRecentCommits(any(Repository.class), anyLong(), anyInt(), any());
+    }
+
+    private static YaccCommit commit(String id, String message) {
+        return new YaccCommit(id, new SimplePerson("John Smith", "jsmith@example.com"), message, false);
+    }
+}